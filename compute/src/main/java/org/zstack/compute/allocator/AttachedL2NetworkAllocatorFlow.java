@@ -7,6 +7,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
+import org.zstack.header.allocator.HostAllocatorSpec;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.HostVO;
 import org.zstack.header.network.l2.L2NetworkClusterRefVO;
@@ -16,20 +17,24 @@ import org.zstack.utils.logging.CLogger;
 import javax.persistence.TypedQuery;
 import java.util.*;
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
-public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow {
+public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow implements IndexedHostAllocatorFlow,
+        ClusterScopedHostAllocatorFlow {
     private static final CLogger logger = Utils.getLogger(AttachedL2NetworkAllocatorFlow.class);
 
     @Autowired
     private DatabaseFacade dbf;
 
+    // clusters found for the spec by the snapshot, to not query them again in filter()
+    private Set<String> candidateClusterUuids;
+
     @Transactional(readOnly = true)
-    private List<HostVO> allocate(Collection<String> l3NetworkUuids, Collection<String> hostUuids) {
+    private Set<String> findClustersAttachedToAllL2Networks(Collection<String> l3NetworkUuids) {
         String sql = "select l3.l2NetworkUuid from L3NetworkVO l3 where l3.uuid in (:l3uuids)";
         TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
         q.setParameter("l3uuids", l3NetworkUuids);
         List<String> l2uuids = q.getResultList();
         if (l2uuids.isEmpty()) {
-            return new ArrayList<>();
+            return new HashSet<>();
         }
 
         sql = "select ref from L2NetworkClusterRefVO ref where ref.l2NetworkUuid in (:l2uuids)";
@@ -37,7 +42,7 @@ public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow {
         rq.setParameter("l2uuids", l2uuids);
         List<L2NetworkClusterRefVO> refs = rq.getResultList();
         if (refs.isEmpty()) {
-            return new ArrayList<>();
+            return new HashSet<>();
         }
 
         Map<String, Set<String>> l2ClusterMap = new HashMap<>();
@@ -57,10 +62,17 @@ public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow {
             }
         }
 
+        return clusterUuids;
+    }
+
+    @Transactional(readOnly = true)
+    private List<HostVO> allocate(Collection<String> l3NetworkUuids, Collection<String> hostUuids) {
+        Set<String> clusterUuids = findClustersAttachedToAllL2Networks(l3NetworkUuids);
         if (clusterUuids.isEmpty()) {
             return new ArrayList<>();
         }
 
+        String sql;
         if (hostUuids.isEmpty()) {
             sql = "select h from HostVO h where h.clusterUuid in (:cuuids)";
             TypedQuery<HostVO> hq = dbf.getEntityManager().createQuery(sql, HostVO.class);
@@ -87,6 +99,27 @@ public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow {
         }
     }
 
+    @Override
+    public Set<String> getCandidateClusterUuids(HostAllocatorSpec spec) {
+        if (spec.getL3NetworkUuids().isEmpty()) {
+            return null;
+        }
+
+        if (candidateClusterUuids == null) {
+            candidateClusterUuids = findClustersAttachedToAllL2Networks(spec.getL3NetworkUuids());
+        }
+        return candidateClusterUuids;
+    }
+
+    @Override
+    public HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates) {
+        if (spec.getL3NetworkUuids().isEmpty()) {
+            return CoreGlobalProperty.UNIT_TEST_ON || spec.isAllowNoL3Networks() ? candidates : null;
+        }
+
+        return candidates.retain(snapshot.getHostsInClusters(getCandidateClusterUuids(spec)));
+    }
+
     @Override
     public void allocate() {
         if (spec.getL3NetworkUuids().isEmpty()) {
@@ -12,7 +12,12 @@ import org.zstack.utils.function.Function;
 import java.util.List;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
-public class AvoidHostAllocatorFlow extends AbstractHostAllocatorFlow {
+public class AvoidHostAllocatorFlow extends AbstractHostAllocatorFlow implements IndexedHostAllocatorFlow {
+    @Override
+    public HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates) {
+        return candidates.exclude(snapshot.getHosts(spec.getAvoidHostUuids()));
+    }
+
     @Override
     public void allocate() {
         throwExceptionIfIAmTheFirstFlow();
@@ -11,6 +11,7 @@ import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
 import org.zstack.header.allocator.HostAllocatorError;
+import org.zstack.header.allocator.HostAllocatorSpec;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
@@ -30,7 +31,7 @@ import java.util.List;
  * Created by xing5 on 2016/8/17.
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
-public class BackupStorageSelectPrimaryStorageAllocatorFlow extends AbstractHostAllocatorFlow {
+public class BackupStorageSelectPrimaryStorageAllocatorFlow extends AbstractHostAllocatorFlow implements IndexedHostAllocatorFlow {
     private static final CLogger logger = Utils.getLogger(BackupStorageSelectPrimaryStorageAllocatorFlow.class);
 
     @Autowired
@@ -40,6 +41,11 @@ public class BackupStorageSelectPrimaryStorageAllocatorFlow extends AbstractHost
     @Autowired
     private ErrorFacade errf;
 
+    @Override
+    public HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates) {
+        return spec.getRequiredBackupStorageUuid() == null ? candidates : null;
+    }
+
     @Override
     public void allocate() {
         try {
@@ -0,0 +1,16 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.header.allocator.HostAllocatorSpec;
+
+import java.util.Set;
+
+/**
+ * implemented by indexed allocator flows that only leave hosts in some clusters, when such a flow is
+ * the first one, the HostAllocationSnapshot only loads the hosts in those clusters
+ */
+public interface ClusterScopedHostAllocatorFlow {
+    /**
+     * @return uuids of the clusters the candidates are in, or null if the flow doesn't limit the clusters for the spec
+     */
+    Set<String> getCandidateClusterUuids(HostAllocatorSpec spec);
+}
@@ -0,0 +1,178 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.core.db.SQL;
+import org.zstack.header.host.HostState;
+import org.zstack.header.host.HostStatus;
+import org.zstack.header.host.HostVO;
+
+import javax.persistence.Tuple;
+import java.util.*;
+
+/**
+ * a columnar snapshot of the hosts taken for one allocation.
+ *
+ * The attributes of all hosts are loaded in one query and kept as bitsets indexed by the position
+ * of the host, so the allocator flows implementing IndexedHostAllocatorFlow filter candidates by
+ * intersecting bitsets instead of querying the candidates one flow after another. HostVOs are
+ * only loaded for the flows evaluated by AbstractHostAllocatorFlow.allocate() and the result.
+ * When the clusters of the candidates are known before the flows run, only the hosts in them
+ * are loaded.
+ */
+public class HostAllocationSnapshot {
+    private final List<String> uuids = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final BitSet enabledAndConnected = new BitSet();
+    private final Map<String, BitSet> hypervisorTypes = new HashMap<>();
+    private final Map<String, BitSet> clusters = new HashMap<>();
+    private final Map<String, HostVO> hostVOs = new HashMap<>();
+
+    /**
+     * @param clusterUuids clusters of the hosts to load, or null to load all hosts
+     */
+    HostAllocationSnapshot(Collection<String> clusterUuids) {
+        List<Tuple> ts;
+        if (clusterUuids == null) {
+            ts = SQL.New("select h.uuid, h.clusterUuid, h.hypervisorType, h.state, h.status" +
+                    " from HostVO h", Tuple.class).list();
+        } else if (clusterUuids.isEmpty()) {
+            ts = new ArrayList<>();
+        } else {
+            ts = SQL.New("select h.uuid, h.clusterUuid, h.hypervisorType, h.state, h.status" +
+                    " from HostVO h where h.clusterUuid in (:cuuids)", Tuple.class)
+                    .param("cuuids", clusterUuids)
+                    .list();
+        }
+
+        for (Tuple t : ts) {
+            int p = add(t.get(0, String.class));
+            clusters.computeIfAbsent(t.get(1, String.class), k -> new BitSet()).set(p);
+            hypervisorTypes.computeIfAbsent(t.get(2, String.class), k -> new BitSet()).set(p);
+            if (t.get(3, HostState.class) == HostState.Enabled && t.get(4, HostStatus.class) == HostStatus.Connected) {
+                enabledAndConnected.set(p);
+            }
+        }
+    }
+
+    private int add(String hostUuid) {
+        Integer p = positions.get(hostUuid);
+        if (p == null) {
+            p = uuids.size();
+            uuids.add(hostUuid);
+            positions.put(hostUuid, p);
+        }
+        return p;
+    }
+
+    public int size() {
+        return uuids.size();
+    }
+
+    public String getHostUuid(int position) {
+        return uuids.get(position);
+    }
+
+    /**
+     * @return all hosts in the snapshot
+     */
+    public HostCandidates getAllHosts() {
+        int[] all = new int[uuids.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return new HostCandidates(this, all);
+    }
+
+    public BitSet getEnabledAndConnectedHosts() {
+        return (BitSet) enabledAndConnected.clone();
+    }
+
+    public BitSet getHostsByHypervisorType(String hypervisorType) {
+        BitSet bits = hypervisorTypes.get(hypervisorType);
+        return bits == null ? new BitSet() : (BitSet) bits.clone();
+    }
+
+    public BitSet getHostsInClusters(Collection<String> clusterUuids) {
+        BitSet ret = new BitSet();
+        for (String cuuid : clusterUuids) {
+            BitSet bits = clusters.get(cuuid);
+            if (bits != null) {
+                ret.or(bits);
+            }
+        }
+        return ret;
+    }
+
+    public BitSet getHosts(Collection<String> hostUuids) {
+        BitSet ret = new BitSet();
+        for (String huuid : hostUuids) {
+            Integer p = positions.get(huuid);
+            if (p != null) {
+                ret.set(p);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return number of VMs on every candidate indexed by the position of the host
+     */
+    public long[] countVms(HostCandidates candidates) {
+        long[] counts = new long[uuids.size()];
+        if (candidates.isEmpty()) {
+            return counts;
+        }
+
+        List<Tuple> ts = SQL.New("select vm.hostUuid, count(vm) from VmInstanceVO vm" +
+                " where vm.hostUuid in (:huuids) group by vm.hostUuid", Tuple.class)
+                .param("huuids", candidates.getHostUuids())
+                .list();
+        for (Tuple t : ts) {
+            counts[positions.get(t.get(0, String.class))] = t.get(1, Long.class);
+        }
+        return counts;
+    }
+
+    /**
+     * @return HostVOs of the candidates in the same order, the ones deleted after the snapshot are dropped
+     */
+    List<HostVO> toHostVOs(HostCandidates candidates) {
+        List<String> missing = new ArrayList<>();
+        for (String huuid : candidates.getHostUuids()) {
+            if (!hostVOs.containsKey(huuid)) {
+                missing.add(huuid);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<HostVO> vos = SQL.New("select h from HostVO h where h.uuid in (:huuids)", HostVO.class)
+                    .param("huuids", missing)
+                    .list();
+            for (HostVO vo : vos) {
+                hostVOs.put(vo.getUuid(), vo);
+            }
+        }
+
+        List<HostVO> ret = new ArrayList<>(candidates.size());
+        for (String huuid : candidates.getHostUuids()) {
+            HostVO vo = hostVOs.get(huuid);
+            if (vo != null) {
+                ret.add(vo);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return candidates of the HostVOs returned by a flow, in the same order
+     */
+    HostCandidates toCandidates(List<HostVO> vos) {
+        int[] ret = new int[vos.size()];
+        for (int i = 0; i < ret.length; i++) {
+            HostVO vo = vos.get(i);
+            // flows may return new instances, e.g. with the latest capacity
+            hostVOs.put(vo.getUuid(), vo);
+            ret[i] = add(vo.getUuid());
+        }
+        return new HostCandidates(this, ret);
+    }
+}
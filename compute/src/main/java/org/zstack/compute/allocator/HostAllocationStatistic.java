@@ -0,0 +1,30 @@
+package org.zstack.compute.allocator;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class HostAllocationStatistic {
+    private long indexedAllocationNum;
+    private long indexedFallbackNum;
+
+    @ConstructorProperties({"indexedAllocationNum", "indexedFallbackNum"})
+    public HostAllocationStatistic(long indexedAllocationNum, long indexedFallbackNum) {
+        this.indexedAllocationNum = indexedAllocationNum;
+        this.indexedFallbackNum = indexedFallbackNum;
+    }
+
+    /**
+     * @return allocations finished on the HostAllocationSnapshot
+     */
+    public long getIndexedAllocationNum() {
+        return indexedAllocationNum;
+    }
+
+    /**
+     * @return allocations started on the HostAllocationSnapshot and run again flow by flow
+     */
+    public long getIndexedFallbackNum() {
+        return indexedFallbackNum;
+    }
+}
@@ -3,10 +3,8 @@ package org.zstack.compute.allocator;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.componentloader.PluginRegistry;
-import org.zstack.core.config.GlobalConfigVO;
-import org.zstack.core.config.GlobalConfigVO_;
-import org.zstack.core.db.Q;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.allocator.*;
 import org.zstack.header.core.ReturnValueCompletion;
@@ -14,14 +12,15 @@ import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.host.HostInventory;
 import org.zstack.header.host.HostVO;
+import org.zstack.header.message.MessageReply;
 import org.zstack.header.vm.VmInstanceInventory;
 import org.zstack.utils.DebugUtils;
-import org.zstack.utils.SizeUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  */
@@ -48,12 +47,22 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
 
     private MarshalResultFunction marshalResultFunction;
 
+    // nanoseconds spent by every flow, in the order of the flows
+    private Map<String, Long> flowTimes = new LinkedHashMap<>();
+    private long flowStartTime;
+
     @Autowired
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
     @Autowired
     private HostCapacityOverProvisioningManager ratioMgr;
+    @Autowired
+    private HostCapacityLedger ledger;
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private HostAllocatorManagerImpl hostAllocatorMgr;
 
     public HostAllocatorSpec getAllocationSpec() {
         return allocationSpec;
@@ -80,8 +89,31 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
     }
 
     void reserveCapacity(final String hostUuid, final long requestCpu, final long requestMemory) {
+        if (!ledger.isEnabled() || ledger.isServing(hostUuid)) {
+            reserveCapacityOnThisNode(hostUuid, requestCpu, requestMemory);
+            return;
+        }
+
+        // the capacity of the host is kept by the management node managing it
+        ReserveHostCapacityMsg msg = new ReserveHostCapacityMsg();
+        msg.setHostUuid(hostUuid);
+        msg.setCpuCapacity(requestCpu);
+        msg.setMemoryCapacity(requestMemory);
+        bus.makeTargetServiceIdByResourceUuid(msg, HostAllocatorConstant.SERVICE_ID, hostUuid);
+        MessageReply reply = bus.call(msg);
+        if (!reply.isSuccess()) {
+            throw new UnableToReserveHostCapacityException(reply.getError().getDetails());
+        }
+    }
+
+    void reserveCapacityOnThisNode(final String hostUuid, final long requestCpu, final long requestMemory) {
+        if (ledger.isServing(hostUuid)) {
+            ledger.reserve(hostUuid, requestCpu, requestMemory);
+            return;
+        }
+
         HostCapacityUpdater updater = new HostCapacityUpdater(hostUuid);
-        String reservedMemoryOfGlobalConfig = Q.New(GlobalConfigVO.class).select(GlobalConfigVO_.value).eq(GlobalConfigVO_.name,"reservedMemory").findValue();
+        final long reservedMemoryOfGlobalConfig = ledger.getReservedMemoryOfGlobalConfig();
         updater.run(new HostCapacityUpdaterRunnable() {
             @Override
             public HostCapacityVO call(HostCapacityVO cap) {
@@ -94,7 +126,7 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
                 cap.setAvailableCpu(availCpu);
 
                 long availMemory = cap.getAvailableMemory() - ratioMgr.calculateMemoryByRatio(hostUuid, requestMemory);
-                if (availMemory - SizeUtils.sizeStringToBytes(reservedMemoryOfGlobalConfig) < 0) {
+                if (availMemory - reservedMemoryOfGlobalConfig < 0) {
                     throw new UnableToReserveHostCapacityException(
                             String.format("no enough memory[%s] on the host[uuid:%s]", requestMemory, hostUuid));
                 }
@@ -112,7 +144,19 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
         }
     }
 
+    private void recordFlowTime(AbstractHostAllocatorFlow flow) {
+        long time = System.nanoTime() - flowStartTime;
+        flowTimes.merge(flow.getClass().getSimpleName(), time, Long::sum);
+    }
+
     private void done() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : flowTimes.entrySet()) {
+            sb.append(String.format(" %s:%sms", e.getKey(), TimeUnit.NANOSECONDS.toMicros(e.getValue()) / 1000.0));
+        }
+        logger.debug(String.format("[Host Allocation]: time spent by flows for vm[uuid:%s]:%s",
+                allocationSpec.getVmInstance().getUuid(), sb.toString()));
+
         if (result == null) {
             if (isDryRun) {
                 if (HostAllocatorError.NO_AVAILABLE_HOST.toString().equals(errorCode.getCode())) {
@@ -185,12 +229,14 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
     private void runFlow(AbstractHostAllocatorFlow flow) {
         try {
             lastFlow = flow;
+            flowStartTime = System.nanoTime();
             flow.setCandidates(result);
             flow.setSpec(allocationSpec);
             flow.setTrigger(this);
             flow.setPaginationInfo(paginationInfo);
             flow.allocate();
         } catch (OperationFailureException ofe) {
+            recordFlowTime(flow);
             if (ofe.getErrorCode().getCode().equals(HostAllocatorConstant.PAGINATION_INTERMEDIATE_ERROR.getCode())) {
                 logger.debug(String.format("[Host Allocation]: intermediate failure; " +
                                 "because of pagination, will start over allocation again; " +
@@ -207,11 +253,123 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
         }
     }
 
+    /**
+     * runs the flows on a HostAllocationSnapshot, the flows implementing IndexedHostAllocatorFlow filter
+     * the candidates in memory, others are run by allocate() with candidates loaded from the database.
+     * If any flow fails or leaves no candidate, the allocation is run again flow by flow, for the errors
+     * the flows report.
+     */
+    private class IndexedAllocation implements HostAllocatorTrigger {
+        private final HostAllocationSnapshot snapshot;
+        private final Iterator<AbstractHostAllocatorFlow> flowIterator = flows.iterator();
+        private HostCandidates candidates;
+        private AbstractHostAllocatorFlow flow;
+        private boolean finished;
+
+        IndexedAllocation() {
+            AbstractHostAllocatorFlow first = flows.get(0);
+            snapshot = new HostAllocationSnapshot(first instanceof ClusterScopedHostAllocatorFlow ?
+                    ((ClusterScopedHostAllocatorFlow) first).getCandidateClusterUuids(allocationSpec) : null);
+            candidates = snapshot.getAllHosts();
+        }
+
+        private void fallback(String reason) {
+            logger.debug(String.format("[Host Allocation]: %s, allocate again flow by flow", reason));
+            hostAllocatorMgr.countIndexedFallback();
+            flowTimes.clear();
+            startFlowByFlow();
+        }
+
+        private boolean accept(HostCandidates ret) {
+            recordFlowTime(flow);
+            if (ret.isEmpty()) {
+                fallback(String.format("flow[%s] found no candidate host", flow.getClass().getName()));
+                return false;
+            }
+
+            candidates = ret;
+            logger.debug(String.format("[Host Allocation]: flow[%s] successfully found %s candidate hosts for vm[uuid:%s] in the snapshot",
+                    flow.getClass().getName(), candidates.size(), allocationSpec.getVmInstance().getUuid()));
+            return true;
+        }
+
+        void run() {
+            try {
+                while (flowIterator.hasNext()) {
+                    flow = flowIterator.next();
+                    flowStartTime = System.nanoTime();
+                    HostCandidates ret = flow instanceof IndexedHostAllocatorFlow ?
+                            ((IndexedHostAllocatorFlow) flow).filter(snapshot, allocationSpec, candidates) : null;
+                    if (ret == null) {
+                        flow.setCandidates(snapshot.toHostVOs(candidates));
+                        flow.setSpec(allocationSpec);
+                        flow.setTrigger(this);
+                        flow.setPaginationInfo(null);
+                        // continues in next() or skip()
+                        flow.allocate();
+                        return;
+                    }
+
+                    if (!accept(ret)) {
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (finished) {
+                    throw e;
+                }
+
+                fallback(String.format("flow[%s] failed, %s", flow.getClass().getName(),
+                        e instanceof OperationFailureException ? ((OperationFailureException) e).getErrorCode().getDetails() : e.getMessage()));
+                return;
+            }
+
+            List<HostVO> vos = snapshot.toHostVOs(candidates);
+            if (vos.isEmpty()) {
+                fallback("all candidate hosts are deleted after the snapshot");
+                return;
+            }
+
+            finished = true;
+            hostAllocatorMgr.countIndexedAllocation();
+            result = vos;
+            done();
+        }
+
+        @Override
+        public void next(List<HostVO> candidates) {
+            if (accept(snapshot.toCandidates(candidates))) {
+                run();
+            }
+        }
+
+        @Override
+        public void skip() {
+            recordFlowTime(flow);
+            run();
+        }
+
+        @Override
+        public int indexOfFlow(AbstractHostAllocatorFlow flow) {
+            return flows.indexOf(flow);
+        }
+    }
+
     private void start() {
         for (HostAllocatorPreStartExtensionPoint processor : pluginRgty.getExtensionList(HostAllocatorPreStartExtensionPoint.class)) {
             processor.beforeHostAllocatorStart(allocationSpec, flows);
         }
 
+        if (HostAllocatorGlobalConfig.INDEXED_FILTERING.value(Boolean.class) && !flows.isEmpty()
+                && flows.get(0) instanceof IndexedHostAllocatorFlow) {
+            new IndexedAllocation().run();
+            return;
+        }
+
+        startFlowByFlow();
+    }
+
+    private void startFlowByFlow() {
         if (HostAllocatorGlobalConfig.USE_PAGINATION.value(Boolean.class)) {
             paginationInfo = new HostAllocationPaginationInfo();
             paginationInfo.setLimit(HostAllocatorGlobalConfig.PAGINATION_LIMIT.value(Integer.class));
@@ -235,6 +393,7 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
 
     @Override
     public void next(List<HostVO> candidates) {
+        recordFlowTime(lastFlow);
         DebugUtils.Assert(candidates != null, "cannot pass null to next() method");
         DebugUtils.Assert(!candidates.isEmpty(), "cannot pass empty candidates to next() method");
         result = candidates;
@@ -260,6 +419,7 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
 
     @Override
     public void skip() {
+        recordFlowTime(lastFlow);
         logger.debug(String.format("[Host Allocation]: flow[%s] asks to skip itself, we are running to the next flow",
                 lastFlow.getClass()));
 
@@ -20,4 +20,14 @@ public class HostAllocatorGlobalConfig {
     public static GlobalConfig USE_PAGINATION = new GlobalConfig(CATEGORY, "usePagination");
     @GlobalConfigValidation
     public static GlobalConfig PAGINATION_LIMIT = new GlobalConfig(CATEGORY, "paginationLimit");
+    @GlobalConfigValidation
+    public static GlobalConfig INDEXED_FILTERING = new GlobalConfig(CATEGORY, "indexedFiltering");
+    @GlobalConfigValidation
+    public static GlobalConfig CAPACITY_LEDGER = new GlobalConfig(CATEGORY, "capacityLedger");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig CAPACITY_LEDGER_FLUSH_INTERVAL = new GlobalConfig(CATEGORY, "capacityLedger.flushInterval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig CAPACITY_LEDGER_RECONCILE_INTERVAL = new GlobalConfig(CATEGORY, "capacityLedger.reconcileInterval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig CAPACITY_LEDGER_TAKE_OVER_DELAY = new GlobalConfig(CATEGORY, "capacityLedger.takeOverDelay");
 }
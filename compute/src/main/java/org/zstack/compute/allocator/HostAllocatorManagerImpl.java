@@ -3,12 +3,15 @@ package org.zstack.compute.allocator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.SyncThread;
 import org.zstack.header.AbstractService;
 import org.zstack.header.allocator.*;
 import org.zstack.header.cluster.ReportHostCapacityMessage;
@@ -21,6 +24,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.*;
 import org.zstack.header.image.APIGetCandidateBackupStorageForCreatingImageMsg;
 import org.zstack.header.image.APIGetCandidateBackupStorageForCreatingImageReply;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.message.MessageReply;
@@ -45,15 +49,22 @@ import javax.persistence.TypedQuery;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.zstack.utils.CollectionDSL.list;
 
-public class HostAllocatorManagerImpl extends AbstractService implements HostAllocatorManager, VmAbnormalLifeCycleExtensionPoint {
+public class HostAllocatorManagerImpl extends AbstractService implements HostAllocatorManager, VmAbnormalLifeCycleExtensionPoint,
+        ManagementNodeChangeListener, HostAllocatorManagerMXBean {
     private static final CLogger logger = Utils.getLogger(HostAllocatorManagerImpl.class);
 
     private Map<String, HostAllocatorStrategyFactory> factories = Collections.synchronizedMap(new HashMap<String, HostAllocatorStrategyFactory>());
     private Map<String, List<String>> backupStoragePrimaryStorageMetrics;
     private Map<String, List<String>> primaryStorageBackupStorageMetrics = new HashMap<>();
+    // allocations finished on the snapshot, and those run again flow by flow
+    private final AtomicLong indexedAllocationCount = new AtomicLong();
+    private final AtomicLong indexedFallbackCount = new AtomicLong();
 
     @Autowired
     private CloudBus bus;
@@ -69,6 +80,23 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
     private HostCpuOverProvisioningManager cpuRatioMgr;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private HostCapacityLedger ledger;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    void countIndexedAllocation() {
+        indexedAllocationCount.incrementAndGet();
+    }
+
+    void countIndexedFallback() {
+        indexedFallbackCount.incrementAndGet();
+    }
+
+    @Override
+    public HostAllocationStatistic getHostAllocationStatistic() {
+        return new HostAllocationStatistic(indexedAllocationCount.get(), indexedFallbackCount.get());
+    }
 
     @Override
     @MessageSafe
@@ -87,6 +115,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
             handle((ReportHostCapacityMessage) msg);
         } else if (msg instanceof ReturnHostCapacityMsg) {
             handle((ReturnHostCapacityMsg) msg);
+        } else if (msg instanceof ReserveHostCapacityMsg) {
+            handle((ReserveHostCapacityMsg) msg);
         } else if (msg instanceof RecalculateHostCapacityMsg) {
             handle((RecalculateHostCapacityMsg) msg);
         } else {
@@ -147,6 +177,10 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
             hostUuids.addAll(q.listValue());
         }
 
+        recalculateHostCapacity(hostUuids);
+    }
+
+    private void recalculateHostCapacity(final List<String> hostUuids) {
         if (hostUuids.isEmpty()) {
             return;
         }
@@ -206,6 +240,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         });
 
         for (final HostUsedCpuMem s : hostUsedCpuMemList) {
+            ledger.invalidate(s.hostUuid);
             new HostCapacityUpdater(s.hostUuid).run(new HostCapacityUpdaterRunnable() {
                 @Override
                 public HostCapacityVO call(HostCapacityVO cap) {
@@ -232,11 +267,22 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
                     return cap;
                 }
             });
+            ledger.invalidate(s.hostUuid);
         }
     }
 
     private void handle(ReturnHostCapacityMsg msg) {
-        returnComputeResourceCapacity(msg.getHostUuid(), msg.getCpuCapacity(), msg.getMemoryCapacity());
+        returnCapacityOnThisNode(msg.getHostUuid(), msg.getCpuCapacity(), msg.getMemoryCapacity());
+    }
+
+    private void handle(ReserveHostCapacityMsg msg) {
+        MessageReply reply = new MessageReply();
+        try {
+            new HostAllocatorChain().reserveCapacityOnThisNode(msg.getHostUuid(), msg.getCpuCapacity(), msg.getMemoryCapacity());
+        } catch (UnableToReserveHostCapacityException e) {
+            reply.setError(operr(e.getMessage()));
+        }
+        bus.reply(msg, reply);
     }
 
     private void handle(ReportHostCapacityMessage msg) {
@@ -246,6 +292,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         long availCpu = totalCpu - msg.getUsedCpu();
         availCpu = availCpu > 0 ? availCpu : 0;
 
+        ledger.invalidate(msg.getHostUuid());
         HostCapacityVO vo = dbf.findByUuid(msg.getHostUuid(), HostCapacityVO.class);
         if (vo == null) {
             vo = new HostCapacityVO();
@@ -294,6 +341,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
             }
             dbf.update(vo);
         }
+        ledger.invalidate(msg.getHostUuid());
 
         bus.reply(msg, new MessageReply());
     }
@@ -489,6 +537,59 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         return true;
     }
 
+    @Override
+    @SyncThread
+    public void nodeJoin(String nodeId) {
+        if (!ledger.isEnabled()) {
+            return;
+        }
+
+        // some hosts are managed by the joining node now, it doesn't serve them before their changes are written
+        ledger.invalidateNotManaged();
+    }
+
+    @Override
+    @SyncThread
+    public void nodeLeft(String nodeId) {
+        if (!ledger.isEnabled()) {
+            return;
+        }
+
+        // the capacity changes of the hosts not flushed by the dead node are lost, the hosts taken over
+        // are not served by the ledger until their capacity is re-calculated from their VMs
+        List<String> hostUuids = Q.New(HostVO.class).select(HostVO_.uuid).listValues();
+        List<String> takenOver = hostUuids.stream()
+                .filter(huuid -> destMaker.isManagedByUs(huuid) && !ledger.isLoaded(huuid))
+                .collect(Collectors.toList());
+        if (takenOver.isEmpty()) {
+            return;
+        }
+
+        logger.debug(String.format("management node[uuid:%s] left, re-calculate the capacity of %s hosts taken over",
+                nodeId, takenOver.size()));
+        ledger.suspend(takenOver);
+        try {
+            recalculateHostCapacity(takenOver);
+        } finally {
+            ledger.resume(takenOver);
+        }
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+        if (!ledger.isEnabled()) {
+            return;
+        }
+
+        // the hosts taken over from other nodes are reserved in the database until those nodes
+        // have written their changes, see nodeJoin()
+        ledger.suspendAll(HostAllocatorGlobalConfig.CAPACITY_LEDGER_TAKE_OVER_DELAY.value(Long.class), TimeUnit.SECONDS);
+    }
+
     @Override
     public HostAllocatorStrategyFactory getHostAllocatorStrategyFactory(HostAllocatorStrategyType type) {
         HostAllocatorStrategyFactory factory = factories.get(type.toString());
@@ -501,6 +602,26 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
 
     @Override
     public void returnComputeResourceCapacity(final String hostUuid, final long cpu, final long memory) {
+        if (!ledger.isEnabled() || ledger.isServing(hostUuid)) {
+            returnCapacityOnThisNode(hostUuid, cpu, memory);
+            return;
+        }
+
+        // the capacity of the host is kept by the management node managing it
+        ReturnHostCapacityMsg msg = new ReturnHostCapacityMsg();
+        msg.setHostUuid(hostUuid);
+        msg.setCpuCapacity(cpu);
+        msg.setMemoryCapacity(memory);
+        bus.makeTargetServiceIdByResourceUuid(msg, HostAllocatorConstant.SERVICE_ID, hostUuid);
+        bus.send(msg);
+    }
+
+    private void returnCapacityOnThisNode(final String hostUuid, final long cpu, final long memory) {
+        if (ledger.isServing(hostUuid)) {
+            ledger.release(hostUuid, cpu, memory);
+            return;
+        }
+
         new HostCapacityUpdater(hostUuid).run(new HostCapacityUpdaterRunnable() {
             @Override
             public HostCapacityVO call(HostCapacityVO cap) {
@@ -595,7 +716,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
                 msg.setCpuCapacity(struct.getVmInstance().getCpuNum());
                 msg.setMemoryCapacity(struct.getVmInstance().getMemorySize());
                 msg.setHostUuid(hostUuid);
-                bus.makeLocalServiceId(msg, HostAllocatorConstant.SERVICE_ID);
+                bus.makeTargetServiceIdByResourceUuid(msg, HostAllocatorConstant.SERVICE_ID, hostUuid);
                 bus.send(msg);
             }
 
@@ -0,0 +1,7 @@
+package org.zstack.compute.allocator;
+
+/**
+ */
+public interface HostAllocatorManagerMXBean {
+    HostAllocationStatistic getHostAllocationStatistic();
+}
@@ -0,0 +1,69 @@
+package org.zstack.compute.allocator;
+
+import java.util.*;
+
+/**
+ * candidate hosts of an allocation, as positions of hosts in a HostAllocationSnapshot kept in
+ * the order to allocate. It's immutable, filtering and sorting return new candidates.
+ */
+public class HostCandidates {
+    private final HostAllocationSnapshot snapshot;
+    private final int[] positions;
+
+    HostCandidates(HostAllocationSnapshot snapshot, int[] positions) {
+        this.snapshot = snapshot;
+        this.positions = positions;
+    }
+
+    int[] getPositions() {
+        return positions;
+    }
+
+    public int size() {
+        return positions.length;
+    }
+
+    public boolean isEmpty() {
+        return positions.length == 0;
+    }
+
+    public BitSet toBitSet() {
+        BitSet bits = new BitSet();
+        for (int p : positions) {
+            bits.set(p);
+        }
+        return bits;
+    }
+
+    public List<String> getHostUuids() {
+        List<String> ret = new ArrayList<>(positions.length);
+        for (int p : positions) {
+            ret.add(snapshot.getHostUuid(p));
+        }
+        return ret;
+    }
+
+    /**
+     * @return the candidates in the hosts, in the same order
+     */
+    public HostCandidates retain(BitSet hosts) {
+        return new HostCandidates(snapshot, Arrays.stream(positions).filter(hosts::get).toArray());
+    }
+
+    /**
+     * @return the candidates not in the hosts, in the same order
+     */
+    public HostCandidates exclude(BitSet hosts) {
+        return new HostCandidates(snapshot, Arrays.stream(positions).filter(p -> !hosts.get(p)).toArray());
+    }
+
+    /**
+     * @param keys key of every host indexed by its position
+     * @return the candidates sorted by the keys ascending, the order of hosts with the same key is kept
+     */
+    public HostCandidates sortBy(long[] keys) {
+        Integer[] sorted = Arrays.stream(positions).boxed().toArray(Integer[]::new);
+        Arrays.sort(sorted, Comparator.comparingLong(p -> keys[p]));
+        return new HostCandidates(snapshot, Arrays.stream(sorted).mapToInt(Integer::intValue).toArray());
+    }
+}
@@ -13,6 +13,7 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
@@ -27,11 +28,21 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
     private HostCapacityOverProvisioningManager ratioMgr;
     @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
+    @Autowired
+    private HostCapacityLedger ledger;
 
     private List<HostVO> allocate(List<HostVO> vos, long cpu, long memory) {
+        // the capacity in the database may not have the latest reservations kept in memory
+        Map<String, HostCapacityLedger.Capacity> caps = ledger.getAll(
+                vos.stream().map(HostVO::getUuid).collect(Collectors.toList()));
         List<HostVO> ret = vos.stream()
-                .filter(hvo -> hvo.getCapacity().getAvailableCpu() >= cpu
-                        && ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), hvo.getCapacity().getAvailableMemory()) >= memory)
+                .filter(hvo -> {
+                    HostCapacityLedger.Capacity cap = caps.get(hvo.getUuid());
+                    long availableCpu = cap == null ? hvo.getCapacity().getAvailableCpu() : cap.getAvailableCpu();
+                    long availableMemory = cap == null ? hvo.getCapacity().getAvailableMemory() : cap.getAvailableMemory();
+                    return availableCpu >= cpu
+                            && ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), availableMemory) >= memory;
+                })
                 .collect(Collectors.toList());
 
         return ret;
@@ -0,0 +1,536 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigFacade;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.HostCapacityVO_;
+import org.zstack.header.allocator.UnableToReserveHostCapacityException;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.SizeUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Query;
+import java.text.DecimalFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * keeps the cpu and memory capacity of the hosts managed by this management node in memory.
+ *
+ * Capacity is reserved and returned by compare-and-set on an immutable snapshot of the host, instead of
+ * locking the row of HostCapacityVO; the changes are accumulated as deltas and added to HostCapacityVO
+ * by a periodic flush. Only the management node managing a host keeps it, reservations on other hosts
+ * are sent to the management nodes managing them. Snapshots are flushed then dropped to be reloaded from
+ * the database when the capacity is rewritten in the database, e.g. re-calculated or reported by the host,
+ * and periodically to reconcile with the changes not made through the ledger.
+ *
+ * The changes not flushed by a management node are lost when it dies, so the hosts taken over from a dead
+ * node are suspended, reserved in the database instead, until their capacity is re-calculated from their VMs.
+ * When a management node joins, the nodes managing its hosts before write the changes of them and drop them,
+ * the joining node suspends all hosts for capacityLedger.takeOverDelay seconds until that's done.
+ */
+public class HostCapacityLedger implements Component {
+    private static final CLogger logger = Utils.getLogger(HostCapacityLedger.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private GlobalConfigFacade gcf;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+
+    private final Map<String, AtomicReference<Capacity>> capacities = new ConcurrentHashMap<>();
+    // hosts taken over from dead management nodes, not served until re-calculated
+    private final Set<String> suspended = ConcurrentHashMap.newKeySet();
+    // all hosts are not served before the time, e.g. after this node joins
+    private volatile long suspendedUntil;
+    // serializes loading snapshots and dropping them, so a snapshot never misses the deltas of a dropped one
+    private final Object loadLock = new Object();
+    // serializes writing deltas; acquired after loadLock when both are needed
+    private final Object dbLock = new Object();
+    private Future<Void> flushTask;
+    private Future<Void> reconcileTask;
+
+    static class Capacity {
+        final long totalCpu;
+        final long availableCpu;
+        final long totalMemory;
+        final long availableMemory;
+        // changes not written to the database yet
+        final long cpuDelta;
+        final long memoryDelta;
+        // dropped from the ledger, must be reloaded
+        final boolean retired;
+
+        private Capacity(long totalCpu, long availableCpu, long totalMemory, long availableMemory,
+                         long cpuDelta, long memoryDelta, boolean retired) {
+            this.totalCpu = totalCpu;
+            this.availableCpu = availableCpu;
+            this.totalMemory = totalMemory;
+            this.availableMemory = availableMemory;
+            this.cpuDelta = cpuDelta;
+            this.memoryDelta = memoryDelta;
+            this.retired = retired;
+        }
+
+        private Capacity change(long cpu, long memory) {
+            return new Capacity(totalCpu, availableCpu + cpu, totalMemory, availableMemory + memory,
+                    cpuDelta + cpu, memoryDelta + memory, false);
+        }
+
+        private Capacity withDeltas(long cpu, long memory, boolean retired) {
+            return new Capacity(totalCpu, availableCpu, totalMemory, availableMemory, cpu, memory, retired);
+        }
+
+        private boolean isDirty() {
+            return cpuDelta != 0 || memoryDelta != 0;
+        }
+
+        long getAvailableCpu() {
+            return availableCpu;
+        }
+
+        long getAvailableMemory() {
+            return availableMemory;
+        }
+    }
+
+    boolean isEnabled() {
+        return HostAllocatorGlobalConfig.CAPACITY_LEDGER.value(Boolean.class);
+    }
+
+    /**
+     * @return whether reservations on the host are made in the ledger of this management node
+     */
+    boolean isServing(String hostUuid) {
+        return isEnabled() && System.currentTimeMillis() >= suspendedUntil
+                && destMaker.isManagedByUs(hostUuid) && !suspended.contains(hostUuid);
+    }
+
+    /**
+     * stops serving all hosts for a while, e.g. the hosts taken over from other nodes may have changes
+     * not written to the database yet
+     */
+    void suspendAll(long time, TimeUnit unit) {
+        suspendedUntil = System.currentTimeMillis() + unit.toMillis(time);
+    }
+
+    /**
+     * writes the changes of the hosts no longer managed by this management node to the database
+     * and drops them, e.g. after a management node joins
+     */
+    void invalidateNotManaged() {
+        for (String hostUuid : new ArrayList<>(capacities.keySet())) {
+            if (!destMaker.isManagedByUs(hostUuid)) {
+                invalidate(hostUuid);
+            }
+        }
+    }
+
+    boolean isLoaded(String hostUuid) {
+        return capacities.containsKey(hostUuid);
+    }
+
+    /**
+     * stops serving the hosts, e.g. while re-calculating their capacity, they are reserved in the database
+     */
+    void suspend(Collection<String> hostUuids) {
+        suspended.addAll(hostUuids);
+        for (String hostUuid : hostUuids) {
+            invalidate(hostUuid);
+        }
+    }
+
+    void resume(Collection<String> hostUuids) {
+        for (String hostUuid : hostUuids) {
+            // drops the snapshots loaded before suspended, if any
+            invalidate(hostUuid);
+        }
+        suspended.removeAll(hostUuids);
+    }
+
+    private AtomicReference<Capacity> load(String hostUuid) {
+        AtomicReference<Capacity> ref = capacities.get(hostUuid);
+        if (ref != null) {
+            return ref;
+        }
+
+        synchronized (loadLock) {
+            ref = capacities.get(hostUuid);
+            if (ref != null) {
+                return ref;
+            }
+
+            HostCapacityVO vo = dbf.findByUuid(hostUuid, HostCapacityVO.class);
+            if (vo == null) {
+                return null;
+            }
+
+            ref = new AtomicReference<>(new Capacity(vo.getTotalCpu(), vo.getAvailableCpu(),
+                    vo.getTotalMemory(), vo.getAvailableMemory(), 0, 0, false));
+            capacities.put(hostUuid, ref);
+            return ref;
+        }
+    }
+
+    /**
+     * @return the capacity of the host in the ledger, or null if the host is not served by this management node
+     */
+    Capacity get(String hostUuid) {
+        if (!isServing(hostUuid)) {
+            return null;
+        }
+
+        AtomicReference<Capacity> ref = load(hostUuid);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * loads the hosts not in the ledger in one query
+     *
+     * @return the capacities of the hosts served by this management node
+     */
+    Map<String, Capacity> getAll(Collection<String> hostUuids) {
+        Map<String, Capacity> ret = new HashMap<>();
+        if (!isEnabled()) {
+            return ret;
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (String hostUuid : hostUuids) {
+            if (!isServing(hostUuid)) {
+                continue;
+            }
+
+            AtomicReference<Capacity> ref = capacities.get(hostUuid);
+            if (ref != null) {
+                ret.put(hostUuid, ref.get());
+            } else {
+                missing.add(hostUuid);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return ret;
+        }
+
+        synchronized (loadLock) {
+            List<String> toLoad = new ArrayList<>();
+            for (String hostUuid : missing) {
+                AtomicReference<Capacity> ref = capacities.get(hostUuid);
+                if (ref != null) {
+                    ret.put(hostUuid, ref.get());
+                } else {
+                    toLoad.add(hostUuid);
+                }
+            }
+
+            if (toLoad.isEmpty()) {
+                return ret;
+            }
+
+            List<HostCapacityVO> vos = Q.New(HostCapacityVO.class).in(HostCapacityVO_.uuid, toLoad).list();
+            for (HostCapacityVO vo : vos) {
+                Capacity cap = new Capacity(vo.getTotalCpu(), vo.getAvailableCpu(),
+                        vo.getTotalMemory(), vo.getAvailableMemory(), 0, 0, false);
+                capacities.put(vo.getUuid(), new AtomicReference<>(cap));
+                ret.put(vo.getUuid(), cap);
+            }
+        }
+
+        return ret;
+    }
+
+    private interface CapacityChange {
+        Capacity call(Capacity cap);
+    }
+
+    private void change(String hostUuid, CapacityChange change) {
+        while (true) {
+            AtomicReference<Capacity> ref = load(hostUuid);
+            if (ref == null) {
+                logger.warn(String.format("[Host Capacity] unable to update capacity for the host[uuid:%s]." +
+                        " It may have been deleted, cannot find it in database", hostUuid));
+                return;
+            }
+
+            Capacity cap = ref.get();
+            if (cap.retired) {
+                continue;
+            }
+
+            if (ref.compareAndSet(cap, change.call(cap))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the memory reserved on every host by kvm.reservedMemory, or 0 if the config is not defined
+     */
+    long getReservedMemoryOfGlobalConfig() {
+        GlobalConfig c = gcf.getConfig("kvm", "reservedMemory");
+        return c == null ? 0 : SizeUtils.sizeStringToBytes(c.value());
+    }
+
+    void reserve(final String hostUuid, final long cpu, final long memory) {
+        final long requestMemory = ratioMgr.calculateMemoryByRatio(hostUuid, memory);
+        final long reservedMemory = getReservedMemoryOfGlobalConfig();
+        change(hostUuid, new CapacityChange() {
+            @Override
+            public Capacity call(Capacity cap) {
+                if (cap.availableCpu - cpu < 0) {
+                    throw new UnableToReserveHostCapacityException(
+                            String.format("no enough CPU[%s] on the host[uuid:%s]", cpu, hostUuid));
+                }
+
+                if (cap.availableMemory - requestMemory - reservedMemory < 0) {
+                    throw new UnableToReserveHostCapacityException(
+                            String.format("no enough memory[%s] on the host[uuid:%s]", memory, hostUuid));
+                }
+
+                return cap.change(-cpu, -requestMemory);
+            }
+        });
+    }
+
+    void release(final String hostUuid, final long cpu, final long memory) {
+        final long deltaMemory = ratioMgr.calculateMemoryByRatio(hostUuid, memory);
+        change(hostUuid, new CapacityChange() {
+            @Override
+            public Capacity call(Capacity cap) {
+                long availCpu = Math.min(cap.availableCpu + cpu, cap.totalCpu);
+
+                long availMemory = cap.availableMemory + deltaMemory;
+                if (availMemory > cap.totalMemory) {
+                    throw new CloudRuntimeException(
+                            String.format("invalid memory capacity of host[uuid:%s]," +
+                                            " available memory[%s] is greater than total memory[%s]." +
+                                            " Available Memory before is [%s], Delta Memory is [%s].",
+                                    hostUuid,
+                                    new DecimalFormat(",###").format(availMemory),
+                                    new DecimalFormat(",###").format(cap.totalMemory),
+                                    new DecimalFormat(",###").format(cap.availableMemory),
+                                    new DecimalFormat(",###").format(deltaMemory)
+                            )
+                    );
+                }
+
+                return cap.change(availCpu - cap.availableCpu, deltaMemory);
+            }
+        });
+    }
+
+    @Transactional
+    private void writeDeltas(Map<String, Capacity> deltas) {
+        String sql = "update HostCapacityVO cap set cap.availableCpu = cap.availableCpu + :cpu," +
+                " cap.availableMemory = cap.availableMemory + :memory where cap.uuid = :uuid";
+        // in the same order on every flush
+        for (Map.Entry<String, Capacity> e : new TreeMap<>(deltas).entrySet()) {
+            Query q = dbf.getEntityManager().createQuery(sql);
+            q.setParameter("cpu", e.getValue().cpuDelta);
+            q.setParameter("memory", e.getValue().memoryDelta);
+            q.setParameter("uuid", e.getKey());
+            q.executeUpdate();
+        }
+    }
+
+    /**
+     * writes the changes of all hosts in the ledger to the database
+     */
+    void flush() {
+        synchronized (dbLock) {
+            Map<String, Capacity> deltas = new HashMap<>();
+            for (Map.Entry<String, AtomicReference<Capacity>> e : capacities.entrySet()) {
+                AtomicReference<Capacity> ref = e.getValue();
+                Capacity cap = ref.get();
+                while (cap.isDirty() && !ref.compareAndSet(cap, cap.withDeltas(0, 0, false))) {
+                    cap = ref.get();
+                }
+
+                if (cap.isDirty()) {
+                    deltas.put(e.getKey(), cap);
+                }
+            }
+
+            if (deltas.isEmpty()) {
+                return;
+            }
+
+            try {
+                writeDeltas(deltas);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to write the capacity changes of %s hosts, will retry in the next flush",
+                        deltas.size()), t);
+
+                // snapshots are only dropped holding dbLock, all of them are still in the ledger
+                for (Map.Entry<String, Capacity> e : deltas.entrySet()) {
+                    AtomicReference<Capacity> ref = capacities.get(e.getKey());
+                    Capacity cap = ref.get();
+                    while (!ref.compareAndSet(cap, cap.withDeltas(cap.cpuDelta + e.getValue().cpuDelta,
+                            cap.memoryDelta + e.getValue().memoryDelta, false))) {
+                        cap = ref.get();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * writes the changes of the host to the database and drops it from the ledger, it's reloaded
+     * from the database on the next access. Call it before and after rewriting the capacity in the database.
+     */
+    void invalidate(String hostUuid) {
+        synchronized (loadLock) {
+            synchronized (dbLock) {
+                AtomicReference<Capacity> ref = capacities.remove(hostUuid);
+                if (ref == null) {
+                    return;
+                }
+
+                Capacity cap = ref.get();
+                while (!ref.compareAndSet(cap, cap.withDeltas(0, 0, true))) {
+                    cap = ref.get();
+                }
+
+                if (!cap.isDirty()) {
+                    return;
+                }
+
+                try {
+                    writeDeltas(Collections.singletonMap(hostUuid, cap));
+                } catch (Throwable t) {
+                    logger.warn(String.format("unable to write the capacity changes[cpu:%s, memory:%s] of the host[uuid:%s]," +
+                            " will retry in the next flush", cap.cpuDelta, cap.memoryDelta, hostUuid), t);
+
+                    // put back with the changes, no snapshot of the host is loaded while holding loadLock
+                    capacities.put(hostUuid, new AtomicReference<>(cap));
+                }
+            }
+        }
+    }
+
+    void invalidateAll() {
+        for (String hostUuid : new ArrayList<>(capacities.keySet())) {
+            invalidate(hostUuid);
+        }
+    }
+
+    private void startFlushTask() {
+        if (flushTask != null) {
+            flushTask.cancel(true);
+        }
+
+        final long interval = HostAllocatorGlobalConfig.CAPACITY_LEDGER_FLUSH_INTERVAL.value(Long.class);
+        flushTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return interval;
+            }
+
+            @Override
+            public String getName() {
+                return "host-capacity-ledger-flush";
+            }
+
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    private void startReconcileTask() {
+        if (reconcileTask != null) {
+            reconcileTask.cancel(true);
+        }
+
+        final long interval = HostAllocatorGlobalConfig.CAPACITY_LEDGER_RECONCILE_INTERVAL.value(Long.class);
+        reconcileTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return interval;
+            }
+
+            @Override
+            public String getName() {
+                return "host-capacity-ledger-reconcile";
+            }
+
+            @Override
+            public void run() {
+                // reloads the changes not made through the ledger, and drops the hosts no longer managed by us
+                invalidateAll();
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        HostAllocatorGlobalConfig.CAPACITY_LEDGER.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                if (!newConfig.value(Boolean.class)) {
+                    invalidateAll();
+                }
+            }
+        });
+        HostAllocatorGlobalConfig.CAPACITY_LEDGER_FLUSH_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startFlushTask();
+            }
+        });
+        HostAllocatorGlobalConfig.CAPACITY_LEDGER_RECONCILE_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startReconcileTask();
+            }
+        });
+
+        startFlushTask();
+        startReconcileTask();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (flushTask != null) {
+            flushTask.cancel(true);
+        }
+        if (reconcileTask != null) {
+            reconcileTask.cancel(true);
+        }
+
+        invalidateAll();
+        return true;
+    }
+}
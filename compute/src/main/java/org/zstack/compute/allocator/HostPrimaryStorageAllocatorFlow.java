@@ -8,6 +8,7 @@ import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.Q;
 import org.zstack.core.db.SQL;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
+import org.zstack.header.allocator.HostAllocatorSpec;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.HostVO;
 import org.zstack.header.storage.primary.*;
@@ -18,7 +19,7 @@ import javax.persistence.TypedQuery;
 import java.util.ArrayList;
 import java.util.List;
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
-public class HostPrimaryStorageAllocatorFlow extends AbstractHostAllocatorFlow {
+public class HostPrimaryStorageAllocatorFlow extends AbstractHostAllocatorFlow implements IndexedHostAllocatorFlow {
     @Autowired
     private DatabaseFacade dbf;
     @Autowired
@@ -158,6 +159,38 @@ public class HostPrimaryStorageAllocatorFlow extends AbstractHostAllocatorFlow {
         return hq.getResultList();
     }
 
+    @Transactional(readOnly = true)
+    private List<String> findClustersWithPrimaryStorage(String requiredPrimaryStorageUuid) {
+        String sql = "select pr.clusterUuid" +
+                " from PrimaryStorageClusterRefVO pr, PrimaryStorageVO pri, PrimaryStorageCapacityVO cap" +
+                " where pr.primaryStorageUuid = pri.uuid" +
+                " and pri.uuid = cap.uuid" +
+                " and (pri.state = :state or pri.state =:state1)" +
+                " and pri.status = :status";
+        if (requiredPrimaryStorageUuid != null) {
+            sql += " and pri.uuid = :psUuid";
+        }
+
+        TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
+        q.setParameter("state", PrimaryStorageState.Enabled);
+        q.setParameter("state1", PrimaryStorageState.Disabled);
+        q.setParameter("status", PrimaryStorageStatus.Connected);
+        if (requiredPrimaryStorageUuid != null) {
+            q.setParameter("psUuid", requiredPrimaryStorageUuid);
+        }
+        return q.getResultList();
+    }
+
+    @Override
+    public HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates) {
+        // the capacity of primary storage is checked by allocate() for new created vms
+        if (VmOperation.NewCreate.toString().equals(spec.getVmOperation())) {
+            return null;
+        }
+
+        return candidates.retain(snapshot.getHostsInClusters(findClustersWithPrimaryStorage(spec.getRequiredPrimaryStorageUuid())));
+    }
+
     @Override
     public void allocate() {
         if (amITheFirstFlow()) {
@@ -7,6 +7,7 @@ import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
+import org.zstack.header.allocator.HostAllocatorSpec;
 import org.zstack.header.host.HostState;
 import org.zstack.header.host.HostStatus;
 import org.zstack.header.host.HostVO;
@@ -15,10 +16,11 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
-public class HostStateAndHypervisorAllocatorFlow extends AbstractHostAllocatorFlow {
+public class HostStateAndHypervisorAllocatorFlow extends AbstractHostAllocatorFlow implements IndexedHostAllocatorFlow {
     private static final CLogger logger = Utils.getLogger(HostStateAndHypervisorAllocatorFlow.class);
 
     @Autowired
@@ -66,6 +68,16 @@ public class HostStateAndHypervisorAllocatorFlow extends AbstractHostAllocatorFl
         return !candidates.stream().anyMatch(vo -> hyType.equals(vo.getHypervisorType()));
     }
 
+    @Override
+    public HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates) {
+        BitSet hosts = snapshot.getEnabledAndConnectedHosts();
+        if (spec.getHypervisorType() != null) {
+            hosts.and(snapshot.getHostsByHypervisorType(spec.getHypervisorType()));
+        }
+
+        return candidates.retain(hosts);
+    }
+
     @Override
     public void allocate() {
         List<HostVO> ret;
@@ -30,7 +30,7 @@ import java.util.List;
 /**
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
-public class ImageBackupStorageAllocatorFlow extends AbstractHostAllocatorFlow {
+public class ImageBackupStorageAllocatorFlow extends AbstractHostAllocatorFlow implements IndexedHostAllocatorFlow {
     @Autowired
     private DatabaseFacade dbf;
     @Autowired
@@ -60,6 +60,11 @@ public class ImageBackupStorageAllocatorFlow extends AbstractHostAllocatorFlow {
         return count !=  psUuids.size();
     }
 
+    @Override
+    public HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates) {
+        return VmOperation.NewCreate.toString().equals(spec.getVmOperation()) ? null : candidates;
+    }
+
     @Override
     public void allocate() {
         if (!VmOperation.NewCreate.toString().equals(spec.getVmOperation())) {
@@ -0,0 +1,15 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.header.allocator.HostAllocatorSpec;
+
+/**
+ * implemented by allocator flows that can filter candidates by a HostAllocationSnapshot, so the
+ * chain evaluates them without loading candidates from the database
+ */
+public interface IndexedHostAllocatorFlow {
+    /**
+     * @return the candidates left in the order to allocate, or null if the flow cannot be evaluated by
+     * the snapshot for the spec, allocate() is then called with candidates loaded from the database
+     */
+    HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates);
+}
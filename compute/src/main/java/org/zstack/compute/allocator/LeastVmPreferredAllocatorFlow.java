@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
+import org.zstack.header.allocator.HostAllocatorSpec;
 import org.zstack.header.host.HostVO;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
@@ -18,7 +19,7 @@ import java.util.*;
  * This flow returns a list of host candidates sorted by the number of their VMs.
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
-public class LeastVmPreferredAllocatorFlow extends AbstractHostAllocatorFlow {
+public class LeastVmPreferredAllocatorFlow extends AbstractHostAllocatorFlow implements IndexedHostAllocatorFlow {
     private static final CLogger logger = Utils.getLogger(LeastVmPreferredAllocatorFlow.class);
     @Autowired
     private DatabaseFacade dbf;
@@ -35,6 +36,15 @@ public class LeastVmPreferredAllocatorFlow extends AbstractHostAllocatorFlow {
         return q.getResultList();
     }
 
+    @Override
+    public HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates) {
+        if (spec.isListAllHosts()) {
+            return candidates;
+        }
+
+        return candidates.sortBy(snapshot.countVms(candidates));
+    }
+
     @Override
     public void allocate() {
         throwExceptionIfIAmTheFirstFlow();
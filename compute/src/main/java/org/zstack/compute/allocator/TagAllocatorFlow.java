@@ -5,6 +5,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.errorcode.ErrorFacade;
@@ -25,11 +26,12 @@ import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
-public class TagAllocatorFlow extends AbstractHostAllocatorFlow {
+public class TagAllocatorFlow extends AbstractHostAllocatorFlow implements IndexedHostAllocatorFlow {
     private static final CLogger logger = Utils.getLogger(TagAllocatorFlow.class);
 
     @Autowired
@@ -45,6 +47,27 @@ public class TagAllocatorFlow extends AbstractHostAllocatorFlow {
         diskOfferingExtensions = pluginRgty.getExtensionList(DiskOfferingTagAllocatorExtensionPoint.class);
     }
 
+    @Override
+    public HostCandidates filter(HostAllocationSnapshot snapshot, HostAllocatorSpec spec, HostCandidates candidates) {
+        // the extensions filter HostVOs, they are called by allocate() if there are tags for them
+        if (!instanceOfferingExtensions.isEmpty() && Q.New(SystemTagVO.class)
+                .eq(SystemTagVO_.resourceType, VmInstanceVO.class.getSimpleName())
+                .eq(SystemTagVO_.resourceUuid, spec.getVmInstance().getUuid())
+                .isExists()) {
+            return null;
+        }
+
+        if (!diskOfferingExtensions.isEmpty() && spec.getDiskOfferings() != null && !spec.getDiskOfferings().isEmpty()
+                && Q.New(SystemTagVO.class)
+                .eq(SystemTagVO_.resourceType, DiskOfferingVO.class.getSimpleName())
+                .in(SystemTagVO_.resourceUuid, spec.getDiskOfferings().stream().map(DiskOfferingInventory::getUuid).collect(Collectors.toList()))
+                .isExists()) {
+            return null;
+        }
+
+        return candidates;
+    }
+
     @Override
     public void allocate() {
         throwExceptionIfIAmTheFirstFlow();
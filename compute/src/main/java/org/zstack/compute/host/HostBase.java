@@ -83,6 +83,14 @@ public abstract class HostBase extends AbstractHost {
 
     protected abstract void pingHook(Completion completion);
 
+    /**
+     * pings a host whose agent reports heartbeats, the agent needn't be called but the
+     * tasks run on every ping must still run; the same as pingHook() by default
+     */
+    protected void pingAliveHostHook(Completion completion) {
+        pingHook(completion);
+    }
+
     protected abstract int getVmMigrateQuantity();
 
     protected abstract void changeStateHook(HostState current, HostStateEvent stateEvent, HostState next);
@@ -572,7 +580,7 @@ public abstract class HostBase extends AbstractHost {
             return;
         }
 
-        pingHook(new Completion(msg) {
+        Completion completion = new Completion(msg) {
             @Override
             public void success() {
                 reply.setConnected(true);
@@ -602,7 +610,13 @@ public abstract class HostBase extends AbstractHost {
                 
                 bus.reply(msg, reply);
             }
-        });
+        };
+
+        if (msg.isAgentAlive()) {
+            pingAliveHostHook(completion);
+        } else {
+            pingHook(completion);
+        }
     }
 
     private void handle(final HostDeletionMsg msg) {
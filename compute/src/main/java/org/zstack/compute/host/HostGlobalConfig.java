@@ -21,6 +21,12 @@ public class HostGlobalConfig {
     @GlobalConfigValidation(numberGreaterThan = 0)
     public static GlobalConfig PING_HOST_INTERVAL = new GlobalConfig(CATEGORY, "ping.interval");
     @GlobalConfigValidation
+    public static GlobalConfig AGENT_HEARTBEAT = new GlobalConfig(CATEGORY, "ping.agentHeartbeat");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig AGENT_HEARTBEAT_INTERVAL = new GlobalConfig(CATEGORY, "ping.agentHeartbeatInterval");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig ALIVE_HOST_TASK_INTERVAL = new GlobalConfig(CATEGORY, "ping.aliveHostTaskInterval");
+    @GlobalConfigValidation
     public static GlobalConfig IGNORE_ERROR_ON_MAINTENANCE_MODE = new GlobalConfig(CATEGORY, "maintenanceMode.ignoreError");
     @GlobalConfigValidation(numberGreaterThan = 0, numberLessThan = Integer.MAX_VALUE)
     public static GlobalConfig HOST_CPU_OVER_PROVISIONING_RATIO = new GlobalConfig(CATEGORY, "cpu.overProvisioning.ratio");
@@ -9,7 +9,10 @@ import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.config.GlobalConfig;
 import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
 import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
@@ -20,7 +23,11 @@ import org.zstack.header.message.NeedReplyMessage;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.persistence.Tuple;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -33,6 +40,12 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private Set<String> hostInTracking = Collections.synchronizedSet(new HashSet<String>());
     private Future<Void> trackerThread = null;
     private final List<String> inReconnectingHost = Collections.synchronizedList(new ArrayList<String>());
+    // the last time the agents of connected hosts report heartbeats
+    private Map<String, Long> heartbeats = new ConcurrentHashMap<String, Long>();
+    // the last time the ping tasks of hosts with fresh heartbeats run
+    private Map<String, Long> aliveHostTaskTimes = new ConcurrentHashMap<String, Long>();
+    // the resolved management ips of connected hosts, for checking the senders of heartbeats
+    private Map<String, Set<InetAddress>> hostAddresses = new ConcurrentHashMap<String, Set<InetAddress>>();
 
     @Autowired
     private DatabaseFacade dbf;
@@ -42,6 +55,8 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private CloudBus bus;
     @Autowired
     private ThreadFacade thdf;
+    @Autowired
+    private EventFacade evtf;
 
     private class Tracker implements PeriodicTask {
         @Override
@@ -103,10 +118,31 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             }
         }
 
+        private boolean isHeartbeatFresh(String hostUuid) {
+            if (!HostGlobalConfig.AGENT_HEARTBEAT.value(Boolean.class)) {
+                return false;
+            }
+
+            Long last = heartbeats.get(hostUuid);
+            return last != null && System.currentTimeMillis() - last
+                    < TimeUnit.SECONDS.toMillis(HostGlobalConfig.AGENT_HEARTBEAT_INTERVAL.value(Long.class) * 3);
+        }
+
+        private boolean isAliveHostTaskDue(String hostUuid, long now) {
+            Long last = aliveHostTaskTimes.get(hostUuid);
+            if (last != null && now - last < TimeUnit.SECONDS.toMillis(HostGlobalConfig.ALIVE_HOST_TASK_INTERVAL.value(Long.class))) {
+                return false;
+            }
+
+            aliveHostTaskTimes.put(hostUuid, now);
+            return true;
+        }
+
         @Override
         public void run() {
             try {
                 List<PingHostMsg> msgs;
+                long now = System.currentTimeMillis();
                 synchronized (hostUuids) {
                     msgs = new ArrayList<PingHostMsg>();
                     for (String huuid : hostUuids) {
@@ -114,8 +150,15 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
                             continue;
                         }
 
+                        boolean alive = isHeartbeatFresh(huuid);
+                        if (alive && !isAliveHostTaskDue(huuid, now)) {
+                            continue;
+                        }
+
                         PingHostMsg msg = new PingHostMsg();
                         msg.setHostUuid(huuid);
+                        // the agent reports it's alive, only the ping tasks of the host run
+                        msg.setAgentAlive(alive);
                         bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, huuid);
                         msgs.add(msg);
                         hostInTracking.add(huuid);
@@ -141,6 +184,74 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         }
     }
 
+    private Set<InetAddress> resolve(String managementIp) {
+        try {
+            return new HashSet<InetAddress>(Arrays.asList(InetAddress.getAllByName(managementIp)));
+        } catch (UnknownHostException e) {
+            logger.warn(String.format("unable to resolve the management ip[%s] of a host, %s", managementIp, e.getMessage()));
+            return Collections.emptySet();
+        }
+    }
+
+    private void forgetHost(String hostUuid) {
+        heartbeats.remove(hostUuid);
+        aliveHostTaskTimes.remove(hostUuid);
+        hostAddresses.remove(hostUuid);
+    }
+
+    @Override
+    public void reportHeartbeat(Collection<String> huuids, String senderAddress) {
+        if (huuids == null || huuids.isEmpty() || !HostGlobalConfig.AGENT_HEARTBEAT.value(Boolean.class)) {
+            return;
+        }
+
+        InetAddress sender;
+        try {
+            sender = InetAddress.getByName(senderAddress);
+        } catch (UnknownHostException e) {
+            logger.warn(String.format("ignore the heartbeat from an unknown address[%s]", senderAddress));
+            return;
+        }
+
+        List<String> unknown = new ArrayList<String>();
+        for (String huuid : huuids) {
+            if (!hostAddresses.containsKey(huuid) && hostUuids.contains(huuid)) {
+                unknown.add(huuid);
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            // a disconnected host is still pinged to be reconnected, it's cached after connected
+            List<Tuple> connected = Q.New(HostVO.class).select(HostVO_.uuid, HostVO_.managementIp)
+                    .in(HostVO_.uuid, unknown).eq(HostVO_.status, HostStatus.Connected).listTuple();
+            for (Tuple t : connected) {
+                String huuid = t.get(0, String.class);
+                if (hostUuids.contains(huuid)) {
+                    hostAddresses.put(huuid, resolve(t.get(1, String.class)));
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (String huuid : huuids) {
+            Set<InetAddress> addresses = hostAddresses.get(huuid);
+            if (addresses == null) {
+                continue;
+            }
+
+            if (!addresses.contains(sender)) {
+                // only the agent of a host reports for it, a host reported by others is still pinged
+                logger.warn(String.format("ignore the heartbeat of the host[uuid:%s] reported from %s, which is not its management ip",
+                        huuid, senderAddress));
+                continue;
+            }
+
+            if (hostUuids.contains(huuid)) {
+                heartbeats.put(huuid, now);
+            }
+        }
+    }
+
     public void trackHost(String hostUuid) {
         synchronized (hostUuids) {
             if (!hostUuids.contains(hostUuid)) {
@@ -154,6 +265,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     public void untrackHost(String hostUuid) {
         synchronized (hostUuids) {
             hostUuids.remove(hostUuid);
+            forgetHost(hostUuid);
             logger.debug(String.format("stop tracking host[uuid:%s]", hostUuid));
         }
     }
@@ -175,6 +287,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         synchronized (hostUuids) {
             for (String huuid : huuids) {
                 hostUuids.remove(huuid);
+                forgetHost(huuid);
                 logger.debug(String.format("stop tracking host[uuid:%s]", huuid));
             }
         }
@@ -183,6 +296,9 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private void reScanHost() {
         synchronized (hostUuids) {
             hostUuids.clear();
+            heartbeats.clear();
+            aliveHostTaskTimes.clear();
+            hostAddresses.clear();
 
             long count = dbf.count(HostVO.class);
             int times = (int)count / 10000 + (count%10000 == 0 ? 0 : 1);
@@ -245,9 +361,21 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         });
     }
 
+    private void setupCanonicalEvents() {
+        evtf.on(HostCanonicalEvents.HOST_STATUS_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                HostCanonicalEvents.HostStatusChangedData d = (HostCanonicalEvents.HostStatusChangedData) data;
+                // heartbeats are accepted only for connected hosts, and the management ip may change on reconnecting
+                forgetHost(d.getHostUuid());
+            }
+        });
+    }
+
     @Override
     public boolean start() {
         setupTracker();
+        setupCanonicalEvents();
         return true;
     }
 
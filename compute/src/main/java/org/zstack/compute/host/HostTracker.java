@@ -12,4 +12,8 @@ public interface HostTracker {
     void trackHost(Collection<String> hostUuids);
 
     void untrackHost(Collection<String> hostUuids);
+
+    // the hosts are alive as their agents report, their agents are not pinged until the reports are stale;
+    // only the hosts whose management ip is the sender address are accepted
+    void reportHeartbeat(Collection<String> hostUuids, String senderAddress);
 }
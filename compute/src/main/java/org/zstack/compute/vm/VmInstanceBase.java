@@ -61,6 +61,7 @@ import org.zstack.header.vm.VmInstanceSpec.IsoSpec;
 import org.zstack.header.volume.*;
 import org.zstack.identity.AccountManager;
 import org.zstack.tag.SystemTagCreator;
+import org.zstack.tag.TagManager;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.ObjectUtils;
@@ -109,6 +110,8 @@ public class VmInstanceBase extends AbstractVmInstance {
     protected VmInstanceDeletionPolicyManager deletionPolicyMgr;
     @Autowired
     private HostAllocatorManager hostAllocatorMgr;
+    @Autowired
+    protected TagManager tagMgr;
 
     protected VmInstanceVO self;
     protected VmInstanceVO originalCopy;
@@ -4298,6 +4301,21 @@ public class VmInstanceBase extends AbstractVmInstance {
         spec.setL3Networks(L3NetworkInventory.valueOf(dbf.listByPrimaryKeys(l3Uuids, L3NetworkVO.class)));
 
         String huuid = inv.getHostUuid() == null ? inv.getLastHostUuid() : inv.getHostUuid();
+
+        // the flows of the operation read system tags of these resources many times
+        List<String> tagResourceUuids = new ArrayList<String>();
+        tagResourceUuids.add(inv.getUuid());
+        tagResourceUuids.addAll(l3Uuids);
+        for (VmNicInventory nic : inv.getVmNics()) {
+            tagResourceUuids.add(nic.getUuid());
+        }
+        for (VolumeInventory vol : inv.getAllVolumes()) {
+            tagResourceUuids.add(vol.getUuid());
+        }
+        tagResourceUuids.add(huuid);
+        tagResourceUuids.add(inv.getImageUuid());
+        tagMgr.prefetchSystemTags(tagResourceUuids);
+
         if (huuid != null) {
             HostVO hvo = dbf.findByUuid(huuid, HostVO.class);
             if (hvo != null) {
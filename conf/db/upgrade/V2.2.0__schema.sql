@@ -117,3 +117,15 @@ ALTER TABLE VolumeEO DROP FOREIGN KEY fkVolumeEOPrimaryStorageEO;
 
 UPDATE AliyunDiskVO SET diskType='data' WHERE diskType='DATA';
 UPDATE AliyunDiskVO SET diskType='system' WHERE diskType='SYSTEM';
+
+ALTER TABLE `ManagementNodeVO` ADD COLUMN `codecs` varchar(255) DEFAULT NULL;
+
+CREATE TABLE `LeaseLockVO` (
+    `name` varchar(255) NOT NULL,
+    `owner` varchar(32) DEFAULT NULL,
+    `managementNodeId` varchar(32) DEFAULT NULL,
+    `token` bigint unsigned NOT NULL DEFAULT 0,
+    `expireDate` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00',
+    PRIMARY KEY (`name`),
+    INDEX `idxLeaseLockVOManagementNodeId` (`managementNodeId`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -34,6 +34,20 @@ public class CoreGlobalProperty {
     public static int REST_FACADE_READ_TIMEOUT;
     @GlobalProperty(name = "RESTFacade.connectTimeout", defaultValue = "15000")
     public static int REST_FACADE_CONNECT_TIMEOUT;
+    @GlobalProperty(name = "RESTFacade.asyncHttpClient", defaultValue = "false")
+    public static boolean REST_FACADE_ASYNC_HTTP_CLIENT;
+    @GlobalProperty(name = "RESTFacade.asyncHttpMaxRequests", defaultValue = "1024")
+    public static int REST_FACADE_ASYNC_HTTP_MAX_REQUESTS;
+    @GlobalProperty(name = "RESTFacade.asyncHttpMaxRequestsPerHost", defaultValue = "32")
+    public static int REST_FACADE_ASYNC_HTTP_MAX_REQUESTS_PER_HOST;
+    @GlobalProperty(name = "RESTFacade.asyncHttpMaxIdleConnections", defaultValue = "512")
+    public static int REST_FACADE_ASYNC_HTTP_MAX_IDLE_CONNECTIONS;
+    @GlobalProperty(name = "RESTFacade.asyncHttpKeepAlive", defaultValue = "300")
+    public static int REST_FACADE_ASYNC_HTTP_KEEP_ALIVE;
+    @GlobalProperty(name = "RESTFacade.asyncHttpRetryTimes", defaultValue = "5")
+    public static int REST_FACADE_ASYNC_HTTP_RETRY_TIMES;
+    @GlobalProperty(name = "RESTFacade.asyncHttpRetryInterval", defaultValue = "1")
+    public static int REST_FACADE_ASYNC_HTTP_RETRY_INTERVAL;
     @GlobalProperty(name = "upgradeStartOn", defaultValue = "false")
     public static boolean IS_UPGRADE_START;
     @GlobalProperty(name = "shadowEntityOn", defaultValue = "false")
@@ -0,0 +1,581 @@
+package org.zstack.core.cloudbus;
+
+import com.google.gson.internal.UnsafeAllocator;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.GsonTransient;
+import org.zstack.header.message.Message;
+import org.zstack.utils.BeanUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * a compact binary codec for CloudBus.
+ *
+ * Objects are encoded as a class reference followed by their fields in a fixed order,
+ * without field names. Classes reachable from messages are put in a class table and
+ * referred by id; other classes are written by name once per message together with
+ * the hash of their field layout. The name of the codec carries the fingerprint of the
+ * class table, so two nodes only use this codec when they run the same class layouts.
+ *
+ * Values of classes this codec doesn't understand (neither JRE basic types and containers,
+ * nor org.zstack.* classes) are embedded as JSON.
+ */
+public class BinaryCloudBusCodec implements CloudBusCodec {
+    private static final CLogger logger = Utils.getLogger(BinaryCloudBusCodec.class);
+
+    public static final String TYPE = "binary";
+
+    private static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte SHORT = 5;
+    private static final byte BYTE = 6;
+    private static final byte CHAR = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte STRING = 10;
+    private static final byte ENUM = 11;
+    private static final byte DATE = 12;
+    private static final byte TIMESTAMP = 13;
+    private static final byte LIST = 14;
+    private static final byte SET = 15;
+    private static final byte MAP = 16;
+    private static final byte OBJECT = 17;
+    private static final byte JSON = 18;
+
+    private static final byte CLASS_IN_TABLE = 0;
+    private static final byte CLASS_DEFINED = 1;
+    private static final byte CLASS_NEW = 2;
+
+    private static class ClassPlan {
+        Class clazz;
+        Field[] fields;
+        String signature;
+        int layoutHash;
+        Constructor constructor;
+    }
+
+    private final Map<Class, ClassPlan> plans = new ConcurrentHashMap<>();
+    private final Map<Class, Boolean> objectClasses = new ConcurrentHashMap<>();
+    private final UnsafeAllocator allocator = UnsafeAllocator.create();
+
+    private Collection<Class> rootClasses;
+    private volatile Map<Class, Integer> classIds;
+    private List<Class> classTable;
+    private String name;
+
+    public BinaryCloudBusCodec() {
+    }
+
+    public BinaryCloudBusCodec(Collection<Class> rootClasses) {
+        this.rootClasses = rootClasses;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public String getName() {
+        prepare();
+        return name;
+    }
+
+    private boolean isObjectClass(Class clz) {
+        Boolean ret = objectClasses.get(clz);
+        if (ret != null) {
+            return ret;
+        }
+
+        ret = !clz.isPrimitive() && !clz.isArray() && !clz.isInterface() && !clz.isEnum()
+                && !Collection.class.isAssignableFrom(clz) && !Map.class.isAssignableFrom(clz);
+        // only org.zstack.* classes whose parents are all org.zstack.* classes are
+        // encoded field by field, the others are left to JSON
+        Class c = clz;
+        while (ret && c != Object.class) {
+            ret = c.getName().startsWith("org.zstack");
+            c = c.getSuperclass();
+        }
+
+        objectClasses.put(clz, ret);
+        return ret;
+    }
+
+    private ClassPlan getPlan(Class clz) {
+        ClassPlan plan = plans.get(clz);
+        if (plan != null) {
+            return plan;
+        }
+
+        plan = new ClassPlan();
+        plan.clazz = clz;
+        StringBuilder sb = new StringBuilder(clz.getName());
+        if (clz.isEnum()) {
+            plan.fields = new Field[0];
+            for (Object c : clz.getEnumConstants()) {
+                sb.append(",").append(((Enum) c).name());
+            }
+        } else {
+            List<Field> fields = new ArrayList<>();
+            Class c = clz;
+            while (c != null && c != Object.class) {
+                Field[] declared = c.getDeclaredFields();
+                Arrays.sort(declared, new Comparator<Field>() {
+                    @Override
+                    public int compare(Field o1, Field o2) {
+                        return o1.getName().compareTo(o2.getName());
+                    }
+                });
+
+                for (Field f : declared) {
+                    int mod = f.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic()
+                            || f.isAnnotationPresent(GsonTransient.class)) {
+                        continue;
+                    }
+
+                    f.setAccessible(true);
+                    fields.add(f);
+                    sb.append(";").append(f.getName()).append(":").append(f.getType().getName());
+                }
+
+                c = c.getSuperclass();
+            }
+
+            plan.fields = fields.toArray(new Field[fields.size()]);
+
+            try {
+                plan.constructor = clz.getDeclaredConstructor();
+                plan.constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                // like Gson, objects without a default constructor are allocated directly
+                plan.constructor = null;
+            }
+        }
+
+        plan.signature = sb.toString();
+        plan.layoutHash = plan.signature.hashCode();
+        plans.put(clz, plan);
+        return plan;
+    }
+
+    private void addGenericClasses(Type type, List<Class> todo) {
+        if (type instanceof Class) {
+            todo.add((Class) type);
+        } else if (type instanceof ParameterizedType) {
+            for (Type t : ((ParameterizedType) type).getActualTypeArguments()) {
+                addGenericClasses(t, todo);
+            }
+        }
+    }
+
+    private void prepare() {
+        // classIds is assigned last, once it's seen the class table and the name are ready,
+        // so encoding and decoding don't take the lock after the codec is prepared
+        if (classIds == null) {
+            buildClassTable();
+        }
+    }
+
+    private synchronized void buildClassTable() {
+        if (classIds != null) {
+            return;
+        }
+
+        Collection<Class> roots = rootClasses;
+        if (roots == null) {
+            roots = new ArrayList<>();
+            roots.addAll(BeanUtils.reflections.getSubTypesOf(Message.class));
+        }
+
+        Set<Class> closure = new HashSet<>();
+        LinkedList<Class> todo = new LinkedList<>(roots);
+        while (!todo.isEmpty()) {
+            Class clz = todo.poll();
+            if (closure.contains(clz)) {
+                continue;
+            }
+
+            if (clz.isEnum()) {
+                closure.add(clz);
+                continue;
+            }
+
+            if (!isObjectClass(clz)) {
+                continue;
+            }
+
+            closure.add(clz);
+            for (Field f : getPlan(clz).fields) {
+                addGenericClasses(f.getGenericType(), todo);
+            }
+        }
+
+        List<Class> table = new ArrayList<>(closure);
+        Collections.sort(table, new Comparator<Class>() {
+            @Override
+            public int compare(Class o1, Class o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+
+        CRC32 crc = new CRC32();
+        Map<Class, Integer> ids = new HashMap<>();
+        for (Class clz : table) {
+            ids.put(clz, ids.size());
+            crc.update(getPlan(clz).signature.getBytes(StandardCharsets.UTF_8));
+        }
+
+        classTable = table;
+        name = String.format("%s-%s", TYPE, Long.toHexString(crc.getValue()));
+        classIds = ids;
+
+        logger.debug(String.format("binary CloudBus codec[%s] is ready with %s classes in the class table", name, table.size()));
+    }
+
+    private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long ret = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.readByte();
+            ret |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return ret;
+            }
+            shift += 7;
+        }
+    }
+
+    private static void writeZigZag(DataOutputStream out, long v) throws IOException {
+        writeVarLong(out, (v << 1) ^ (v >> 63));
+    }
+
+    private static long readZigZag(DataInputStream in) throws IOException {
+        long v = readVarLong(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private class Writer {
+        DataOutputStream out;
+        Map<Class, Integer> defined = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeClass(Class clz) throws IOException {
+            Integer id = classIds.get(clz);
+            if (id != null) {
+                out.writeByte(CLASS_IN_TABLE);
+                writeVarLong(out, id);
+                return;
+            }
+
+            id = defined.get(clz);
+            if (id != null) {
+                out.writeByte(CLASS_DEFINED);
+                writeVarLong(out, id);
+                return;
+            }
+
+            defined.put(clz, defined.size());
+            out.writeByte(CLASS_NEW);
+            writeString(out, clz.getName());
+            out.writeInt(getPlan(clz).layoutHash);
+        }
+
+        void writeValue(Object v) throws IOException, IllegalAccessException {
+            if (v == null) {
+                out.writeByte(NULL);
+                return;
+            }
+
+            Class clz = v.getClass();
+            if (clz == String.class) {
+                out.writeByte(STRING);
+                writeString(out, (String) v);
+            } else if (clz == Boolean.class) {
+                out.writeByte((Boolean) v ? TRUE : FALSE);
+            } else if (clz == Integer.class) {
+                out.writeByte(INT);
+                writeZigZag(out, (Integer) v);
+            } else if (clz == Long.class) {
+                out.writeByte(LONG);
+                writeZigZag(out, (Long) v);
+            } else if (clz == Short.class) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) v);
+            } else if (clz == Byte.class) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) v);
+            } else if (clz == Character.class) {
+                out.writeByte(CHAR);
+                out.writeChar((Character) v);
+            } else if (clz == Float.class) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) v);
+            } else if (clz == Double.class) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) v);
+            } else if (v instanceof Enum) {
+                out.writeByte(ENUM);
+                writeClass(((Enum) v).getDeclaringClass());
+                writeString(out, ((Enum) v).name());
+            } else if (clz == Timestamp.class) {
+                out.writeByte(TIMESTAMP);
+                writeZigZag(out, ((Timestamp) v).getTime());
+                writeVarLong(out, ((Timestamp) v).getNanos());
+            } else if (clz == Date.class) {
+                out.writeByte(DATE);
+                writeZigZag(out, ((Date) v).getTime());
+            } else if (v instanceof Collection && clz.getName().startsWith("java.")) {
+                Collection c = (Collection) v;
+                out.writeByte(v instanceof Set ? SET : LIST);
+                writeVarLong(out, c.size());
+                for (Object o : c) {
+                    writeValue(o);
+                }
+            } else if (v instanceof Map && clz.getName().startsWith("java.")) {
+                Map<Object, Object> m = (Map) v;
+                out.writeByte(MAP);
+                writeVarLong(out, m.size());
+                for (Map.Entry e : m.entrySet()) {
+                    writeValue(e.getKey());
+                    writeValue(e.getValue());
+                }
+            } else if (isObjectClass(clz)) {
+                out.writeByte(OBJECT);
+                writeClass(clz);
+                for (Field f : getPlan(clz).fields) {
+                    writeValue(f.get(v));
+                }
+            } else {
+                out.writeByte(JSON);
+                writeString(out, clz.getName());
+                writeString(out, JSONObjectUtil.toJsonString(v));
+            }
+        }
+    }
+
+    private static boolean isUntyped(Type type) {
+        return type == null || type == Object.class || type == Number.class
+                || type instanceof TypeVariable || type instanceof WildcardType;
+    }
+
+    private static Class rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class) type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class) ((ParameterizedType) type).getRawType();
+        }
+
+        return null;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            return index < args.length ? args[index] : null;
+        }
+
+        return null;
+    }
+
+    private class Reader {
+        DataInputStream in;
+        List<ClassPlan> defined = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        ClassPlan readClass() throws IOException, ClassNotFoundException {
+            byte type = in.readByte();
+            if (type == CLASS_IN_TABLE) {
+                return getPlan(classTable.get((int) readVarLong(in)));
+            } else if (type == CLASS_DEFINED) {
+                return defined.get((int) readVarLong(in));
+            }
+
+            String className = readString(in);
+            int layoutHash = in.readInt();
+            ClassPlan plan = getPlan(Class.forName(className));
+            if (plan.layoutHash != layoutHash) {
+                throw new CloudRuntimeException(String.format("the fields of the class[%s] are different on the sender," +
+                        " the management nodes may run different versions", className));
+            }
+
+            defined.add(plan);
+            return plan;
+        }
+
+        Collection newCollection(Class declaredType, boolean set) throws Exception {
+            if (declaredType != null && Collection.class.isAssignableFrom(declaredType) && !declaredType.isInterface()
+                    && !Modifier.isAbstract(declaredType.getModifiers())) {
+                return (Collection) declaredType.newInstance();
+            }
+
+            return set ? new LinkedHashSet() : new ArrayList();
+        }
+
+        Map newMap(Class declaredType) throws Exception {
+            if (declaredType != null && Map.class.isAssignableFrom(declaredType) && !declaredType.isInterface()
+                    && !Modifier.isAbstract(declaredType.getModifiers())) {
+                return (Map) declaredType.newInstance();
+            }
+
+            return new LinkedHashMap();
+        }
+
+        Object readNumber(Number n, Type declaredType) {
+            // like Gson, a number whose declared type is unknown, e.g. a value of
+            // Map<String, Object>, is decoded as a Double
+            return isUntyped(declaredType) ? n.doubleValue() : n;
+        }
+
+        Object readValue(Type declaredType) throws Exception {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INT:
+                    return readNumber((int) readZigZag(in), declaredType);
+                case LONG:
+                    return readNumber(readZigZag(in), declaredType);
+                case SHORT:
+                    return readNumber(in.readShort(), declaredType);
+                case BYTE:
+                    return readNumber(in.readByte(), declaredType);
+                case CHAR:
+                    return in.readChar();
+                case FLOAT:
+                    return readNumber(in.readFloat(), declaredType);
+                case DOUBLE:
+                    return in.readDouble();
+                case STRING:
+                    return readString(in);
+                case ENUM:
+                    return Enum.valueOf(readClass().clazz, readString(in));
+                case TIMESTAMP: {
+                    Timestamp ts = new Timestamp(readZigZag(in));
+                    ts.setNanos((int) readVarLong(in));
+                    return ts;
+                }
+                case DATE:
+                    return new Date(readZigZag(in));
+                case LIST:
+                case SET: {
+                    int size = (int) readVarLong(in);
+                    Collection c = newCollection(rawClass(declaredType), tag == SET);
+                    Type elementType = typeArgument(declaredType, 0);
+                    for (int i = 0; i < size; i++) {
+                        c.add(readValue(elementType));
+                    }
+                    return c;
+                }
+                case MAP: {
+                    int size = (int) readVarLong(in);
+                    Map m = newMap(rawClass(declaredType));
+                    Type keyType = typeArgument(declaredType, 0);
+                    Type valueType = typeArgument(declaredType, 1);
+                    for (int i = 0; i < size; i++) {
+                        Object k = readValue(keyType);
+                        m.put(k, readValue(valueType));
+                    }
+                    return m;
+                }
+                case OBJECT: {
+                    ClassPlan plan = readClass();
+                    Object o = plan.constructor != null ? plan.constructor.newInstance() : allocator.newInstance(plan.clazz);
+                    for (Field f : plan.fields) {
+                        Object v = readValue(f.getGenericType());
+                        // like Gson, a null field keeps the value set by the constructor
+                        if (v != null) {
+                            f.set(o, v);
+                        }
+                    }
+                    return o;
+                }
+                case JSON: {
+                    Class clz = Class.forName(readString(in));
+                    return JSONObjectUtil.toObject(readString(in), clz);
+                }
+                default:
+                    throw new CloudRuntimeException(String.format("unknown value tag[%s] in binary message", tag));
+            }
+        }
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        prepare();
+
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeByte(VERSION);
+            new Writer(out).writeValue(msg);
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException | IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+        prepare();
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new CloudRuntimeException(String.format("unsupported binary message version[%s]", version));
+            }
+
+            return (Message) new Reader(in).readValue(Message.class);
+        } catch (CloudRuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.message.Message;
+
+/**
+ * encodes messages sent between management nodes. Every node understands the JSON wire,
+ * other codecs are only used when both ends advertise the same codec name in ManagementNodeVO
+ */
+public interface CloudBusCodec {
+    /**
+     * the type configured in CloudBus.codecs, e.g. binary
+     */
+    String getType();
+
+    /**
+     * the name advertised to other nodes; a codec whose format depends on the code
+     * (e.g. class layouts) must change the name when the format changes
+     */
+    String getName();
+
+    byte[] encode(Message msg);
+
+    Message decode(byte[] data);
+}
@@ -41,4 +41,18 @@ public class CloudBusGlobalProperty {
     public static int CHANNEL_POOL_SIZE;
     @GlobalProperty(name="CloudBus.messageTTL", defaultValue = "300")
     public static int MESSAGE_TTL;
+    @GlobalProperty(name="CloudBus.localDelivery", defaultValue = "false")
+    public static boolean LOCAL_DELIVERY;
+    @GlobalProperty(name="CloudBus.codecs", defaultValue = "json")
+    public static String CODECS;
+    @GlobalProperty(name="CloudBus.publisherNum", defaultValue = "0")
+    public static int PUBLISHER_NUM;
+    @GlobalProperty(name="CloudBus.publisherQueueSize", defaultValue = "1000")
+    public static int PUBLISHER_QUEUE_SIZE;
+    @GlobalProperty(name="CloudBus.publisherBatchSize", defaultValue = "64")
+    public static int PUBLISHER_BATCH_SIZE;
+    @GlobalProperty(name="CloudBus.publisherBatchLatency", defaultValue = "0")
+    public static int PUBLISHER_BATCH_LATENCY;
+    @GlobalProperty(name="CloudBus.publisherBackpressureTimeout", defaultValue = "60")
+    public static int PUBLISHER_BACKPRESSURE_TIMEOUT;
 }
@@ -10,6 +10,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.MessageCommandRecorder;
 import org.zstack.core.Platform;
 import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SQL;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.*;
@@ -27,6 +29,8 @@ import org.zstack.header.errorcode.SysErrors;
 import org.zstack.header.exception.CloudConfigureFailException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeVO;
+import org.zstack.header.managementnode.ManagementNodeVO_;
 import org.zstack.header.message.*;
 import org.zstack.header.search.APISearchMessage;
 import org.zstack.header.search.APISearchReply;
@@ -38,6 +42,7 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import javax.management.MXBean;
+import javax.persistence.Tuple;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.Field;
@@ -46,6 +51,9 @@ import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.zstack.core.Platform.argerr;
 import static org.zstack.utils.BeanUtils.getProperty;
@@ -83,6 +91,12 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
     private Map<String, Envelope> envelopes = new ConcurrentHashMap<String, Envelope>();
     private Map<String, EndPoint> endpoints = new ConcurrentHashMap<String, EndPoint>();
+    private Map<String, LocalEndPoint> localEndPoints = new ConcurrentHashMap<String, LocalEndPoint>();
+    // codecs other than JSON enabled by CloudBus.codecs, in preference order
+    private List<CloudBusCodec> codecs = new ArrayList<CloudBusCodec>();
+    private Map<String, CloudBusCodec> codecsByName = new HashMap<String, CloudBusCodec>();
+    // management node uuid -> the codec both nodes understand, JSON is used for nodes not in the map
+    private Map<String, CloudBusCodec> nodeCodecs = new ConcurrentHashMap<String, CloudBusCodec>();
     private AtomicBoolean stopped = new AtomicBoolean(false);
     private boolean trackerClose = false;
     private Map<String, MessageStatistic> statistics = new HashMap<String, MessageStatistic>();
@@ -108,6 +122,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     private final String TASK_CONTEXT = "task-context";
 
     private final String AMQP_PROPERTY_HEADER__COMPRESSED = "compressed";
+    private final String AMQP_PROPERTY_HEADER__CODEC = "codec";
 
     private String SERVICE_ID = makeLocalServiceId("cloudbus");
 
@@ -135,27 +150,235 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         return String.format("zstack.event.%s", queueName);
     }
 
+    private void negotiateCodec(String nodeUuid, String advertised) {
+        if (advertised != null) {
+            List<String> names = Arrays.asList(advertised.split(","));
+            for (CloudBusCodec codec : codecs) {
+                if (names.contains(codec.getName())) {
+                    nodeCodecs.put(nodeUuid, codec);
+                    logger.debug(String.format("use the codec[%s] for messages to the management node[uuid:%s]", codec.getName(), nodeUuid));
+                    return;
+                }
+            }
+        }
+
+        nodeCodecs.remove(nodeUuid);
+    }
+
     @Override
     public void nodeJoin(String nodeId) {
+        if (codecs.isEmpty()) {
+            return;
+        }
+
+        String advertised = Q.New(ManagementNodeVO.class).select(ManagementNodeVO_.codecs)
+                .eq(ManagementNodeVO_.uuid, nodeId).findValue();
+        negotiateCodec(nodeId, advertised);
     }
 
     @Override
     public void nodeLeft(String nodeId) {
+        nodeCodecs.remove(nodeId);
         tracker.managementNodeLeft(nodeId);
     }
 
     @Override
     public void iAmDead(String nodeId) {
+        nodeCodecs.remove(nodeId);
         tracker.managementNodeLeft(nodeId);
     }
 
     @Override
     public void iJoin(String nodeId) {
+        if (codecs.isEmpty()) {
+            return;
+        }
+
+        // advertise the codecs of this node, then check the codecs of the nodes already running;
+        // the nodes joining later will be checked in nodeJoin()
+        List<String> names = new ArrayList<String>();
+        for (CloudBusCodec codec : codecs) {
+            names.add(codec.getName());
+        }
+        SQL.New(ManagementNodeVO.class).eq(ManagementNodeVO_.uuid, nodeId)
+                .set(ManagementNodeVO_.codecs, StringUtils.join(names, ",")).update();
+
+        List<Tuple> ts = Q.New(ManagementNodeVO.class).select(ManagementNodeVO_.uuid, ManagementNodeVO_.codecs).listTuple();
+        for (Tuple t : ts) {
+            negotiateCodec(t.get(0, String.class), t.get(1, String.class));
+        }
     }
 
 
     private class ChannelPool {
         BlockingQueue<Channel> pool;
+        Publisher[] publishers = new Publisher[0];
+        AtomicLong rejected = new AtomicLong();
+        volatile boolean closed;
+
+        /**
+         * a publisher owns a channel and publishes the messages queued by senders, a sender only
+         * waits when the queue of the publisher is full. The publisher drains its queue in groups
+         * to save the handoffs between threads, but still publishes the messages of a group one by
+         * one. Messages with the same routing key always go to the same publisher so they are
+         * published in the order they are sent
+         */
+        class Publisher implements Runnable {
+            BlockingQueue<Wire.RecoverableSend> queue = new ArrayBlockingQueue<Wire.RecoverableSend>(CloudBusGlobalProperty.PUBLISHER_QUEUE_SIZE);
+            Channel chan;
+            Thread thread;
+            AtomicLong published = new AtomicLong();
+            AtomicLong batches = new AtomicLong();
+            volatile int maxBatchSize;
+
+            Publisher(int index, Channel chan) {
+                this.chan = chan;
+                thread = new Thread(this, String.format("zs-cloudbus-publisher-%s", index));
+                thread.setDaemon(true);
+            }
+
+            private List<Wire.RecoverableSend> takeBatch() throws InterruptedException {
+                List<Wire.RecoverableSend> batch = new ArrayList<Wire.RecoverableSend>();
+                batch.add(queue.take());
+
+                int batchSize = CloudBusGlobalProperty.PUBLISHER_BATCH_SIZE;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CloudBusGlobalProperty.PUBLISHER_BATCH_LATENCY);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+
+                    // nothing queued, wait for more messages until the latency bound of the batch
+                    long wait = deadline - System.nanoTime();
+                    Wire.RecoverableSend s = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (s == null) {
+                        break;
+                    }
+                    batch.add(s);
+                }
+
+                return batch;
+            }
+
+            @Override
+            public void run() {
+                while (!closed) {
+                    List<Wire.RecoverableSend> batch;
+                    try {
+                        batch = takeBatch();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+
+                    for (Wire.RecoverableSend s : batch) {
+                        s.chan = chan;
+                        publishInOrder(s);
+                    }
+
+                    published.addAndGet(batch.size());
+                    batches.incrementAndGet();
+                    if (batch.size() > maxBatchSize) {
+                        maxBatchSize = batch.size();
+                    }
+                }
+            }
+        }
+
+        /**
+         * a publish failed by a lost connection is retried by the publisher until the connection
+         * recovers, the publisher doesn't take other messages meanwhile so the messages after it
+         * are not published before it
+         */
+        private void publishInOrder(Wire.RecoverableSend s) {
+            while (true) {
+                try {
+                    s.publish();
+                    return;
+                } catch (ShutdownSignalException e) {
+                    if (closed || !s.isRecoverable() || s.retries >= CloudBusGlobalProperty.RABBITMQ_RECOVERABLE_SEND_TIMES) {
+                        publishFailure(s.msg, e);
+                        return;
+                    }
+
+                    if (s.retries == 0) {
+                        logger.warn(String.format("failed to publish the message[%s] because %s; as the connection is recoverable," +
+                                " retry it in %s seconds", s.msg.getClass().getName(), e.getMessage(), s.getRecoverInterval()));
+                        s.detectConnectionLoss();
+                    }
+
+                    s.retries ++;
+                    try {
+                        TimeUnit.SECONDS.sleep(s.getRecoverInterval());
+                    } catch (InterruptedException ie) {
+                        publishFailure(s.msg, new CloudRuntimeException("CloudBus is stopped"));
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                } catch (Throwable t) {
+                    publishFailure(s.msg, t);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * fails the one waiting on this node for the result of the message, a waiter on
+         * other nodes can only find the failure by its timeout
+         */
+        private void publishFailure(Message msg, Throwable t) {
+            logger.warn(String.format("failed to publish the message[%s] to %s", msg.getClass().getName(), msg.getServiceId()), t);
+
+            String err = String.format("unable to publish the message, %s", t.getMessage());
+            if (msg instanceof NeedReplyMessage || msg instanceof MessageReply) {
+                String waiting = msg instanceof MessageReply ? (String) msg.getHeaderEntry(CORRELATION_ID) : msg.getId();
+                Envelope e = waiting == null ? null : envelopes.get(waiting);
+                if (e != null) {
+                    MessageReply reply = new MessageReply();
+                    reply.setError(errf.instantiateErrorCode(SysErrors.OPERATION_ERROR, err));
+                    e.ack(reply);
+                }
+            } else if (msg instanceof APIEvent) {
+                APIEvent evt = new APIEvent(((APIEvent) msg).getApiId());
+                eventProperty(evt);
+                evt.setError(errf.instantiateErrorCode(SysErrors.OPERATION_ERROR, err));
+                maid.handle(evt);
+            }
+        }
+
+        boolean isPipelined() {
+            return publishers.length > 0;
+        }
+
+        void enqueue(Wire.RecoverableSend s) {
+            Publisher p = publishers[Math.abs(s.serviceId.hashCode() % publishers.length)];
+            try {
+                if (!p.queue.offer(s, CloudBusGlobalProperty.PUBLISHER_BACKPRESSURE_TIMEOUT, TimeUnit.SECONDS)) {
+                    rejected.incrementAndGet();
+                    throw new CloudRuntimeException(String.format("the publisher queue of CloudBus is still full after %s seconds," +
+                            " unable to send the message[%s]", CloudBusGlobalProperty.PUBLISHER_BACKPRESSURE_TIMEOUT, s.msg.getClass().getName()));
+                }
+            } catch (InterruptedException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
+        PublisherStatistic getStatistic() {
+            long published = 0;
+            long batches = 0;
+            int maxBatchSize = 0;
+            int queueDepth = 0;
+            int maxQueueDepth = 0;
+            for (Publisher p : publishers) {
+                published += p.published.get();
+                batches += p.batches.get();
+                maxBatchSize = Math.max(maxBatchSize, p.maxBatchSize);
+                queueDepth += p.queue.size();
+                maxQueueDepth = Math.max(maxQueueDepth, p.queue.size());
+            }
+
+            return new PublisherStatistic(publishers.length, queueDepth, maxQueueDepth, published, batches,
+                    batches == 0 ? 0 : (double) published / batches, maxBatchSize, rejected.get());
+        }
 
         @AsyncThread
         private void retry(Message msg) {
@@ -172,41 +395,55 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        ReturnListener returnListener = new ReturnListener() {
+            @Override
+            public void handleReturn(int i, String s, String s2, String s3, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
+                try {
+                    Message msg = wire.toMessage(bytes, basicProperties);
+                    if (msg instanceof NeedReplyMessage) {
+                        Envelope e = envelopes.get(msg.getId());
+                        if (e == null) {
+                            retry(msg);
+                            logger.warn(String.format("unable to deliver the message; the destination service[%s] is dead; please use rabbitmqctl to check if the queue is existing and if there is any consumers on that queue; message dump:\n%s",
+                                    msg.getServiceId(), wire.dumpMessage(msg)));
+                        } else {
+                            MessageReply reply = new MessageReply();
+                            reply.setError(errf.instantiateErrorCode(SysErrors.UNDELIVERABLE_ERROR,
+                                    String.format("unable to deliver the message; the destination service[%s] is dead; please use rabbitmqctl to check if the queue is existing and if any consumers on that queue", msg.getServiceId())));
+                            e.ack(reply);
+                        }
+                    } else {
+                        retry(msg);
+                        logger.warn(String.format("unable to deliver an event; please use rabbitmqctl to check if the queue is existing and if there is any consumers on that queue; message dump:\n%s",
+                                wire.dumpMessage(msg)));
+                    }
+                } catch (Throwable t) {
+                    logger.warn("unhandled throwable", t);
+                }
+            }
+        };
+
         ChannelPool(int size, Connection connection) {
             try {
                 pool = new ArrayBlockingQueue<Channel>(size);
                 for (int i = 0; i < size; i++) {
                     Channel chan = connection.createChannel();
                     pool.add(chan);
-                    chan.addReturnListener(new ReturnListener() {
-                        @Override
-                        public void handleReturn(int i, String s, String s2, String s3, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
-                            try {
-                                Message msg = wire.toMessage(bytes, basicProperties);
-                                if (msg instanceof NeedReplyMessage) {
-                                    Envelope e = envelopes.get(msg.getId());
-                                    if (e == null) {
-                                        retry(msg);
-                                        logger.warn(String.format("unable to deliver the message; the destination service[%s] is dead; please use rabbitmqctl to check if the queue is existing and if there is any consumers on that queue; message dump:\n%s",
-                                                msg.getServiceId(), wire.dumpMessage(msg)));
-                                    } else {
-                                        MessageReply reply = new MessageReply();
-                                        reply.setError(errf.instantiateErrorCode(SysErrors.UNDELIVERABLE_ERROR,
-                                                String.format("unable to deliver the message; the destination service[%s] is dead; please use rabbitmqctl to check if the queue is existing and if any consumers on that queue", msg.getServiceId())));
-                                        e.ack(reply);
-                                    }
-                                } else {
-                                    retry(msg);
-                                    logger.warn(String.format("unable to deliver an event; please use rabbitmqctl to check if the queue is existing and if there is any consumers on that queue; message dump:\n%s",
-                                            wire.dumpMessage(msg)));
-                                }
-                            } catch (Throwable t) {
-                                logger.warn("unhandled throwable", t);
-                            }
-                        }
-                    });
+                    chan.addReturnListener(returnListener);
                 }
                 logger.debug(String.format("created channel pool with size[%s]", CloudBusGlobalProperty.CHANNEL_POOL_SIZE));
+
+                publishers = new Publisher[CloudBusGlobalProperty.PUBLISHER_NUM];
+                for (int i = 0; i < publishers.length; i++) {
+                    Channel chan = connection.createChannel();
+                    chan.addReturnListener(returnListener);
+                    publishers[i] = new Publisher(i, chan);
+                    publishers[i].thread.start();
+                }
+                if (publishers.length > 0) {
+                    logger.debug(String.format("created %s CloudBus publishers draining at most %s messages at a time", publishers.length,
+                            CloudBusGlobalProperty.PUBLISHER_BATCH_SIZE));
+                }
             } catch (Exception e) {
                 throw new CloudRuntimeException(e);
             }
@@ -227,6 +464,16 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         }
 
         void destruct() throws IOException {
+            closed = true;
+            for (Publisher p : publishers) {
+                p.thread.interrupt();
+                try {
+                    p.chan.close();
+                } catch (IOException e) {
+                    p.chan.abort();
+                }
+            }
+
             for (Channel chan : pool) {
                 try {
                     chan.close();
@@ -339,7 +586,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
     private NoRouteEndPoint noRouteEndPoint = new NoRouteEndPoint();
 
-    private Consumer consumer = new AbstractConsumer() {
+    private class OutboundConsumer extends AbstractConsumer implements LocalEndPoint {
         @AsyncThread
         @MessageSafe
         private void handle(Message msg) {
@@ -366,6 +613,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        @Override
+        public void deliver(Message msg) {
+            handle(msg);
+        }
+
         @Override
         public void handleDelivery(String s, com.rabbitmq.client.Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
             try {
@@ -376,11 +628,14 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 logger.warn("unhandled throwable", t);
             }
         }
-    };
+    }
+
+    private OutboundConsumer consumer = new OutboundConsumer();
 
 
     private class Wire implements GsonTypeCoder<Message> {
         private List<String> filterMsgNames = new ArrayList<String>();
+        private final Pattern INDEXED_PATH = Pattern.compile("(.*)\\[(\\d+)]");
 
         {
             if (CloudBusGlobalProperty.MESSAGE_LOG != null) {
@@ -411,21 +666,34 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             String serviceId;
             Message msg;
             BusExchange exchange;
+            AMQP.BasicProperties props;
 
-            RecoverableSend(Channel chan, Message msg, String serviceId, BusExchange exchange) throws IOException {
-                data = compressMessageIfNeeded(msg);
+            RecoverableSend(Channel chan, Message msg, String serviceId, BusExchange exchange, CloudBusCodec codec) throws IOException {
+                data = compressMessageIfNeeded(msg, encode(msg, codec));
+                // the message may be published later by a publisher, take the properties now
+                props = msg.getAMQPProperties();
                 this.chan = chan;
                 this.serviceId = serviceId;
                 this.msg = msg;
                 this.exchange = exchange;
             }
 
+            int retries;
+
+            void publish() throws IOException {
+                chan.basicPublish(exchange.toString(), serviceId,
+                        true, props, data);
+            }
+
+            boolean isRecoverable() {
+                return conn instanceof AutorecoveringConnection && serverIps.size() > 1 && Platform.IS_RUNNING;
+            }
+
             void send() throws IOException {
                 try {
-                    chan.basicPublish(exchange.toString(), serviceId,
-                            true, msg.getAMQPProperties(), data);
+                    publish();
                 } catch (ShutdownSignalException e) {
-                    if (!(conn instanceof AutorecoveringConnection) || serverIps.size() <= 1 || !Platform.IS_RUNNING) {
+                    if (!isRecoverable()) {
                         // the connection is not recoverable
                         throw e;
                     }
@@ -439,20 +707,32 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 }
             }
 
-            private byte[] compressMessageIfNeeded(Message msg) throws IOException {
-                if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE || msg instanceof APIEvent || msg instanceof APIMessage) {
+            private byte[] encode(Message msg, CloudBusCodec codec) {
+                if (codec == null) {
+                    // a routed message may carry the header of the last hop
+                    msg.getAMQPHeaders().remove(AMQP_PROPERTY_HEADER__CODEC);
                     return gson.toJson(msg, Message.class).getBytes();
                 }
 
+                msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__CODEC, codec.getName());
+                return codec.encode(msg);
+            }
+
+            private byte[] compressMessageIfNeeded(Message msg, byte[] data) throws IOException {
+                if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE || msg instanceof APIEvent || msg instanceof APIMessage) {
+                    return data;
+                }
+
                 msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__COMPRESSED, "true");
-                return Compresser.deflate(gson.toJson(msg, Message.class).getBytes());
+                return Compresser.deflate(data);
             }
 
-            private boolean recoverSend() throws IOException {
+            int getRecoverInterval() {
                 int interval = conn.getHeartbeat() / 2;
-                interval = interval > 0 ? interval : 1;
-                int count = 0;
+                return interval > 0 ? interval : 1;
+            }
 
+            void detectConnectionLoss() {
                 // as the connection is lost, there is no need to wait heart beat missing 8 times
                 // so we use reflection to fast the process
                 RecoveryAwareAMQConnection delegate = FieldUtils.getFieldValue("delegate", conn);
@@ -465,6 +745,13 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 } catch (IllegalAccessException e) {
                     throw new CloudRuntimeException(e);
                 }
+            }
+
+            private boolean recoverSend() throws IOException {
+                int interval = getRecoverInterval();
+                int count = 0;
+
+                detectConnectionLoss();
 
                 while (count < CloudBusGlobalProperty.RABBITMQ_RECOVERABLE_SEND_TIMES) {
                     try {
@@ -475,7 +762,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
                     try {
                         chan.basicPublish(exchange.toString(), serviceId,
-                                true, msg.getAMQPProperties(), data);
+                                true, props, data);
                         return true;
                     } catch (ShutdownSignalException e) {
                         logger.warn(String.format("recoverable send fails %s times, will continue to retry %s times; %s",
@@ -547,9 +834,47 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        private CloudBusCodec selectCodec(Message msg, String queueName) {
+            if (nodeCodecs.isEmpty() || msg instanceof APIMessage || msg instanceof APIEvent) {
+                // API messages and events may be consumed out of the management nodes, keep them in JSON
+                return null;
+            }
+
+            // queues of management nodes are named as xxx.${managementNodeUuid}
+            return nodeCodecs.get(queueName.substring(queueName.lastIndexOf(".") + 1));
+        }
+
+        /**
+         * the receiver gets a copy of the message as if it came from the broker, so the changes
+         * the sender and the receiver make to the message after sending are not seen by each other
+         */
+        private Message copy(Message msg) {
+            if (!codecs.isEmpty()) {
+                CloudBusCodec codec = codecs.get(0);
+                return codec.decode(codec.encode(msg));
+            }
+
+            buildSchema(msg);
+            JsonElement tree = gson.toJsonTree(msg, Message.class);
+            Message copy = gson.fromJson(tree, Message.class);
+            try {
+                restoreFromSchema(copy, tree);
+            } catch (ClassNotFoundException e) {
+                throw new CloudRuntimeException(e);
+            }
+            return copy;
+        }
+
         private void buildSchema(Message msg) {
             try {
-                msg.putHeaderEntry("schema", new JsonSchemaBuilder(msg).build());
+                // only polymorphic fields need to be restored by the receiver, most messages
+                // have none of them and are sent without a schema
+                Map<String, String> schema = new JsonSchemaBuilder(msg).setPolymorphicOnly(true).build();
+                if (schema.isEmpty()) {
+                    msg.getHeaders().remove("schema");
+                } else {
+                    msg.putHeaderEntry("schema", schema);
+                }
             } catch (Exception e) {
                 throw new CloudRuntimeException(e);
             }
@@ -565,26 +890,55 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 serviceId = makeMessageQueueName(serviceId);
             }
 
-            buildSchema(msg);
-
             evalThreadContextToMessage(msg);
 
+            LocalEndPoint local = findLocalEndPoint(serviceId);
+            if (local != null) {
+                // the destination lives in this management node, hand a copy of the message
+                // over without going through the message broker
+                if (logger.isTraceEnabled() && logMessage(msg)) {
+                    logger.trace(String.format("[msg send locally]: %s", wire.dumpMessage(msg)));
+                }
+
+                local.deliver(copy(msg));
+                return;
+            }
+
+            CloudBusCodec codec = selectCodec(msg, serviceId);
+            if (codec == null) {
+                buildSchema(msg);
+            } else {
+                // the codec keeps the classes of fields, no schema is needed
+                msg.getHeaders().remove("schema");
+            }
+
             if (logger.isTraceEnabled() && logMessage(msg)) {
                 logger.trace(String.format("[msg send]: %s", wire.dumpMessage(msg)));
             }
 
 
-            Channel chan = channelPool.acquire();
+            publish(msg, serviceId, outboundQueue.getBusExchange(), codec);
+            /*
+            watch.stop();
+            logger.debug(String.mediaType("sending %s cost %sms", msg.getClass().getName(), watch.getTime()));
+            */
+        }
+
+        private void publish(Message msg, String routingKey, BusExchange exchange, CloudBusCodec codec) {
             try {
-                new RecoverableSend(chan, msg, serviceId, outboundQueue.getBusExchange()).send();
-                /*
-                watch.stop();
-                logger.debug(String.mediaType("sending %s cost %sms", msg.getClass().getName(), watch.getTime()));
-                */
+                if (channelPool.isPipelined()) {
+                    channelPool.enqueue(new RecoverableSend(null, msg, routingKey, exchange, codec));
+                    return;
+                }
+
+                Channel chan = channelPool.acquire();
+                try {
+                    new RecoverableSend(chan, msg, routingKey, exchange, codec).send();
+                } finally {
+                    channelPool.returnChannel(chan);
+                }
             } catch (IOException e) {
                 throw new CloudRuntimeException(e);
-            } finally {
-                channelPool.returnChannel(chan);
             }
         }
 
@@ -602,42 +956,47 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 logger.trace(String.format("[event publish]: %s", wire.dumpMessage(evt)));
             }
 
-            Channel chan = channelPool.acquire();
-            try {
-                new RecoverableSend(chan, evt, evt.getType().toString(), BusExchange.BROADCAST).send();
-                /*
-                watch.stop();
-                logger.debug(String.mediaType("sending %s cost %sms", evt.getClass().getName(), watch.getTime()));
-                */
-            } catch (IOException e) {
-                throw new CloudRuntimeException(e);
-            } finally {
-                channelPool.returnChannel(chan);
+            publish(evt, evt.getType().toString(), BusExchange.BROADCAST, null);
+            /*
+            watch.stop();
+            logger.debug(String.mediaType("sending %s cost %sms", evt.getClass().getName(), watch.getTime()));
+            */
+        }
+
+        private JsonElement getJsonElement(JsonElement root, String path) {
+            JsonElement current = root;
+            for (String p : path.split("\\.")) {
+                Matcher m = INDEXED_PATH.matcher(p);
+                if (m.matches()) {
+                    current = current.getAsJsonObject().get(m.group(1)).getAsJsonArray().get(Integer.valueOf(m.group(2)));
+                } else {
+                    current = current.getAsJsonObject().get(p);
+                }
             }
+
+            return current;
         }
 
-        private void restoreFromSchema(Message msg, byte[] binary) throws ClassNotFoundException {
+        private void restoreFromSchema(Message msg, JsonElement tree) throws ClassNotFoundException {
             Map<String, String> schema = msg.getHeaderEntry("schema");
-            if (schema == null) {
+            if (schema == null || schema.isEmpty()) {
                 return;
             }
 
-            Map raw = JSONObjectUtil.toObject(new String(binary), LinkedHashMap.class);
-            raw = (Map) raw.values().iterator().next();
-            List<String> paths = new ArrayList<>();
-            paths.addAll(schema.keySet());
-            //paths.sort(Comparator.reverseOrder());
-
-            for (String p : paths) {
+            // the polymorphic fields are restored from the same JSON tree the message is
+            // decoded from, the message text is never parsed twice
+            JsonElement raw = tree.getAsJsonObject().entrySet().iterator().next().getValue();
+            for (Map.Entry<String, String> e : schema.entrySet()) {
+                String p = e.getKey();
                 Object dst = getProperty(msg, p);
-                String type = schema.get(p);
+                String type = e.getValue();
 
                 if (dst.getClass().getName().equals(type)) {
                     continue;
                 }
 
                 Class clz = Class.forName(type);
-                setProperty(msg, p, JSONObjectUtil.rehashObject(getProperty(raw, p), clz));
+                setProperty(msg, p, gson.fromJson(getJsonElement(raw, p), clz));
             }
         }
 
@@ -670,11 +1029,22 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        private String getCodecName(AMQP.BasicProperties basicProperties) {
+            if (basicProperties.getHeaders() == null) {
+                return null;
+            }
+
+            // the header value is a LongString when coming from the broker
+            Object name = basicProperties.getHeaders().get(AMQP_PROPERTY_HEADER__CODEC);
+            return name == null ? null : name.toString();
+        }
+
         public Message toMessage(byte[] binary, AMQP.BasicProperties basicProperties) {
             /*
             StopWatch watch = new StopWatch();
             watch.start();
             */
+            String codecName = getCodecName(basicProperties);
             try {
                 byte[] data;
                 if (basicProperties.getHeaders() != null && basicProperties.getHeaders().containsKey(AMQP_PROPERTY_HEADER__COMPRESSED)) {
@@ -683,11 +1053,24 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     data = binary;
                 }
 
-                Message msg = gson.fromJson(new String(data), Message.class);
+                if (codecName != null) {
+                    CloudBusCodec codec = codecsByName.get(codecName);
+                    if (codec == null) {
+                        throw new CloudRuntimeException(String.format("unknown CloudBus codec[%s], the message is sent by a management node" +
+                                " running a different version", codecName));
+                    }
+
+                    Message msg = codec.decode(data);
+                    msg.setAMQPProperties(basicProperties);
+                    return msg;
+                }
+
+                JsonElement tree = new JsonParser().parse(new String(data));
+                Message msg = gson.fromJson(tree, Message.class);
                 msg.setAMQPProperties(basicProperties);
 
                 try {
-                    restoreFromSchema(msg, data);
+                    restoreFromSchema(msg, tree);
                 } catch (Exception e) {
                     logger.warn(String.format("error to restore the msg:\n%s", JSONObjectUtil.toJsonString(msg)), e);
                     throw new CloudRuntimeException(e);
@@ -700,7 +1083,9 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 return msg;
             } catch (RuntimeException je) {
                 logger.warn(je.getMessage(), je);
-                tryBestToReplyError(binary, je.getMessage());
+                if (codecName == null) {
+                    tryBestToReplyError(binary, je.getMessage());
+                }
                 throw je;
             } catch (IOException e) {
                 throw new CloudRuntimeException(e);
@@ -857,7 +1242,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         abstract List<Message> getRequests();
     }
 
-    private interface EndPoint {
+    private interface LocalEndPoint {
+        void deliver(Message msg);
+    }
+
+    private interface EndPoint extends LocalEndPoint {
         void active();
 
         void inactive();
@@ -1212,6 +1601,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             chan.basicConsume(outboundQueue.getName(), true, consumer);
             chan.queueBind(outboundQueue.getName(), outboundQueue.getBusExchange().toString(), outboundQueue.getBindingKey());
             channelPool.returnChannel(chan);
+            localEndPoints.put(outboundQueue.getBindingKey(), consumer);
             maid.construct();
             noRouteEndPoint.construct();
             tracker.construct();
@@ -1301,10 +1691,21 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             msg.putHeaderEntry(NO_NEED_REPLY_MSG, noNeedReply.toString());
         }
 
-        buildRequestMessageMetaData(msg);
+        if (findLocalEndPoint(makeMessageQueueName(msg.getServiceId())) == null) {
+            // local messages never leave this management node, no need to track them
+            buildRequestMessageMetaData(msg);
+        }
         wire.send(msg);
     }
 
+    private LocalEndPoint findLocalEndPoint(String queueName) {
+        if (!CloudBusGlobalProperty.LOCAL_DELIVERY) {
+            return null;
+        }
+
+        return localEndPoints.get(queueName);
+    }
+
     @Override
     public void send(Message msg) {
         send(msg, true);
@@ -1664,7 +2065,9 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         if (msg instanceof NeedReplyMessage) {
             evaluateMessageTimeout((NeedReplyMessage) msg);
         }
-        buildRequestMessageMetaData(msg);
+        if (findLocalEndPoint(makeMessageQueueName(msg.getServiceId())) == null) {
+            buildRequestMessageMetaData(msg);
+        }
         wire.send(msg);
     }
 
@@ -1708,7 +2111,9 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         reply.putHeaderEntry(CORRELATION_ID, request.getId());
         reply.setServiceId((String) request.getHeaderEntry(REPLY_TO));
 
-        buildResponseMessageMetaData(reply);
+        if (findLocalEndPoint(reply.getServiceId()) == null) {
+            buildResponseMessageMetaData(reply);
+        }
         if (request instanceof NeedReplyMessage) {
             callReplyPreSendingExtensions(reply, (NeedReplyMessage) request);
         }
@@ -1991,75 +2396,80 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                                 logger.trace(String.format("[msg received]: %s", wire.dumpMessage(msg)));
                             }
 
-                            SyncTask<Void> task = new SyncTask<Void>() {
-                                @Override
-                                public String getSyncSignature() {
-                                    return serv.getId();
-                                }
+                            deliver(msg);
+                        } catch (Throwable t) {
+                            logger.warn("unhandled throwable", t);
+                        }
+                    }
+                };
+            }
 
-                                @Override
-                                public int getSyncLevel() {
-                                    return syncLevel;
-                                }
+            @Override
+            public void deliver(final Message msg) {
+                SyncTask<Void> task = new SyncTask<Void>() {
+                    @Override
+                    public String getSyncSignature() {
+                        return serv.getId();
+                    }
 
-                                @Override
-                                public String getName() {
-                                    return String.format("CloudBus EndPoint[%s]", serv.getId());
-                                }
+                    @Override
+                    public int getSyncLevel() {
+                        return syncLevel;
+                    }
+
+                    @Override
+                    public String getName() {
+                        return String.format("CloudBus EndPoint[%s]", serv.getId());
+                    }
+
+                    @Override
+                    public Void call() throws Exception {
+                        setThreadLoggingContext(msg);
 
-                                @Override
-                                public Void call() throws Exception {
-                                    setThreadLoggingContext(msg);
-
-                                    try {
-                                        List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
-                                        if (is != null) {
-                                            for (BeforeDeliveryMessageInterceptor i : is) {
-                                                i.intercept(msg);
-
-                                                /*
-                                                if (logger.isTraceEnabled()) {
-                                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                                }
-                                                */
-                                            }
-                                        }
-
-                                        for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
-                                            i.intercept(msg);
-
-                                            /*
-                                            if (logger.isTraceEnabled()) {
-                                                logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                            }
-                                            */
-                                        }
-
-                                        serv.handleMessage(msg);
-                                    } catch (Throwable t) {
-                                        logExceptionWithMessageDump(msg, t);
-
-                                        if (t instanceof OperationFailureException) {
-                                            replyErrorByMessageType(msg, ((OperationFailureException) t).getErrorCode());
-                                        } else {
-                                            replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
-                                        }
+                        try {
+                            List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
+                            if (is != null) {
+                                for (BeforeDeliveryMessageInterceptor i : is) {
+                                    i.intercept(msg);
+
+                                    /*
+                                    if (logger.isTraceEnabled()) {
+                                        logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
                                     }
+                                    */
+                                }
+                            }
+
+                            for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
+                                i.intercept(msg);
 
-                                    return null;
+                                /*
+                                if (logger.isTraceEnabled()) {
+                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
                                 }
-                            };
+                                */
+                            }
+
+                            serv.handleMessage(msg);
+                        } catch (Throwable t) {
+                            logExceptionWithMessageDump(msg, t);
 
-                            if (syncLevel == 0) {
-                                thdf.submit(task);
+                            if (t instanceof OperationFailureException) {
+                                replyErrorByMessageType(msg, ((OperationFailureException) t).getErrorCode());
                             } else {
-                                thdf.syncSubmit(task);
+                                replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
                             }
-                        } catch (Throwable t) {
-                            logger.warn("unhandled throwable", t);
                         }
+
+                        return null;
                     }
                 };
+
+                if (syncLevel == 0) {
+                    thdf.submit(task);
+                } else {
+                    thdf.syncSubmit(task);
+                }
             }
 
             @Override
@@ -2075,6 +2485,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                         echan.basicConsume(aliasName, true, handler);
                         echan.queueBind(aliasName, BusExchange.P2P.toString(), aliasName);
                     }
+
+                    localEndPoints.put(baseName, this);
+                    for (String aliasName : aliasNames) {
+                        localEndPoints.put(aliasName, this);
+                    }
                 } catch (IOException e1) {
                     throw new CloudRuntimeException(e1);
                 }
@@ -2082,6 +2497,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
             @Override
             public void inactive() {
+                localEndPoints.remove(baseName);
+                for (String aliasName : aliasNames) {
+                    localEndPoints.remove(aliasName);
+                }
+
                 try {
                     echan.queueUnbind(baseName, BusExchange.P2P.toString(), baseName);
                     for (String aliasName: aliasNames) {
@@ -2414,8 +2834,38 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         }
     }
 
+    private void populateCodecs() {
+        Map<String, CloudBusCodec> all = new HashMap<String, CloudBusCodec>();
+        for (CloudBusCodec codec : pluginRgty.getExtensionList(CloudBusCodec.class)) {
+            CloudBusCodec old = all.get(codec.getType());
+            if (old != null) {
+                throw new CloudRuntimeException(String.format("duplicate CloudBusCodec[%s, %s] for type[%s]",
+                        codec.getClass(), old.getClass(), codec.getType()));
+            }
+            all.put(codec.getType(), codec);
+        }
+
+        // JSON is always understood by every node and is the last choice
+        for (String type : CloudBusGlobalProperty.CODECS.split(",")) {
+            type = type.trim();
+            if (type.isEmpty() || "json".equals(type)) {
+                continue;
+            }
+
+            CloudBusCodec codec = all.get(type);
+            if (codec == null) {
+                throw new CloudConfigureFailException(CloudBusImpl2.class, String.format("unknown codec[%s] in CloudBus.codecs, valid codecs are %s",
+                        type, all.keySet()));
+            }
+
+            codecs.add(codec);
+            codecsByName.put(codec.getName(), codec);
+        }
+    }
+
     private void populateExtension() {
         services = pluginRgty.getExtensionList(Service.class);
+        populateCodecs();
         for (ReplyMessagePreSendingExtensionPoint extp : pluginRgty.getExtensionList(ReplyMessagePreSendingExtensionPoint.class)) {
             List<Class> clazzs = extp.getReplyMessageClassForPreSendingExtensionPoint();
             if (clazzs == null || clazzs.isEmpty()) {
@@ -2547,6 +2997,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         return ret;
     }
 
+    @Override
+    public PublisherStatistic getPublisherStatistic() {
+        return channelPool.getStatistic();
+    }
+
     @Override
     public WaitingMessageSummaryStatistic getWaitingReplyMessageSummaryStatistic() {
         List<WaitingReplyMessageStatistic> ret = getWaitingReplyMessageStatistic();
@@ -30,4 +30,6 @@ public interface EventFacade {
     String META_DATA_MANAGEMENT_NODE_ID = "metadata::managementNodeId";
     String META_DATA_PATH = "metadata::path";
     String WEBHOOK_TYPE = "CanonicalEvent";
+    // fired when webhooks are created, updated or deleted
+    String WEBHOOK_CHANGED_PATH = "/webhook/changed";
 }
@@ -19,8 +19,8 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import static org.zstack.core.Platform.argerr;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
@@ -35,8 +35,18 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     @Autowired
     private CloudBus bus;
 
-    private final Map<String, CallbackWrapper> global = Collections.synchronizedMap(new HashMap<>());
-    private final Map<String, CallbackWrapper> local =  new ConcurrentHashMap<>();
+    private final EventSubscriptionIndex<CallbackWrapper> global = new EventSubscriptionIndex<>();
+    private final EventSubscriptionIndex<CallbackWrapper> local = new EventSubscriptionIndex<>();
+
+    private static class CanonicalEventWebhook {
+        WebhookVO vo;
+        Pattern pattern;
+    }
+
+    // webhooks of canonical events, reloaded after webhooks are changed
+    private volatile List<CanonicalEventWebhook> webhooks;
+    private long webhooksVersion;
+    private final Object webhooksLock = new Object();
 
     private EventSubscriberReceipt unsubscriber;
 
@@ -71,25 +81,52 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
 
     private class CallbackWrapper {
         String path;
-        String glob;
+        Pattern pattern;
+        // positions of the tokens in the path, and their names
+        List<Integer> tokenIndexes = new ArrayList<>();
+        List<String> tokenNames = new ArrayList<>();
         AbstractEventFacadeCallback callback;
         AtomicBoolean hasRun;
 
         CallbackWrapper(String path, AbstractEventFacadeCallback callback) {
             this.path = path;
-            this.glob = createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*"));
+            this.pattern = Pattern.compile(createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*")));
             this.callback = callback;
             if (callback instanceof AutoOffEventCallback) {
                 hasRun = new AtomicBoolean(false);
             }
+
+            StringTokenizer token = new StringTokenizer(path, "/");
+            for (int i = 0; token.hasMoreElements(); i++) {
+                String key = token.nextToken();
+                if (key.startsWith("{") && key.endsWith("}")) {
+                    tokenIndexes.add(i);
+                    tokenNames.add(key.replaceAll("\\{", "").replaceAll("\\}", ""));
+                }
+            }
         }
 
         Object getIdentity() {
             return callback;
         }
 
-        public String getGlob() {
-            return glob;
+        Map<String, String> tokenize(String evtPath) {
+            Map<String, String> ret = new HashMap<>();
+            if (tokenIndexes.isEmpty()) {
+                return ret;
+            }
+
+            StringTokenizer token = new StringTokenizer(evtPath, "/");
+            List<String> origins = new ArrayList<>();
+            while (token.hasMoreElements()) {
+                origins.add(token.nextToken());
+            }
+
+            for (int i = 0; i < tokenIndexes.size(); i++) {
+                ret.put(tokenNames.get(i), origins.get(tokenIndexes.get(i)));
+            }
+
+            return ret;
         }
 
         @AsyncThread
@@ -97,7 +134,7 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
             if (callback instanceof EventRunnable) {
                 ((EventRunnable) callback).run();
             } else {
-                Map<String, String> tokens = tokenize(e.getPath(), path);
+                Map<String, String> tokens = tokenize(e.getPath());
                 tokens.put(EventFacade.META_DATA_MANAGEMENT_NODE_ID, e.getManagementNodeId());
                 tokens.put(EventFacade.META_DATA_PATH, e.getPath());
                 Object data = null;
@@ -139,46 +176,22 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         return out;
     }
 
-    private Map<String, String> tokenize(String str1, String str2) {
-        StringTokenizer token = new StringTokenizer(str1, "/");
-        List<String> origins =  new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            origins.add(token.nextToken());
-        }
-
-        token = new StringTokenizer(str2, "/");
-        List<String> t = new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            t.add(token.nextToken());
-        }
-
-        Map ret = new HashMap();
-        for (int i=0;i<t.size(); i++) {
-            String key = t.get(i);
-            if (!key.startsWith("{") || !key.endsWith("}")) {
-                continue;
-            }
-
-            key = key.replaceAll("\\{", "").replaceAll("\\}", "");
-            ret.put(key, origins.get(i));
-        }
-
-        return ret;
-    }
-
     @Override
     public void on(String path, AutoOffEventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        CallbackWrapper w = new CallbackWrapper(path, cb);
+        global.put(cb.uniqueIdentity, path, w.pattern, w);
     }
 
     @Override
     public void on(String path, final EventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        CallbackWrapper w = new CallbackWrapper(path, cb);
+        global.put(cb.uniqueIdentity, path, w.pattern, w);
     }
 
     @Override
     public void on(String path, EventRunnable cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        CallbackWrapper w = new CallbackWrapper(path, cb);
+        global.put(cb.uniqueIdentity, path, w.pattern, w);
     }
 
     @Override
@@ -189,22 +202,29 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
 
     @Override
     public void onLocal(String path, AutoOffEventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        CallbackWrapper w = new CallbackWrapper(path, cb);
+        local.put(cb.uniqueIdentity, path, w.pattern, w);
     }
 
     @Override
     public void onLocal(String path, EventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        CallbackWrapper w = new CallbackWrapper(path, cb);
+        local.put(cb.uniqueIdentity, path, w.pattern, w);
     }
 
     @Override
     public void onLocal(String path, EventRunnable cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        CallbackWrapper w = new CallbackWrapper(path, cb);
+        local.put(cb.uniqueIdentity, path, w.pattern, w);
     }
 
     @Override
     public void fire(String path, Object data) {
         assert path != null;
+        if (WEBHOOK_CHANGED_PATH.equals(path)) {
+            invalidateWebhooks();
+        }
+
         CanonicalEvent evt = new CanonicalEvent();
         evt.setPath(path);
         evt.setManagementNodeId(Platform.getManagementServerId());
@@ -225,15 +245,50 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         bus.publish(evt);
     }
 
+    private void invalidateWebhooks() {
+        synchronized (webhooksLock) {
+            webhooksVersion++;
+            webhooks = null;
+        }
+    }
+
+    private List<CanonicalEventWebhook> getWebhooks() {
+        List<CanonicalEventWebhook> hooks = webhooks;
+        if (hooks != null) {
+            return hooks;
+        }
+
+        long version;
+        synchronized (webhooksLock) {
+            version = webhooksVersion;
+        }
+
+        List<WebhookVO> vos = Q.New(WebhookVO.class).eq(WebhookVO_.type, EventFacade.WEBHOOK_TYPE).list();
+        hooks = vos.stream().map(vo -> {
+            CanonicalEventWebhook hook = new CanonicalEventWebhook();
+            hook.vo = vo;
+            hook.pattern = Pattern.compile(createRegexFromGlob(vo.getOpaque().replaceAll("\\{.*\\}", ".*")));
+            return hook;
+        }).collect(Collectors.toList());
+
+        synchronized (webhooksLock) {
+            // not to cache the webhooks loaded before a change
+            if (version == webhooksVersion) {
+                webhooks = hooks;
+            }
+        }
+
+        return hooks;
+    }
+
     private void callWebhooks(CanonicalEvent event) {
         new WebhookCaller() {
             @Override
             public void call() {
-                List<WebhookVO> vos = Q.New(WebhookVO.class).eq(WebhookVO_.type, EventFacade.WEBHOOK_TYPE).list();
-                vos = vos.stream().filter(
-                        vo -> event.getPath().matches(
-                                createRegexFromGlob(vo.getOpaque().replaceAll("\\{.*\\}", ".*"))
-                        )).collect(Collectors.toList());
+                List<WebhookVO> vos = getWebhooks().stream()
+                        .filter(hook -> hook.pattern.matcher(event.getPath()).matches())
+                        .map(hook -> hook.vo)
+                        .collect(Collectors.toList());
 
                 if (!vos.isEmpty()) {
                     postToWebhooks(WebhookInventory.valueOf(vos), JSONObjectUtil.toJsonString(event));
@@ -243,13 +298,8 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     }
 
     private void fireLocal(CanonicalEvent cevt) {
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(local);
-
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
+        for (CallbackWrapper w : local.match(cevt.getPath())) {
+            w.call(cevt);
         }
     }
 
@@ -265,12 +315,13 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
 
         CanonicalEvent cevt = (CanonicalEvent)evt;
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(global);
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
+        if (WEBHOOK_CHANGED_PATH.equals(cevt.getPath())
+                && !Platform.getManagementServerId().equals(cevt.getManagementNodeId())) {
+            invalidateWebhooks();
+        }
+
+        for (CallbackWrapper w : global.match(cevt.getPath())) {
+            w.call(cevt);
         }
 
         return false;
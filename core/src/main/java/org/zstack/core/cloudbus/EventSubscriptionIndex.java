@@ -0,0 +1,118 @@
+package org.zstack.core.cloudbus;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * indexes subscriptions of canonical events by the literal segments leading their paths.
+ *
+ * A path is looked up by walking its segments down a trie, only the subscriptions on the walked nodes
+ * are candidates, which are then checked with their precompiled patterns; subscriptions whose paths
+ * start with a wildcard are kept in the root and checked for every path.
+ */
+public class EventSubscriptionIndex<T> {
+    private static final String WILDCARDS = "*?{}.[]()+^$|\\";
+
+    private class Entry {
+        Node node;
+        Pattern pattern;
+        T value;
+    }
+
+    private class Node {
+        Map<String, Node> children = new HashMap<>();
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        Node parent;
+        String segment;
+    }
+
+    private final Node root = new Node();
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private static boolean isLiteral(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (WILDCARDS.indexOf(segment.charAt(i)) != -1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param id identity of the subscription, a subscription with the same identity is replaced
+     * @param path path the subscription is on, the segments before the first wildcard are indexed
+     * @param pattern pattern matching the whole path
+     */
+    public synchronized void put(String id, String path, Pattern pattern, T value) {
+        remove(id);
+
+        Node node = root;
+        String[] segments = path.split("/", -1);
+        // the last segment is only matched as a whole when the pattern ends with it, leave it to the pattern
+        for (int i = 0; i < segments.length - 1 && isLiteral(segments[i]); i++) {
+            Node child = node.children.get(segments[i]);
+            if (child == null) {
+                child = new Node();
+                child.parent = node;
+                child.segment = segments[i];
+                node.children.put(segments[i], child);
+            }
+
+            node = child;
+        }
+
+        Entry e = new Entry();
+        e.node = node;
+        e.pattern = pattern;
+        e.value = value;
+        node.entries.put(id, e);
+        entries.put(id, e);
+    }
+
+    public synchronized T remove(String id) {
+        Entry e = entries.remove(id);
+        if (e == null) {
+            return null;
+        }
+
+        Node node = e.node;
+        node.entries.remove(id);
+        while (node.parent != null && node.entries.isEmpty() && node.children.isEmpty()) {
+            node.parent.children.remove(node.segment);
+            node = node.parent;
+        }
+
+        return e.value;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public List<T> match(String path) {
+        String[] segments = path.split("/", -1);
+        List<Entry> candidates = new ArrayList<>();
+        synchronized (this) {
+            Node node = root;
+            candidates.addAll(node.entries.values());
+            for (int i = 0; i < segments.length - 1; i++) {
+                node = node.children.get(segments[i]);
+                if (node == null) {
+                    break;
+                }
+
+                candidates.addAll(node.entries.values());
+            }
+        }
+
+        List<T> ret = new ArrayList<>();
+        for (Entry e : candidates) {
+            if (e.pattern.matcher(path).matches()) {
+                ret.add(e.value);
+            }
+        }
+
+        return ret;
+    }
+}
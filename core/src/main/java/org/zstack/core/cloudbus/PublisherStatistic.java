@@ -0,0 +1,60 @@
+package org.zstack.core.cloudbus;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class PublisherStatistic {
+    private int publisherNum;
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long publishedMessageNum;
+    private long batchNum;
+    private double averageBatchSize;
+    private int maxBatchSize;
+    private long rejectedMessageNum;
+
+    @ConstructorProperties({"publisherNum", "queueDepth", "maxQueueDepth", "publishedMessageNum", "batchNum", "averageBatchSize", "maxBatchSize", "rejectedMessageNum"})
+    public PublisherStatistic(int publisherNum, int queueDepth, int maxQueueDepth, long publishedMessageNum, long batchNum, double averageBatchSize, int maxBatchSize, long rejectedMessageNum) {
+        this.publisherNum = publisherNum;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.publishedMessageNum = publishedMessageNum;
+        this.batchNum = batchNum;
+        this.averageBatchSize = averageBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.rejectedMessageNum = rejectedMessageNum;
+    }
+
+    public int getPublisherNum() {
+        return publisherNum;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getPublishedMessageNum() {
+        return publishedMessageNum;
+    }
+
+    public long getBatchNum() {
+        return batchNum;
+    }
+
+    public double getAverageBatchSize() {
+        return averageBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getRejectedMessageNum() {
+        return rejectedMessageNum;
+    }
+}
@@ -20,6 +20,7 @@ import org.zstack.utils.logging.CLogger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Arrays.asList;
 import static org.zstack.utils.CollectionDSL.e;
@@ -44,6 +45,21 @@ public class GlobalConfig {
     private transient List<GlobalConfigValidatorExtensionPoint> validators = new ArrayList<>();
     private transient List<GlobalConfigUpdateExtensionPoint> localUpdateExtensions = new ArrayList<>();
     private GlobalConfigDef configDef;
+    private transient volatile ConcurrentHashMap<Class<?>, TypedValue> typedValues;
+
+    /**
+     * the value parsed from a string, it's valid only while the string is still the current value
+     * so a racing update never leaves a stale parsed value behind
+     */
+    private static class TypedValue {
+        final String raw;
+        final Object value;
+
+        TypedValue(String raw, Object value) {
+            this.raw = raw;
+            this.value = value;
+        }
+    }
 
     @Autowired
     private DatabaseFacade dbf;
@@ -173,10 +189,25 @@ public class GlobalConfig {
 
     void setValue(String value) {
         this.value = value;
+        typedValues = null;
     }
 
     public <T> T value(Class<T> clz) {
-        return TypeUtils.stringToValue(value, clz);
+        String raw = value;
+        ConcurrentHashMap<Class<?>, TypedValue> cache = typedValues;
+        if (cache == null) {
+            cache = new ConcurrentHashMap<>();
+            typedValues = cache;
+        }
+
+        TypedValue tv = cache.get(clz);
+        if (tv != null && tv.raw == raw) {
+            return (T) tv.value;
+        }
+
+        T ret = TypeUtils.stringToValue(raw, clz);
+        cache.put(clz, new TypedValue(raw, ret));
+        return ret;
     }
 
     public <T> T defaultValue(Class<T> clz) {
@@ -273,7 +304,7 @@ public class GlobalConfig {
         GlobalConfigVO vo = q.find();
         final GlobalConfig origin = valueOf(vo);
 
-        value = newValue;
+        setValue(newValue);
 
         if (localUpdate) {
             vo.setValue(newValue);
@@ -9,5 +9,10 @@ public interface GlobalConfigFacade {
 
     <T> T getConfigValue(String category, String name, Class<T> clz);
 
+    /**
+     * @return the config, or null if no such config is defined, e.g. the plugin defining it is not loaded
+     */
+    GlobalConfig getConfig(String category, String name);
+
     GlobalConfig createGlobalConfig(GlobalConfigVO vo);
 }
@@ -586,6 +586,11 @@ public class GlobalConfigFacadeImpl extends AbstractService implements GlobalCon
         return c.value(clz);
     }
 
+    @Override
+    public GlobalConfig getConfig(String category, String name) {
+        return allConfigs.get(GlobalConfig.produceIdentity(category, name));
+    }
+
     @Override
     public GlobalConfig createGlobalConfig(GlobalConfigVO vo) {
         vo = dbf.persistAndRefresh(vo);
@@ -19,4 +19,10 @@ public class DatabaseGlobalProperty {
     public static String DbIdleConnectionTestPeriod;
     @GlobalProperty(name="DB.maxIdleTime")
     public static String DbMaxIdleTime;
+    @GlobalProperty(name="GLock.mode", defaultValue = "mysql")
+    public static String GLOCK_MODE;
+    @GlobalProperty(name="GLock.leaseTime", defaultValue = "60")
+    public static int GLOCK_LEASE_TIME;
+    @GlobalProperty(name="GLock.localLockStripeNum", defaultValue = "64")
+    public static int GLOCK_LOCAL_LOCK_STRIPE_NUM;
 }
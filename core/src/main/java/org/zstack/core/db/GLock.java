@@ -44,6 +44,10 @@ public class GLock {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private LeaseLockManager leaseMgr;
+
+    private LeaseLockManager.Lease lease;
 
     public GLock(String name, long timeout) {
         this.name = name;
@@ -73,11 +77,73 @@ public class GLock {
         locks.remove(name);
     }
 
+    /**
+     * the token increases every time the lock is acquired, so a resource guarded by the lock can
+     * reject the writes of a holder whose lease has expired, e.g. by storing the token with the
+     * data and only updating rows whose token is not larger. Only available when GLock.mode is
+     * lease, returns -1 otherwise
+     */
+    public long getFencingToken() {
+        return lease == null ? -1 : lease.getToken();
+    }
+
+    /**
+     * throws if the lease of the lock has expired and been taken by others, call it right before
+     * a write that must not happen without the lock. Does nothing when GLock.mode is mysql
+     */
+    public void checkFencingToken() {
+        if (lease != null && !leaseMgr.isValid(lease)) {
+            throw new CloudRuntimeException(String.format("the lease[token:%s] of lock[%s] has been lost, it expired and may have been" +
+                    " acquired by others", lease.getToken(), name));
+        }
+    }
+
+    private void lockByLease() {
+        try {
+            lease = leaseMgr.acquire(name, timeout);
+            success = true;
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock Lease]: thread[%s] got lease[token:%s] of lock[%s]", Thread.currentThread().getName(), lease.getToken(), name));
+            }
+        } catch (RuntimeException e) {
+            success = false;
+
+            if (separateThreadEnabled) {
+                checkOutThread();
+            }
+
+            throw e;
+        }
+    }
+
+    private void unlockByLease() {
+        try {
+            leaseMgr.release(lease);
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock Lease]: thread[%s] released lease[token:%s] of lock[%s]", Thread.currentThread().getName(), lease.getToken(), name));
+            }
+        } finally {
+            lease = null;
+            success = false;
+
+            if (separateThreadEnabled) {
+                checkOutThread();
+            }
+        }
+    }
+
     public void lock() {
         if (separateThreadEnabled) {
             checkInThread();
         }
 
+        if (leaseMgr.isEnabled()) {
+            lockByLease();
+            return;
+        }
+
         ReentrantLock mlock = null;
         if (separateThreadEnabled) {
             synchronized (memLocks) {
@@ -170,6 +236,11 @@ public class GLock {
             return;
         }
 
+        if (lease != null) {
+            unlockByLease();
+            return;
+        }
+
         ReentrantLock lock = null;
         if (separateThreadEnabled) {
             synchronized (memLocks) {
@@ -0,0 +1,434 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.exception.CloudConfigureFailException;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * backs GLock when GLock.mode is lease.
+ *
+ * Threads of this management node contending for the same lock wait on an in-memory semaphore,
+ * only the winner goes to the database. Exclusion across management nodes is a row in LeaseLockVO
+ * owned until its lease expires; the lease is taken and released by single UPDATE/INSERT statements
+ * on a pooled connection that is returned right away, so no connection is held while waiting or
+ * while the lock is held. Leases held by this node are renewed periodically and the leases of a
+ * dead node are released when it leaves; the token is increased on every acquisition so it can be
+ * used as a fencing token. Renewing and releasing a lease only succeed with its token, a lease whose
+ * row has been taken by others is marked lost and never revived.
+ */
+public class LeaseLockManager implements Component, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(LeaseLockManager.class);
+
+    public static final String MODE_MYSQL = "mysql";
+    public static final String MODE_LEASE = "lease";
+
+    private static final long MIN_RETRY_INTERVAL = 50;
+    private static final long MAX_RETRY_INTERVAL = 1000;
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private final Stripe[] stripes;
+    private final Map<String, Lease> heldLeases = new ConcurrentHashMap<String, Lease>();
+    private Future<Void> renewTask;
+
+    public static class Lease {
+        private final String name;
+        private final String owner;
+        private final long token;
+        private volatile boolean lost;
+
+        Lease(String name, String owner, long token) {
+            this.name = name;
+            this.owner = owner;
+            this.token = token;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public long getToken() {
+            return token;
+        }
+
+        /**
+         * @return true if the renewal found the lease taken by others after it expired
+         */
+        public boolean isLost() {
+            return lost;
+        }
+    }
+
+    private static class LocalLock {
+        final Semaphore semaphore = new Semaphore(1, true);
+        int refs;
+    }
+
+    private static class Stripe {
+        final Map<String, LocalLock> locks = new HashMap<String, LocalLock>();
+    }
+
+    public LeaseLockManager() {
+        if (!MODE_MYSQL.equals(DatabaseGlobalProperty.GLOCK_MODE) && !MODE_LEASE.equals(DatabaseGlobalProperty.GLOCK_MODE)) {
+            throw new CloudConfigureFailException(LeaseLockManager.class, String.format("invalid GLock.mode[%s], valid values are %s, %s",
+                    DatabaseGlobalProperty.GLOCK_MODE, MODE_MYSQL, MODE_LEASE));
+        }
+
+        // round up to a power of 2 so a stripe can be picked by masking the hash
+        int size = 1;
+        while (size < DatabaseGlobalProperty.GLOCK_LOCAL_LOCK_STRIPE_NUM) {
+            size <<= 1;
+        }
+
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public boolean isEnabled() {
+        return MODE_LEASE.equals(DatabaseGlobalProperty.GLOCK_MODE);
+    }
+
+    public int getHeldLeaseNum() {
+        return heldLeases.size();
+    }
+
+    private Stripe getStripe(String name) {
+        int h = name.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    private LocalLock refLocalLock(String name) {
+        Stripe s = getStripe(name);
+        synchronized (s) {
+            LocalLock l = s.locks.get(name);
+            if (l == null) {
+                l = new LocalLock();
+                s.locks.put(name, l);
+            }
+            l.refs++;
+            return l;
+        }
+    }
+
+    private void unrefLocalLock(String name) {
+        Stripe s = getStripe(name);
+        synchronized (s) {
+            LocalLock l = s.locks.get(name);
+            if (l != null && --l.refs == 0) {
+                s.locks.remove(name);
+            }
+        }
+    }
+
+    private int executeUpdate(Connection conn, String sql, Object... args) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                pstmt.setObject(i + 1, args[i]);
+            }
+            return pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    private Connection getConnection() throws SQLException {
+        Connection conn = dbf.getDataSource().getConnection();
+        conn.setAutoCommit(true);
+        return conn;
+    }
+
+    private void closeConnection(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    // the expiration is compared with the database clock so the clocks of management nodes don't matter
+    private long tryAcquireLease(String name, String owner) throws SQLException {
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            int leaseTime = DatabaseGlobalProperty.GLOCK_LEASE_TIME;
+            String msId = Platform.getManagementServerId();
+            if (executeUpdate(conn, "UPDATE LeaseLockVO SET owner = ?, managementNodeId = ?, token = token + 1," +
+                            " expireDate = DATE_ADD(NOW(), INTERVAL ? SECOND) WHERE name = ? AND (owner IS NULL OR expireDate < NOW())",
+                    owner, msId, leaseTime, name) == 0
+                    && executeUpdate(conn, "INSERT IGNORE INTO LeaseLockVO (name, owner, managementNodeId, token, expireDate)" +
+                            " VALUES (?, ?, ?, 1, DATE_ADD(NOW(), INTERVAL ? SECOND))",
+                    name, owner, msId, leaseTime) == 0) {
+                return -1;
+            }
+
+            PreparedStatement pstmt = conn.prepareStatement("SELECT token FROM LeaseLockVO WHERE name = ? AND owner = ?");
+            try {
+                pstmt.setString(1, name);
+                pstmt.setString(2, owner);
+                ResultSet rs = pstmt.executeQuery();
+                if (!rs.next()) {
+                    throw new CloudRuntimeException(String.format("the lease of lock[%s] is lost right after acquired, internal database error", name));
+                }
+                return rs.getLong(1);
+            } finally {
+                pstmt.close();
+            }
+        } finally {
+            closeConnection(conn);
+        }
+    }
+
+    public Lease acquire(String name, long timeout) {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        LocalLock l = refLocalLock(name);
+        boolean locked = false;
+        Lease lease = null;
+
+        try {
+            if (!l.semaphore.tryAcquire(timeout, TimeUnit.SECONDS)) {
+                throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+            }
+            locked = true;
+
+            String owner = Platform.getUuid();
+            long interval = MIN_RETRY_INTERVAL;
+            while (true) {
+                long token = tryAcquireLease(name, owner);
+                if (token > 0) {
+                    lease = new Lease(name, owner, token);
+                    heldLeases.put(owner, lease);
+                    return lease;
+                }
+
+                // held by another management node
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+                }
+
+                TimeUnit.MILLISECONDS.sleep(Math.min(interval, left));
+                interval = Math.min(interval * 2, MAX_RETRY_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException(String.format("interrupted while acquiring lock[%s]", name), e);
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("[GLock Error]: unable to acquire the lease of lock[%s]", name), e);
+        } finally {
+            if (lease == null) {
+                if (locked) {
+                    l.semaphore.release();
+                }
+                unrefLocalLock(name);
+            }
+        }
+    }
+
+    public void release(Lease lease) {
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            if (executeUpdate(conn, "UPDATE LeaseLockVO SET owner = NULL, managementNodeId = NULL WHERE name = ? AND owner = ? AND token = ?",
+                    lease.getName(), lease.getOwner(), lease.getToken()) == 0) {
+                logger.warn(String.format("the lease[token:%s] of lock[%s] expired before released, it may have been acquired by others",
+                        lease.getToken(), lease.getName()));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("unable to release the lease of lock[%s], it will expire in %s seconds",
+                    lease.getName(), DatabaseGlobalProperty.GLOCK_LEASE_TIME), e);
+        } finally {
+            closeConnection(conn);
+            heldLeases.remove(lease.getOwner());
+
+            Stripe s = getStripe(lease.getName());
+            LocalLock l;
+            synchronized (s) {
+                l = s.locks.get(lease.getName());
+            }
+            if (l != null) {
+                l.semaphore.release();
+            }
+            unrefLocalLock(lease.getName());
+        }
+    }
+
+    /**
+     * checks the lease in the database, a holder guards its writes by calling it right before
+     * writing; the lease is still owned when it returns true, and for at least the lease time
+     * if the renewal goes on
+     */
+    public boolean isValid(Lease lease) {
+        if (lease.isLost()) {
+            return false;
+        }
+
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM LeaseLockVO WHERE name = ? AND owner = ? AND token = ? AND expireDate > NOW()");
+            try {
+                pstmt.setString(1, lease.getName());
+                pstmt.setString(2, lease.getOwner());
+                pstmt.setLong(3, lease.getToken());
+                ResultSet rs = pstmt.executeQuery();
+                return rs.next() && rs.getLong(1) > 0;
+            } finally {
+                pstmt.close();
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("unable to check the lease of lock[%s]", lease.getName()), e);
+        } finally {
+            closeConnection(conn);
+        }
+    }
+
+    private void renewLeases() {
+        if (heldLeases.isEmpty()) {
+            return;
+        }
+
+        List<Lease> leases = new ArrayList<Lease>(heldLeases.values());
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            PreparedStatement pstmt = conn.prepareStatement("UPDATE LeaseLockVO SET expireDate = DATE_ADD(NOW(), INTERVAL ? SECOND)" +
+                    " WHERE name = ? AND owner = ? AND token = ?");
+            try {
+                for (Lease lease : leases) {
+                    pstmt.setInt(1, DatabaseGlobalProperty.GLOCK_LEASE_TIME);
+                    pstmt.setString(2, lease.getName());
+                    pstmt.setString(3, lease.getOwner());
+                    pstmt.setLong(4, lease.getToken());
+                    pstmt.addBatch();
+                }
+
+                int[] ret = pstmt.executeBatch();
+                for (int i = 0; i < ret.length; i++) {
+                    // the lease expired and has been taken by others, e.g. this node paused longer than the lease time
+                    if (ret[i] == 0) {
+                        Lease lease = leases.get(i);
+                        lease.lost = true;
+                        logger.warn(String.format("the lease[token:%s] of lock[%s] is lost, it expired and has been acquired by others",
+                                lease.getToken(), lease.getName()));
+                    }
+                }
+            } finally {
+                pstmt.close();
+            }
+        } catch (SQLException e) {
+            logger.warn("unable to renew the leases of GLock", e);
+        } finally {
+            closeConnection(conn);
+        }
+    }
+
+    private void releaseLeasesOfNode(String nodeId) {
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            int num = executeUpdate(conn, "UPDATE LeaseLockVO SET owner = NULL, managementNodeId = NULL WHERE managementNodeId = ?", nodeId);
+            if (num > 0) {
+                logger.debug(String.format("released %s GLock leases held by the management node[uuid:%s]", num, nodeId));
+            }
+        } catch (SQLException e) {
+            logger.warn(String.format("unable to release the GLock leases held by the management node[uuid:%s], they will expire in %s seconds",
+                    nodeId, DatabaseGlobalProperty.GLOCK_LEASE_TIME), e);
+        } finally {
+            closeConnection(conn);
+        }
+    }
+
+    @Override
+    public boolean start() {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        renewTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return Math.max(DatabaseGlobalProperty.GLOCK_LEASE_TIME / 3, 1);
+            }
+
+            @Override
+            public String getName() {
+                return "renew-glock-leases";
+            }
+
+            @Override
+            public void run() {
+                renewLeases();
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (renewTask != null) {
+            renewTask.cancel(true);
+        }
+
+        return true;
+    }
+
+    @Override
+    public void nodeJoin(String nodeId) {
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        if (isEnabled()) {
+            releaseLeasesOfNode(nodeId);
+        }
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+    }
+}
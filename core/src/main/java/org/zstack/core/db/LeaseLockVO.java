@@ -0,0 +1,70 @@
+package org.zstack.core.db;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+
+/**
+ * a row per GLock name when GLock.mode is lease, see LeaseLockManager
+ */
+@Entity
+@Table
+public class LeaseLockVO {
+    @Id
+    @Column
+    private String name;
+
+    @Column
+    private String owner;
+
+    @Column
+    private String managementNodeId;
+
+    @Column
+    private long token;
+
+    @Column
+    private Timestamp expireDate;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public String getManagementNodeId() {
+        return managementNodeId;
+    }
+
+    public void setManagementNodeId(String managementNodeId) {
+        this.managementNodeId = managementNodeId;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    public void setToken(long token) {
+        this.token = token;
+    }
+
+    public Timestamp getExpireDate() {
+        return expireDate;
+    }
+
+    public void setExpireDate(Timestamp expireDate) {
+        this.expireDate = expireDate;
+    }
+}
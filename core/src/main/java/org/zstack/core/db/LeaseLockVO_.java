@@ -0,0 +1,14 @@
+package org.zstack.core.db;
+
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.StaticMetamodel;
+import java.sql.Timestamp;
+
+@StaticMetamodel(LeaseLockVO.class)
+public class LeaseLockVO_ {
+    public static volatile SingularAttribute<LeaseLockVO, String> name;
+    public static volatile SingularAttribute<LeaseLockVO, String> owner;
+    public static volatile SingularAttribute<LeaseLockVO, String> managementNodeId;
+    public static volatile SingularAttribute<LeaseLockVO, Long> token;
+    public static volatile SingularAttribute<LeaseLockVO, Timestamp> expireDate;
+}
@@ -0,0 +1,101 @@
+package org.zstack.core.rest;
+
+import okhttp3.*;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * posts the commands of asyncJsonPost without holding the calling thread until the agent acks.
+ *
+ * Requests are queued to an OkHttp dispatcher which caps the requests in progress to each agent,
+ * connections to an agent are kept alive and reused. A request failing with an IO error is retried
+ * a bounded number of times, the retry is scheduled instead of sleeping on a thread.
+ */
+class AsyncJsonPostClient {
+    private static final CLogger logger = Utils.getLogger(AsyncJsonPostClient.class);
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final OkHttpClient client;
+    private final ThreadFacade thdf;
+    private final ErrorFacade errf;
+
+    interface ResultHandler {
+        // the call has completed otherwise, e.g. timeout, no retry is needed
+        boolean isDone();
+
+        void fail(ErrorCode err);
+    }
+
+    AsyncJsonPostClient(ThreadFacade thdf, ErrorFacade errf) {
+        this.thdf = thdf;
+        this.errf = errf;
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_MAX_REQUESTS_PER_HOST);
+
+        client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_MAX_IDLE_CONNECTIONS,
+                        CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_KEEP_ALIVE, TimeUnit.SECONDS))
+                .connectTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .readTimeout(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, TimeUnit.MILLISECONDS)
+                .writeTimeout(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, TimeUnit.MILLISECONDS)
+                // retries are bounded by us
+                .retryOnConnectionFailure(false)
+                .build();
+    }
+
+    void post(String url, String body, Map<String, String> headers, ResultHandler handler) {
+        Request.Builder rb = new Request.Builder().url(url).post(RequestBody.create(JSON, body));
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            rb.header(e.getKey(), e.getValue());
+        }
+
+        int retries = CoreGlobalProperty.UNIT_TEST_ON ? 0 : CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_RETRY_TIMES;
+        enqueue(rb.build(), retries, handler);
+    }
+
+    private void enqueue(final Request req, final int retries, final ResultHandler handler) {
+        client.newCall(req).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (retries > 0 && !handler.isDone()) {
+                    logger.debug(String.format("unable to post to %s, %s, will retry %s times with the interval[%s]",
+                            req.url(), e.getMessage(), retries, CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_RETRY_INTERVAL));
+
+                    thdf.submitTimeoutTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            enqueue(req, retries - 1, handler);
+                        }
+                    }, TimeUnit.SECONDS, CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_RETRY_INTERVAL);
+                    return;
+                }
+
+                logger.warn(String.format("Unable to post to %s", req.url()), e);
+                handler.fail(errf.instantiateErrorCode(SysErrors.IO_ERROR, e.getMessage()));
+            }
+
+            @Override
+            public void onResponse(Call call, Response rsp) throws IOException {
+                try (ResponseBody rbody = rsp.body()) {
+                    if (rsp.code() != 200) {
+                        String err = String.format("http status: %s, response body:%s", rsp.code(), rbody.string());
+                        logger.warn(err);
+                        handler.fail(errf.instantiateErrorCode(SysErrors.HTTP_ERROR, err));
+                    }
+                }
+            }
+        });
+    }
+}
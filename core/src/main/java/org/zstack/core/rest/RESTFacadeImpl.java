@@ -38,6 +38,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -63,6 +64,7 @@ public class RESTFacadeImpl implements RESTFacade {
     private String path;
     private String callbackUrl;
     private TimeoutRestTemplate template;
+    private AsyncJsonPostClient asyncClient;
     private String baseUrl;
     private String sendCommandUrl;
 
@@ -77,7 +79,7 @@ public class RESTFacadeImpl implements RESTFacade {
     }
 
     private interface HttpCallHandlerWrapper {
-        String handle(HttpEntity<String> entity);
+        String handle(HttpEntity<String> entity, String senderAddress);
 
         HttpCallHandler getHandler();
     }
@@ -113,6 +115,10 @@ public class RESTFacadeImpl implements RESTFacade {
 
         logger.debug(String.format("RESTFacade built callback url: %s", callbackUrl));
         template = RESTFacade.createRestTemplate(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
+
+        if (CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_CLIENT) {
+            asyncClient = new AsyncJsonPostClient(thdf, errf);
+        }
     }
 
     void notifyCallback(HttpServletRequest req, HttpServletResponse rsp) {
@@ -162,7 +168,7 @@ public class RESTFacadeImpl implements RESTFacade {
                 return;
             }
 
-            String ret = handler.handle(entity);
+            String ret = handler.handle(entity, req.getRemoteAddr());
             if (ret == null) {
                 rsp.setStatus(HttpStatus.SC_OK);
             } else {
@@ -313,6 +319,33 @@ public class RESTFacadeImpl implements RESTFacade {
             }
         };
 
+        if (asyncClient != null) {
+            wrappers.put(taskUuid, wrapper);
+            Map<String, String> requestHeaders = new LinkedHashMap<String, String>();
+            requestHeaders.put(RESTConstant.TASK_UUID, taskUuid);
+            requestHeaders.put(RESTConstant.CALLBACK_URL, callbackUrl);
+            if (headers != null) {
+                requestHeaders.putAll(headers);
+            }
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("json post[%s], %s, %s", url, body, requestHeaders));
+            }
+
+            asyncClient.post(url, body, requestHeaders, new AsyncJsonPostClient.ResultHandler() {
+                @Override
+                public boolean isDone() {
+                    return !wrappers.containsKey(taskUuid);
+                }
+
+                @Override
+                public void fail(ErrorCode err) {
+                    failInThread(wrapper, err);
+                }
+            });
+            return;
+        }
+
         try {
             wrappers.put(taskUuid, wrapper);
             HttpHeaders requestHeaders = new HttpHeaders();
@@ -365,6 +398,12 @@ public class RESTFacadeImpl implements RESTFacade {
         }
     }
 
+    // not to run the callback on a thread of the http client
+    @AsyncThread
+    private void failInThread(AsyncHttpWrapper wrapper, ErrorCode err) {
+        wrapper.fail(err);
+    }
+
     @Override
     public void asyncJsonPost(String url, Object body, Map<String, String> headers, AsyncRESTCallback callback) {
         Long timeout = timeoutMgr.getTimeout(body.getClass());
@@ -557,15 +596,9 @@ public class RESTFacadeImpl implements RESTFacade {
 
     @Override
     public <T> void registerSyncHttpCallHandler(String path, final Class<T> objectType, final SyncHttpCallHandler<T> handler) {
-        HttpCallHandlerWrapper wrapper = httpCallhandlers.get(path);
-        if (wrapper != null) {
-            throw new CloudRuntimeException(String.format("duplicate SyncHttpCallHandler[%s, %s] for the command path[%s]", wrapper.getHandler().getClass(),
-                    handler.getClass(), path));
-        }
-
-        wrapper = new HttpCallHandlerWrapper() {
+        registerHttpCallHandler(path, new HttpCallHandlerWrapper() {
             @Override
-            public String handle(HttpEntity<String> entity) {
+            public String handle(HttpEntity<String> entity, String senderAddress) {
                 T cmd = JSONObjectUtil.toObject(entity.getBody(), objectType);
                 return handler.handleSyncHttpCall(cmd);
             }
@@ -574,7 +607,31 @@ public class RESTFacadeImpl implements RESTFacade {
             public HttpCallHandler getHandler() {
                 return handler;
             }
-        };
+        });
+    }
+
+    @Override
+    public <T> void registerSyncHttpCallHandler(String path, final Class<T> objectType, final SenderAwareSyncHttpCallHandler<T> handler) {
+        registerHttpCallHandler(path, new HttpCallHandlerWrapper() {
+            @Override
+            public String handle(HttpEntity<String> entity, String senderAddress) {
+                T cmd = JSONObjectUtil.toObject(entity.getBody(), objectType);
+                return handler.handleSyncHttpCall(cmd, senderAddress);
+            }
+
+            @Override
+            public HttpCallHandler getHandler() {
+                return handler;
+            }
+        });
+    }
+
+    private void registerHttpCallHandler(String path, HttpCallHandlerWrapper wrapper) {
+        HttpCallHandlerWrapper old = httpCallhandlers.get(path);
+        if (old != null) {
+            throw new CloudRuntimeException(String.format("duplicate SyncHttpCallHandler[%s, %s] for the command path[%s]", old.getHandler().getClass(),
+                    wrapper.getHandler().getClass(), path));
+        }
 
         httpCallhandlers.put(path, wrapper);
     }
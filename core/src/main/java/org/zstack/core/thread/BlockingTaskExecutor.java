@@ -0,0 +1,37 @@
+package org.zstack.core.thread;
+
+import java.util.concurrent.*;
+
+/**
+ * runs the tasks submitted to ThreadFacade when ThreadFacade.executionMode is elastic or virtual.
+ *
+ * A task gets a new thread when all threads are busy instead of waiting for a free one, so tasks
+ * blocking on HTTP calls, database locks or SSH don't starve the others. The thread context and
+ * the ThreadAroundHook registered in the fixed pool are applied the same way as the fixed pool does.
+ */
+class BlockingTaskExecutor extends ThreadPoolExecutor {
+    private final ScheduledThreadPoolExecutorExt pool;
+
+    BlockingTaskExecutor(int coreSize, int maxSize, long keepAliveSeconds, ThreadFactory factory, ScheduledThreadPoolExecutorExt pool) {
+        super(coreSize, maxSize, keepAliveSeconds, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory,
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // all threads are busy and no more can be created, queue the task in the
+                        // fixed pool like before
+                        pool.execute(r);
+                    }
+                });
+        this.pool = pool;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        pool.beforeExecute(t, r);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        pool.afterExecute(r, t);
+    }
+}
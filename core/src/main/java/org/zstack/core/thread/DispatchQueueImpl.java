@@ -30,14 +30,50 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Autowired
     ThreadFacade _threadFacade;
 
-    private final HashMap<String, SyncTaskQueueWrapper> syncTasks = new HashMap<String, SyncTaskQueueWrapper>();
-    private final HashMap<String, ChainTaskQueueWrapper> chainTasks = new HashMap<String, ChainTaskQueueWrapper>();
+    /**
+     * the queues are spread into shards by sync signature, tasks of different signatures
+     * in different shards never contend on the same lock. All the states of a signature
+     * live in one shard, so the ordering and the sync level are the same as a single lock
+     */
+    private static class Shard {
+        final HashMap<String, SyncTaskQueueWrapper> syncTasks = new HashMap<String, SyncTaskQueueWrapper>();
+        final HashMap<String, ChainTaskQueueWrapper> chainTasks = new HashMap<String, ChainTaskQueueWrapper>();
+    }
+
+    private final Shard[] shards;
     private static final CLogger _logger = CLoggerImpl.getLogger(DispatchQueueImpl.class);
 
     public static final String DUMP_TASK_DEBUG_SINGAL = "DumpTaskQueue";
 
+    private Shard getShard(String syncSignature) {
+        int h = syncSignature.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & (shards.length - 1)];
+    }
+
+    private Map<String, ChainTaskQueueWrapper> copyChainTasks() {
+        Map<String, ChainTaskQueueWrapper> ret = new HashMap<String, ChainTaskQueueWrapper>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                ret.putAll(shard.chainTasks);
+            }
+        }
+        return ret;
+    }
+
+    private Map<String, SyncTaskQueueWrapper> copySyncTasks() {
+        Map<String, SyncTaskQueueWrapper> ret = new HashMap<String, SyncTaskQueueWrapper>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                ret.putAll(shard.syncTasks);
+            }
+        }
+        return ret;
+    }
+
     @Override
     public void handleDebugSignal() {
+        Map<String, ChainTaskQueueWrapper> chainTasks = copyChainTasks();
         StringBuilder sb = new StringBuilder();
         sb.append("\n================= BEGIN TASK QUEUE DUMP ================");
         sb.append("\nASYNC TASK QUEUE DUMP:");
@@ -50,7 +86,15 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
             tb.append(String.format("\nRUNNING TASK NUMBER: %s", w.runningQueue.size()));
             tb.append(String.format("\nPENDING TASK NUMBER: %s", w.pendingQueue.size()));
             int index = 0;
-            for (Object obj : w.runningQueue) {
+            List runningQueue;
+            synchronized (w.runningQueue) {
+                runningQueue = new ArrayList(w.runningQueue);
+            }
+            List pendingQueue;
+            synchronized (w.shard) {
+                pendingQueue = new ArrayList(w.pendingQueue);
+            }
+            for (Object obj : runningQueue) {
                 ChainFuture cf = (ChainFuture) obj;
                 tb.append(String.format("\nRUNNING TASK[NAME: %s, CLASS: %s EXECUTION TIME: %s secs, INDEX: %s] %s",
                         cf.getTask().getName(), cf.getTask().getClass(),
@@ -59,7 +103,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 ));
             }
 
-            for (Object obj : w.pendingQueue) {
+            for (Object obj : pendingQueue) {
                 ChainFuture cf = (ChainFuture) obj;
                 tb.append(String.format("\nPENDING TASK[NAME: %s, CLASS: %s EXECUTION TIME: %s secs, INDEX: %s] %s",
                         cf.getTask().getName(), cf.getTask().getClass(),
@@ -90,6 +134,21 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
     public DispatchQueueImpl() {
+        this(ThreadGlobalProperty.DISPATCH_QUEUE_SHARD_NUM);
+    }
+
+    DispatchQueueImpl(int shardNum) {
+        // round up to a power of 2 so a shard can be picked by masking the hash
+        int num = 1;
+        while (num < shardNum) {
+            num <<= 1;
+        }
+
+        shards = new Shard[num];
+        for (int i = 0; i < num; i++) {
+            shards[i] = new Shard();
+        }
+
         DebugManager.registerDebugSignalHandler(DUMP_TASK_DEBUG_SINGAL, this);
     }
 
@@ -142,6 +201,11 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         AtomicInteger counter = new AtomicInteger(0);
         int maxThreadNum = -1;
         String syncSignature;
+        final Shard shard;
+
+        SyncTaskQueueWrapper(Shard shard) {
+            this.shard = shard;
+        }
 
         void addTask(SyncTaskFuture task) {
             queue.offer(task);
@@ -172,10 +236,10 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                             stask.run();
                         }
 
-                        synchronized (syncTasks) {
+                        synchronized (shard) {
                             if (queue.isEmpty()) {
                                 if (counter.decrementAndGet() == 0) {
-                                    syncTasks.remove(syncSignature);
+                                    shard.syncTasks.remove(syncSignature);
                                 }
 
                                 break;
@@ -198,11 +262,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
 
         SyncTaskFuture f;
-        synchronized (syncTasks) {
-            SyncTaskQueueWrapper wrapper = syncTasks.get(syncTask.getSyncSignature());
+        Shard shard = getShard(syncTask.getSyncSignature());
+        synchronized (shard) {
+            SyncTaskQueueWrapper wrapper = shard.syncTasks.get(syncTask.getSyncSignature());
             if (wrapper == null) {
-                wrapper = new SyncTaskQueueWrapper();
-                syncTasks.put(syncTask.getSyncSignature(), wrapper);
+                wrapper = new SyncTaskQueueWrapper(shard);
+                shard.syncTasks.put(syncTask.getSyncSignature(), wrapper);
             }
             f = new SyncTaskFuture(syncTask);
             wrapper.addTask(f);
@@ -294,11 +359,17 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
     private class ChainTaskQueueWrapper {
+        // guarded by the lock of the shard
         LinkedList pendingQueue = new LinkedList();
         final LinkedList runningQueue = new LinkedList();
         AtomicInteger counter = new AtomicInteger(0);
         int maxThreadNum = -1;
         String syncSignature;
+        final Shard shard;
+
+        ChainTaskQueueWrapper(Shard shard) {
+            this.shard = shard;
+        }
 
         void addTask(ChainFuture task) {
             pendingQueue.offer(task);
@@ -327,13 +398,13 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 @AsyncThread
                 private void runQueue() {
                     ChainFuture cf;
-                    synchronized (chainTasks) {
+                    synchronized (shard) {
                         // remove from pending queue and add to running queue later
                         cf = (ChainFuture) pendingQueue.poll();
 
                         if (cf == null) {
                             if (counter.decrementAndGet() == 0) {
-                                chainTasks.remove(syncSignature);
+                                shard.chainTasks.remove(syncSignature);
                             }
 
                             return;
@@ -371,12 +442,13 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
         DebugUtils.Assert(task.getSyncLevel() >= 1, String.format("getSyncLevel() must return 1 at least "));
 
-        synchronized (chainTasks) {
-            final String signature = task.getSyncSignature();
-            ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
+        final String signature = task.getSyncSignature();
+        Shard shard = getShard(signature);
+        synchronized (shard) {
+            ChainTaskQueueWrapper wrapper = shard.chainTasks.get(signature);
             if (wrapper == null) {
-                wrapper = new ChainTaskQueueWrapper();
-                chainTasks.put(signature, wrapper);
+                wrapper = new ChainTaskQueueWrapper(shard);
+                shard.chainTasks.put(signature, wrapper);
             }
 
             ChainFuture cf = new ChainFuture(task);
@@ -395,7 +467,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
         Map<String, SyncTaskStatistic> ret = new HashMap<String, SyncTaskStatistic>();
-        for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
+        for (SyncTaskQueueWrapper wrapper : copySyncTasks().values()) {
             SyncTaskStatistic statistic = new SyncTaskStatistic(
                     wrapper.syncSignature,
                     wrapper.maxThreadNum,
@@ -413,7 +485,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public Map<String, ChainTaskStatistic> getChainTaskStatistics() {
         Map<String, ChainTaskStatistic> ret = new HashMap<String, ChainTaskStatistic>();
-        for (ChainTaskQueueWrapper wrapper : chainTasks.values()) {
+        for (ChainTaskQueueWrapper wrapper : copyChainTasks().values()) {
             ChainTaskStatistic statistic = new ChainTaskStatistic(
                     wrapper.syncSignature,
                     wrapper.maxThreadNum,
@@ -6,10 +6,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.logging.CLoggerImpl;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.Timer;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -21,60 +18,19 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     private Map<PeriodicTask, ScheduledFuture<?>> _periodicTasks = new ConcurrentHashMap<PeriodicTask, ScheduledFuture<?>>();
     private Map<CancelablePeriodicTask, ScheduledFuture<?>> cancelablePeriodicTasks = new ConcurrentHashMap<CancelablePeriodicTask, ScheduledFuture<?>>();
     private static AtomicInteger seqNum = new AtomicInteger(0);
+
+    public static final String EXECUTION_MODE_POOL = "pool";
+    public static final String EXECUTION_MODE_ELASTIC = "elastic";
+    public static final String EXECUTION_MODE_VIRTUAL = "virtual";
     private ScheduledThreadPoolExecutorExt _pool;
+    // runs submitted tasks when the execution mode is not the fixed pool
+    private ExecutorService blockingExecutor;
     private DispatchQueue dpq;
-    private TimerPool timerPool = new TimerPool(5);
+    private TimingWheel timingWheel;
 
     @Autowired
     private JmxFacade jmxf;
 
-    private class TimerWrapper extends Timer {
-        private int cancelledTimerTaskCount = 0;
-        private static final int PURGE_CANCELLED_TIMER_TASK_THRESHOLD = 2000;
-
-        void notifyCancel() {
-            if (cancelledTimerTaskCount++ >= PURGE_CANCELLED_TIMER_TASK_THRESHOLD) {
-                cancelledTimerTaskCount = 0;
-                this.purge();
-            }
-        }
-    }
-
-    private class TimerPool {
-        int poolSize;
-        List<TimerWrapper> pool;
-
-        // never use a long type counter for self increment. two issues
-        // 1) Java will silently overflow a number; even a long will be overflow someday
-        // 2) big number causes extremely bad performance for mod operation
-        // instead, reset the counter when it exceeds COUNTER_RESET_THRESHOLD to maintain
-        // decent performance for mod operation.
-        int counter = 0;
-        static final int COUNTER_RESET_THRESHOLD = 1000000;
-
-        private TimerPool(int poolSize) {
-            this.poolSize = poolSize;
-            pool = new ArrayList<TimerWrapper>(poolSize);
-            for (int i = 0; i < poolSize; i++) {
-                pool.add(new TimerWrapper());
-            }
-        }
-
-        TimerWrapper getTimer() {
-            int index = ++counter % poolSize;
-            if (counter > COUNTER_RESET_THRESHOLD) {
-                counter = 0;
-            }
-            return pool.get(index);
-        }
-
-        void stop() {
-            for (TimerWrapper wrapper : pool) {
-                wrapper.cancel();
-            }
-        }
-    }
-
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
         return dpq.getSyncTaskStatistics();
@@ -85,6 +41,18 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         return dpq.getChainTaskStatistics();
     }
 
+    @Override
+    public TimeoutStatistic getTimeoutStatistic() {
+        return new TimeoutStatistic(
+                timingWheel.getTickInMillis(),
+                timingWheel.getWheelSize(),
+                timingWheel.getPendingTimeoutNum(),
+                timingWheel.getScheduledTimeoutNum(),
+                timingWheel.getCancelledTimeoutNum(),
+                timingWheel.getExpiredTimeoutNum()
+        );
+    }
+
     @Override
     public ThreadPoolStatistic getThreadPoolStatistic() {
         long completedTask = _pool.getCompletedTaskCount();
@@ -130,18 +98,68 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         }
         _pool = new ScheduledThreadPoolExecutorExt(totalThreadNum, this, this);
         _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
+        blockingExecutor = createBlockingExecutor();
         dpq = new DispatchQueueImpl();
+        timingWheel = new TimingWheel("zs-timing-wheel", ThreadGlobalProperty.TIMING_WHEEL_TICK, TimeUnit.MILLISECONDS,
+                ThreadGlobalProperty.TIMING_WHEEL_SIZE, _pool);
 
         jmxf.registerBean("ThreadFacade", this);
     }
 
+    private ThreadFactory createVirtualThreadFactory() {
+        // Thread.ofVirtual().name("zs-vthread-", 0).factory(), by reflection as the code is built for old JDKs
+        try {
+            Class builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "zs-vthread-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private ExecutorService createBlockingExecutor() {
+        String mode = ThreadGlobalProperty.EXECUTION_MODE;
+        if (EXECUTION_MODE_VIRTUAL.equals(mode)) {
+            ThreadFactory factory = createVirtualThreadFactory();
+            if (factory != null) {
+                _logger.debug("ThreadFacade runs submitted tasks on virtual threads");
+                // a virtual thread is created for every task and exits right after
+                return new BlockingTaskExecutor(0, Integer.MAX_VALUE, 0, factory, _pool);
+            }
+
+            _logger.warn(String.format("the JVM[%s] doesn't support virtual threads, ThreadFacade runs submitted tasks in the elastic pool",
+                    System.getProperty("java.version")));
+            mode = EXECUTION_MODE_ELASTIC;
+        }
+
+        if (EXECUTION_MODE_ELASTIC.equals(mode)) {
+            int max = Math.max(ThreadGlobalProperty.ELASTIC_MAX_THREAD_NUM, totalThreadNum);
+            _logger.debug(String.format("ThreadFacade runs submitted tasks in the elastic pool with max thread number:%s", max));
+            return new BlockingTaskExecutor(totalThreadNum, max, 60, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "zs-elastic-thread-" + String.valueOf(seqNum.getAndIncrement()));
+                }
+            }, _pool);
+        }
+
+        if (!EXECUTION_MODE_POOL.equals(mode)) {
+            throw new CloudRuntimeException(String.format("invalid ThreadFacade.executionMode[%s], valid modes are %s, %s, %s",
+                    mode, EXECUTION_MODE_POOL, EXECUTION_MODE_ELASTIC, EXECUTION_MODE_VIRTUAL));
+        }
+
+        return _pool;
+    }
+
     public void destroy() {
         _pool.shutdownNow();
+        blockingExecutor.shutdownNow();
     }
 
     @Override
     public <T> Future<T> submit(Task<T> task) {
-        return _pool.submit(new Worker<T>(task));
+        return blockingExecutor.submit(new Worker<T>(task));
     }
 
     @Override
@@ -226,49 +244,30 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     @Override
     public TimeoutTaskReceipt submitTimeoutTask(final Runnable task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-
-        class TimerTaskWorker extends java.util.TimerTask implements TimeoutTaskReceipt {
+        return timingWheel.schedule(new Runnable() {
             @Override
-            @AsyncThread
             public void run() {
                 try {
                     task.run();
                 } catch (Throwable t) {
                     _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
-                } finally {
-                    this.cancel();
                 }
             }
-
-            @Override
-            public boolean cancel() {
-                boolean ret = super.cancel();
-                timer.notifyCancel();
-                return ret;
-            }
-        }
-
-        TimerTaskWorker worker = new TimerTaskWorker();
-        timer.schedule(worker, unit.toMillis(delay));
-        return worker;
+        }, delay, unit);
     }
 
     @Override
     public void submitTimerTask(final TimerTask task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-        timer.schedule(new java.util.TimerTask() {
+        timingWheel.schedule(new Runnable() {
             @Override
             public void run() {
                 try {
-                    if (task.run()) {
-                        cancel();
-                    }
+                    task.run();
                 } catch (Throwable t) {
                     _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
                 }
             }
-        }, unit.toMillis(delay));
+        }, delay, unit);
     }
 
     @Override
@@ -279,7 +278,8 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     @Override
     public boolean stop() {
         _pool.shutdown();
-        timerPool.stop();
+        blockingExecutor.shutdown();
+        timingWheel.stop();
         return true;
     }
 
@@ -9,4 +9,14 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "100")
     public static int MAX_THREAD_NUM;
+    @GlobalProperty(name="ThreadFacade.dispatchQueueShardNum", defaultValue = "64")
+    public static int DISPATCH_QUEUE_SHARD_NUM;
+    @GlobalProperty(name="ThreadFacade.timingWheelTick", defaultValue = "100")
+    public static int TIMING_WHEEL_TICK;
+    @GlobalProperty(name="ThreadFacade.timingWheelSize", defaultValue = "512")
+    public static int TIMING_WHEEL_SIZE;
+    @GlobalProperty(name="ThreadFacade.executionMode", defaultValue = "pool")
+    public static String EXECUTION_MODE;
+    @GlobalProperty(name="ThreadFacade.elasticMaxThreadNum", defaultValue = "1000")
+    public static int ELASTIC_MAX_THREAD_NUM;
 }
@@ -0,0 +1,48 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class TimeoutStatistic {
+    private long tickInMillis;
+    private int wheelSize;
+    private long pendingTimeoutNum;
+    private long scheduledTimeoutNum;
+    private long cancelledTimeoutNum;
+    private long expiredTimeoutNum;
+
+    @ConstructorProperties({"tickInMillis", "wheelSize", "pendingTimeoutNum", "scheduledTimeoutNum", "cancelledTimeoutNum", "expiredTimeoutNum"})
+    public TimeoutStatistic(long tickInMillis, int wheelSize, long pendingTimeoutNum, long scheduledTimeoutNum, long cancelledTimeoutNum, long expiredTimeoutNum) {
+        this.tickInMillis = tickInMillis;
+        this.wheelSize = wheelSize;
+        this.pendingTimeoutNum = pendingTimeoutNum;
+        this.scheduledTimeoutNum = scheduledTimeoutNum;
+        this.cancelledTimeoutNum = cancelledTimeoutNum;
+        this.expiredTimeoutNum = expiredTimeoutNum;
+    }
+
+    public long getTickInMillis() {
+        return tickInMillis;
+    }
+
+    public int getWheelSize() {
+        return wheelSize;
+    }
+
+    public long getPendingTimeoutNum() {
+        return pendingTimeoutNum;
+    }
+
+    public long getScheduledTimeoutNum() {
+        return scheduledTimeoutNum;
+    }
+
+    public long getCancelledTimeoutNum() {
+        return cancelledTimeoutNum;
+    }
+
+    public long getExpiredTimeoutNum() {
+        return expiredTimeoutNum;
+    }
+}
@@ -0,0 +1,220 @@
+package org.zstack.core.thread;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a hashed timing wheel for timeouts that are mostly cancelled before expiring,
+ * e.g. the timeouts of messages and HTTP calls.
+ *
+ * Scheduling only puts the timeout in a lock-free queue and cancelling only flips its
+ * state, both are O(1). A single ticker thread moves new timeouts into the buckets and
+ * expires one bucket every tick; cancelled timeouts are dropped when their bucket is visited.
+ * Expired tasks are run by the executor, a timeout fires at most one tick late.
+ */
+public class TimingWheel {
+    private static final CLogger logger = Utils.getLogger(TimingWheel.class);
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    // bound the work of one tick when a burst of timeouts is scheduled
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Executor executor;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final long startTime = System.nanoTime();
+    private final Thread ticker;
+    private volatile boolean stopped;
+    // only accessed by the ticker thread
+    private long tick;
+
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private class Timeout implements ThreadFacadeImpl.TimeoutTaskReceipt {
+        final Runnable task;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(INIT);
+        long rounds;
+        Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) {
+                return false;
+            }
+
+            pending.decrementAndGet();
+            cancelled.incrementAndGet();
+            return true;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(INIT, EXPIRED)) {
+                return;
+            }
+
+            pending.decrementAndGet();
+            expired.incrementAndGet();
+            try {
+                executor.execute(task);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to run the expired task %s", task.getClass().getName()), t);
+            }
+        }
+    }
+
+    public TimingWheel(String name, long tick, TimeUnit unit, int wheelSize, Executor executor) {
+        // round up to a power of 2 so a bucket can be picked by masking the tick
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
+        this.tickNanos = Math.max(unit.toNanos(tick), TimeUnit.MILLISECONDS.toNanos(1));
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.executor = executor;
+
+        ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public ThreadFacadeImpl.TimeoutTaskReceipt schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout t = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+        pending.incrementAndGet();
+        scheduled.incrementAndGet();
+        newTimeouts.add(t);
+        return t;
+    }
+
+    public void stop() {
+        stopped = true;
+        ticker.interrupt();
+    }
+
+    public long getPendingTimeoutNum() {
+        return pending.get();
+    }
+
+    public long getScheduledTimeoutNum() {
+        return scheduled.get();
+    }
+
+    public long getCancelledTimeoutNum() {
+        return cancelled.get();
+    }
+
+    public long getExpiredTimeoutNum() {
+        return expired.get();
+    }
+
+    public long getTickInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+    public int getWheelSize() {
+        return buckets.length;
+    }
+
+    private void transferNewTimeouts() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout t = newTimeouts.poll();
+            if (t == null) {
+                return;
+            }
+
+            if (t.state.get() != INIT) {
+                continue;
+            }
+
+            long calculated = t.deadline / tickNanos;
+            t.rounds = (calculated - tick) / buckets.length;
+            // a timeout already past its deadline expires in the current tick
+            int index = (int) (Math.max(calculated, tick) & mask);
+            t.next = buckets[index];
+            buckets[index] = t;
+        }
+    }
+
+    private void expireBucket(int index) {
+        Timeout prev = null;
+        Timeout t = buckets[index];
+        while (t != null) {
+            Timeout next = t.next;
+            boolean remove;
+            if (t.state.get() != INIT) {
+                remove = true;
+            } else if (t.rounds <= 0) {
+                t.expire();
+                remove = true;
+            } else {
+                t.rounds--;
+                remove = false;
+            }
+
+            if (remove) {
+                if (prev == null) {
+                    buckets[index] = next;
+                } else {
+                    prev.next = next;
+                }
+                t.next = null;
+            } else {
+                prev = t;
+            }
+
+            t = next;
+        }
+    }
+
+    private void work() {
+        while (!stopped) {
+            long sleep = tickNanos * (tick + 1) - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            try {
+                transferNewTimeouts();
+                expireBucket((int) (tick & mask));
+            } catch (Throwable t) {
+                logger.warn("unhandled exception in the timing wheel", t);
+            }
+
+            tick++;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.zstack.core.webhook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.SQL;
@@ -22,6 +23,8 @@ public class WebhookManagerImpl extends AbstractService implements WebhookManage
     private DatabaseFacade dbf;
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private EventFacade evtf;
 
     @Override
     public boolean start() {
@@ -95,6 +98,7 @@ public class WebhookManagerImpl extends AbstractService implements WebhookManage
                 return findByUuid(msg.getUuid(), WebhookVO.class);
             }
         }.execute();
+        evtf.fire(EventFacade.WEBHOOK_CHANGED_PATH, null);
 
         APIUpdateWebhookEvent evt = new APIUpdateWebhookEvent(msg.getId());
         evt.setInventory(WebhookInventory.valueOf(vo));
@@ -104,6 +108,7 @@ public class WebhookManagerImpl extends AbstractService implements WebhookManage
     private void handle(APIDeleteWebhookMsg msg) {
         APIDeleteWebhookEvent evt = new APIDeleteWebhookEvent(msg.getId());
         SQL.New(WebhookVO.class).eq(WebhookVO_.uuid, msg.getUuid()).hardDelete();
+        evtf.fire(EventFacade.WEBHOOK_CHANGED_PATH, null);
         bus.publish(evt);
     }
 
@@ -116,6 +121,7 @@ public class WebhookManagerImpl extends AbstractService implements WebhookManage
         vo.setType(msg.getType());
         vo.setOpaque(msg.getOpaque());
         vo = dbf.persistAndRefresh(vo);
+        evtf.fire(EventFacade.WEBHOOK_CHANGED_PATH, null);
 
         APICreateWebhookEvent evt = new APICreateWebhookEvent(msg.getId());
         evt.setInventory(WebhookInventory.valueOf(vo));
@@ -0,0 +1,36 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+/**
+ * sent to the management node managing the host to reserve capacity in its memory
+ */
+public class ReserveHostCapacityMsg extends NeedReplyMessage {
+    private long cpuCapacity;
+    private long memoryCapacity;
+    private String hostUuid;
+
+    public String getHostUuid() {
+        return hostUuid;
+    }
+
+    public void setHostUuid(String hostUuid) {
+        this.hostUuid = hostUuid;
+    }
+
+    public long getCpuCapacity() {
+        return cpuCapacity;
+    }
+
+    public void setCpuCapacity(long cpuCapacity) {
+        this.cpuCapacity = cpuCapacity;
+    }
+
+    public long getMemoryCapacity() {
+        return memoryCapacity;
+    }
+
+    public void setMemoryCapacity(long memoryCapacity) {
+        this.memoryCapacity = memoryCapacity;
+    }
+}
@@ -6,6 +6,16 @@ import org.zstack.header.message.NeedReplyMessage;
  */
 public class PingHostMsg extends NeedReplyMessage implements HostMessage {
     private String hostUuid;
+    // the agent reports heartbeats, only the ping tasks run without calling the agent
+    private boolean agentAlive;
+
+    public boolean isAgentAlive() {
+        return agentAlive;
+    }
+
+    public void setAgentAlive(boolean agentAlive) {
+        this.agentAlive = agentAlive;
+    }
 
     public String getHostUuid() {
         return hostUuid;
@@ -26,6 +26,9 @@ public class ManagementNodeVO {
     @Column
     private int port;
 
+    @Column
+    private String codecs;
+
     public String getHostName() {
         return hostName;
     }
@@ -73,4 +76,12 @@ public class ManagementNodeVO {
     public void setHeartBeat(Timestamp heartBeat) {
         this.heartBeat = heartBeat;
     }
+
+    public String getCodecs() {
+        return codecs;
+    }
+
+    public void setCodecs(String codecs) {
+        this.codecs = codecs;
+    }
 }
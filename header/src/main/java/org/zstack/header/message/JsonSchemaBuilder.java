@@ -2,15 +2,12 @@ package org.zstack.header.message;
 
 import org.apache.commons.lang.StringUtils;
 import org.zstack.header.exception.CloudRuntimeException;
-import org.zstack.header.message.GsonTransient;
-import org.zstack.header.message.NoJsonSchema;
 import org.zstack.utils.FieldUtils;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
-
-import static java.util.Arrays.asList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by xing5 on 2016/12/12.
@@ -18,73 +15,168 @@ import static java.util.Arrays.asList;
 public class JsonSchemaBuilder {
     Object object;
 
+    private boolean polymorphicOnly;
+
     private LinkedHashMap<String, String> schema = new LinkedHashMap<>();
 
+    private enum ValueKind {
+        JRE,
+        ZSTACK,
+        OTHER
+    }
+
+    private static class FieldPlan {
+        Field field;
+        // element type of a Collection or value type of a Map, null if the elements
+        // don't need to be walked
+        Class elementType;
+    }
+
+    private static class ClassPlan {
+        List<FieldPlan> fields = new ArrayList<>();
+    }
+
+    // the reflection work is done once per class, the result is reused by every build
+    private static final Map<Class, ClassPlan> plans = new ConcurrentHashMap<>();
+    private static final Map<Class, ValueKind> kinds = new ConcurrentHashMap<>();
+
     public JsonSchemaBuilder(Object object) {
         this.object = object;
     }
 
-    private boolean isSkip(Field f) {
+    /**
+     * @return number of classes whose plans are cached
+     */
+    public static int getCachedPlanNum() {
+        return plans.size();
+    }
+
+    /**
+     * only record the paths whose runtime class differs from the declared class,
+     * which are the only ones a receiver needs to restore
+     */
+    public JsonSchemaBuilder setPolymorphicOnly(boolean polymorphicOnly) {
+        this.polymorphicOnly = polymorphicOnly;
+        return this;
+    }
+
+    private static boolean isSkip(Field f) {
         return f.isAnnotationPresent(NoJsonSchema.class) || Modifier.isStatic(f.getModifiers())
                 || f.isAnnotationPresent(GsonTransient.class);
     }
 
-    private void build(Object o, Stack<String> paths) throws IllegalAccessException {
-        List<Field> fields = FieldUtils.getAllFields(o.getClass());
+    private static ValueKind getKind(Class clz) {
+        ValueKind kind = kinds.get(clz);
+        if (kind != null) {
+            return kind;
+        }
+
+        String name = clz.getCanonicalName() != null ? clz.getCanonicalName() : clz.getName();
+        if (name.startsWith("java.")) {
+            kind = ValueKind.JRE;
+        } else if (name.startsWith("org.zstack")) {
+            kind = ValueKind.ZSTACK;
+        } else {
+            kind = ValueKind.OTHER;
+        }
+
+        kinds.put(clz, kind);
+        return kind;
+    }
+
+    private static boolean isContainer(Class clz) {
+        return Collection.class.isAssignableFrom(clz) || Map.class.isAssignableFrom(clz);
+    }
+
+    private static ClassPlan getPlan(Class clz) {
+        ClassPlan plan = plans.get(clz);
+        if (plan != null) {
+            return plan;
+        }
 
-        for (Field f : fields) {
+        plan = new ClassPlan();
+        for (Field f : FieldUtils.getAllFields(clz)) {
             if (isSkip(f)) {
                 continue;
             }
 
-            f.setAccessible(true);
-            Object value = f.get(o);
+            Class type = f.getType();
+            if (type.isPrimitive()) {
+                continue;
+            }
+
+            if (Modifier.isFinal(type.getModifiers()) && getKind(type) == ValueKind.JRE && !isContainer(type)) {
+                // String, Long and so on, the value can never contain an org.zstack.* object
+                continue;
+            }
+
+            FieldPlan fp = new FieldPlan();
+            fp.field = f;
+            fp.field.setAccessible(true);
+            if (isContainer(type)) {
+                Class gtype = FieldUtils.getGenericType(f);
+                fp.elementType = gtype != null && !gtype.getName().startsWith("java.") ? gtype : null;
+            }
+
+            plan.fields.add(fp);
+        }
+
+        plans.put(clz, plan);
+        return plan;
+    }
+
+    private void build(Object o, Stack<String> paths, Class declaredType) throws IllegalAccessException {
+        ClassPlan plan = getPlan(o.getClass());
+
+        for (FieldPlan fp : plan.fields) {
+            Object value = fp.field.get(o);
             if (value == null) {
                 // null value
                 continue;
             }
 
-            if (value.getClass().getCanonicalName().startsWith("java.")) {
+            ValueKind kind = getKind(value.getClass());
+            if (kind == ValueKind.JRE) {
                 // for JRE classes, only deal with Collection and Map
-                if (value instanceof Collection) {
-                    Collection c = (Collection) value;
-
-                    Class gtype = FieldUtils.getGenericType(f);
+                if (fp.elementType == null) {
+                    continue;
+                }
 
-                    if (gtype != null && !gtype.getName().startsWith("java.")) {
-                        int i = 0;
-                        for (Object co : c) {
-                            paths.push(String.format("%s[%s]", f.getName(), i++));
-                            build(co, paths);
-                            paths.pop();
-                        }
+                if (value instanceof Collection) {
+                    int i = 0;
+                    for (Object co : (Collection) value) {
+                        paths.push(String.format("%s[%s]", fp.field.getName(), i++));
+                        build(co, paths, fp.elementType);
+                        paths.pop();
                     }
-
                 } else if (value instanceof Map) {
-                    Class gtype = FieldUtils.getGenericType(f);
-
-                    if (gtype != null && !gtype.getName().startsWith("java.")) {
-                        for (Object me : ((Map) value).entrySet()) {
-                            Map.Entry e = (Map.Entry) me;
-                            paths.push(String.format("%s.%s", f.getName(), e.getKey().toString()));
-                            build(e.getValue(), paths);
-                            paths.pop();
-                        }
+                    for (Object me : ((Map) value).entrySet()) {
+                        Map.Entry e = (Map.Entry) me;
+                        paths.push(String.format("%s.%s", fp.field.getName(), e.getKey().toString()));
+                        build(e.getValue(), paths, fp.elementType);
+                        paths.pop();
                     }
                 }
 
                 // don't record standard JRE classes
 
-            } else if (value.getClass().getCanonicalName().startsWith("org.zstack")) {
-                paths.push(f.getName());
-                build(value, paths);
+            } else if (kind == ValueKind.ZSTACK) {
+                paths.push(fp.field.getName());
+                build(value, paths, fp.field.getType());
                 paths.pop();
             }
         }
 
-        if (!paths.isEmpty()) {
-            schema.put(StringUtils.join(paths, "."), o.getClass().getName());
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        if (polymorphicOnly && o.getClass() == declaredType) {
+            // the receiver will restore the object to the same class by the declared type
+            return;
         }
+
+        schema.put(StringUtils.join(paths, "."), o.getClass().getName());
     }
 
     // support Map and org.zstack.* objects
@@ -113,18 +205,22 @@ public class JsonSchemaBuilder {
                         for (Object it : c) {
                             Stack<String> path = new Stack<>();
                             path.add(String.format("%s[%s]", e.getKey(), i++));
-                            build(it, path);
+                            build(it, path, null);
                         }
                     } else {
                         build(e.getValue(), new Stack<String>() {
                             {
                                 add(e.getKey().toString());
                             }
-                        });
+                        }, null);
                     }
                 }
             } else {
-                build(object, new Stack<>());
+                build(object, new Stack<>(), object.getClass());
+            }
+
+            if (schema.isEmpty()) {
+                return schema;
             }
 
             List<String> keys = new ArrayList<>(schema.keySet());
@@ -18,6 +18,14 @@ public abstract class APIQueryMessage extends APISyncCallMessage {
     @APIParam(required = false, validValues = {"asc", "desc"})
     private String sortDirection = "asc";
     private List<String> fields;
+    /**
+     * the continuation token of keyset paging, set it to an empty string to get the first page and then to
+     * the 'next' of the previous reply; the next page is found by seeking on the sort key and the primary key
+     * instead of skipping 'start' rows, so deep pages cost the same as the first one
+     */
+    private String cursor;
+    // when replyWithCount is set, reply the estimated row number of the table instead of counting it if no condition is applied
+    private boolean estimateCount;
 
     public String getGroupBy() {
         return groupBy;
@@ -114,6 +122,26 @@ public abstract class APIQueryMessage extends APISyncCallMessage {
         return fields != null && !fields.isEmpty();
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isCursorQuery() {
+        return cursor != null;
+    }
+
+    public boolean isEstimateCount() {
+        return estimateCount;
+    }
+
+    public void setEstimateCount(boolean estimateCount) {
+        this.estimateCount = estimateCount;
+    }
+
     public boolean isCount() {
         return count;
     }
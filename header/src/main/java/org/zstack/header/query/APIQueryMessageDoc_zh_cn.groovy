@@ -77,6 +77,12 @@ start=0 limit=100 replyWithCount=true
 ```
 
 则API返回将包含头100条记录，以及`total`字段等于1000，表示总共满足条件的记录为1000。
+
+`start`越大，数据库需要跳过的记录越多，翻页越慢。对记录很多的资源可以使用`cursor`按游标分页：第一页设置`cursor`为空字符串，
+之后每次把上一次返回的`next`字段作为`cursor`传入，直到返回中不再包含`next`。游标分页按`sortBy`字段（未指定时按主键）和主键定位下一页，
+任何一页的查询代价都与第一页相同。游标分页时不能使用`start`和`groupBy`，并且每页的`sortBy`、`sortDirection`必须与第一页相同。
+
+`replyWithCount`设置为true时，可以同时设置`estimateCount`为true：如果查询没有任何条件，`total`返回数据库统计的估计值而不是精确计数。
 """
 
                 column {
@@ -160,6 +166,24 @@ start=0 limit=100 replyWithCount=true
                     optional true
                     since "0.6"
                 }
+
+                column {
+                    name "cursor"
+                    desc "游标分页，见上面[分页查询](#query-pagination)"
+                    type "String"
+                    location "query"
+                    optional true
+                    since "2.2"
+                }
+
+                column {
+                    name "estimateCount"
+                    desc "跟`replyWithCount`配合使用，见上面[分页查询](#query-pagination)"
+                    type "Boolean"
+                    location "query"
+                    optional true
+                    since "2.2"
+                }
             }
         }
     }
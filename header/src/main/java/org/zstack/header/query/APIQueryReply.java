@@ -10,6 +10,7 @@ import org.zstack.header.message.APIReply;
  */
 public class APIQueryReply extends APIReply {
     private Long total;
+    private String next;
 
     public Long getTotal() {
         return total;
@@ -18,6 +19,14 @@ public class APIQueryReply extends APIReply {
     public void setTotal(long total) {
         this.total = total;
     }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
  
     public static APIQueryReply __example__() {
         APIQueryReply reply = new APIQueryReply();
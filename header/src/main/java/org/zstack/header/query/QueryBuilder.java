@@ -6,7 +6,13 @@ import java.util.Map;
 public interface QueryBuilder {
     <T> List<T> query(APIQueryMessage msg, Class<T> inventoryClass);
 
+    <T> QueryPage<T> queryPage(APIQueryMessage msg, Class<T> inventoryClass);
+
+    void stream(APIQueryMessage msg, Class inventoryClass, QueryReplyStream stream);
+
     long count(APIQueryMessage msg, Class inventoryClass);
 
+    long estimateCount(APIQueryMessage msg, Class inventoryClass);
+
     Map<String, List<String>> populateQueryableFields();
 }
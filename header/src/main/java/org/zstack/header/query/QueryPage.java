@@ -0,0 +1,24 @@
+package org.zstack.header.query;
+
+import java.util.List;
+
+/**
+ * a page of a keyset paged query, next is the cursor of the page after it or null if it's the last page
+ */
+public class QueryPage<T> {
+    private List<T> inventories;
+    private String next;
+
+    public QueryPage(List<T> inventories, String next) {
+        this.inventories = inventories;
+        this.next = next;
+    }
+
+    public List<T> getInventories() {
+        return inventories;
+    }
+
+    public String getNext() {
+        return next;
+    }
+}
@@ -0,0 +1,15 @@
+package org.zstack.header.query;
+
+import java.util.List;
+
+/**
+ * receives the inventories of a query chunk by chunk, in the order of the query, instead of
+ * getting them all in the reply
+ */
+public interface QueryReplyStream {
+    // the max number of inventories converted and written at a time
+    int getChunkSize();
+
+    // called at least once, with an empty list if nothing is found
+    void write(List inventories);
+}
@@ -0,0 +1,27 @@
+package org.zstack.header.query;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * the streams waiting for the inventories of query APIs sent on this management node, keyed by API id.
+ *
+ * A query API is always handled by the query service of the node receiving it, the service writes the
+ * inventories to the stream registered for the API instead of putting them in the reply, so a big result
+ * is never held in memory or serialized as a whole.
+ */
+public class QueryReplyStreams {
+    private static final Map<String, QueryReplyStream> streams = new ConcurrentHashMap<>();
+
+    public static void register(String apiId, QueryReplyStream stream) {
+        streams.put(apiId, stream);
+    }
+
+    public static void unregister(String apiId) {
+        streams.remove(apiId);
+    }
+
+    public static QueryReplyStream get(String apiId) {
+        return streams.get(apiId);
+    }
+}
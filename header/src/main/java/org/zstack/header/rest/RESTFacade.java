@@ -46,6 +46,8 @@ public interface RESTFacade {
 
     <T> void registerSyncHttpCallHandler(String path, Class<T> objectType, SyncHttpCallHandler<T> handler);
 
+    <T> void registerSyncHttpCallHandler(String path, Class<T> objectType, SenderAwareSyncHttpCallHandler<T> handler);
+
     String getBaseUrl();
 
     String getSendCommandUrl();
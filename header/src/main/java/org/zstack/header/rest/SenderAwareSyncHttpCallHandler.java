@@ -0,0 +1,9 @@
+package org.zstack.header.rest;
+
+/**
+ * a sync http call handler told the address the call comes from, for commands that
+ * must be checked against their senders
+ */
+public interface SenderAwareSyncHttpCallHandler<T> extends HttpCallHandler {
+    String handleSyncHttpCall(T cmd, String senderAddress);
+}
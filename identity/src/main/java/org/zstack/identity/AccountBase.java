@@ -24,6 +24,7 @@ import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.identity.*;
 import org.zstack.header.identity.IdentityCanonicalEvents.AccountDeletedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
 import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.message.APIDeleteMessage.DeletionMode;
 import org.zstack.header.message.APIMessage;
@@ -318,20 +319,33 @@ public class AccountBase extends AbstractAccount {
         bus.publish(evt);
     }
 
-    @Transactional
     private void handle(APIDetachPoliciesFromUserMsg msg) {
+        detachPolicies(msg);
+        firePolicyChangedEvent();
+
+        APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
+        bus.publish(evt);
+    }
+
+    @Transactional
+    private void detachPolicies(APIDetachPoliciesFromUserMsg msg) {
         String sql = "delete from UserPolicyRefVO ref where ref.policyUuid in (:puuids) and ref.userUuid = :userUuid";
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+    }
 
-        APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
+    private void handle(APIAttachPoliciesToUserMsg msg) {
+        attachPolicies(msg);
+        firePolicyChangedEvent();
+
+        APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
         bus.publish(evt);
     }
 
     @Transactional
-    private void handle(APIAttachPoliciesToUserMsg msg) {
+    private void attachPolicies(APIAttachPoliciesToUserMsg msg) {
         for (String puuid : msg.getPolicyUuids()) {
             try {
                 UserPolicyRefVO refVO = new UserPolicyRefVO();
@@ -347,9 +361,12 @@ public class AccountBase extends AbstractAccount {
                 // the policy is already attached
             }
         }
+    }
 
-        APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
-        bus.publish(evt);
+    private void firePolicyChangedEvent() {
+        PolicyChangedData d = new PolicyChangedData();
+        d.setAccountUuid(vo.getUuid());
+        evtf.fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, d);
     }
 
     private void handle(APIGetAccountQuotaUsageMsg msg) {
@@ -551,6 +568,7 @@ public class AccountBase extends AbstractAccount {
             user = dbf.updateAndRefresh(user);
         }
 
+        firePolicyChangedEvent();
         APIUpdateUserEvent evt = new APIUpdateUserEvent(msg.getId());
         evt.setInventory(UserInventory.valueOf(user));
         bus.publish(evt);
@@ -565,6 +583,7 @@ public class AccountBase extends AbstractAccount {
             dbf.remove(ref);
         }
 
+        firePolicyChangedEvent();
         bus.publish(new APIRemoveUserFromGroupEvent(msg.getId()));
     }
 
@@ -577,6 +596,7 @@ public class AccountBase extends AbstractAccount {
             dbf.remove(ref);
         }
 
+        firePolicyChangedEvent();
         bus.publish(new APIDetachPolicyFromUserGroupEvent(msg.getId()));
     }
 
@@ -589,11 +609,13 @@ public class AccountBase extends AbstractAccount {
             dbf.remove(ref);
         }
 
+        firePolicyChangedEvent();
         bus.publish(new APIDetachPolicyFromUserEvent(msg.getId()));
     }
 
     private void handle(APIDeletePolicyMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), PolicyVO.class);
+        firePolicyChangedEvent();
         APIDeletePolicyEvent evt = new APIDeletePolicyEvent(msg.getId());
         bus.publish(evt);
     }
@@ -610,12 +632,14 @@ public class AccountBase extends AbstractAccount {
             dbf.remove(user);
         }
 
+        firePolicyChangedEvent();
         APIDeleteUserEvent evt = new APIDeleteUserEvent(msg.getId());
         bus.publish(evt);
     }
 
     private void handle(APIDeleteUserGroupMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), UserGroupVO.class);
+        firePolicyChangedEvent();
         APIDeleteUserGroupEvent evt = new APIDeleteUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -625,6 +649,7 @@ public class AccountBase extends AbstractAccount {
         ugvo.setGroupUuid(msg.getGroupUuid());
         ugvo.setUserUuid(msg.getUserUuid());
         dbf.persist(ugvo);
+        firePolicyChangedEvent();
         APIAddUserToGroupEvent evt = new APIAddUserToGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -644,6 +669,7 @@ public class AccountBase extends AbstractAccount {
             // the policy is already attached
         }
 
+        firePolicyChangedEvent();
         APIAttachPolicyToUserGroupEvent evt = new APIAttachPolicyToUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -690,6 +716,7 @@ public class AccountBase extends AbstractAccount {
             // the policy is already attached
         }
 
+        firePolicyChangedEvent();
         APIAttachPolicyToUserEvent evt = new APIAttachPolicyToUserEvent(msg.getId());
         bus.publish(evt);
     }
@@ -5,6 +5,7 @@ import org.zstack.header.identity.Quota;
 import org.zstack.header.identity.SessionInventory;
 import org.zstack.header.message.APIMessage;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -13,6 +14,13 @@ public interface AccountManager {
 
     String getOwnerAccountUuidOfResource(String resourceUuid);
 
+    /**
+     * checks the ownership of many resources in one query
+     *
+     * @return references of the resources owned by other accounts, resources without owners are not included
+     */
+    List<AccountResourceRefInventory> getResourcesNotOwnedByAccount(String accountUuid, Collection<String> resourceUuids);
+
     boolean isResourceHavingAccountReference(Class entityClass);
 
     List<String> getResourceUuidsCanAccessByAccount(String accountUuid, Class resourceType);
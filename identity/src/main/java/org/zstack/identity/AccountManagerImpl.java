@@ -10,6 +10,7 @@ import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.EventCallback;
 import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.config.*;
 import org.zstack.core.db.*;
@@ -29,6 +30,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.identity.*;
 import org.zstack.header.identity.AccountConstant.StatementEffect;
 import org.zstack.header.identity.IdentityCanonicalEvents.AccountDeletedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
 import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.identity.PolicyInventory.Statement;
 import org.zstack.header.identity.Quota.QuotaPair;
@@ -43,6 +45,8 @@ import org.zstack.header.vo.APIGetResourceNamesMsg;
 import org.zstack.header.vo.APIGetResourceNamesReply;
 import org.zstack.header.vo.ResourceInventory;
 import org.zstack.header.vo.ResourceVO;
+import org.zstack.identity.PolicyDecisionCache.CompiledPolicies;
+import org.zstack.identity.PolicyDecisionCache.Decision;
 import org.zstack.utils.*;
 import org.zstack.utils.function.ForEachFunction;
 import org.zstack.utils.gson.JSONObjectUtil;
@@ -59,8 +63,6 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.argerr;
@@ -88,12 +90,15 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     private EventFacade evtf;
     @Autowired
     private GlobalConfigFacade gcf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
 
     private List<String> resourceTypeForAccountRef;
     private Map<String, Class> resourceTypeClassMap = new HashMap<>();
     private Map<String, Class> childrenResourceTypeClassMap = new HashMap<>();
     private List<Class> resourceTypes;
-    private Map<String, SessionInventory> sessions = new ConcurrentHashMap<>();
+    private SessionStore sessions = new SessionStore();
+    private PolicyDecisionCache policyCache;
     private Map<Class, List<Quota>> messageQuotaMap = new HashMap<>();
     private Map<String, Quota> nameQuotaMap = new HashMap<>();
     private HashSet<Class> accountApiControl = new HashSet<>();
@@ -480,7 +485,7 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         APIValidateSessionReply reply = new APIValidateSessionReply();
 
         SessionInventory s = sessions.get(msg.getSessionUuid());
-        Timestamp current = dbf.getCurrentSqlTime();
+        Timestamp current = sessions.now();
         boolean valid = true;
 
         if (s != null) {
@@ -511,10 +516,11 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
 
     private SessionInventory getSession(String accountUuid, String userUuid) {
         int maxLoginTimes = org.zstack.identity.IdentityGlobalConfig.MAX_CONCURRENT_SESSION.value(Integer.class);
-        SimpleQuery<SessionVO> query = dbf.createQuery(SessionVO.class);
-        query.add(SessionVO_.accountUuid, Op.EQ, accountUuid);
-        query.add(SessionVO_.userUuid, Op.EQ, userUuid);
-        long count = query.count();
+        // count in the database, the sessions may be created by other nodes
+        long count = Q.New(SessionVO.class)
+                .eq(SessionVO_.accountUuid, accountUuid)
+                .eq(SessionVO_.userUuid, userUuid)
+                .count();
         if (count >= maxLoginTimes) {
             String err = String.format("Login sessions hit limit of max allowed concurrent login sessions, max allowed: %s", maxLoginTimes);
             throw new BadCredentialsException(err);
@@ -525,11 +531,11 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         svo.setUuid(Platform.getUuid());
         svo.setAccountUuid(accountUuid);
         svo.setUserUuid(userUuid);
-        long expiredTime = getCurrentSqlDate().getTime() + TimeUnit.SECONDS.toMillis(sessionTimeout);
+        long expiredTime = sessions.now().getTime() + TimeUnit.SECONDS.toMillis(sessionTimeout);
         svo.setExpiredDate(new Timestamp(expiredTime));
         svo = dbf.persistAndRefresh(svo);
         SessionInventory session = SessionInventory.valueOf(svo);
-        sessions.put(session.getUuid(), session);
+        sessions.put(session);
         return session;
     }
 
@@ -652,12 +658,13 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                 reload(p);
                 persist(AccountResourceRefVO.newOwn(vo.getUuid(), p.getUuid(), PolicyVO.class));
 
-                List<Tuple> ts = Q.New(GlobalConfigVO.class).select(GlobalConfigVO_.name, GlobalConfigVO_.value)
-                        .eq(GlobalConfigVO_.category, AccountConstant.QUOTA_GLOBAL_CONFIG_CATETORY).listTuple();
+                for (GlobalConfig g : gcf.getAllConfig().values()) {
+                    if (!AccountConstant.QUOTA_GLOBAL_CONFIG_CATETORY.equals(g.getCategory())) {
+                        continue;
+                    }
 
-                for (Tuple t : ts) {
-                    String rtype = t.get(0, String.class);
-                    long quota = Long.valueOf(t.get(1, String.class));
+                    String rtype = g.getName();
+                    long quota = g.value(Long.class);
 
                     QuotaVO qvo = new QuotaVO();
                     qvo.setUuid(Platform.getUuid());
@@ -719,6 +726,7 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             addResourceType();
             buildResourceTypes();
             buildActions();
+            sessions.syncDbTime(getCurrentSqlDate());
             startExpiredSessionCollector();
             collectDefaultQuota();
             configureGlobalConfig();
@@ -752,6 +760,28 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     }
 
     private void setupCanonicalEvents() {
+        evtf.onLocal(IdentityCanonicalEvents.POLICY_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                policyCache.invalidate();
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.POLICY_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    // already invalidated when it's fired
+                    return;
+                }
+
+                PolicyChangedData d = (PolicyChangedData) data;
+                logger.debug(String.format("policies of the account[uuid:%s] changed on another management node," +
+                        " drop the cached policies", d.getAccountUuid()));
+                policyCache.invalidate();
+            }
+        });
+
         evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
             @Override
             public void run(Map tokens, Object data) {
@@ -782,9 +812,9 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             private void removeMemorySessionsAccordingToAccountUuid(Map tokens, Object data) {
                 AccountDeletedData d = (AccountDeletedData) data;
 
-                List<String> suuids = sessions.entrySet().stream()
-                        .filter(it -> it.getValue().getAccountUuid().equals(d.getAccountUuid()))
-                        .map(Map.Entry::getKey)
+                List<String> suuids = sessions.getAll().stream()
+                        .filter(it -> it.getAccountUuid().equals(d.getAccountUuid()))
+                        .map(SessionInventory::getUuid)
                         .collect(Collectors.toList());
 
                 for (String uuid : suuids) {
@@ -822,6 +852,14 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     }
 
     private void configureGlobalConfig() {
+        policyCache = new PolicyDecisionCache(IdentityGlobalConfig.POLICY_CACHE_SIZE.value(Integer.class));
+        IdentityGlobalConfig.POLICY_CACHE_SIZE.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                policyCache.setSize(newConfig.value(Integer.class));
+            }
+        });
+
         String v = IdentityGlobalConfig.ACCOUNT_API_CONTROL.value();
         String[] classNames = v.split(",");
         for (String cn : classNames) {
@@ -1042,22 +1080,33 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         expiredSessionCollector = thdf.submitPeriodicTask(new PeriodicTask() {
 
             @Transactional
-            private List<String> deleteExpiredSessions() {
+            private void deleteExpiredSessions(List<String> uuids) {
+                // sessions not in memory, e.g. created before the node restarted, are cleaned by
+                // the node managing them
                 String sql = "select s.uuid from SessionVO s where CURRENT_TIMESTAMP  >= s.expiredDate";
                 TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                List<String> uuids = q.getResultList();
+                for (String uuid : q.getResultList()) {
+                    if (destMaker.isManagedByUs(uuid)) {
+                        uuids.add(uuid);
+                    }
+                }
+
                 if (!uuids.isEmpty()) {
                     String dsql = "delete from SessionVO s where s.uuid in :uuids";
                     Query dq = dbf.getEntityManager().createQuery(dsql);
                     dq.setParameter("uuids", uuids);
                     dq.executeUpdate();
                 }
-                return uuids;
             }
 
             @Override
             public void run() {
-                List<String> uuids = deleteExpiredSessions();
+                sessions.syncDbTime(getCurrentSqlDate());
+
+                List<String> uuids = sessions.pollExpired().stream()
+                        .map(SessionInventory::getUuid)
+                        .collect(Collectors.toList());
+                deleteExpiredSessions(uuids);
                 for (String uuid : uuids) {
                     sessions.remove(uuid);
                 }
@@ -1213,6 +1262,19 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         return shared;
     }
 
+    @Override
+    public List<AccountResourceRefInventory> getResourcesNotOwnedByAccount(String accountUuid, Collection<String> resourceUuids) {
+        if (resourceUuids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<AccountResourceRefVO> refs = Q.New(AccountResourceRefVO.class)
+                .in(AccountResourceRefVO_.resourceUuid, resourceUuids)
+                .notEq(AccountResourceRefVO_.accountUuid, accountUuid)
+                .list();
+        return AccountResourceRefInventory.valueOf(refs);
+    }
+
     @Override
     public String getOwnerAccountUuidOfResource(String resourceUuid) {
         try {
@@ -1379,33 +1441,25 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                 return;
             }
 
-            List<Tuple> ts = SQL.New(
-                    " select avo.name ,arrf.accountUuid ,arrf.resourceUuid ,arrf.resourceType " +
-                            "from AccountResourceRefVO arrf ,AccountVO avo " +
-                            "where arrf.resourceUuid in (:resourceUuids) and avo.uuid = arrf.accountUuid",Tuple.class)
-                    .param("resourceUuids",resourceUuids).list();
+            List<AccountResourceRefInventory> refs = getResourcesNotOwnedByAccount(session.getAccountUuid(), resourceUuids);
+            if (!refs.isEmpty()) {
+                AccountResourceRefInventory ref = refs.get(0);
+                String resourceOwnerName = Q.New(AccountVO.class).select(AccountVO_.name)
+                        .eq(AccountVO_.uuid, ref.getAccountUuid()).findValue();
+                throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.PERMISSION_DENIED,
+                        String.format("operation denied. The resource[uuid: %s, type: %s,ownerAccountName:%s, ownerAccountUuid:%s] doesn't belong to the account[uuid: %s]",
+                                ref.getResourceUuid(), ref.getResourceType(), resourceOwnerName, ref.getAccountUuid(), session.getAccountUuid())
+                ));
+            }
 
-            for (Tuple t : ts) {
-                String resourceOwnerName = t.get(0, String.class);
-                String resourceOwnerAccountUuid = t.get(1, String.class);
-                String resourceUuid = t.get(2, String.class);
-                String resourceType = t.get(3, String.class);
-                if (!session.getAccountUuid().equals(resourceOwnerAccountUuid)) {
-                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.PERMISSION_DENIED,
-                            String.format("operation denied. The resource[uuid: %s, type: %s,ownerAccountName:%s, ownerAccountUuid:%s] doesn't belong to the account[uuid: %s]",
-                                    resourceUuid, resourceType, resourceOwnerName, resourceOwnerAccountUuid, session.getAccountUuid())
-                    ));
-                } else {
-                    if (logger.isTraceEnabled()) {
-                        logger.trace(String.format("account-check pass. The resource[uuid: %s, type: %s] belongs to the account[uuid: %s]",
-                                resourceUuid, resourceType, session.getAccountUuid()));
-                    }
-                }
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("account-check pass. The resources%s belong to the account[uuid: %s]",
+                        resourceUuids, session.getAccountUuid()));
             }
         }
 
-        private void useDecision(Decision d, boolean userPolicy) {
-            String policyCategory = userPolicy ? "user policy" : "group policy";
+        private void useDecision(Decision d) {
+            String policyCategory = d.userPolicy ? "user policy" : "group policy";
 
             if (d.effect == StatementEffect.Allow) {
                 logger.debug(String.format("API[name: %s, action: %s] is approved by a %s[name: %s, uuid: %s]," +
@@ -1479,22 +1533,11 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                 return;
             }
 
-            SimpleQuery<UserVO> uq = dbf.createQuery(UserVO.class);
-            uq.select(UserVO_.name);
-            uq.add(UserVO_.uuid, Op.EQ, session.getUserUuid());
-            username = uq.findValue();
-
-            List<PolicyInventory> userPolicies = getUserPolicies();
-            Decision d = decide(userPolicies);
-            if (d != null) {
-                useDecision(d, true);
-                return;
-            }
-
-            List<PolicyInventory> groupPolicies = getGroupPolicies();
-            d = decide(groupPolicies);
+            CompiledPolicies policies = getCompiledPolicies();
+            username = policies.getUsername();
+            Decision d = policies.decide(msg.getClass(), action.actions);
             if (d != null) {
-                useDecision(d, false);
+                useDecision(d);
                 return;
             }
 
@@ -1505,6 +1548,25 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         }
 
 
+        private CompiledPolicies getCompiledPolicies() {
+            CompiledPolicies policies = policyCache.get(session.getUserUuid());
+            if (policies != null) {
+                return policies;
+            }
+
+            // get the version before loading, so policies changed during loading won't be cached
+            long version = policyCache.getVersion();
+
+            SimpleQuery<UserVO> uq = dbf.createQuery(UserVO.class);
+            uq.select(UserVO_.name);
+            uq.add(UserVO_.uuid, Op.EQ, session.getUserUuid());
+            String name = uq.findValue();
+
+            policies = new CompiledPolicies(version, name, getUserPolicies(), getGroupPolicies());
+            policyCache.put(session.getUserUuid(), policies);
+            return policies;
+        }
+
         @Transactional(readOnly = true)
         private List<PolicyInventory> getGroupPolicies() {
             String sql = "select p" +
@@ -1517,45 +1579,6 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             return PolicyInventory.valueOf(q.getResultList());
         }
 
-        class Decision {
-            PolicyInventory policy;
-            String action;
-            Statement statement;
-            String actionRule;
-            StatementEffect effect;
-        }
-
-        private Decision decide(List<PolicyInventory> userPolicies) {
-            for (String a : action.actions) {
-                for (PolicyInventory p : userPolicies) {
-                    for (Statement s : p.getStatements()) {
-                        for (String ac : s.getActions()) {
-                            Pattern pattern = Pattern.compile(ac);
-                            Matcher m = pattern.matcher(a);
-                            boolean ret = m.matches();
-                            if (ret) {
-                                Decision d = new Decision();
-                                d.policy = p;
-                                d.action = a;
-                                d.statement = s;
-                                d.actionRule = ac;
-                                d.effect = s.getEffect();
-                                return d;
-                            }
-
-                            if (logger.isTraceEnabled()) {
-                                logger.trace(String.format("API[name: %s, action: %s] is not matched by policy[name: %s, uuid: %s" +
-                                                ", statement[name: %s, action: %s, effect: %s]", msg.getClass().getSimpleName(),
-                                        a, p.getName(), p.getUuid(), s.getName(), ac, s.getEffect()));
-                            }
-                        }
-                    }
-                }
-            }
-
-            return null;
-        }
-
         @Transactional(readOnly = true)
         private List<PolicyInventory> getUserPolicies() {
             String sql = "select p from PolicyVO p, UserPolicyRefVO ref where ref.userUuid = :uuid and ref.policyUuid = p.uuid";
@@ -1583,10 +1606,10 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                             "Session expired"));
                 }
                 session = SessionInventory.valueOf(svo);
-                sessions.put(session.getUuid(), session);
+                sessions.put(session);
             }
 
-            Timestamp curr = getCurrentSqlDate();
+            Timestamp curr = sessions.now();
             if (curr.after(session.getExpiredDate())) {
                 logger.debug(String.format("session expired[%s < %s] for account[uuid:%s]", curr,
                         session.getExpiredDate(), session.getAccountUuid()));
@@ -1882,6 +1905,10 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     }
 
     public Map<String, SessionInventory> getSessionsCopy() {
-        return new HashMap<>(sessions);
+        Map<String, SessionInventory> ret = new HashMap<>();
+        for (SessionInventory s : sessions.getAll()) {
+            ret.put(s.getUuid(), s);
+        }
+        return ret;
     }
 }
@@ -0,0 +1,162 @@
+package org.zstack.identity;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.zstack.header.identity.AccountConstant.StatementEffect;
+import org.zstack.header.identity.PolicyInventory;
+import org.zstack.header.identity.PolicyInventory.Statement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * caches the policies of users compiled for deciding API permissions.
+ *
+ * The policies attached to a user and to the groups of the user are loaded and their statement actions
+ * compiled once, the decisions made for API classes are then memorized in them. All cached policies
+ * are dropped by bumping the version whenever policies, users or groups change; policies loaded
+ * under an older version are never cached.
+ */
+class PolicyDecisionCache {
+    private final AtomicLong version = new AtomicLong();
+    private volatile Map<String, CompiledPolicies> policies;
+
+    static class Decision {
+        PolicyInventory policy;
+        String action;
+        Statement statement;
+        String actionRule;
+        StatementEffect effect;
+        boolean userPolicy;
+    }
+
+    private static class CompiledStatement {
+        PolicyInventory policy;
+        Statement statement;
+        String actionRule;
+        Pattern pattern;
+    }
+
+    // the API is denied by default if no policy decides it
+    private static final Decision NO_DECISION = new Decision();
+
+    static class CompiledPolicies {
+        private final long version;
+        private final String username;
+        private final List<CompiledStatement> userStatements;
+        private final List<CompiledStatement> groupStatements;
+        private final Map<Class, Decision> decisions = new ConcurrentHashMap<>();
+
+        CompiledPolicies(long version, String username, List<PolicyInventory> userPolicies, List<PolicyInventory> groupPolicies) {
+            this.version = version;
+            this.username = username;
+            this.userStatements = compile(userPolicies);
+            this.groupStatements = compile(groupPolicies);
+        }
+
+        private static List<CompiledStatement> compile(List<PolicyInventory> policies) {
+            List<CompiledStatement> ret = new ArrayList<>();
+            for (PolicyInventory p : policies) {
+                for (Statement s : p.getStatements()) {
+                    for (String ac : s.getActions()) {
+                        CompiledStatement cs = new CompiledStatement();
+                        cs.policy = p;
+                        cs.statement = s;
+                        cs.actionRule = ac;
+                        cs.pattern = Pattern.compile(ac);
+                        ret.add(cs);
+                    }
+                }
+            }
+
+            return ret;
+        }
+
+        private static Decision decide(List<String> actions, List<CompiledStatement> statements, boolean userPolicy) {
+            for (String a : actions) {
+                for (CompiledStatement cs : statements) {
+                    if (cs.pattern.matcher(a).matches()) {
+                        Decision d = new Decision();
+                        d.policy = cs.policy;
+                        d.action = a;
+                        d.statement = cs.statement;
+                        d.actionRule = cs.actionRule;
+                        d.effect = cs.statement.getEffect();
+                        d.userPolicy = userPolicy;
+                        return d;
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        String getUsername() {
+            return username;
+        }
+
+        /**
+         * @param apiClass class of the API
+         * @param actions actions of the API
+         * @return the decision made by user policies first then group policies, or null if none decides
+         */
+        Decision decide(Class apiClass, List<String> actions) {
+            Decision d = decisions.computeIfAbsent(apiClass, k -> {
+                Decision ret = decide(actions, userStatements, true);
+                if (ret == null) {
+                    ret = decide(actions, groupStatements, false);
+                }
+
+                return ret == null ? NO_DECISION : ret;
+            });
+
+            return d == NO_DECISION ? null : d;
+        }
+    }
+
+    PolicyDecisionCache(int size) {
+        setSize(size);
+    }
+
+    /**
+     * @param size max number of users cached, 0 disables the cache
+     */
+    void setSize(int size) {
+        policies = size > 0 ? Collections.synchronizedMap(new LRUMap(size)) : null;
+    }
+
+    long getVersion() {
+        return version.get();
+    }
+
+    CompiledPolicies get(String userUuid) {
+        Map<String, CompiledPolicies> m = policies;
+        if (m == null) {
+            return null;
+        }
+
+        CompiledPolicies p = m.get(userUuid);
+        return p != null && p.version == version.get() ? p : null;
+    }
+
+    void put(String userUuid, CompiledPolicies p) {
+        Map<String, CompiledPolicies> m = policies;
+        if (m == null || p.version != version.get()) {
+            return;
+        }
+
+        m.put(userUuid, p);
+    }
+
+    void invalidate() {
+        version.incrementAndGet();
+        Map<String, CompiledPolicies> m = policies;
+        if (m != null) {
+            m.clear();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.zstack.identity;
+
+import org.zstack.header.identity.SessionInventory;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * keeps the sessions known by this management node in memory.
+ *
+ * Sessions are indexed by uuid and ordered by expiry date in a heap, so expired sessions are found without
+ * scanning. The database time is tracked as an offset to the local clock, so checking expiry doesn't query
+ * the database. Sessions are not counted here, other nodes create sessions too, so the concurrent session
+ * limit is checked in the database.
+ */
+class SessionStore {
+    private final Map<String, SessionInventory> sessions = new ConcurrentHashMap<>();
+    private final PriorityQueue<SessionInventory> expiries = new PriorityQueue<>(
+            Comparator.comparing(SessionInventory::getExpiredDate));
+    private volatile long dbTimeOffset;
+
+    /**
+     * @param dbTime current time of the database
+     */
+    void syncDbTime(Timestamp dbTime) {
+        dbTimeOffset = dbTime.getTime() - System.currentTimeMillis();
+    }
+
+    /**
+     * @return current time of the database
+     */
+    Timestamp now() {
+        return new Timestamp(System.currentTimeMillis() + dbTimeOffset);
+    }
+
+    SessionInventory get(String uuid) {
+        return sessions.get(uuid);
+    }
+
+    Collection<SessionInventory> getAll() {
+        return sessions.values();
+    }
+
+    void put(SessionInventory session) {
+        if (sessions.put(session.getUuid(), session) != null) {
+            return;
+        }
+
+        synchronized (this) {
+            expiries.add(session);
+        }
+    }
+
+    void remove(String uuid) {
+        SessionInventory s = sessions.remove(uuid);
+        if (s == null) {
+            return;
+        }
+
+        synchronized (this) {
+            expiries.remove(s);
+        }
+    }
+
+    /**
+     * removes the expired sessions from memory
+     *
+     * @return the expired sessions
+     */
+    List<SessionInventory> pollExpired() {
+        Timestamp now = now();
+        List<SessionInventory> ret = new ArrayList<>();
+        synchronized (this) {
+            while (!expiries.isEmpty() && now.after(expiries.peek().getExpiredDate())) {
+                ret.add(expiries.poll());
+            }
+        }
+
+        ret.removeIf(s -> sessions.remove(s.getUuid()) == null);
+        return ret;
+    }
+}
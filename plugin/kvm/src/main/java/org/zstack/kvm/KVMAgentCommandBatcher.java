@@ -0,0 +1,247 @@
+package org.zstack.kvm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.validation.ValidationFacade;
+import org.zstack.header.Component;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.host.HostDeleteExtensionPoint;
+import org.zstack.header.host.HostException;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.rest.JsonAsyncRESTCallback;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.kvm.KVMAgentCommands.BatchCommand;
+import org.zstack.kvm.KVMAgentCommands.BatchResponse;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.core.Platform.operr;
+
+/**
+ * coalesces the commands posted to the same path of a kvm agent within a short window into one batch.
+ *
+ * A batch is posted to the agent in one request and replied in one callback carrying the responses
+ * in the order of the commands, which saves the connections and the callbacks of mass operations
+ * like starting hundreds of VMs. A batch is sent when the window expires or when it's full; its
+ * timeout is the longest one of its commands, and it fails all its commands if it fails. Only agents
+ * reporting the capability in the connect response receive batches. Windows are timed by a dedicated
+ * scheduler, as the ticks of ThreadFacade timeout tasks are much longer than a window; the expired
+ * batches are posted in ThreadFacade, so that a slow agent doesn't hold the windows of other hosts.
+ */
+public class KVMAgentCommandBatcher implements Component, HostDeleteExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(KVMAgentCommandBatcher.class);
+
+    @Autowired
+    private RESTFacade restf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ValidationFacade vf;
+
+    private ScheduledExecutorService windowTimer;
+    private Set<String> batchCapableHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    // batches waiting for the window to expire, keyed by host uuid and command url
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    private static class Entry {
+        String body;
+        JsonAsyncRESTCallback callback;
+        long timeout;
+    }
+
+    private static class Batch {
+        String key;
+        String batchUrl;
+        String url;
+        Map<String, String> headers;
+        List<Entry> entries = new ArrayList<>();
+    }
+
+    public void setBatchCommandSupported(String hostUuid, boolean supported) {
+        if (supported) {
+            batchCapableHosts.add(hostUuid);
+        } else {
+            batchCapableHosts.remove(hostUuid);
+        }
+    }
+
+    public boolean isEnabled(String hostUuid) {
+        return KVMGlobalProperty.BATCH_COMMAND && batchCapableHosts.contains(hostUuid);
+    }
+
+    /**
+     * @param batchUrl url of the batch command on the agent
+     * @param url url of the command
+     * @param timeout timeout of the command in milliseconds
+     */
+    public void send(String hostUuid, String batchUrl, String url, String body, Map<String, String> headers,
+                     JsonAsyncRESTCallback callback, long timeout) {
+        Entry entry = new Entry();
+        entry.body = body;
+        entry.callback = callback;
+        entry.timeout = timeout;
+
+        String key = String.format("%s-%s", hostUuid, url);
+        Batch full = null;
+        Batch created = null;
+        synchronized (batches) {
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch();
+                batch.key = key;
+                batch.batchUrl = batchUrl;
+                batch.url = url;
+                batch.headers = headers;
+                batches.put(key, batch);
+                created = batch;
+            }
+
+            batch.entries.add(entry);
+            if (batch.entries.size() >= KVMGlobalProperty.BATCH_COMMAND_MAX_SIZE) {
+                batches.remove(key);
+                full = batch;
+            }
+        }
+
+        if (full != null) {
+            post(full);
+        } else if (created != null) {
+            final Batch batch = created;
+            windowTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (batches) {
+                        if (batches.get(batch.key) != batch) {
+                            // sent as it was full
+                            return;
+                        }
+
+                        batches.remove(batch.key);
+                    }
+
+                    thdf.submit(new Task<Void>() {
+                        @Override
+                        public String getName() {
+                            return String.format("post-batch-commands-to-%s", batch.url);
+                        }
+
+                        @Override
+                        public Void call() {
+                            try {
+                                post(batch);
+                            } catch (Throwable t) {
+                                logger.warn(String.format("unhandled exception when posting the batch commands to %s", batch.url), t);
+                            }
+                            return null;
+                        }
+                    });
+                }
+            }, KVMGlobalProperty.BATCH_COMMAND_WINDOW, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void post(final Batch batch) {
+        if (batch.entries.size() == 1) {
+            Entry e = batch.entries.get(0);
+            restf.asyncJsonPost(batch.url, e.body, batch.headers, e.callback, TimeUnit.MILLISECONDS, e.timeout);
+            return;
+        }
+
+        BatchCommand cmd = new BatchCommand();
+        cmd.path = UriComponentsBuilder.fromHttpUrl(batch.url).build().getPath();
+        cmd.commands = new ArrayList<>();
+        long timeout = 0;
+        for (Entry e : batch.entries) {
+            cmd.commands.add(e.body);
+            timeout = Math.max(timeout, e.timeout);
+        }
+
+        logger.debug(String.format("post %s commands to %s in one batch", batch.entries.size(), batch.url));
+
+        restf.asyncJsonPost(batch.batchUrl, cmd, batch.headers, new JsonAsyncRESTCallback<BatchResponse>(null) {
+            @Override
+            public void fail(ErrorCode err) {
+                for (Entry e : batch.entries) {
+                    e.callback.fail(err);
+                }
+            }
+
+            @Override
+            public void success(BatchResponse rsp) {
+                if (!rsp.isSuccess()) {
+                    fail(operr("failed to execute the batch commands[path:%s], %s", cmd.path, rsp.getError()));
+                    return;
+                }
+
+                if (rsp.responses == null || rsp.responses.size() != batch.entries.size()) {
+                    fail(operr("the agent replied %s responses to %s batch commands[path:%s]",
+                            rsp.responses == null ? 0 : rsp.responses.size(), batch.entries.size(), cmd.path));
+                    return;
+                }
+
+                for (int i = 0; i < batch.entries.size(); i++) {
+                    JsonAsyncRESTCallback callback = batch.entries.get(i).callback;
+                    try {
+                        Object obj = JSONObjectUtil.toObject(rsp.responses.get(i), callback.getReturnClass());
+                        ErrorCode err = vf.validateErrorByErrorCode(obj);
+                        if (err != null) {
+                            logger.warn(String.format("error response of the batch command[path:%s], %s", cmd.path, err));
+                            callback.fail(err);
+                        } else {
+                            callback.success(obj);
+                        }
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unhandled exception when replying the batch command[path:%s]", cmd.path), t);
+                    }
+                }
+            }
+
+            @Override
+            public Class<BatchResponse> getReturnClass() {
+                return BatchResponse.class;
+            }
+        }, TimeUnit.MILLISECONDS, timeout);
+    }
+
+    @Override
+    public boolean start() {
+        windowTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kvm-agent-command-batcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        windowTimer.shutdown();
+        return true;
+    }
+
+    @Override
+    public void preDeleteHost(HostInventory inventory) throws HostException {
+    }
+
+    @Override
+    public void beforeDeleteHost(HostInventory inventory) {
+    }
+
+    @Override
+    public void afterDeleteHost(HostInventory inventory) {
+        batchCapableHosts.remove(inventory.getUuid());
+    }
+}
@@ -61,6 +61,17 @@ public class KVMAgentCommands {
     public static class AgentCommand {
     }
 
+    public static class BatchCommand extends AgentCommand {
+        // the path of the commands on the agent
+        public String path;
+        // the commands in json, the agent replies them in the same order
+        public List<String> commands;
+    }
+
+    public static class BatchResponse extends AgentResponse {
+        public List<String> responses;
+    }
+
     public static class CheckVmStateCmd extends AgentCommand {
         public List<String> vmUuids;
         public String hostUuid;
@@ -133,6 +144,16 @@ public class KVMAgentCommands {
         private String hostUuid;
         private String sendCommandUrl;
         private List<String> iptablesRules;
+        // seconds the agent posts heartbeats to the sendCommandUrl, null for no heartbeat
+        private Integer heartbeatInterval;
+
+        public Integer getHeartbeatInterval() {
+            return heartbeatInterval;
+        }
+
+        public void setHeartbeatInterval(Integer heartbeatInterval) {
+            this.heartbeatInterval = heartbeatInterval;
+        }
 
         public List<String> getIptablesRules() {
             return iptablesRules;
@@ -173,6 +194,16 @@ public class KVMAgentCommands {
 
         boolean iptablesSucc;
 
+        private boolean batchCommandSupported;
+
+        public boolean isBatchCommandSupported() {
+            return batchCommandSupported;
+        }
+
+        public void setBatchCommandSupported(boolean batchCommandSupported) {
+            this.batchCommandSupported = batchCommandSupported;
+        }
+
         public String getLibvirtVersion() {
             return libvirtVersion;
         }
@@ -1621,6 +1652,11 @@ public class KVMAgentCommands {
         public String reason;
     }
 
+    public static class HostHeartbeatCmd {
+        // hosts whose agents are alive, only the hosts at the address of the agent are accepted
+        public List<String> hostUuids;
+    }
+
     public static class ReportPsStatusCmd {
         public String hostUuid;
         public List<String> psUuids;
@@ -44,6 +44,7 @@ public interface KVMConstant {
     String KVM_LOGIN_ISCSI_PATH = "/iscsi/target/login";
     String KVM_HARDEN_CONSOLE_PATH = "/vm/console/harden";
     String KVM_DELETE_CONSOLE_FIREWALL_PATH = "/vm/console/deletefirewall";
+    String KVM_BATCH_COMMAND_PATH = "/host/batchcommand";
     String ISO_TO = "kvm.isoto";
     String ANSIBLE_PLAYBOOK_NAME = "kvm.py";
     String ANSIBLE_MODULE_PATH = "ansible/kvm";
@@ -55,6 +56,7 @@ public interface KVMConstant {
 
     String KVM_REPORT_VM_STATE = "/kvm/reportvmstate";
     String KVM_RECONNECT_ME = "/kvm/reconnectme";
+    String KVM_HOST_HEARTBEAT = "/kvm/heartbeat";
     String KVM_REPORT_PS_STATUS = "/kvm/reportstoragestatus";
     String KVM_ANSIBLE_LOG_PATH_FROMAT = "/kvm/ansiblelog/{uuid}";
 
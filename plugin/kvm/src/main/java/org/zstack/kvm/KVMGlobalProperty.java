@@ -21,4 +21,10 @@ public class KVMGlobalProperty {
     public static int AGENT_SERVER_PORT;
     @GlobalProperty(name="KvmHost.iptables.rule.", defaultValue = "")
     public static List<String> IPTABLES_RULES;
+    @GlobalProperty(name="KvmAgent.batchCommand", defaultValue = "false")
+    public static boolean BATCH_COMMAND;
+    @GlobalProperty(name="KvmAgent.batchCommandWindow", defaultValue = "20")
+    public static long BATCH_COMMAND_WINDOW;
+    @GlobalProperty(name="KvmAgent.batchCommandMaxSize", defaultValue = "100")
+    public static int BATCH_COMMAND_MAX_SIZE;
 }
@@ -7,6 +7,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.util.UriComponentsBuilder;
 import org.zstack.compute.host.HostBase;
+import org.zstack.compute.host.HostGlobalConfig;
 import org.zstack.compute.host.HostSystemTags;
 import org.zstack.compute.vm.VmGlobalConfig;
 import org.zstack.compute.vm.VmSystemTags;
@@ -89,6 +90,8 @@ public class KVMHost extends HostBase implements Host {
     private TagManager tagmgr;
     @Autowired
     private ApiTimeoutManager timeoutManager;
+    @Autowired
+    private KVMAgentCommandBatcher batcher;
 
     private KVMHostContext context;
 
@@ -119,6 +122,7 @@ public class KVMHost extends HostBase implements Host {
     private String onlineIncreaseCpuPath;
     private String onlineIncreaseMemPath;
     private String deleteConsoleFirewall;
+    private String batchCommandPath;
 
     private String agentPackageName = KVMGlobalProperty.AGENT_PACKAGE_NAME;
 
@@ -227,6 +231,10 @@ public class KVMHost extends HostBase implements Host {
         ub = UriComponentsBuilder.fromHttpUrl(baseUrl);
         ub.path(KVMConstant.KVM_DELETE_CONSOLE_FIREWALL_PATH);
         deleteConsoleFirewall = ub.build().toString();
+
+        ub = UriComponentsBuilder.fromHttpUrl(baseUrl);
+        ub.path(KVMConstant.KVM_BATCH_COMMAND_PATH);
+        batchCommandPath = ub.build().toString();
     }
 
     class Http<T> {
@@ -254,40 +262,31 @@ public class KVMHost extends HostBase implements Host {
         void call(ReturnValueCompletion<T> completion)  {
             Map<String, String> header = new HashMap<>();
             header.put(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, self.getUuid());
-            if (commandStr != null) {
-                restf.asyncJsonPost(path, commandStr, header, new JsonAsyncRESTCallback<T>(completion) {
-                    @Override
-                    public void fail(ErrorCode err) {
-                        completion.fail(err);
-                    }
+            JsonAsyncRESTCallback<T> callback = new JsonAsyncRESTCallback<T>(completion) {
+                @Override
+                public void fail(ErrorCode err) {
+                    completion.fail(err);
+                }
 
-                    @Override
-                    public void success(T ret) {
-                        completion.success(ret);
-                    }
+                @Override
+                public void success(T ret) {
+                    completion.success(ret);
+                }
 
-                    @Override
-                    public Class<T> getReturnClass() {
-                        return responseClass;
-                    }
-                }, unit, timeout);
+                @Override
+                public Class<T> getReturnClass() {
+                    return responseClass;
+                }
+            };
+
+            if (batcher.isEnabled(self.getUuid())) {
+                String body = commandStr != null ? commandStr : JSONObjectUtil.toJsonString(cmd);
+                long t = commandStr != null ? unit.toMillis(timeout) : timeoutManager.getTimeout(cmd.getClass(), 300000);
+                batcher.send(self.getUuid(), batchCommandPath, path, body, header, callback, t);
+            } else if (commandStr != null) {
+                restf.asyncJsonPost(path, commandStr, header, callback, unit, timeout);
             } else {
-                restf.asyncJsonPost(path, cmd, header, new JsonAsyncRESTCallback<T>(completion) {
-                    @Override
-                    public void fail(ErrorCode err) {
-                        completion.fail(err);
-                    }
-
-                    @Override
-                    public void success(T ret) {
-                        completion.success(ret);
-                    }
-
-                    @Override
-                    public Class<T> getReturnClass() {
-                        return responseClass;
-                    }
-                }); // DO NOT pass unit, timeout here, they are null
+                restf.asyncJsonPost(path, cmd, header, callback); // DO NOT pass unit, timeout here, they are null
             }
         }
     }
@@ -2224,6 +2223,15 @@ public class KVMHost extends HostBase implements Host {
 
     @Override
     protected void pingHook(final Completion completion) {
+        ping(false, completion);
+    }
+
+    @Override
+    protected void pingAliveHostHook(final Completion completion) {
+        ping(true, completion);
+    }
+
+    private void ping(final boolean agentAlive, final Completion completion) {
         FlowChain chain = FlowChainBuilder.newShareFlowChain();
         chain.setName(String.format("ping-kvm-host-%s", self.getUuid()));
         chain.then(new ShareFlow() {
@@ -2244,6 +2252,12 @@ public class KVMHost extends HostBase implements Host {
 
                     @Override
                     public void run(FlowTrigger trigger, Map data) {
+                        if (agentAlive) {
+                            // the agent reports heartbeats
+                            trigger.next();
+                            return;
+                        }
+
                         PingCmd cmd = new PingCmd();
                         cmd.hostUuid = self.getUuid();
                         restf.asyncJsonPost(pingPath, cmd, new JsonAsyncRESTCallback<PingResponse>(trigger) {
@@ -2384,7 +2398,11 @@ public class KVMHost extends HostBase implements Host {
             cmd.setHostUuid(self.getUuid());
             cmd.setSendCommandUrl(restf.getSendCommandUrl());
             cmd.setIptablesRules(KVMGlobalProperty.IPTABLES_RULES);
+            if (HostGlobalConfig.AGENT_HEARTBEAT.value(Boolean.class)) {
+                cmd.setHeartbeatInterval(HostGlobalConfig.AGENT_HEARTBEAT_INTERVAL.value(Integer.class));
+            }
             ConnectResponse rsp = restf.syncJsonPost(connectPath, cmd, ConnectResponse.class);
+            batcher.setBatchCommandSupported(self.getUuid(), rsp.isSuccess() && rsp.isBatchCommandSupported());
             if (!rsp.isSuccess() || !rsp.isIptablesSucc()) {
                 errCode = operr("unable to connect to kvm host[uuid:%s, ip:%s, url:%s], because %s", self.getUuid(), self.getManagementIp(), connectPath,
                         rsp.getError());
@@ -3,6 +3,7 @@ package org.zstack.kvm;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.util.UriComponentsBuilder;
 import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.compute.host.HostTracker;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.ansible.AnsibleFacade;
 import org.zstack.core.cloudbus.*;
@@ -25,10 +26,12 @@ import org.zstack.header.message.MessageReply;
 import org.zstack.header.message.NeedReplyMessage;
 import org.zstack.header.network.l2.L2NetworkType;
 import org.zstack.header.rest.RESTFacade;
+import org.zstack.header.rest.SenderAwareSyncHttpCallHandler;
 import org.zstack.header.rest.SyncHttpCallHandler;
 import org.zstack.header.volume.MaxDataVolumeNumberExtensionPoint;
 import org.zstack.header.volume.VolumeConstant;
 import org.zstack.header.volume.VolumeFormat;
+import org.zstack.kvm.KVMAgentCommands.HostHeartbeatCmd;
 import org.zstack.kvm.KVMAgentCommands.ReconnectMeCmd;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.SizeUtils;
@@ -69,6 +72,8 @@ public class KVMHostFactory extends AbstractService implements HypervisorFactory
     private CloudBus bus;
     @Autowired
     private RESTFacade restf;
+    @Autowired
+    private HostTracker hostTracker;
 
     @Override
     public HostVO createHost(HostVO vo, AddHostMessage msg) {
@@ -207,6 +212,13 @@ public class KVMHostFactory extends AbstractService implements HypervisorFactory
                 return null;
             }
         });
+        restf.registerSyncHttpCallHandler(KVMConstant.KVM_HOST_HEARTBEAT, HostHeartbeatCmd.class, new SenderAwareSyncHttpCallHandler<HostHeartbeatCmd>() {
+            @Override
+            public String handleSyncHttpCall(HostHeartbeatCmd cmd, String senderAddress) {
+                hostTracker.reportHeartbeat(cmd.hostUuids, senderAddress);
+                return null;
+            }
+        });
 
         return true;
     }
@@ -5,7 +5,6 @@ import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
-import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
@@ -27,11 +26,9 @@ import org.zstack.utils.DebugUtils;
 import org.zstack.utils.FieldUtils;
 import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
-import org.zstack.utils.function.FunctionNoArg;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
 
-import javax.persistence.TypedQuery;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
@@ -53,6 +50,7 @@ import static org.zstack.core.Platform.argerr;
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     private static CLogger logger = Utils.getLogger(ApiMessageProcessorImpl.class);
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-f]{8}[0-9a-f]{4}[1-5][0-9a-f]{3}[89ab][0-9a-f]{3}[0-9a-f]{12}");
     private Map<Class, ApiMessageDescriptor> descriptors = new HashMap<Class, ApiMessageDescriptor>();
     private Map<Class, Set<GlobalApiMessageInterceptor>> globalInterceptors = new HashMap<Class, Set<GlobalApiMessageInterceptor>>();
     private Set<GlobalApiMessageInterceptor> globalInterceptorsForAllMsg = new HashSet<GlobalApiMessageInterceptor>();
@@ -65,6 +63,8 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     private DatabaseFacade dbf;
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private ApiResourceChecker resourceChecker;
 
     private boolean unitTestOn;
     private List<String> configFolders;
@@ -255,77 +255,35 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     }
 
 
+    private static class ResourceRef {
+        Field field;
+        APIParam param;
+        Object value;
+    }
+
     private void apiParamValidation(APIMessage msg) {
         try {
+            List<ResourceRef> refs = new ArrayList<>();
             msg.validate((msg1, f, value, at) -> {
                 if (value != null && at.resourceType() != Object.class) {
                     if (value instanceof Collection) {
-                        final Collection col = (Collection) value;
-                        if (!col.isEmpty()) {
-                            List<String> uuids = new FunctionNoArg<List<String>>() {
-                                @Override
-                                @Transactional(readOnly = true)
-                                public List<String> call() {
-                                    String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", at.resourceType().getSimpleName());
-                                    TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                                    q.setParameter("uuids", col);
-                                    return q.getResultList();
-                                }
-                            }.call();
-
-                            if (uuids.size() != col.size()) {
-                                List<String> invalids = new ArrayList<>();
-                                for (Object o : col) {
-                                    String uuid = (String) o;
-                                    if (!uuids.contains(uuid)) {
-                                        invalids.add(uuid);
-                                    }
-                                }
-
-                                if (!invalids.isEmpty()) {
-                                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                            String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalids, at.resourceType().getSimpleName())
-                                    ));
-                                }
-                            }
+                        if (((Collection) value).isEmpty()) {
+                            return;
                         }
-
                     } else {
                         DebugUtils.Assert(String.class.isAssignableFrom(f.getType()), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
                                 f.getName(), msg.getClass().getName(), f.getType()));
-
-                        if (!dbf.isExist(value, at.resourceType())) {
-                            if (at.successIfResourceNotExisting()) {
-                                RestRequest rat = msg.getClass().getAnnotation(RestRequest.class);
-                                if (rat == null) {
-                                    throw new CloudRuntimeException(String.format("the API class[%s] does not have @RestRequest but it uses a successIfResourceNotExisting helper", msg.getClass()));
-                                }
-
-                                Pattern p = Pattern.compile("[0-9a-f]{8}[0-9a-f]{4}[1-5][0-9a-f]{3}[89ab][0-9a-f]{3}[0-9a-f]{12}");
-                                Matcher mt = p.matcher(value.toString());
-                                if (!mt.matches()){
-                                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                            String.format("invalid value[%s] of field [%s]", value, f.getName())));
-                                }
-
-                                APIEvent evt;
-                                try {
-                                    evt = (APIEvent) rat.responseClass().getConstructor(String.class).newInstance(msg.getId());
-                                } catch (Exception e) {
-                                    throw new CloudRuntimeException(e);
-                                }
-
-                                bus.publish(evt);
-                                throw new StopRoutingException();
-                            } else {
-                                throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                        String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, at.resourceType().getSimpleName())
-                                ));
-                            }
-                        }
                     }
+
+                    ResourceRef ref = new ResourceRef();
+                    ref.field = f;
+                    ref.param = at;
+                    ref.value = value;
+                    refs.add(ref);
                 }
             });
+
+            validateResourceRefs(msg, refs);
         } catch (ApiMessageInterceptionException | StopRoutingException ae) {
             throw ae;
         } catch (APIMessage.InvalidApiMessageException ie) {
@@ -336,6 +294,77 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
         }
     }
 
+    private void validateResourceRefs(APIMessage msg, List<ResourceRef> refs) {
+        if (refs.isEmpty()) {
+            return;
+        }
+
+        // resolve the resources of all fields at once
+        Map<Class, Set<String>> uuidsByType = new HashMap<>();
+        for (ResourceRef ref : refs) {
+            Set<String> uuids = uuidsByType.computeIfAbsent(ref.param.resourceType(), k -> new HashSet<>());
+            if (ref.value instanceof Collection) {
+                for (Object o : (Collection) ref.value) {
+                    uuids.add((String) o);
+                }
+            } else {
+                uuids.add((String) ref.value);
+            }
+        }
+
+        Map<Class, Set<String>> existing = resourceChecker.findExisting(uuidsByType);
+
+        for (ResourceRef ref : refs) {
+            Field f = ref.field;
+            APIParam at = ref.param;
+            Object value = ref.value;
+            Set<String> found = existing.get(at.resourceType());
+
+            if (value instanceof Collection) {
+                List<String> invalids = new ArrayList<>();
+                for (Object o : (Collection) value) {
+                    String uuid = (String) o;
+                    if (!found.contains(uuid)) {
+                        invalids.add(uuid);
+                    }
+                }
+
+                if (!invalids.isEmpty()) {
+                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                            String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalids, at.resourceType().getSimpleName())
+                    ));
+                }
+            } else if (!found.contains(value)) {
+                if (at.successIfResourceNotExisting()) {
+                    RestRequest rat = msg.getClass().getAnnotation(RestRequest.class);
+                    if (rat == null) {
+                        throw new CloudRuntimeException(String.format("the API class[%s] does not have @RestRequest but it uses a successIfResourceNotExisting helper", msg.getClass()));
+                    }
+
+                    Matcher mt = UUID_PATTERN.matcher(value.toString());
+                    if (!mt.matches()){
+                        throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                                String.format("invalid value[%s] of field [%s]", value, f.getName())));
+                    }
+
+                    APIEvent evt;
+                    try {
+                        evt = (APIEvent) rat.responseClass().getConstructor(String.class).newInstance(msg.getId());
+                    } catch (Exception e) {
+                        throw new CloudRuntimeException(e);
+                    }
+
+                    bus.publish(evt);
+                    throw new StopRoutingException();
+                } else {
+                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                            String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, at.resourceType().getSimpleName())
+                    ));
+                }
+            }
+        }
+    }
+
     @Override
     public APIMessage process(APIMessage msg) throws ApiMessageInterceptionException {
         ApiMessageDescriptor desc = descriptors.get(msg.getClass());
@@ -0,0 +1,241 @@
+package org.zstack.portal.apimediator;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.HardDeleteEntityExtensionPoint;
+import org.zstack.core.db.SoftDeleteEntityExtensionPoint;
+import org.zstack.header.vo.EO;
+import org.zstack.header.vo.ResourceVO;
+import org.zstack.portal.managementnode.PortalGlobalProperty;
+import org.zstack.utils.BeanUtils;
+import org.zstack.utils.DebugUtils;
+import org.zstack.utils.FieldUtils;
+
+import javax.persistence.Id;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * resolves the resources referred by API messages in batches.
+ *
+ * Resources of types inheriting ResourceVO are resolved in one query on ResourceVO, others and those
+ * not found there are resolved in one query per type. ResourceVO keeps the rows of soft deleted resources,
+ * so types with an @EO in their hierarchy are always resolved on their VO views, which hide deleted rows.
+ *
+ * Resources found recently are cached if ApiMediator.resourceCacheSize is set, a cached resource is dropped
+ * when it's deleted through the DatabaseFacade on this node, or when it expires, which bounds the time to
+ * notice deletions on other nodes; resources not found are never cached.
+ */
+public class ApiResourceChecker implements SoftDeleteEntityExtensionPoint, HardDeleteEntityExtensionPoint {
+    @Autowired
+    private DatabaseFacade dbf;
+
+    // resource uuid -> the types it's found in and the time found
+    private Map<String, Map<Class, Long>> cache = Collections.synchronizedMap(
+            new LRUMap(Math.max(PortalGlobalProperty.API_RESOURCE_CACHE_SIZE, 1)));
+    // resource type -> the simple names of itself and its sub types, which are the values of ResourceVO.resourceType
+    private Map<Class, Set<String>> typeNames = new ConcurrentHashMap<>();
+    private Map<Class, String> primaryKeys = new ConcurrentHashMap<>();
+    private Map<Class, Boolean> softDeletables = new ConcurrentHashMap<>();
+
+    private boolean isCacheEnabled() {
+        return PortalGlobalProperty.API_RESOURCE_CACHE_SIZE > 0;
+    }
+
+    private boolean isCached(Class type, String uuid, long now) {
+        Map<Class, Long> types = cache.get(uuid);
+        if (types == null) {
+            return false;
+        }
+
+        synchronized (types) {
+            Long time = types.get(type);
+            return time != null && now - time < TimeUnit.SECONDS.toMillis(PortalGlobalProperty.API_RESOURCE_CACHE_TTL);
+        }
+    }
+
+    private void addToCache(Class type, Collection<String> uuids, long now) {
+        for (String uuid : uuids) {
+            Map<Class, Long> types;
+            synchronized (cache) {
+                types = cache.get(uuid);
+                if (types == null) {
+                    types = new HashMap<>();
+                    cache.put(uuid, types);
+                }
+            }
+
+            synchronized (types) {
+                types.put(type, now);
+            }
+        }
+    }
+
+    private Set<String> getTypeNames(Class type) {
+        return typeNames.computeIfAbsent(type, t -> {
+            Set<String> names = new HashSet<>();
+            names.add(t.getSimpleName());
+            for (Object sub : BeanUtils.reflections.getSubTypesOf(t)) {
+                names.add(((Class) sub).getSimpleName());
+            }
+            return names;
+        });
+    }
+
+    private boolean hasEO(Class type) {
+        for (Class c = type; c != null; c = c.getSuperclass()) {
+            if (c.isAnnotationPresent(EO.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the type, its super or sub types may be soft deleted
+    private boolean isSoftDeletable(Class type) {
+        return softDeletables.computeIfAbsent(type, t -> {
+            if (hasEO(t)) {
+                return true;
+            }
+
+            for (Object sub : BeanUtils.reflections.getSubTypesOf(t)) {
+                if (hasEO((Class) sub)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    private String getPrimaryKey(Class type) {
+        return primaryKeys.computeIfAbsent(type, t -> {
+            Field f = FieldUtils.getAnnotatedField(Id.class, t);
+            DebugUtils.Assert(f != null, String.format("%s has no primary key", t));
+            return f.getName();
+        });
+    }
+
+    @Transactional(readOnly = true)
+    private Map<Class, Set<String>> query(Map<Class, Set<String>> refs) {
+        Map<Class, Set<String>> found = new HashMap<>();
+
+        Set<String> resourceUuids = new HashSet<>();
+        for (Map.Entry<Class, Set<String>> e : refs.entrySet()) {
+            if (ResourceVO.class.isAssignableFrom(e.getKey()) && !isSoftDeletable(e.getKey())) {
+                resourceUuids.addAll(e.getValue());
+            }
+        }
+
+        Map<String, String> resourceTypes = new HashMap<>();
+        if (!resourceUuids.isEmpty()) {
+            Query q = dbf.getEntityManager().createNativeQuery("select uuid, resourceType from ResourceVO where uuid in (:uuids)");
+            q.setParameter("uuids", resourceUuids);
+            List<Object[]> objs = q.getResultList();
+            for (Object[] obj : objs) {
+                resourceTypes.put((String) obj[0], (String) obj[1]);
+            }
+        }
+
+        for (Map.Entry<Class, Set<String>> e : refs.entrySet()) {
+            Class type = e.getKey();
+            Set<String> uuids = new HashSet<>();
+            Set<String> left = new HashSet<>();
+            for (String uuid : e.getValue()) {
+                String resourceType = resourceTypes.get(uuid);
+                if (resourceType != null && getTypeNames(type).contains(resourceType)) {
+                    uuids.add(uuid);
+                } else {
+                    left.add(uuid);
+                }
+            }
+
+            if (!left.isEmpty()) {
+                // not a ResourceVO, soft deletable, or not found in ResourceVO
+                String sql = String.format("select e.%s from %s e where e.%s in (:uuids)",
+                        getPrimaryKey(type), type.getSimpleName(), getPrimaryKey(type));
+                TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
+                q.setParameter("uuids", left);
+                uuids.addAll(q.getResultList());
+            }
+
+            found.put(type, uuids);
+        }
+
+        return found;
+    }
+
+    /**
+     * @param refs resource uuids by their types
+     * @return the uuids found by their types
+     */
+    public Map<Class, Set<String>> findExisting(Map<Class, Set<String>> refs) {
+        long now = System.currentTimeMillis();
+        Map<Class, Set<String>> found = new HashMap<>();
+        Map<Class, Set<String>> toQuery = new HashMap<>();
+        for (Map.Entry<Class, Set<String>> e : refs.entrySet()) {
+            Set<String> cached = new HashSet<>();
+            Set<String> uncached = new HashSet<>();
+            for (String uuid : e.getValue()) {
+                if (isCacheEnabled() && isCached(e.getKey(), uuid, now)) {
+                    cached.add(uuid);
+                } else {
+                    uncached.add(uuid);
+                }
+            }
+
+            found.put(e.getKey(), cached);
+            if (!uncached.isEmpty()) {
+                toQuery.put(e.getKey(), uncached);
+            }
+        }
+
+        if (toQuery.isEmpty()) {
+            return found;
+        }
+
+        for (Map.Entry<Class, Set<String>> e : query(toQuery).entrySet()) {
+            found.get(e.getKey()).addAll(e.getValue());
+            if (isCacheEnabled()) {
+                addToCache(e.getKey(), e.getValue(), now);
+            }
+        }
+
+        return found;
+    }
+
+    private void invalidate(Collection entityIds) {
+        for (Object id : entityIds) {
+            if (id instanceof String) {
+                cache.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        // hook all
+        return null;
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        invalidate(entityIds);
+    }
+
+    @Override
+    public List<Class> getEntityClassForSoftDeleteEntityExtension() {
+        // hook all
+        return null;
+    }
+
+    @Override
+    public void postSoftDelete(Collection entityIds, Class entityClass) {
+        invalidate(entityIds);
+    }
+}
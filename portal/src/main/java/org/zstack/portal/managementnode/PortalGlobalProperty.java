@@ -10,4 +10,9 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class PortalGlobalProperty {
     @GlobalProperty(name = "ManagementNode.maxHeartbeatFailure", defaultValue = "5")
     public static int MAX_HEARTBEAT_FAILURE;
+    // the cache is not invalidated across management nodes, enable it only with a single node
+    @GlobalProperty(name = "ApiMediator.resourceCacheSize", defaultValue = "0")
+    public static int API_RESOURCE_CACHE_SIZE;
+    @GlobalProperty(name = "ApiMediator.resourceCacheTtl", defaultValue = "10")
+    public static long API_RESOURCE_CACHE_TTL;
 }
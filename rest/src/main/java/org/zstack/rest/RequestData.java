@@ -14,6 +14,8 @@ public class RequestData {
     String webHook;
     APIMessage apiMessage;
     RestServer.RequestInfo requestInfo;
+    // the management node keeping it in memory, see WriteBehindAsyncRestStore
+    String managementNodeUuid;
     private String apiClassName;
 
     static RequestData fromJson(String jsonstr) {
@@ -22,6 +24,7 @@ public class RequestData {
         RequestData d = new RequestData();
         d.webHook = (String) m.get("webHook");
         d.apiClassName = (String) m.get("apiClassName");
+        d.managementNodeUuid = (String) m.get("managementNodeUuid");
         d.requestInfo = JSONObjectUtil.rehashObject(m.get("requestInfo"), RestServer.RequestInfo.class);
 
         if (d.apiClassName != null) {
@@ -10,4 +10,20 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class RestGlobalProperty {
     @GlobalProperty(name="RestServer.maxCachedApiResults", defaultValue = "2000")
     public static int MAX_CACHED_API_RESULTS;
+    @GlobalProperty(name="RestServer.streamQueryReply", defaultValue = "false")
+    public static boolean STREAM_QUERY_REPLY;
+    @GlobalProperty(name="RestServer.streamQueryReplyChunkSize", defaultValue = "500")
+    public static int STREAM_QUERY_REPLY_CHUNK_SIZE;
+    @GlobalProperty(name="RestServer.asyncSyncCall", defaultValue = "true")
+    public static boolean ASYNC_SYNC_CALL;
+    @GlobalProperty(name="RestServer.maxInFlightSyncCalls", defaultValue = "1000")
+    public static int MAX_IN_FLIGHT_SYNC_CALLS;
+    @GlobalProperty(name="RestServer.writeBehindAsyncRestStore", defaultValue = "false")
+    public static boolean WRITE_BEHIND_ASYNC_REST_STORE;
+    @GlobalProperty(name="RestServer.asyncRestStoreFlushInterval", defaultValue = "1000")
+    public static long ASYNC_REST_STORE_FLUSH_INTERVAL;
+    @GlobalProperty(name="RestServer.asyncRestStoreFlushBatchSize", defaultValue = "500")
+    public static int ASYNC_REST_STORE_FLUSH_BATCH_SIZE;
+    @GlobalProperty(name="RestServer.asyncRestStoreMaxProcessingJobs", defaultValue = "10000")
+    public static int ASYNC_REST_STORE_MAX_PROCESSING_JOBS;
 }
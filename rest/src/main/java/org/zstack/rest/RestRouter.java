@@ -0,0 +1,159 @@
+package org.zstack.rest;
+
+import org.zstack.utils.DebugUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * resolves a request path to the route registered for its pattern, and the values of the
+ * pattern's template variables, in one walk of the path segments.
+ *
+ * Patterns are made of literal segments and whole-segment variables like /v1/zones/{uuid}/actions,
+ * which are compiled into a trie of segments; a literal segment is preferred over a variable
+ * one when both match, so /v1/zones/actions is never taken for a zone uuid.
+ */
+public class RestRouter<T> {
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    public static class Match<T> {
+        private final T route;
+        private final List<String> variables;
+
+        Match(T route, List<String> variables) {
+            this.route = route;
+            this.variables = variables;
+        }
+
+        public T getRoute() {
+            return route;
+        }
+
+        /**
+         * the values of the template variables in the order they appear in the pattern
+         */
+        public List<String> getVariables() {
+            return variables;
+        }
+    }
+
+    private static class Node<T> {
+        Map<String, Node<T>> literals;
+        Node<T> variable;
+        T route;
+
+        Node<T> literal(String segment) {
+            return literals == null ? null : literals.get(segment);
+        }
+    }
+
+    private static boolean isVariable(String segment) {
+        return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    private static List<String> split(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = path.startsWith("/") ? 1 : 0;
+        for (int i = start; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '/') {
+                segments.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * @return the route previously registered for the same pattern, variables are equal
+     * whatever their names are
+     */
+    public T add(String pattern, T route) {
+        DebugUtils.Assert(route != null, "route cannot be null");
+
+        Node<T> node = root;
+        for (String segment : split(pattern)) {
+            if (isVariable(segment)) {
+                if (node.variable == null) {
+                    node.variable = new Node<>();
+                }
+                node = node.variable;
+            } else {
+                if (node.literals == null) {
+                    node.literals = new HashMap<>();
+                }
+                node = node.literals.computeIfAbsent(segment, s -> new Node<>());
+            }
+        }
+
+        T old = node.route;
+        node.route = route;
+        if (old == null) {
+            size++;
+        }
+        return old;
+    }
+
+    public T get(String pattern) {
+        Node<T> node = root;
+        for (String segment : split(pattern)) {
+            node = isVariable(segment) ? node.variable : node.literal(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.route;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return null if no pattern matches the path
+     */
+    public Match<T> match(String path) {
+        List<String> segments = split(path);
+        String[] values = new String[segments.size()];
+        Node<T> node = match(root, segments, 0, values);
+        if (node == null) {
+            return null;
+        }
+
+        List<String> variables = new ArrayList<>();
+        for (String v : values) {
+            if (v != null) {
+                variables.add(v);
+            }
+        }
+        return new Match<>(node.route, variables.isEmpty() ? Collections.emptyList() : variables);
+    }
+
+    private Node<T> match(Node<T> node, List<String> segments, int index, String[] values) {
+        if (index == segments.size()) {
+            return node.route == null ? null : node;
+        }
+
+        String segment = segments.get(index);
+        Node<T> next = node.literal(segment);
+        if (next != null) {
+            Node<T> ret = match(next, segments, index + 1, values);
+            if (ret != null) {
+                return ret;
+            }
+        }
+
+        if (node.variable != null && !segment.isEmpty()) {
+            Node<T> ret = match(node.variable, segments, index + 1, values);
+            if (ret != null) {
+                values[index] = segment;
+                return ret;
+            }
+        }
+
+        return null;
+    }
+}
@@ -17,6 +17,7 @@ import org.springframework.util.AntPathMatcher;
 import org.springframework.web.util.UriComponentsBuilder;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.cloudbus.CloudBusEventListener;
 import org.zstack.core.retry.Retry;
 import org.zstack.core.retry.RetryCondition;
@@ -31,6 +32,7 @@ import org.zstack.header.query.APIQueryMessage;
 import org.zstack.header.query.APIQueryReply;
 import org.zstack.header.query.QueryCondition;
 import org.zstack.header.query.QueryOp;
+import org.zstack.header.query.QueryReplyStreams;
 import org.zstack.header.rest.*;
 import org.zstack.rest.sdk.DocumentGenerator;
 import org.zstack.rest.sdk.SdkFile;
@@ -40,6 +42,7 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
@@ -52,6 +55,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.net.URLDecoder;
 import java.util.*;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -72,6 +76,9 @@ public class RestServer implements Component, CloudBusEventListener {
     @Autowired
     private CloudBus bus;
     @Autowired
+    private MysqlAsyncRestStore mysqlAsyncStore;
+    @Autowired
+    private WriteBehindAsyncRestStore writeBehindAsyncStore;
     private AsyncRestApiStore asyncStore;
     @Autowired
     private RESTFacade restf;
@@ -89,6 +96,8 @@ public class RestServer implements Component, CloudBusEventListener {
         String remoteHost;
         String requestUrl;
         HttpHeaders headers = new HttpHeaders();
+        // values of the template variables in the matched API path
+        transient List<String> pathVariables;
 
         public RequestInfo(HttpServletRequest req) {
             session = req.getSession();
@@ -258,6 +267,7 @@ public class RestServer implements Component, CloudBusEventListener {
         RestResponse responseAnnotation;
         Map<String, String> requestMappingFields;
         String path;
+        List<String> pathVariableNames;
         List<String> optionalPaths = new ArrayList<>();
         String actionName;
 
@@ -334,6 +344,14 @@ public class RestServer implements Component, CloudBusEventListener {
             }
         }
 
+        Map<String, String> getPathVariables(List<String> values) {
+            Map<String, String> vars = new LinkedHashMap<>();
+            for (int i = 0; i < pathVariableNames.size(); i++) {
+                vars.put(pathVariableNames.get(i), values.get(i));
+            }
+            return vars;
+        }
+
         String getMappingField(String key) {
             if (requestMappingFields == null) {
                 return null;
@@ -453,12 +471,15 @@ public class RestServer implements Component, CloudBusEventListener {
     }
 
     void init() throws IllegalAccessException, InstantiationException {
+        asyncStore = RestGlobalProperty.WRITE_BEHIND_ASYNC_REST_STORE ? writeBehindAsyncStore : mysqlAsyncStore;
         bus.subscribeEvent(this, new APIEvent());
     }
 
     private AntPathMatcher matcher = new AntPathMatcher();
 
     private Map<String, Object> apis = new HashMap<>();
+    // the normalized paths of apis compiled into a trie
+    private RestRouter<Object> router = new RestRouter<>();
     private Map<Class, RestResponseWrapper> responseAnnotationByClass = new HashMap<>();
 
     private HttpEntity<String> toHttpEntity(HttpServletRequest req) {
@@ -540,21 +561,15 @@ public class RestServer implements Component, CloudBusEventListener {
             return;
         }
 
-        Object api = apis.get(path);
-        if (api == null) {
-            for (String p : apis.keySet()) {
-                if (matcher.match(p, path)) {
-                    api = apis.get(p);
-                    break;
-                }
-            }
-        }
-
-        if (api == null) {
+        RestRouter.Match<Object> m = router.match(path);
+        if (m == null) {
             sendResponse(HttpStatus.NOT_FOUND.value(), String.format("no api mapping to %s", path), rsp);
             return;
         }
 
+        Object api = m.getRoute();
+        requestInfo.get().pathVariables = m.getVariables();
+
         try {
             if (api instanceof Api) {
                 handleUniqueApi((Api) api, entity, req, rsp);
@@ -770,7 +785,7 @@ public class RestServer implements Component, CloudBusEventListener {
             }
         }
 
-        Map<String, String> vars = matcher.extractUriTemplateVariables(api.path, getDecodedUrl(req));
+        Map<String, String> vars = api.getPathVariables(requestInfo.get().pathVariables);
         for (Map.Entry<String, String> e : vars.entrySet()) {
             // set fields parsed from the URL
             String key = e.getKey();
@@ -779,7 +794,7 @@ public class RestServer implements Component, CloudBusEventListener {
         }
 
         msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
-        sendMessage(msg, api, rsp);
+        sendMessage(msg, api, req, rsp);
     }
 
     private static final LinkedHashMap<String, String> QUERY_OP_MAPPING = new LinkedHashMap();
@@ -813,7 +828,7 @@ public class RestServer implements Component, CloudBusEventListener {
         msg.setSession(session);
         msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
 
-        Map<String, String> urlvars = matcher.extractUriTemplateVariables(api.path, getDecodedUrl(req));
+        Map<String, String> urlvars = api.getPathVariables(requestInfo.get().pathVariables);
         String uuid = urlvars.get("uuid");
         if (uuid != null) {
             // this is a GET /xxxx/uuid
@@ -824,7 +839,7 @@ public class RestServer implements Component, CloudBusEventListener {
             qc.setValue(uuid);
             msg.getConditions().add(qc);
 
-            sendMessage(msg, api, rsp);
+            sendMessage(msg, api, req, rsp);
             return;
         }
 
@@ -851,6 +866,10 @@ public class RestServer implements Component, CloudBusEventListener {
                 msg.setGroupBy(varvalue);
             } else if ("replyWithCount".equals(varname)) {
                 msg.setReplyWithCount(Boolean.valueOf(varvalue));
+            } else if ("estimateCount".equals(varname)) {
+                msg.setEstimateCount(Boolean.valueOf(varvalue));
+            } else if ("cursor".equals(varname)) {
+                msg.setCursor(varvalue);
             } else if ("sort".equals(varname)) {
                 if (varvalue.startsWith("+")) {
                     msg.setSortDirection("asc");
@@ -923,7 +942,130 @@ public class RestServer implements Component, CloudBusEventListener {
             msg.setConditions(new ArrayList<>());
         }
 
-        sendMessage(msg, api, rsp);
+        RestResponseWrapper w = responseAnnotationByClass.get(api.apiResponseClass);
+        if (RestGlobalProperty.STREAM_QUERY_REPLY && !msg.isCount() && !msg.isCursorQuery() && !w.annotation.allTo().equals("")) {
+            sendStreamingQueryMessage(msg, w, api, req, rsp);
+        } else {
+            sendMessage(msg, api, req, rsp);
+        }
+    }
+
+    private void sendStreamingQueryMessage(APIQueryMessage msg, RestResponseWrapper w, Api api, HttpServletRequest req, HttpServletResponse rsp) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
+        StreamingQueryReply stream = new StreamingQueryReply(rsp, w.annotation.allTo(), RestGlobalProperty.STREAM_QUERY_REPLY_CHUNK_SIZE);
+        QueryReplyStreams.register(msg.getId(), stream);
+        boolean called = false;
+        try {
+            called = call(msg, req, rsp, reply -> {
+                QueryReplyStreams.unregister(msg.getId());
+
+                // the query service may still be writing, e.g. the message timed out
+                if (!stream.close()) {
+                    // failed before any inventory was written, reply as usual
+                    sendReplyResponse(reply, api, rsp);
+                    return;
+                }
+
+                if (!reply.isSuccess()) {
+                    // the status and part of the body have been sent, end the body with the error
+                    logger.warn(String.format("query API[%s] failed after %s inventories were streamed, %s",
+                            msg.getClass().getSimpleName(), stream.getCount(), reply.getError()));
+                    stream.fail(reply.getError());
+                    return;
+                }
+
+                stream.finish(((APIQueryReply) reply).getTotal());
+                if (requestLogger.isTraceEnabled()) {
+                    RequestInfo info = requestInfo.get();
+                    requestLogger.trace(String.format("[ID: %s] Response to %s (%s), Status Code: %s, Body: streamed %s inventories",
+                            info.session.getId(), info.remoteHost, info.requestUrl, HttpStatus.OK.value(), stream.getCount()));
+                }
+            });
+        } finally {
+            if (!called) {
+                QueryReplyStreams.unregister(msg.getId());
+            }
+        }
+    }
+
+    interface ReplyHandler {
+        void handle(MessageReply reply) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException;
+    }
+
+    // APISyncCallMessage and query APIs waiting for their replies
+    private Semaphore inFlightSyncCalls;
+
+    /**
+     * calls a message whose reply is sent as the HTTP response, the servlet thread is not held
+     * while waiting for the reply if the container supports async requests
+     *
+     * @return false if the call is rejected because of too many calls in flight
+     */
+    private boolean call(APIMessage msg, HttpServletRequest req, HttpServletResponse rsp, ReplyHandler handler) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
+        if (inFlightSyncCalls != null && !inFlightSyncCalls.tryAcquire()) {
+            sendResponse(HttpStatus.TOO_MANY_REQUESTS.value(), String.format("too many API calls in progress, the limit is %s," +
+                    " please retry later", RestGlobalProperty.MAX_IN_FLIGHT_SYNC_CALLS), rsp);
+            return false;
+        }
+
+        if (!RestGlobalProperty.ASYNC_SYNC_CALL || !req.isAsyncSupported()) {
+            try {
+                handler.handle(bus.call(msg));
+            } finally {
+                releaseSyncCall();
+            }
+            return true;
+        }
+
+        RequestInfo info = requestInfo.get();
+        AsyncContext ctx = req.startAsync(req, rsp);
+        // the CloudBus times out the message and replies an error,
+        // the container must not time the request out before that
+        ctx.setTimeout(0);
+        try {
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                public void run(MessageReply reply) {
+                    requestInfo.set(info);
+                    try {
+                        handler.handle(reply);
+                    } catch (Throwable t) {
+                        logger.warn(String.format("failed to send the reply of the API[%s] to %s", msg.getClass().getSimpleName(), info.requestUrl), t);
+                        try {
+                            if (!rsp.isCommitted()) {
+                                sendResponse(HttpStatus.INTERNAL_SERVER_ERROR.value(), t.getMessage(), rsp);
+                            }
+                        } catch (Throwable t1) {
+                            logger.warn(t1.getMessage(), t1);
+                        }
+                    } finally {
+                        releaseSyncCall();
+                        completeAsyncRequest(ctx);
+                        requestInfo.remove();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            releaseSyncCall();
+            ctx.complete();
+            throw e;
+        }
+
+        return true;
+    }
+
+    private void releaseSyncCall() {
+        if (inFlightSyncCalls != null) {
+            inFlightSyncCalls.release();
+        }
+    }
+
+    private void completeAsyncRequest(AsyncContext ctx) {
+        try {
+            ctx.complete();
+        } catch (IllegalStateException e) {
+            // the request has been completed by the container, e.g. the client closed the connection
+            logger.debug(String.format("the async request has been completed, %s", e.getMessage()));
+        }
     }
 
     private void handleUniqueApi(Api api, HttpEntity<String> entity, HttpServletRequest req, HttpServletResponse rsp) throws RestException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException, IOException {
@@ -948,6 +1090,11 @@ public class RestServer implements Component, CloudBusEventListener {
             if (total != null) {
                 response.put("total", total);
             }
+
+            Object next = PropertyUtils.getProperty(replyOrEvent, "next");
+            if (next != null) {
+                response.put("next", next);
+            }
         }
 
         if (requestInfo.get().headers.containsKey(RestConstants.HEADER_JSON_SCHEMA)
@@ -972,10 +1119,9 @@ public class RestServer implements Component, CloudBusEventListener {
         sendResponse(HttpStatus.OK.value(), response, rsp);
     }
 
-    private void sendMessage(APIMessage msg, Api api, HttpServletResponse rsp) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
+    private void sendMessage(APIMessage msg, Api api, HttpServletRequest req, HttpServletResponse rsp) throws IOException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
         if (msg instanceof APISyncCallMessage) {
-            MessageReply reply = bus.call(msg);
-            sendReplyResponse(reply, api, rsp);
+            call(msg, req, rsp, reply -> sendReplyResponse(reply, api, rsp));
         } else {
             RequestData d = new RequestData();
             d.apiMessage = msg;
@@ -1002,6 +1148,10 @@ public class RestServer implements Component, CloudBusEventListener {
 
     @Override
     public boolean start() {
+        if (RestGlobalProperty.MAX_IN_FLIGHT_SYNC_CALLS > 0) {
+            inFlightSyncCalls = new Semaphore(RestGlobalProperty.MAX_IN_FLIGHT_SYNC_CALLS);
+        }
+
         build();
         return true;
     }
@@ -1092,6 +1242,7 @@ public class RestServer implements Component, CloudBusEventListener {
 
                 api = new Api(clz, at);
                 api.path = path;
+                api.pathVariableNames = getVarNamesFromUrl(path);
 
                 if (!apis.containsKey(normalizedPath)) {
                     apis.put(normalizedPath, api);
@@ -1139,6 +1290,10 @@ public class RestServer implements Component, CloudBusEventListener {
             throw new RuntimeException(String.format("Error Api list : %s", errorApiList));
         }
 
+        for (Map.Entry<String, Object> e : apis.entrySet()) {
+            router.add(e.getKey(), e.getValue());
+        }
+
         // below codes are checking if there
         // are duplicated APIs
         for (Object o : apis.values()) {
@@ -0,0 +1,133 @@
+package org.zstack.rest;
+
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.JsonSchemaBuilder;
+import org.zstack.header.query.QueryReplyStream;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * writes the inventories of a query API to the HTTP response as the query service produces them.
+ *
+ * The response is the same JSON as a buffered one: the inventories array is written chunk by chunk and
+ * flushed, the total and schema fields are written after it when the reply comes; the schema
+ * paths of a chunk are shifted by the number of inventories written before it.
+ *
+ * The query service writes chunks while the CloudBus callback completes the response, so the callback
+ * closes the stream first; chunks written after that are rejected, which stops the query service from
+ * writing to a completed response. A query failing after the status has been sent is ended with an
+ * "error" field after the inventories, which the SDK reports as the error of the call.
+ */
+class StreamingQueryReply implements QueryReplyStream {
+    private final HttpServletResponse rsp;
+    private final String fieldName;
+    private final int chunkSize;
+    private final Map<String, String> schema = new LinkedHashMap<>();
+    // guards the fields below, the response is written by the query service and the CloudBus callback
+    private final Object lock = new Object();
+    private Writer writer;
+    private int count;
+    private boolean closed;
+
+    StreamingQueryReply(HttpServletResponse rsp, String fieldName, int chunkSize) {
+        this.rsp = rsp;
+        this.fieldName = fieldName;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * stops the query service from writing, called before the response is completed
+     *
+     * @return whether any inventory has been written, the response must then be ended by finish() or fail()
+     */
+    boolean close() {
+        synchronized (lock) {
+            closed = true;
+            return writer != null;
+        }
+    }
+
+    int getCount() {
+        synchronized (lock) {
+            return count;
+        }
+    }
+
+    @Override
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public void write(List inventories) {
+        synchronized (lock) {
+            if (closed) {
+                throw new CloudRuntimeException("the response of the query has been closed, it may have timed out");
+            }
+
+            doWrite(inventories);
+        }
+    }
+
+    private void doWrite(List inventories) {
+        try {
+            if (writer == null) {
+                rsp.setStatus(HttpServletResponse.SC_OK);
+                writer = rsp.getWriter();
+                writer.write(String.format("{%s:[", JSONObjectUtil.toJsonString(fieldName)));
+            }
+
+            for (Object inv : inventories) {
+                if (count > 0) {
+                    writer.write(",");
+                }
+                writer.write(JSONObjectUtil.toJsonString(inv));
+                count++;
+            }
+
+            collectSchema(inventories, count - inventories.size());
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void collectSchema(List inventories, int offset) {
+        if (inventories.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> s = new JsonSchemaBuilder(Collections.singletonMap(fieldName, inventories)).build();
+        String prefix = fieldName + "[";
+        for (Map.Entry<String, String> e : s.entrySet()) {
+            String path = e.getKey();
+            int end = path.indexOf(']', prefix.length());
+            int index = Integer.parseInt(path.substring(prefix.length(), end)) + offset;
+            schema.put(prefix + index + path.substring(end), e.getValue());
+        }
+    }
+
+    void finish(Long total) throws IOException {
+        synchronized (lock) {
+            writer.write("]");
+            if (total != null) {
+                writer.write(String.format(",\"total\":%s", total));
+            }
+            writer.write(String.format(",\"schema\":%s}", JSONObjectUtil.toJsonString(schema)));
+            writer.flush();
+        }
+    }
+
+    void fail(ErrorCode error) throws IOException {
+        synchronized (lock) {
+            writer.write(String.format("],\"error\":%s}", JSONObjectUtil.toJsonString(error)));
+            writer.close();
+        }
+    }
+}
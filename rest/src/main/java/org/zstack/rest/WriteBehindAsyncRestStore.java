@@ -0,0 +1,257 @@
+package org.zstack.rest;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SQLBatch;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.APIEvent;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * keeps async API jobs in memory and writes their results to the database in batches in the background.
+ *
+ * A job is kept by the management node accepting it until it completes, then its result is cached
+ * by every node receiving the API event, so polling is served from memory; beyond a bound of jobs
+ * in progress, new jobs are not kept in memory. The row of a job is inserted when it's saved, so a
+ * poll reaching any node finds it, only the result is written behind. A job accepted by a node is
+ * completed by that node; one accepted by a node which has left is completed from the database by
+ * the node the ResourceDestinationMaker routes it to, as MysqlAsyncRestStore does. All management
+ * nodes must use the same store.
+ */
+public class WriteBehindAsyncRestStore implements AsyncRestApiStore, Component {
+    private static final CLogger logger = Utils.getLogger(WriteBehindAsyncRestStore.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ResourceDestinationMaker destinationMaker;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private static class Job {
+        RequestData data;
+        APIEvent result;
+    }
+
+    // jobs accepted by this node and not completed yet
+    private Map<String, Job> processing = new ConcurrentHashMap<>();
+    private Map<String, APIEvent> results = Collections.synchronizedMap(new LRUMap(RestGlobalProperty.MAX_CACHED_API_RESULTS));
+    // completed jobs whose results are not written yet
+    private final Map<String, Job> dirty = new LinkedHashMap<>();
+    // a flush of the stopping store waits for the periodic one in progress
+    private final Object flushLock = new Object();
+    private Future flushThread;
+
+    @Override
+    public void save(RequestData d) {
+        // too many jobs in memory, let it be completed from the database
+        boolean keep = processing.size() < RestGlobalProperty.ASYNC_REST_STORE_MAX_PROCESSING_JOBS;
+        if (keep) {
+            d.managementNodeUuid = Platform.getManagementServerId();
+        }
+
+        AsyncRestVO vo = new AsyncRestVO();
+        vo.setUuid(d.apiMessage.getId());
+        vo.setRequestData(d.toJson());
+        vo.setState(AsyncRestState.processing);
+        dbf.persist(vo);
+
+        if (keep) {
+            Job job = new Job();
+            job.data = d;
+            processing.put(d.apiMessage.getId(), job);
+        }
+    }
+
+    @Override
+    public RequestData complete(APIEvent evt) {
+        results.put(evt.getApiId(), evt);
+
+        Job job = processing.remove(evt.getApiId());
+        if (job != null) {
+            synchronized (dirty) {
+                job.result = evt;
+                dirty.put(evt.getApiId(), job);
+            }
+
+            return job.data;
+        }
+
+        if (!destinationMaker.isManagedByUs(evt.getApiId())) {
+            return null;
+        }
+
+        AsyncRestVO vo = dbf.findByUuid(evt.getApiId(), AsyncRestVO.class);
+        if (vo == null || vo.getState() == AsyncRestState.done) {
+            // the API is sent without our records, or a node accepting it hasn't written it
+            return null;
+        }
+
+        RequestData d = RequestData.fromJson(vo.getRequestData());
+        if (d.managementNodeUuid != null && !d.managementNodeUuid.equals(Platform.getManagementServerId())
+                && destinationMaker.getManagementNodesInHashRing().contains(d.managementNodeUuid)) {
+            // the node accepting it completes it
+            return null;
+        }
+
+        vo.setState(AsyncRestState.done);
+        vo.setResult(ApiEventResult.toJson(evt));
+        dbf.update(vo);
+        return d;
+    }
+
+    @Override
+    public AsyncRestQueryResult query(String uuid) {
+        AsyncRestQueryResult result = new AsyncRestQueryResult();
+        result.setUuid(uuid);
+
+        APIEvent evt = results.get(uuid);
+        if (evt == null) {
+            synchronized (dirty) {
+                Job job = dirty.get(uuid);
+                evt = job == null ? null : job.result;
+            }
+        }
+
+        if (evt != null) {
+            result.setState(AsyncRestState.done);
+            result.setResult(evt);
+            return result;
+        }
+
+        if (processing.containsKey(uuid)) {
+            result.setState(AsyncRestState.processing);
+            return result;
+        }
+
+        // accepted by another node, or not kept in memory
+        AsyncRestVO vo = dbf.findByUuid(uuid, AsyncRestVO.class);
+        if (vo == null) {
+            result.setState(AsyncRestState.expired);
+            return result;
+        }
+
+        if (vo.getState() != AsyncRestState.done) {
+            result.setState(vo.getState());
+            return result;
+        }
+
+        try {
+            result.setState(AsyncRestState.done);
+            result.setResult(ApiEventResult.fromJson(vo.getResult()));
+            results.put(uuid, result.getResult());
+        } catch (Exception e) {
+            throw new CloudRuntimeException(e);
+        }
+
+        return result;
+    }
+
+    private List<Job> takeDirtyJobs() {
+        synchronized (dirty) {
+            List<Job> jobs = new ArrayList<>();
+            Iterator<Job> it = dirty.values().iterator();
+            while (it.hasNext() && jobs.size() < RestGlobalProperty.ASYNC_REST_STORE_FLUSH_BATCH_SIZE) {
+                jobs.add(it.next());
+                it.remove();
+            }
+            return jobs;
+        }
+    }
+
+    private void write(List<Job> jobs) {
+        new SQLBatch() {
+            @Override
+            protected void scripts() {
+                for (Job job : jobs) {
+                    sql(AsyncRestVO.class).eq(AsyncRestVO_.uuid, job.data.apiMessage.getId())
+                            .set(AsyncRestVO_.state, AsyncRestState.done)
+                            .set(AsyncRestVO_.result, ApiEventResult.toJson(job.result))
+                            .update();
+                }
+            }
+        }.execute();
+    }
+
+    void flush() {
+        synchronized (flushLock) {
+            List<Job> jobs;
+            while (!(jobs = takeDirtyJobs()).isEmpty()) {
+                try {
+                    write(jobs);
+                } catch (RuntimeException e) {
+                    synchronized (dirty) {
+                        for (Job job : jobs) {
+                            // retry in the next round
+                            dirty.putIfAbsent(job.data.apiMessage.getId(), job);
+                        }
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean start() {
+        if (!RestGlobalProperty.WRITE_BEHIND_ASYNC_REST_STORE) {
+            return true;
+        }
+
+        flushThread = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return RestGlobalProperty.ASYNC_REST_STORE_FLUSH_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "write-async-api-records";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    logger.warn("failed to write async API records, will retry later", t);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (flushThread != null) {
+            flushThread.cancel(true);
+
+            try {
+                flush();
+            } catch (Throwable t) {
+                logger.warn(String.format("failed to write async API records when stopping, %s records are lost",
+                        dirty.size()), t);
+            }
+        }
+
+        return true;
+    }
+}
@@ -233,6 +233,7 @@ ${output.join("\n")}
         // hack
         if (APIQueryReply.class.isAssignableFrom(responseClass)) {
             addToFields("total", responseClass.superclass.getDeclaredField("total"))
+            addToFields("next", responseClass.superclass.getDeclaredField("next"))
         }
         
         def output = []
@@ -17,4 +17,12 @@ public class QueryAccountResourceRefResult {
         return this.total;
     }
 
+    public java.lang.String next;
+    public void setNext(java.lang.String next) {
+        this.next = next;
+    }
+    public java.lang.String getNext() {
+        return this.next;
+    }
+
 }
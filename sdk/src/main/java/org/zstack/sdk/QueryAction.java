@@ -33,6 +33,12 @@ public abstract class QueryAction extends AbstractAction {
     @Param(required = false)
     public java.util.List fields;
 
+    @Param(required = false, nonempty = false, nullElements = false, emptyString = true, noTrim = false)
+    public java.lang.String cursor;
+
+    @Param(required = false)
+    public Boolean estimateCount;
+
     @Param(required = true)
     public String sessionId;
 }
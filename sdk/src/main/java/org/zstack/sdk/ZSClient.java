@@ -2,6 +2,8 @@ package org.zstack.sdk;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import okhttp3.*;
 
 import javax.servlet.http.HttpServletRequest;
@@ -304,12 +306,18 @@ public class ZSClient {
             if (qaction.replyWithCount != null) {
                 urlBuilder.addQueryParameter("replyWithCount", String.format("%s", qaction.replyWithCount));
             }
+            if (qaction.estimateCount != null) {
+                urlBuilder.addQueryParameter("estimateCount", String.format("%s", qaction.estimateCount));
+            }
+            if (qaction.cursor != null) {
+                urlBuilder.addQueryParameter("cursor", qaction.cursor);
+            }
             if (qaction.sortBy != null) {
                 if (qaction.sortDirection == null) {
                     urlBuilder.addQueryParameter("sort", String.format("%s", qaction.sortBy));
                 } else {
                     String d = "asc".equals(qaction.sortDirection) ? "+" : "-";
-                    urlBuilder.addQueryParameter("sort", String.format("%s%s", d, qaction.replyWithCount));
+                    urlBuilder.addQueryParameter("sort", String.format("%s%s", d, qaction.sortBy));
                 }
             }
             if (qaction.fields != null && !qaction.fields.isEmpty()) {
@@ -575,7 +583,15 @@ public class ZSClient {
             ApiResult res = new ApiResult();
 
             if (response.code() == 200) {
-                res.setResultString(response.body().string());
+                String body = response.body().string();
+                res.setResultString(body);
+                // a streamed query failing after the status has been sent ends its body with an error
+                if (body.contains("\"error\"")) {
+                    JsonElement error = gson.fromJson(body, JsonObject.class).get("error");
+                    if (error != null && error.isJsonObject()) {
+                        res.error = gson.fromJson(error, ErrorCode.class);
+                    }
+                }
             } else if (response.code() == 503) {
                 res = gson.fromJson(response.body().string(), ApiResult.class);
             } else {
@@ -1,6 +1,8 @@
 package org.zstack.query;
 
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.objenesis.Objenesis;
 import org.objenesis.ObjenesisStd;
 import org.objenesis.instantiator.ObjectInstantiator;
@@ -9,6 +11,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.header.Component;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
 import org.zstack.header.apimediator.GlobalApiMessageInterceptor;
@@ -31,6 +34,9 @@ import static org.zstack.core.Platform.argerr;
 
 import javax.persistence.*;
 import javax.persistence.metamodel.StaticMetamodel;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -43,7 +49,7 @@ import static org.zstack.utils.StringDSL.s;
 
 /**
  */
-public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalApiMessageInterceptor, PythonApiBindingWriter {
+public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalApiMessageInterceptor, PythonApiBindingWriter, MysqlQueryBuilderMXBean {
     private static final CLogger logger = Utils.getLogger(MysqlQueryBuilderImpl3.class);
 
     @Autowired
@@ -52,11 +58,16 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private JmxFacade jmxf;
 
     private Objenesis objenesis = new ObjenesisStd();
+    private QueryPlanCache<QueryPlan> planCache = new QueryPlanCache<>(QueryGlobalProperty.PLAN_CACHE_SIZE);
 
     private static final String USER_TAG = "__userTag__";
     private static final String SYSTEM_TAG = "__systemTag__";
+    private static final String CURSOR_KEY = "cursorKey";
+    private static final String CURSOR_SORT_VALUE = "cursorSortValue";
 
     @Override
     public List<Class> getMessageClassToIntercept() {
@@ -142,8 +153,9 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         Field entityTypeField;
         Map<String, ExpandedQueryStruct> expandedQueries = new HashMap<String, ExpandedQueryStruct>();
         Map<String, EntityInfo> flatTypeEntityMap = new HashMap<String, EntityInfo>();
-        Method inventoryValueOf;
-        Method inventoryCollectionValueOf;
+        // unreflected once, invoking the handles skips the access checks and argument arrays of Method.invoke() on every row
+        MethodHandle inventoryValueOf;
+        MethodHandle inventoryCollectionValueOf;
         ObjectInstantiator objectInstantiator;
         Map<String, Field> allFieldsMap = new HashMap<String, Field>();
         Map<String, ExpandedQueryAliasInfo> aliases = new HashMap<String, ExpandedQueryAliasInfo>();
@@ -185,8 +197,14 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             if (methodName.equals("")) {
                 methodName = "valueOf";
             }
-            inventoryCollectionValueOf = invClass.getMethod(methodName, Collection.class);
-            inventoryValueOf = invClass.getMethod("valueOf", entityClass);
+            try {
+                inventoryCollectionValueOf = MethodHandles.publicLookup().unreflect(invClass.getMethod(methodName, Collection.class))
+                        .asType(MethodType.methodType(List.class, Collection.class));
+                inventoryValueOf = MethodHandles.publicLookup().unreflect(invClass.getMethod("valueOf", entityClass))
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
 
             List<ExpandedQueryStruct> structs = expandedQueryStructs.get(inventoryClass);
             if (structs != null) {
@@ -232,6 +250,26 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             }
         }
 
+        Object valueOf(Object vo) {
+            try {
+                return (Object) inventoryValueOf.invokeExact(vo);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new CloudRuntimeException(t);
+            }
+        }
+
+        List collectionValueOf(Collection vos) {
+            try {
+                return (List) inventoryCollectionValueOf.invokeExact(vos);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new CloudRuntimeException(t);
+            }
+        }
+
         Object getPrimaryKeyValue(Object vo) {
             try {
                 return entityPrimaryKeyField.get(vo);
@@ -381,6 +419,11 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
 
         Object normalizeValue() {
+            return normalizeValue(value);
+        }
+
+        // only reads the op and the field resolved by toJpql(), so a planned condition can normalize values of other queries
+        Object normalizeValue(String value) {
             if (QueryOp.IS_NULL.equals(op) || QueryOp.NOT_NULL.equals(op)) {
                 return null;
             }
@@ -491,6 +534,13 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
     }
 
+    private class QueryPlan {
+        String jpql;
+        // the parameter of every planned condition in order, null for a condition having no parameter
+        List<MetaCondition> bindings;
+        boolean conditioned;
+    }
+
     private class QueryObject {
         EntityInfo info;
         List<MetaCondition> conditions = new ArrayList<MetaCondition>();
@@ -498,6 +548,12 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         List<QueryObject> children = new ArrayList<QueryObject>();
         SubQueryInfo subQueryInfo;
         APIQueryMessage msg;
+        // the position to seek after in a keyset paged query, null for the first page
+        QueryCursor cursor;
+        // whether the root query has any where condition, set by toJpql()
+        boolean conditioned;
+        // conditions of MysqlQuerySubQueryExtension for the root query
+        List<String> extensionSubqueries = new ArrayList<>();
 
         // NOTE: we hard code tag specific logic here because we think current query model is not sustainable,
         // it worth nothing to waste effort on making this as extension point; we will switch the entire
@@ -616,6 +672,43 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             }
         }
 
+        // the sort key of a keyset paged query, null if it's paged by the primary key only
+        String keysetSortBy() {
+            return msg.getSortBy() == null || msg.getSortBy().equals(info.primaryKey) ? null : msg.getSortBy();
+        }
+
+        private String keysetCondition(String entityName) {
+            String op = "desc".equalsIgnoreCase(msg.getSortDirection()) ? "<" : ">";
+            String sortBy = keysetSortBy();
+            if (sortBy == null) {
+                return String.format("%s.%s %s :%s", entityName, info.primaryKey, op, CURSOR_KEY);
+            }
+
+            // MySQL sorts nulls first in ascending order and last in descending order
+            boolean desc = "desc".equalsIgnoreCase(msg.getSortDirection());
+            if (cursor.sortValue == null) {
+                String nulls = String.format("(%s.%s is null and %s.%s %s :%s)",
+                        entityName, sortBy, entityName, info.primaryKey, op, CURSOR_KEY);
+                return desc ? nulls : String.format("(%s or %s.%s is not null)", nulls, entityName, sortBy);
+            }
+
+            String values = String.format("%s.%s %s :%s or (%s.%s = :%s and %s.%s %s :%s)",
+                    entityName, sortBy, op, CURSOR_SORT_VALUE,
+                    entityName, sortBy, CURSOR_SORT_VALUE,
+                    entityName, info.primaryKey, op, CURSOR_KEY);
+            return desc ? String.format("(%s or %s.%s is null)", values, entityName, sortBy) : String.format("(%s)", values);
+        }
+
+        private String keysetOrderBy(String entityName) {
+            String direction = msg.getSortDirection().toUpperCase();
+            String sortBy = keysetSortBy();
+            if (sortBy == null) {
+                return String.format("%s.%s %s", entityName, info.primaryKey, direction);
+            }
+
+            return String.format("%s.%s %s, %s.%s %s", entityName, sortBy, direction, entityName, info.primaryKey, direction);
+        }
+
         String toJpql(boolean isCount) {
             List<String> where = new ArrayList<String>();
 
@@ -688,15 +781,15 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 throw new CloudRuntimeException("cannot be here");
             } else {
                 // this is root query
-                for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
-                    String sub = ext.makeSubquery(msg, info.inventoryClass);
-                    if (sub != null) {
-                        where.add(sub);
-                    }
-                }
+                where.addAll(extensionSubqueries);
 
                 String entityName = info.inventoryClass.getSimpleName().toLowerCase();
                 String entity = info.entityClass.getSimpleName();
+                conditioned = !where.isEmpty();
+                if (!isCount && cursor != null) {
+                    where.add(keysetCondition(entityName));
+                }
+
                 String condition = StringUtils.join(where, " and ").trim();
                 if (isCount) {
                     if (where.isEmpty()) {
@@ -712,6 +805,14 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                         for (String f : msg.getFields()) {
                             ss.add(String.format("%s.%s", entityName, f));
                         }
+
+                        if (msg.isCursorQuery()) {
+                            // the keys of the last row make the cursor of the next page, select them after the fields
+                            if (keysetSortBy() != null) {
+                                ss.add(String.format("%s.%s", entityName, keysetSortBy()));
+                            }
+                            ss.add(String.format("%s.%s", entityName, info.primaryKey));
+                        }
                         selector = StringUtils.join(ss, ",");
                     } else {
                         selector = entityName;
@@ -728,7 +829,13 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                             throw new IllegalArgumentException(String.format("illegal sortBy[%s], entity[%s] doesn't have this field", msg.getSortBy(), info.entityClass.getName()));
                         }
 
-                        ret = String.format("%s order by %s.%s %s", ret, entityName, msg.getSortBy(), msg.getSortDirection().toUpperCase());
+                        if (!msg.isCursorQuery()) {
+                            ret = String.format("%s order by %s.%s %s", ret, entityName, msg.getSortBy(), msg.getSortDirection().toUpperCase());
+                        }
+                    }
+
+                    if (msg.isCursorQuery()) {
+                        ret = String.format("%s order by %s", ret, keysetOrderBy(entityName));
                     }
 
                     if (msg.getGroupBy() != null) {
@@ -749,6 +856,10 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         private APIQueryMessage msg;
         private Class inventoryClass;
         private QueryObject root;
+        private QueryCursor cursor;
+        private QueryPlan plan;
+        // the conditions in the order of plan.bindings
+        private List<QueryCondition> planConditions;
         private Map<Class, QueryObject> tmpMap = new HashMap<Class, QueryObject>();
 
         private MetaCondition buildCondition(QueryCondition qcond, EntityInfo info) {
@@ -760,7 +871,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             return mcond;
         }
 
-        private void buildSubQuery(QueryCondition qcond, QueryObject parent) {
+        private MetaCondition buildSubQuery(QueryCondition qcond, QueryObject parent) {
             String[] slices = qcond.getName().split("\\.");
             String currentFieldName = slices[0];
             Class parentInvClass = parent.info.inventoryClass;
@@ -776,8 +887,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                     ncond.setName(qcond.getName().replaceFirst(alias.alias, alias.expandField));
                     ncond.setOp(qcond.getOp());
                     ncond.setValue(qcond.getValue());
-                    buildSubQuery(ncond, parent);
-                    return;
+                    return buildSubQuery(ncond, parent);
                 }
             }
 
@@ -826,13 +936,15 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             ncond.setValue(qcond.getValue());
 
             if (!subFieldName.contains(".")) {
-                qobj.conditions.add(buildCondition(ncond, info));
+                MetaCondition mcond = buildCondition(ncond, info);
+                qobj.conditions.add(mcond);
+                return mcond;
             } else {
-                buildSubQuery(ncond, qobj);
+                return buildSubQuery(ncond, qobj);
             }
         }
 
-        private void buildMetaCondition(QueryCondition qcond, EntityInfo info, boolean skipInventoryCheck) {
+        private MetaCondition buildMetaCondition(QueryCondition qcond, EntityInfo info, boolean skipInventoryCheck) {
             QueryObject qobj = tmpMap.get(info.entityClass);
             if (qobj == null) {
                 qobj = new QueryObject();
@@ -843,61 +955,135 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             MetaCondition mcond = buildCondition(qcond, info);
             mcond.skipInventoryCheck = skipInventoryCheck;
             qobj.conditions.add(mcond);
+            return mcond;
         }
 
-        private void buildMetaCondition(QueryCondition qcond, EntityInfo info) {
-            buildMetaCondition(qcond, info, false);
+        private MetaCondition buildMetaCondition(QueryCondition qcond, EntityInfo info) {
+            return buildMetaCondition(qcond, info, false);
+        }
+
+        private List<Object> makeShape(boolean isCount, List<QueryCondition> conditions, int extraConditionIndex) {
+            List<Object> shape = new ArrayList<>();
+            shape.add(inventoryClass);
+            shape.add(isCount);
+            shape.add(msg.getFields() == null ? null : new ArrayList<>(msg.getFields()));
+            shape.add(msg.getSortBy());
+            shape.add(msg.getSortDirection());
+            shape.add(msg.getGroupBy());
+            shape.add(msg.isCursorQuery());
+            shape.add(cursor != null);
+            // a cursor with a null sort value seeks by 'is null'
+            shape.add(cursor != null && cursor.sortValue == null);
+            shape.add(extraConditionIndex);
+            for (QueryCondition cond : conditions) {
+                // values of tag conditions are written in the JPQL, including the nested ones, e.g. host.__userTag__
+                String field = cond.getName().substring(cond.getName().lastIndexOf('.') + 1);
+                boolean isTag = USER_TAG.equals(field) || SYSTEM_TAG.equals(field);
+                shape.add(Arrays.asList(cond.getName(), cond.getOp(), isTag ? cond.getValue() : null));
+            }
+            // sub-queries of extensions may have values written in, e.g. the account uuid
+            shape.add(root.extensionSubqueries);
+            return shape;
         }
 
         private String build(boolean isCount) {
+            long start = System.nanoTime();
+            try {
+                return doBuild(isCount);
+            } finally {
+                planCache.addPlanTime(System.nanoTime() - start);
+            }
+        }
+
+        private String doBuild(boolean isCount) {
             root = new QueryObject();
             root.msg = msg;
+            root.cursor = cursor;
             root.info = entityInfos.get(inventoryClass);
             DebugUtils.Assert(root.info != null, String.format("class[%s] is not annotated by @Inventory", inventoryClass.getName()));
             tmpMap.put(root.info.entityClass, root);
 
+            List<QueryCondition> conditions = new ArrayList<>();
             for (QueryCondition qcond : msg.getConditions()) {
-                if (escapeConditionNames.contains(qcond.getName())) {
-                    continue;
-                }
-
-                if (!qcond.getName().contains(".")) {
-                    buildMetaCondition(qcond, root.info);
-                } else {
-                    buildSubQuery(qcond, root);
+                if (!escapeConditionNames.contains(qcond.getName())) {
+                    conditions.add(qcond);
                 }
             }
 
+            int extraConditionIndex = conditions.size();
             List<AddExtraConditionToQueryExtensionPoint> exts = extraConditionsExts.get(msg.getClass());
             if (exts != null) {
                 for (AddExtraConditionToQueryExtensionPoint ext : exts) {
                     try {
-                        for (QueryCondition cond : ext.getExtraQueryConditionForMessage(msg)) {
-                            buildMetaCondition(cond, root.info, true);
-                        }
+                        conditions.addAll(ext.getExtraQueryConditionForMessage(msg));
                     } catch (Throwable t) {
                         logger.warn(String.format("unhandled exception when calling %s", ext.getClass().getName()), t);
                     }
                 }
             }
 
-            return root.toJpql(isCount);
+            for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
+                String sub = ext.makeSubquery(msg, root.info.inventoryClass);
+                if (sub != null) {
+                    root.extensionSubqueries.add(sub);
+                }
+            }
+
+            planConditions = conditions;
+            List<Object> shape = null;
+            if (planCache.isEnabled()) {
+                shape = makeShape(isCount, conditions, extraConditionIndex);
+                plan = planCache.get(shape);
+                if (plan != null) {
+                    root.conditioned = plan.conditioned;
+                    return plan.jpql;
+                }
+            }
+
+            List<MetaCondition> bindings = new ArrayList<>(conditions.size());
+            for (int i = 0; i < conditions.size(); i++) {
+                QueryCondition qcond = conditions.get(i);
+                if (i >= extraConditionIndex) {
+                    bindings.add(buildMetaCondition(qcond, root.info, true));
+                } else if (!qcond.getName().contains(".")) {
+                    bindings.add(buildMetaCondition(qcond, root.info));
+                } else {
+                    bindings.add(buildSubQuery(qcond, root));
+                }
+            }
+
+            String jpql = root.toJpql(isCount);
+
+            for (int i = 0; i < bindings.size(); i++) {
+                MetaCondition mcond = bindings.get(i);
+                if (USER_TAG.equals(mcond.attr) || SYSTEM_TAG.equals(mcond.attr) || mcond.attrValueName == null) {
+                    bindings.set(i, null);
+                }
+            }
+
+            plan = new QueryPlan();
+            plan.jpql = jpql;
+            plan.bindings = bindings;
+            plan.conditioned = root.conditioned;
+            if (shape != null) {
+                planCache.put(shape, plan);
+            }
+
+            return jpql;
         }
 
-        private void setQueryValue(Query q, QueryObject qobj) {
-            for (MetaCondition mcond : qobj.conditions) {
-                if (USER_TAG.equals(mcond.attr) || SYSTEM_TAG.equals(mcond.attr)) {
+        private void setQueryValue(Query q) {
+            for (int i = 0; i < plan.bindings.size(); i++) {
+                MetaCondition binding = plan.bindings.get(i);
+                if (binding == null) {
                     continue;
                 }
 
-                Object val = mcond.normalizeValue();
+                Object val = binding.normalizeValue(planConditions.get(i).getValue());
                 if (val != null) {
-                    q.setParameter(mcond.attrValueName, val);
+                    q.setParameter(binding.attrValueName, val);
                 }
             }
-            for (QueryObject child : qobj.children) {
-                setQueryValue(q, child);
-            }
         }
 
 
@@ -908,7 +1094,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 }
 
                 if (root.info.children.isEmpty()) {
-                    return (List) root.info.inventoryCollectionValueOf.invoke(inventoryClass, vos);
+                    return root.info.collectionValueOf(vos);
                 }
 
                 final LinkedHashMap flatMap = new LinkedHashMap();
@@ -917,7 +1103,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                     String type = (String) root.info.entityTypeField.get(vo);
                     Object priKey = root.info.getPrimaryKeyValue(vo);
                     if (!root.info.flatTypeEntityMap.containsKey(type)) {
-                        flatMap.put(priKey, root.info.inventoryValueOf.invoke(inventoryClass, vo));
+                        flatMap.put(priKey, root.info.valueOf(vo));
                     } else {
                         flatMap.put(priKey, null);
                         primaryKeysNeedResolve.add(priKey);
@@ -926,7 +1112,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 }
 
                 if (primaryKeysNeedResolve.isEmpty()) {
-                    return (List) root.info.inventoryCollectionValueOf.invoke(inventoryClass, vos);
+                    return root.info.collectionValueOf(vos);
                 }
 
                 // the inventory has child inventory inheriting it, we have to find out all child inventory and
@@ -963,7 +1149,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                             for (Tuple t : res) {
                                 Object priKey = t.get(0);
                                 Object vo = t.get(1);
-                                flatMap.put(priKey, sql.entityInfo.inventoryValueOf.invoke(sql.entityInfo.inventoryClass, vo));
+                                flatMap.put(priKey, sql.entityInfo.valueOf(vo));
                                 primaryKeysNeedResolve.remove(priKey);
                             }
                         }
@@ -1010,11 +1196,12 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             EntityInfo info = entityInfos.get(inventoryClass);
             List ret = new ArrayList(fieldTuple.size());
             for (Object t : fieldTuple) {
-                Tuple tuple = (Tuple) t;
+                // a Tuple from a query or a row array from a scroll
+                Object[] row = t instanceof Tuple ? ((Tuple) t).toArray() : (Object[]) t;
                 Object inv = info.objectInstantiator.newInstance();
                 for (int i = 0; i < msg.getFields().size(); i++) {
                     String fname = msg.getFields().get(i);
-                    Object value = tuple.get(i);
+                    Object value = row[i];
                     Field f = info.allFieldsMap.get(fname);
                     try {
                         if (value != null && String.class.isAssignableFrom(f.getType())) {
@@ -1032,8 +1219,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             return ret;
         }
 
-        @Transactional(readOnly = true)
-        List query() {
+        private List queryVOs() {
             if (msg.isFieldQuery()) {
                 validateFields();
             }
@@ -1045,16 +1231,26 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
-            setQueryValue(q, root);
+            setQueryValue(q);
+            if (cursor != null) {
+                setCursorValue(q);
+            }
             if (msg.getLimit() != null) {
                 q.setMaxResults(msg.getLimit());
             }
-            if (msg.getStart() != null) {
+            if (msg.getStart() != null && !msg.isCursorQuery()) {
                 q.setFirstResult(msg.getStart());
             }
 
-            List vos = q.getResultList();
+            long start = System.nanoTime();
+            try {
+                return q.getResultList();
+            } finally {
+                planCache.addExecutionTime(System.nanoTime() - start);
+            }
+        }
 
+        private List convertToInventories(List vos) {
             if (msg.isFieldQuery()) {
                 return convertFieldsTOPartialInventories(vos);
             } else {
@@ -1063,15 +1259,186 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
 
         @Transactional(readOnly = true)
-        long count() {
-            String jpql = build(true);
+        List query() {
+            return convertToInventories(queryVOs());
+        }
+
+        private Field getSortField(EntityInfo info, String sortBy) {
+            Field f = FieldUtils.getField(sortBy, info.entityClass);
+            if (f == null) {
+                throw new OperationFailureException(argerr("illegal sortBy[%s], entity[%s] doesn't have this field", sortBy, info.entityClass.getSimpleName()));
+            }
+            return f;
+        }
+
+        private void decodeCursor() {
+            if (msg.getCursor().isEmpty()) {
+                // the first page
+                return;
+            }
+
+            try {
+                cursor = QueryCursor.decode(msg.getCursor());
+            } catch (IllegalArgumentException e) {
+                throw new OperationFailureException(argerr("invalid cursor[%s], it must be the 'next' of a previous query reply", msg.getCursor()));
+            }
+
+            if (!StringUtils.equals(cursor.sortBy, msg.getSortBy()) || !msg.getSortDirection().equalsIgnoreCase(cursor.sortDirection)) {
+                throw new OperationFailureException(argerr("the cursor is issued for sortBy[%s] sortDirection[%s], it cannot be used with" +
+                        " sortBy[%s] sortDirection[%s]", cursor.sortBy, cursor.sortDirection, msg.getSortBy(), msg.getSortDirection()));
+            }
+        }
+
+        private void setCursorValue(Query q) {
+            EntityInfo info = root.info;
+            String sortBy = root.keysetSortBy();
+            try {
+                q.setParameter(CURSOR_KEY, QueryCursor.stringToValue(cursor.key, info.entityPrimaryKeyField.getType()));
+                if (sortBy != null && cursor.sortValue != null) {
+                    q.setParameter(CURSOR_SORT_VALUE, QueryCursor.stringToValue(cursor.sortValue, getSortField(info, sortBy).getType()));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new OperationFailureException(argerr("invalid cursor[%s], %s", msg.getCursor(), e.getMessage()));
+            }
+        }
+
+        private String makeCursor(Object lastRow) {
+            String sortBy = root.keysetSortBy();
+            Object key;
+            Object sortValue = null;
+            if (msg.isFieldQuery()) {
+                Tuple t = (Tuple) lastRow;
+                int index = msg.getFields().size();
+                if (sortBy != null) {
+                    sortValue = t.get(index++);
+                }
+                key = t.get(index);
+            } else {
+                key = root.info.getPrimaryKeyValue(lastRow);
+                if (sortBy != null) {
+                    sortValue = FieldUtils.getFieldValue(sortBy, lastRow);
+                }
+            }
+
+            QueryCursor next = new QueryCursor();
+            next.sortBy = msg.getSortBy();
+            next.sortDirection = msg.getSortDirection();
+            next.sortValue = sortValue == null ? null : QueryCursor.valueToString(sortValue);
+            next.key = QueryCursor.valueToString(key);
+            return next.encode();
+        }
+
+        @Transactional(readOnly = true)
+        QueryPage queryPage() {
+            decodeCursor();
+
+            List vos = queryVOs();
+            String next = null;
+            // a full page may be followed by more, a partial page is the last one
+            if (msg.getLimit() != null && !vos.isEmpty() && vos.size() == msg.getLimit()) {
+                next = makeCursor(vos.get(vos.size() - 1));
+            }
+
+            return new QueryPage(convertToInventories(vos), next);
+        }
+
+        /**
+         * scrolls the result instead of listing it, the rows are converted to inventories and written to the
+         * stream a chunk a time, and the chunk is evicted from the persistence context afterwards, so only one
+         * chunk of VOs and inventories is in memory at any time. The rows are fetched by the JDBC driver in
+         * chunks too if the database URL enables server side cursors (useCursorFetch=true for MySQL); the
+         * streaming mode of MySQL Connector/J is not used because it forbids the queries that loading lazy
+         * fields and child inventories issue on the same connection.
+         */
+        @Transactional(readOnly = true)
+        void stream(QueryReplyStream stream) {
+            if (msg.isFieldQuery()) {
+                validateFields();
+            }
+
+            int chunkSize = stream.getChunkSize();
+            String jpql = build(false);
+            Query q = dbf.getEntityManager().createQuery(jpql);
+            setQueryValue(q);
+            org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
+            if (logger.isTraceEnabled()) {
+                logger.trace(hq.getQueryString());
+            }
+            if (msg.getLimit() != null) {
+                hq.setMaxResults(msg.getLimit());
+            }
+            if (msg.getStart() != null) {
+                hq.setFirstResult(msg.getStart());
+            }
+            hq.setFetchSize(chunkSize);
+            hq.setReadOnly(true);
+
+            ScrollableResults rs = hq.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                boolean written = false;
+                List chunk = new ArrayList(chunkSize);
+                while (rs.next()) {
+                    chunk.add(msg.isFieldQuery() ? rs.get() : rs.get(0));
+                    if (chunk.size() == chunkSize) {
+                        stream.write(convertToInventories(chunk));
+                        written = true;
+                        chunk = new ArrayList(chunkSize);
+                        dbf.getEntityManager().clear();
+                    }
+                }
+
+                if (!chunk.isEmpty() || !written) {
+                    stream.write(convertToInventories(chunk));
+                }
+            } finally {
+                rs.close();
+            }
+        }
+
+        private long count(String jpql) {
             Query q = dbf.getEntityManager().createQuery(jpql);
             if (logger.isTraceEnabled()) {
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
-            setQueryValue(q, root);
-            return (Long) q.getSingleResult();
+            setQueryValue(q);
+            long start = System.nanoTime();
+            try {
+                return (Long) q.getSingleResult();
+            } finally {
+                planCache.addExecutionTime(System.nanoTime() - start);
+            }
+        }
+
+        @Transactional(readOnly = true)
+        long count() {
+            return count(build(true));
+        }
+
+        /**
+         * returns the row number in the table statistics of MySQL if the query has no condition, which
+         * is an estimate but costs nothing compared to scanning the table; a query with conditions,
+         * including those added for non-admin accounts, is still counted exactly
+         */
+        @Transactional(readOnly = true)
+        long estimateCount() {
+            String jpql = build(true);
+            if (root.conditioned) {
+                return count(jpql);
+            }
+
+            Table at = (Table) root.info.entityClass.getAnnotation(Table.class);
+            String tableName = at == null || at.name().isEmpty() ? root.info.entityClass.getSimpleName() : at.name();
+            List rows = dbf.getEntityManager().createNativeQuery("select TABLE_ROWS from information_schema.TABLES" +
+                    " where TABLE_SCHEMA = database() and TABLE_NAME = :name")
+                    .setParameter("name", tableName)
+                    .getResultList();
+            if (rows.isEmpty() || rows.get(0) == null) {
+                // not a table MySQL keeps statistics for, e.g. a view
+                return count(jpql);
+            }
+
+            return ((Number) rows.get(0)).longValue();
         }
     }
 
@@ -1177,6 +1544,8 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 inventoryQueryMessageMap.put(at.inventoryClass(), msgClass);
             }
 
+            jmxf.registerBean("MysqlQueryBuilder", this);
+
             // NOTE: don't change the order
             populateExtensions();
             buildExpandedQueryAliasInfo();
@@ -1289,6 +1658,11 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         return true;
     }
 
+    @Override
+    public QueryPlanCacheStatistic getQueryPlanCacheStatistic() {
+        return planCache.getStatistic();
+    }
+
     @Override
     public <T> List<T> query(APIQueryMessage msg, Class<T> inventoryClass) {
         QueryContext context = new QueryContext();
@@ -1298,6 +1672,15 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         return context.query();
     }
 
+    @Override
+    public <T> QueryPage<T> queryPage(APIQueryMessage msg, Class<T> inventoryClass) {
+        QueryContext context = new QueryContext();
+        context.msg = msg;
+        context.inventoryClass = selectInventoryClass(msg, inventoryClass);
+
+        return context.queryPage();
+    }
+
     private Class selectInventoryClass(APIQueryMessage msg, Class inventoryClass) {
         EntityInfo info = entityInfos.get(inventoryClass);
         return info.selectInventoryClass(msg);
@@ -1311,6 +1694,22 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         return context.count();
     }
 
+    @Override
+    public void stream(APIQueryMessage msg, Class inventoryClass, QueryReplyStream stream) {
+        QueryContext context = new QueryContext();
+        context.msg = msg;
+        context.inventoryClass = selectInventoryClass(msg, inventoryClass);
+        context.stream(stream);
+    }
+
+    @Override
+    public long estimateCount(APIQueryMessage msg, Class inventoryClass) {
+        QueryContext context = new QueryContext();
+        context.msg = msg;
+        context.inventoryClass = selectInventoryClass(msg, inventoryClass);
+        return context.estimateCount();
+    }
+
     @Override
     public Map<String, List<String>> populateQueryableFields() {
         //throw new CloudRuntimeException("it's impossible enumerate all combinations");
@@ -0,0 +1,73 @@
+package org.zstack.query;
+
+import org.zstack.utils.TypeUtils;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * the continuation token of a keyset paged query.
+ *
+ * It records the sort key and the primary key of the last row of a page, the next page seeks
+ * past them instead of skipping the rows before it with an offset. The token is opaque to clients,
+ * it's the base64 of this object in JSON. The sort value is null if the sort key of the last row is
+ * null, the next page then seeks by 'is null' and 'is not null'.
+ */
+class QueryCursor {
+    String sortBy;
+    String sortDirection;
+    String sortValue;
+    String key;
+
+    String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                JSONObjectUtil.toJsonString(this).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static QueryCursor decode(String token) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            QueryCursor cursor = JSONObjectUtil.toObject(json, QueryCursor.class);
+            if (cursor == null || cursor.key == null) {
+                throw new IllegalArgumentException("missing key");
+            }
+            return cursor;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(String.format("invalid cursor[%s]", token), e);
+        }
+    }
+
+    static String valueToString(Object value) {
+        if (value instanceof Enum) {
+            return ((Enum) value).name();
+        }
+
+        if (value instanceof Date && !(value instanceof Timestamp)) {
+            // Date.toString() drops the milliseconds, keep them in the format of Timestamp
+            return new Timestamp(((Date) value).getTime()).toString();
+        }
+
+        // Timestamp.toString() keeps the nanos that Timestamp.valueOf() parses back
+        return value.toString();
+    }
+
+    static Object stringToValue(String value, Class type) {
+        if (Timestamp.class.isAssignableFrom(type)) {
+            return Timestamp.valueOf(value);
+        } else if (java.sql.Date.class.isAssignableFrom(type)) {
+            return new java.sql.Date(Timestamp.valueOf(value).getTime());
+        } else if (Date.class.isAssignableFrom(type)) {
+            // a Timestamp is a Date, it keeps the fractions of the database value that a Date cannot
+            return Timestamp.valueOf(value);
+        } else if (Enum.class.isAssignableFrom(type)) {
+            return Enum.valueOf(type, value);
+        } else if (Boolean.class.isAssignableFrom(type) || Boolean.TYPE.isAssignableFrom(type)) {
+            return Boolean.valueOf(value);
+        } else {
+            return TypeUtils.stringToValue(value, type);
+        }
+    }
+}
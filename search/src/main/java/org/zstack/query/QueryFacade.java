@@ -2,11 +2,19 @@ package org.zstack.query;
 
 import org.zstack.header.query.APIQueryMessage;
 import org.zstack.header.query.QueryCondition;
+import org.zstack.header.query.QueryPage;
+import org.zstack.header.query.QueryReplyStream;
 
 import java.util.List;
 
 public interface QueryFacade {
     <T> List<T> query(APIQueryMessage msg, Class<T> inventoryClass);
 
+    <T> QueryPage<T> queryPage(APIQueryMessage msg, Class<T> inventoryClass);
+
+    void stream(APIQueryMessage msg, Class inventoryClass, QueryReplyStream stream);
+
     long count(APIQueryMessage msg, Class inventoryClass);
+
+    long estimateCount(APIQueryMessage msg, Class inventoryClass);
 }
@@ -59,6 +59,15 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
         return builder.query(msg, inventoryClass);
     }
 
+    @Override
+    public <T> QueryPage<T> queryPage(APIQueryMessage msg, Class<T> inventoryClass) {
+        validateConditions(msg.getConditions());
+
+        QueryBuilderFactory factory = getFactory(queryBuilderType);
+        QueryBuilder builder = factory.createQueryBuilder();
+        return builder.queryPage(msg, inventoryClass);
+    }
+
     @Override
     public long count(APIQueryMessage msg, Class inventoryClass) {
         validateConditions(msg.getConditions());
@@ -68,6 +77,24 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
         return builder.count(msg, inventoryClass);
     }
 
+    @Override
+    public void stream(APIQueryMessage msg, Class inventoryClass, QueryReplyStream stream) {
+        validateConditions(msg.getConditions());
+
+        QueryBuilderFactory factory = getFactory(queryBuilderType);
+        QueryBuilder builder = factory.createQueryBuilder();
+        builder.stream(msg, inventoryClass, stream);
+    }
+
+    @Override
+    public long estimateCount(APIQueryMessage msg, Class inventoryClass) {
+        validateConditions(msg.getConditions());
+
+        QueryBuilderFactory factory = getFactory(queryBuilderType);
+        QueryBuilder builder = factory.createQueryBuilder();
+        return builder.estimateCount(msg, inventoryClass);
+    }
+
     private void populateExtensions() {
         for (QueryBuilderFactory extp : pluginRgty.getExtensionList(QueryBuilderFactory.class)) {
             QueryBuilderFactory old = builerFactories.get(extp.getQueryBuilderType().toString());
@@ -203,11 +230,22 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
                 reply.setTotal(count);
                 bus.reply(msg, reply);
             } else {
-                List invs = query(msg, inventoryClass);
-                setter.invoke(reply, invs);
+                QueryReplyStream stream = msg.isCursorQuery() ? null : QueryReplyStreams.get(msg.getId());
+                if (stream != null) {
+                    // the inventories go to the stream, the reply only carries the count
+                    stream(msg, inventoryClass, stream);
+                } else if (msg.isCursorQuery()) {
+                    QueryPage page = queryPage(msg, inventoryClass);
+                    setter.invoke(reply, page.getInventories());
+                    reply.setNext(page.getNext());
+                } else {
+                    List invs = query(msg, inventoryClass);
+                    setter.invoke(reply, invs);
+                }
+
                 //TODO: merge this into mysql query builder
                 if (msg.isReplyWithCount()) {
-                    long count = count(msg, inventoryClass);
+                    long count = msg.isEstimateCount() ? estimateCount(msg, inventoryClass) : count(msg, inventoryClass);
                     reply.setTotal(count);
                 }
                 bus.reply(msg, reply);
@@ -259,6 +297,15 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
             }
         }
 
+        if (qmsg.isCursorQuery()) {
+            if (qmsg.getStart() != null) {
+                throw new ApiMessageInterceptionException(argerr("'start' cannot be used with 'cursor', the page is located by the cursor"));
+            }
+            if (qmsg.getGroupBy() != null) {
+                throw new ApiMessageInterceptionException(argerr("'groupBy' cannot be used with 'cursor'"));
+            }
+        }
+
         return msg;
     }
 }
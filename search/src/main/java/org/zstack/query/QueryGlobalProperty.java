@@ -0,0 +1,12 @@
+package org.zstack.query;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class QueryGlobalProperty {
+    @GlobalProperty(name = "Query.planCacheSize", defaultValue = "1000")
+    public static int PLAN_CACHE_SIZE;
+}
@@ -0,0 +1,79 @@
+package org.zstack.query;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the JPQL plans of query shapes, least recently used ones are evicted when it's full.
+ *
+ * A shape is everything deciding the JPQL of a query except the condition values, which are bound
+ * as parameters, so the same query polled with different values is planned once. The time spent on
+ * planning and on executing the planned queries is accumulated to tell one from the other.
+ */
+class QueryPlanCache<T> {
+    private final int maxSize;
+    private final LinkedHashMap<List<Object>, T> plans;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong planTime = new AtomicLong();
+    private final AtomicLong executionTime = new AtomicLong();
+
+    QueryPlanCache(final int maxSize) {
+        this.maxSize = maxSize;
+        plans = new LinkedHashMap<List<Object>, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, T> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    T get(List<Object> shape) {
+        T plan;
+        synchronized (this) {
+            plan = plans.get(shape);
+        }
+
+        if (plan == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return plan;
+    }
+
+    synchronized void put(List<Object> shape, T plan) {
+        plans.put(shape, plan);
+    }
+
+    synchronized int size() {
+        return plans.size();
+    }
+
+    void addPlanTime(long nanos) {
+        planTime.addAndGet(nanos);
+    }
+
+    void addExecutionTime(long nanos) {
+        executionTime.addAndGet(nanos);
+    }
+
+    QueryPlanCacheStatistic getStatistic() {
+        QueryPlanCacheStatistic s = new QueryPlanCacheStatistic();
+        s.setHits(hits.get());
+        s.setMisses(misses.get());
+        s.setSize(size());
+        s.setMaxSize(maxSize);
+        s.setPlanTimeInMicros(TimeUnit.NANOSECONDS.toMicros(planTime.get()));
+        s.setExecutionTimeInMicros(TimeUnit.NANOSECONDS.toMicros(executionTime.get()));
+        return s;
+    }
+}
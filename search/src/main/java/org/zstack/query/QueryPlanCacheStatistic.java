@@ -0,0 +1,60 @@
+package org.zstack.query;
+
+/**
+ */
+public class QueryPlanCacheStatistic {
+    private long hits;
+    private long misses;
+    private int size;
+    private int maxSize;
+    private long planTimeInMicros;
+    private long executionTimeInMicros;
+
+    public long getHits() {
+        return hits;
+    }
+
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getPlanTimeInMicros() {
+        return planTimeInMicros;
+    }
+
+    public void setPlanTimeInMicros(long planTimeInMicros) {
+        this.planTimeInMicros = planTimeInMicros;
+    }
+
+    public long getExecutionTimeInMicros() {
+        return executionTimeInMicros;
+    }
+
+    public void setExecutionTimeInMicros(long executionTimeInMicros) {
+        this.executionTimeInMicros = executionTimeInMicros;
+    }
+}
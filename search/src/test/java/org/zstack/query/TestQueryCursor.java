@@ -0,0 +1,50 @@
+package org.zstack.query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * the sort values of cursors are converted back to the type of the sort field
+ */
+public class TestQueryCursor {
+    private QueryCursor roundTrip(QueryCursor cursor) {
+        return QueryCursor.decode(cursor.encode());
+    }
+
+    @Test
+    public void testDateSortValue() {
+        Date date = new Date(1500000000123L);
+        QueryCursor cursor = new QueryCursor();
+        cursor.sortBy = "lastOpDate";
+        cursor.sortDirection = "asc";
+        cursor.sortValue = QueryCursor.valueToString(date);
+        cursor.key = "1";
+
+        Object value = QueryCursor.stringToValue(roundTrip(cursor).sortValue, Date.class);
+        Assert.assertTrue(value instanceof Date);
+        // the milliseconds are kept
+        Assert.assertEquals(date.getTime(), ((Date) value).getTime());
+
+        Timestamp ts = Timestamp.valueOf("2017-07-14 10:40:00.123456");
+        cursor.sortValue = QueryCursor.valueToString(ts);
+        Assert.assertEquals(ts, QueryCursor.stringToValue(roundTrip(cursor).sortValue, Timestamp.class));
+        // a Date field may hold a Timestamp loaded from the database
+        Assert.assertEquals(ts, QueryCursor.stringToValue(roundTrip(cursor).sortValue, Date.class));
+    }
+
+    @Test
+    public void testNullSortValue() {
+        QueryCursor cursor = new QueryCursor();
+        cursor.sortBy = "description";
+        cursor.sortDirection = "desc";
+        cursor.key = "1";
+
+        QueryCursor decoded = roundTrip(cursor);
+        Assert.assertNull(decoded.sortValue);
+        Assert.assertEquals("description", decoded.sortBy);
+        Assert.assertEquals("1", decoded.key);
+    }
+}
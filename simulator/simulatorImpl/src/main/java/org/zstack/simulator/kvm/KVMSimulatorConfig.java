@@ -20,6 +20,7 @@ public class KVMSimulatorConfig {
     public volatile boolean connectException = false;
     public volatile boolean pingSuccess = true;
     public volatile Map<String, Boolean> pingSuccessMap = new HashMap<String, Boolean>();
+    public List<PingCmd> pingCmds = new ArrayList<PingCmd>();
     public volatile boolean mountSuccess = true;
     public volatile boolean mountException = false;
     public volatile long totalDiskCapacity = SizeUnit.TERABYTE.toByte(100);
@@ -82,8 +83,11 @@ public class KVMSimulatorConfig {
     public volatile List<CheckVmStateCmd> checkVmStateCmds = new ArrayList<CheckVmStateCmd>();
     public volatile Map<String, Map<String, String>> checkVmStatesConfig = new HashMap<String, Map<String, String>>();
     public volatile boolean vmSyncSuccess = true;
+    public List<VmSyncCmd> vmSyncCmds = new ArrayList<VmSyncCmd>();
     public List<HardenVmConsoleCmd> hardenVmConsoleCmds = new ArrayList<HardenVmConsoleCmd>();
     public List<DeleteVmConsoleFirewallCmd> deleteVmConsoleFirewallCmds  = new ArrayList<DeleteVmConsoleFirewallCmd>();
 
     public Map<String, Long> takeSnapshotCmdSize = new HashMap<String, Long>();
+    public volatile boolean batchCommandSupported = true;
+    public List<BatchCommand> batchCommands = new ArrayList<BatchCommand>();
 }
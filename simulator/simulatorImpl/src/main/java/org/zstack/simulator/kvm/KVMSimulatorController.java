@@ -2,11 +2,17 @@ package org.zstack.simulator.kvm;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.ModelAndView;
+import org.zstack.core.Platform;
 import org.zstack.core.thread.AsyncThread;
+import org.zstack.header.Constants;
 import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.rest.RESTConstant;
 import org.zstack.header.rest.RESTFacade;
 import org.zstack.kvm.KVMAgentCommands;
 import org.zstack.kvm.KVMAgentCommands.*;
@@ -20,8 +26,13 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class KVMSimulatorController {
     private static final CLogger logger = Utils.getLogger(KVMSimulatorController.class);
@@ -42,6 +53,14 @@ public class KVMSimulatorController {
 
     private AsyncRESTReplyer replyer = new AsyncRESTReplyer();
 
+    private static class BatchReply {
+        CountDownLatch latch;
+        String response;
+    }
+
+    // replies of the commands in batches, keyed by the task uuids
+    private Map<String, BatchReply> batchReplies = new ConcurrentHashMap<String, BatchReply>();
+
     @RequestMapping(value=KVMConstant.KVM_HARDEN_CONSOLE_PATH, method=RequestMethod.POST)
     public @ResponseBody String hardenVmConsole(HttpServletRequest req) {
         HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
@@ -186,6 +205,9 @@ public class KVMSimulatorController {
     @AsyncThread
     private void ping(HttpEntity<String> entity) {
         PingCmd cmd = JSONObjectUtil.toObject(entity.getBody(), PingCmd.class);
+        synchronized (config.pingCmds) {
+            config.pingCmds.add(cmd);
+        }
         PingResponse rsp = new PingResponse();
         if (!config.pingSuccess) {
             rsp.setSuccess(false);
@@ -220,6 +242,7 @@ public class KVMSimulatorController {
             rsp.setLibvirtVersion("1.0.0");
             rsp.setQemuVersion("1.3.0");
             rsp.setIptablesSucc(true);
+            rsp.setBatchCommandSupported(config.batchCommandSupported);
             logger.debug("KVM connected");
         } else {
             rsp.setSuccess(false);
@@ -251,6 +274,8 @@ public class KVMSimulatorController {
     @AsyncThread
     private void doVmSync(HttpEntity<String> entity) {
         synchronized (config) {
+            VmSyncCmd cmd = JSONObjectUtil.toObject(entity.getBody(), VmSyncCmd.class);
+            config.vmSyncCmds.add(cmd);
             VmSyncResponse rsp = new VmSyncResponse();
             if (!config.vmSyncSuccess) {
                 rsp.setSuccess(false);
@@ -704,6 +729,69 @@ public class KVMSimulatorController {
         replyer.reply(entity, rsp);
     }
 
+    @RequestMapping(value=KVMConstant.KVM_BATCH_COMMAND_PATH, method=RequestMethod.POST)
+    private @ResponseBody String batchCommand(HttpServletRequest req) {
+        HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        String url = req.getRequestURL().toString();
+        batchCommand(entity, url.substring(0, url.length() - req.getRequestURI().length()), url + "/reply");
+        return null;
+    }
+
+    // runs the commands of a batch on their own paths as the agent does, and replies their responses at once
+    @AsyncThread
+    private void batchCommand(HttpEntity<String> entity, String root, String replyUrl) {
+        BatchCommand cmd = JSONObjectUtil.toObject(entity.getBody(), BatchCommand.class);
+        synchronized (config.batchCommands) {
+            config.batchCommands.add(cmd);
+        }
+
+        CountDownLatch latch = new CountDownLatch(cmd.commands.size());
+        List<BatchReply> replies = new ArrayList<BatchReply>();
+        for (String body : cmd.commands) {
+            String taskUuid = Platform.getUuid();
+            BatchReply reply = new BatchReply();
+            reply.latch = latch;
+            replies.add(reply);
+            batchReplies.put(taskUuid, reply);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.set(RESTConstant.TASK_UUID, taskUuid);
+            headers.set(RESTConstant.CALLBACK_URL, replyUrl);
+            headers.set(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, entity.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID));
+            restf.getRESTTemplate().exchange(root + cmd.path, HttpMethod.POST, new HttpEntity<String>(body, headers), String.class);
+        }
+
+        BatchResponse rsp = new BatchResponse();
+        try {
+            if (latch.await(5, TimeUnit.MINUTES)) {
+                rsp.responses = new ArrayList<String>();
+                for (BatchReply reply : replies) {
+                    rsp.responses.add(reply.response);
+                }
+            } else {
+                rsp.setSuccess(false);
+                rsp.setError(String.format("timeout waiting for the batch commands[path:%s]", cmd.path));
+            }
+        } catch (InterruptedException e) {
+            rsp.setSuccess(false);
+            rsp.setError(e.getMessage());
+        }
+
+        replyer.reply(entity, rsp);
+    }
+
+    @RequestMapping(value=KVMConstant.KVM_BATCH_COMMAND_PATH + "/reply", method=RequestMethod.POST)
+    private @ResponseBody String batchCommandReply(HttpServletRequest req) {
+        HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        BatchReply reply = batchReplies.remove(entity.getHeaders().getFirst(RESTConstant.TASK_UUID));
+        if (reply != null) {
+            reply.response = entity.getBody();
+            reply.latch.countDown();
+        }
+        return null;
+    }
+
     @ExceptionHandler(Exception.class)
     public ModelAndView handleAllException(Exception ex) {
         logger.warn(ex.getMessage(), ex);
@@ -111,7 +111,34 @@ public class SystemTag {
         return hasTag(resourceUuid, resourceClass);
     }
 
+    private boolean useCache(String resourceUuid) {
+        return resourceUuid != null && tagMgr != null && tagMgr.isSystemTagCacheReady();
+    }
+
+    private boolean isQueryMatch(String tag) {
+        return useOp() == Op.LIKE ? SystemTagCache.like(tag, useTagFormat()) : tag.equalsIgnoreCase(useTagFormat());
+    }
+
+    private List<String> filterCachedTags(Map<String, List<String>> tagsByType, Class resourceClass) {
+        List<String> ret = new ArrayList<>();
+        List<String> tags = tagsByType == null ? null : tagsByType.get(resourceClass.getSimpleName());
+        if (tags == null) {
+            return ret;
+        }
+
+        for (String tag : tags) {
+            if (isQueryMatch(tag)) {
+                ret.add(tag);
+            }
+        }
+        return ret;
+    }
+
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        if (useCache(resourceUuid)) {
+            return !filterCachedTags(tagMgr.getSystemTagCache().get(resourceUuid), resourceClass).isEmpty();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -137,6 +164,10 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        if (useCache(resourceUuid)) {
+            return filterCachedTags(tagMgr.getSystemTagCache().get(resourceUuid), resourceClass);
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -162,6 +193,17 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(List<String> resourceUuids, Class resourceClass) {
+        if (tagMgr != null && tagMgr.isSystemTagCacheReady() && !resourceUuids.contains(null)) {
+            Map<String, List<String>> ret = new HashMap<>();
+            for (Map.Entry<String, Map<String, List<String>>> e : tagMgr.getSystemTagCache().get(resourceUuids).entrySet()) {
+                List<String> tags = filterCachedTags(e.getValue(), resourceClass);
+                if (!tags.isEmpty()) {
+                    ret.put(e.getKey(), tags);
+                }
+            }
+            return ret;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -0,0 +1,166 @@
+package org.zstack.tag;
+
+import org.zstack.core.db.Q;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * system tags of resources, keyed by resource uuid then resource type.
+ *
+ * A resource is loaded with all its system tags in one query and kept until it's invalidated by
+ * TagManagerImpl when a tag of it is created, updated or deleted on any management node. A load racing
+ * with an invalidation is returned to the caller but not cached, so an invalidated resource can never
+ * be put back with tags read before the change.
+ */
+class SystemTagCache {
+    private static final Map<String, Pattern> likePatterns = new ConcurrentHashMap<>();
+
+    private final LinkedHashMap<String, Map<String, List<String>>> tags;
+    // increased on every invalidation, guarded by this
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    SystemTagCache(final int maxSize) {
+        tags = new LinkedHashMap<String, Map<String, List<String>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, List<String>>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    Map<String, List<String>> get(String resourceUuid) {
+        return get(Collections.singletonList(resourceUuid)).get(resourceUuid);
+    }
+
+    /**
+     * @return tags grouped by resource type of every resource, resources having no tag are mapped to an empty map
+     */
+    Map<String, Map<String, List<String>>> get(Collection<String> resourceUuids) {
+        Map<String, Map<String, List<String>>> ret = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        long gen;
+        synchronized (this) {
+            for (String uuid : resourceUuids) {
+                Map<String, List<String>> t = tags.get(uuid);
+                if (t == null) {
+                    missing.add(uuid);
+                } else {
+                    ret.put(uuid, t);
+                }
+            }
+            gen = generation;
+        }
+
+        hits.addAndGet(ret.size());
+        if (missing.isEmpty()) {
+            return ret;
+        }
+
+        misses.addAndGet(missing.size());
+        Map<String, Map<String, List<String>>> loaded = load(missing);
+        synchronized (this) {
+            if (gen == generation) {
+                tags.putAll(loaded);
+            }
+        }
+
+        ret.putAll(loaded);
+        return ret;
+    }
+
+    private Map<String, Map<String, List<String>>> load(List<String> resourceUuids) {
+        Map<String, Map<String, List<String>>> ret = new HashMap<>();
+        for (String uuid : resourceUuids) {
+            ret.put(uuid, new HashMap<String, List<String>>());
+        }
+
+        List<Tuple> ts = Q.New(SystemTagVO.class)
+                .select(SystemTagVO_.resourceUuid, SystemTagVO_.resourceType, SystemTagVO_.tag)
+                .in(SystemTagVO_.resourceUuid, resourceUuids)
+                .listTuple();
+        for (Tuple t : ts) {
+            Map<String, List<String>> byType = ret.get(t.get(0, String.class));
+            if (byType == null) {
+                continue;
+            }
+
+            String resourceType = t.get(1, String.class);
+            List<String> lst = byType.get(resourceType);
+            if (lst == null) {
+                lst = new ArrayList<>();
+                byType.put(resourceType, lst);
+            }
+            lst.add(t.get(2, String.class));
+        }
+
+        for (Map.Entry<String, Map<String, List<String>>> e : ret.entrySet()) {
+            Map<String, List<String>> byType = e.getValue();
+            for (Map.Entry<String, List<String>> te : byType.entrySet()) {
+                te.setValue(Collections.unmodifiableList(te.getValue()));
+            }
+            e.setValue(Collections.unmodifiableMap(byType));
+        }
+
+        return ret;
+    }
+
+    synchronized void invalidate(Collection<String> resourceUuids) {
+        generation++;
+        for (String uuid : resourceUuids) {
+            tags.remove(uuid);
+        }
+    }
+
+    synchronized void invalidateAll() {
+        generation++;
+        tags.clear();
+    }
+
+    synchronized int size() {
+        return tags.size();
+    }
+
+    long getHitNum() {
+        return hits.get();
+    }
+
+    long getMissNum() {
+        return misses.get();
+    }
+
+    /**
+     * matches a tag the way MySQL matches it with LIKE on the default case insensitive collation
+     */
+    static boolean like(String value, String sqlPattern) {
+        Pattern p = likePatterns.get(sqlPattern);
+        if (p == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < sqlPattern.length(); i++) {
+                char c = sqlPattern.charAt(i);
+                if (c == '\\' && i + 1 < sqlPattern.length()) {
+                    sb.append(Pattern.quote(String.valueOf(sqlPattern.charAt(++i))));
+                } else if (c == '%') {
+                    sb.append(".*");
+                } else if (c == '_') {
+                    sb.append('.');
+                } else {
+                    sb.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+
+            p = Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+            likePatterns.put(sqlPattern, p);
+        }
+
+        return p.matcher(value).matches();
+    }
+}
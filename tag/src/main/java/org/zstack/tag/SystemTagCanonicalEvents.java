@@ -0,0 +1,24 @@
+package org.zstack.tag;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.List;
+
+/**
+ */
+public class SystemTagCanonicalEvents {
+    public static final String CACHE_INVALIDATE_PATH = "/systemTag/cache/invalidate/{nodeUuid}";
+
+    @NeedJsonSchema
+    public static class CacheInvalidateEvent {
+        private List<String> resourceUuids;
+
+        public List<String> getResourceUuids() {
+            return resourceUuids;
+        }
+
+        public void setResourceUuids(List<String> resourceUuids) {
+            this.resourceUuids = resourceUuids;
+        }
+    }
+}
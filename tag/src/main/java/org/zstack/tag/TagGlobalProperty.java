@@ -0,0 +1,14 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    @GlobalProperty(name="SystemTag.cacheEnabled", defaultValue = "true")
+    public static boolean SYSTEM_TAG_CACHE_ENABLED;
+    @GlobalProperty(name="SystemTag.cacheSize", defaultValue = "50000")
+    public static int SYSTEM_TAG_CACHE_SIZE;
+}
@@ -50,4 +50,10 @@ public interface TagManager {
     void validateSystemTag(String resourceUuid, String resourceType, String tag);
 
     void installCreateMessageValidator(String resourceType, SystemTagCreateMessageValidator validator);
+
+    /**
+     * loads the system tags of all the resources in one query, so the following reads of
+     * their system tags are served from the cache
+     */
+    void prefetchSystemTags(Collection<String> resourceUuids);
 }
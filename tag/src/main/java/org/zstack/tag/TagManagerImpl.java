@@ -2,8 +2,12 @@ package org.zstack.tag;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.*;
@@ -22,6 +26,7 @@ import org.zstack.header.message.Message;
 import org.zstack.header.query.APIQueryReply;
 import org.zstack.header.tag.*;
 import org.zstack.query.QueryFacade;
+import org.zstack.tag.SystemTagCanonicalEvents.CacheInvalidateEvent;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
@@ -35,8 +40,11 @@ import java.util.*;
 
 import static org.zstack.core.Platform.argerr;
 import static org.zstack.core.Platform.operr;
+import static org.zstack.utils.CollectionDSL.e;
 import static org.zstack.utils.CollectionDSL.list;
+import static org.zstack.utils.CollectionDSL.map;
 import static org.zstack.utils.CollectionUtils.removeDuplicateFromList;
+import static org.zstack.utils.StringDSL.s;
 
 public class TagManagerImpl extends AbstractService implements TagManager,
         SoftDeleteEntityExtensionPoint, GlobalApiMessageInterceptor, SystemTagLifeCycleExtension,
@@ -53,6 +61,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
 
     private List<SystemTag> systemTags = new ArrayList<>();
     private Map<String, List<SystemTag>> resourceTypeSystemTagMap = new HashMap<>();
@@ -61,6 +71,9 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private Map<String, List<SystemTagCreateMessageValidator>> createMessageValidators = new HashMap<>();
     private Map<String, List<SystemTagLifeCycleExtension>> lifeCycleExtensions = new HashMap<>();
     private List<Class> autoDeleteTagClasses;
+    private SystemTagCache systemTagCache;
+    // tag changes are only seen through the lifecycle extensions populated in start()
+    private volatile boolean systemTagCacheReady;
 
 
     private void initSystemTags() throws IllegalAccessException {
@@ -253,7 +266,10 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         SystemTagInventory inv = SystemTagInventory.valueOf(vo);
 
         final SystemTagVO finalVo = vo;
-        Defer.guard(() -> dbf.remove(finalVo));
+        Defer.guard(() -> {
+            dbf.remove(finalVo);
+            invalidateSystemTagCache(list(finalVo.getResourceUuid()));
+        });
 
         fireTagCreated(list(inv));
         return inv;
@@ -370,6 +386,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             ntag.setResourceUuid(dstResourceUuid);
             dbf.getEntityManager().persist(ntag);
         }
+
+        invalidateSystemTagCache(list(dstResourceUuid));
     }
 
     @Override
@@ -394,6 +412,14 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     @Override
     public List<String> findSystemTags(String resourceUuid) {
+        if (resourceUuid != null && systemTagCacheReady) {
+            List<String> ret = new ArrayList<>();
+            for (List<String> tags : systemTagCache.get(resourceUuid).values()) {
+                ret.addAll(tags);
+            }
+            return ret;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
@@ -409,7 +435,16 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private boolean hasTag(String resourceUuid, String tag, TagType tagType) {
-        if (tagType == TagType.System) {
+        if (tagType == TagType.System && resourceUuid != null && tag != null && systemTagCacheReady) {
+            for (List<String> tags : systemTagCache.get(resourceUuid).values()) {
+                for (String t : tags) {
+                    if (t.equalsIgnoreCase(tag)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } else if (tagType == TagType.System) {
             SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
             q.add(SystemTagVO_.resourceUuid, SimpleQuery.Op.EQ, resourceUuid);
             q.add(SystemTagVO_.tag, SimpleQuery.Op.EQ, tag);
@@ -653,9 +688,90 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Override
     public boolean start() {
         populateExtensions();
+        startSystemTagCache();
         return true;
     }
 
+    private void startSystemTagCache() {
+        if (!TagGlobalProperty.SYSTEM_TAG_CACHE_ENABLED) {
+            return;
+        }
+
+        systemTagCache = new SystemTagCache(TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE);
+
+        evtf.on(SystemTagCanonicalEvents.CACHE_INVALIDATE_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                String nodeUuid = (String) tokens.get("nodeUuid");
+                if (Platform.getManagementServerId().equals(nodeUuid)) {
+                    return;
+                }
+
+                CacheInvalidateEvent evt = (CacheInvalidateEvent) data;
+                systemTagCache.invalidate(evt.getResourceUuids());
+            }
+        });
+
+        systemTagCacheReady = true;
+    }
+
+    boolean isSystemTagCacheReady() {
+        return systemTagCacheReady;
+    }
+
+    SystemTagCache getSystemTagCache() {
+        return systemTagCache;
+    }
+
+    @Override
+    public void prefetchSystemTags(Collection<String> resourceUuids) {
+        if (!systemTagCacheReady || resourceUuids.isEmpty()) {
+            return;
+        }
+
+        List<String> uuids = new ArrayList<>(resourceUuids);
+        uuids.removeAll(Collections.singleton((String) null));
+        if (!uuids.isEmpty()) {
+            systemTagCache.get(uuids);
+        }
+    }
+
+    private void fireSystemTagCacheInvalidateEvent(List<String> resourceUuids) {
+        CacheInvalidateEvent evt = new CacheInvalidateEvent();
+        evt.setResourceUuids(resourceUuids);
+        evtf.fire(s(SystemTagCanonicalEvents.CACHE_INVALIDATE_PATH).formatByMap(map(
+                e("nodeUuid", Platform.getManagementServerId())
+        )), evt);
+    }
+
+    /**
+     * drops the resources from the cache of this node now and again after the current transaction
+     * completes, in case they are reloaded with the uncommitted state in between; other nodes are
+     * told after the transaction commits
+     */
+    void invalidateSystemTagCache(Collection<String> resourceUuids) {
+        if (!systemTagCacheReady || resourceUuids.isEmpty()) {
+            return;
+        }
+
+        final List<String> uuids = new ArrayList<>(resourceUuids);
+        systemTagCache.invalidate(uuids);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    systemTagCache.invalidate(uuids);
+                    if (status == STATUS_COMMITTED) {
+                        fireSystemTagCacheInvalidateEvent(uuids);
+                    }
+                }
+            });
+        } else {
+            fireSystemTagCacheInvalidateEvent(uuids);
+        }
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -693,6 +809,12 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceTypes", rtypes);
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
+
+        List<String> uuids = new ArrayList<>();
+        for (Object id : entityIds) {
+            uuids.add(String.valueOf(id));
+        }
+        invalidateSystemTagCache(uuids);
     }
 
     @Override
@@ -791,6 +913,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     @Override
     public void tagCreated(SystemTagInventory tag) {
+        invalidateSystemTagCache(list(tag.getResourceUuid()));
+
         List<SystemTag> tags = resourceTypeSystemTagMap.get(tag.getResourceType());
         if (tags != null) {
             for (SystemTag stag : tags) {
@@ -814,6 +938,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     @Override
     public void tagDeleted(SystemTagInventory tag) {
+        invalidateSystemTagCache(list(tag.getResourceUuid()));
+
         List<SystemTag> tags = resourceTypeSystemTagMap.get(tag.getResourceType());
         if (tags != null) {
             for (SystemTag stag : tags) {
@@ -837,6 +963,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
 
     @Override
     public void tagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
+        invalidateSystemTagCache(list(old.getResourceUuid()));
+
         List<SystemTag> tags = resourceTypeSystemTagMap.get(old.getResourceType());
         if (tags != null) {
             for (SystemTag stag : tags) {
@@ -0,0 +1,123 @@
+package org.zstack.test.integration.identity.account
+
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.SQL
+import org.zstack.header.identity.SessionVO
+import org.zstack.header.identity.SessionVO_
+import org.zstack.identity.AccountManagerImpl
+import org.zstack.identity.IdentityGlobalConfig
+import org.zstack.sdk.AccountInventory
+import org.zstack.sdk.SessionInventory
+import org.zstack.sdk.ValidateSessionResult
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+import java.sql.Timestamp
+import java.util.concurrent.TimeUnit
+
+/**
+ * the session expiry is checked by the sessions in memory,
+ * the concurrent session limit is checked by the sessions in the database
+ */
+class SessionStoreCase extends SubCase {
+    EnvSpec env
+    AccountInventory accountInventory
+    AccountManagerImpl acntMgr
+    DatabaseFacade dbf
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {}
+    }
+
+    @Override
+    void test() {
+        env.create {
+            acntMgr = bean(AccountManagerImpl.class)
+            dbf = bean(DatabaseFacade.class)
+            accountInventory = createAccount {
+                name = "test"
+                password = "password"
+            } as AccountInventory
+
+            testMaxConcurrentSessions()
+            testSessionExpired()
+        }
+    }
+
+    SessionInventory login() {
+        return logInByAccount {
+            accountName = "test"
+            password = "password"
+        } as SessionInventory
+    }
+
+    void testMaxConcurrentSessions() {
+        IdentityGlobalConfig.MAX_CONCURRENT_SESSION.updateValue(2)
+
+        SessionInventory s1 = login()
+        login()
+
+        expect(AssertionError.class) {
+            login()
+        }
+
+        logOut {
+            sessionUuid = s1.uuid
+        }
+
+        SessionInventory s3 = login()
+        assert acntMgr.getSessionsCopy().get(s3.uuid) != null
+
+        // sessions removed behind this node are not counted
+        SQL.New(SessionVO.class).eq(SessionVO_.accountUuid, accountInventory.uuid).hardDelete()
+        login()
+
+        // sessions created behind this node, e.g. on other nodes, are counted
+        SessionVO vo = new SessionVO()
+        vo.uuid = Platform.getUuid()
+        vo.accountUuid = accountInventory.uuid
+        vo.userUuid = accountInventory.uuid
+        vo.expiredDate = new Timestamp(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))
+        dbf.persist(vo)
+
+        expect(AssertionError.class) {
+            login()
+        }
+
+        IdentityGlobalConfig.MAX_CONCURRENT_SESSION.updateValue(IdentityGlobalConfig.MAX_CONCURRENT_SESSION.defaultValue(Integer.class))
+    }
+
+    void testSessionExpired() {
+        IdentityGlobalConfig.SESSION_TIMEOUT.updateValue(1)
+
+        SessionInventory s = login()
+        ValidateSessionResult res = validateSession {
+            sessionUuid = s.uuid
+        } as ValidateSessionResult
+        assert res.valid
+
+        TimeUnit.SECONDS.sleep(2)
+
+        res = validateSession {
+            sessionUuid = s.uuid
+        } as ValidateSessionResult
+        assert !res.valid
+        assert acntMgr.getSessionsCopy().get(s.uuid) == null
+        assert !dbIsExists(s.uuid, SessionVO.class)
+
+        IdentityGlobalConfig.SESSION_TIMEOUT.updateValue(IdentityGlobalConfig.SESSION_TIMEOUT.defaultValue(Integer.class))
+    }
+}
@@ -0,0 +1,127 @@
+package org.zstack.test.integration.kvm.hostallocator
+
+import org.zstack.compute.allocator.HostAllocationStatistic
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig
+import org.zstack.compute.allocator.HostAllocatorManagerImpl
+import org.zstack.kvm.KVMGlobalConfig
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.*
+
+/**
+ * hosts are filtered on the in-memory snapshot when the indexed filtering is enabled
+ */
+class IndexedHostAllocatorCase extends SubCase {
+    EnvSpec env
+    String imageUuid
+    String instanceOfferingUuid
+    String l3Uuid
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.fourVmThreeHostEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            imageUuid = (env.specByName("image1") as ImageSpec).inventory.uuid
+            instanceOfferingUuid = (env.specByName("instanceOffering") as InstanceOfferingSpec).inventory.uuid
+            l3Uuid = (env.specByName("pubL3") as L3NetworkSpec).inventory.uuid
+
+            HostAllocatorGlobalConfig.INDEXED_FILTERING.updateValue(true)
+            KVMGlobalConfig.RESERVED_MEMORY_CAPACITY.updateValue("2G")
+
+            testDisabledHostNotAllocated()
+            testCreateVmsUntilHostsFull()
+
+            HostAllocatorGlobalConfig.INDEXED_FILTERING.updateValue(false)
+        }
+    }
+
+    HostAllocationStatistic statistic() {
+        return bean(HostAllocatorManagerImpl.class).hostAllocationStatistic
+    }
+
+    VmInstanceInventory createVm(String vmName) {
+        return createVmInstance {
+            name = vmName
+            instanceOfferingUuid = this.instanceOfferingUuid
+            imageUuid = this.imageUuid
+            l3NetworkUuids = [l3Uuid]
+        } as VmInstanceInventory
+    }
+
+    HostInventory findHost(String ip) {
+        return queryHost {
+            conditions = ["managementIp=${ip}"]
+        }[0] as HostInventory
+    }
+
+    void testDisabledHostNotAllocated() {
+        // host1 is full with 4 VMs, host3 is disabled, the VM can only be created on host2
+        HostInventory host2 = findHost("127.0.0.3")
+        HostInventory host3 = findHost("127.0.0.4")
+
+        changeHostState {
+            uuid = host3.uuid
+            stateEvent = "disable"
+        }
+
+        long allocations = statistic().indexedAllocationNum
+        long fallbacks = statistic().indexedFallbackNum
+        VmInstanceInventory vm = createVm("VM-0")
+        assert vm.hostUuid == host2.uuid
+        // filtered on the snapshot without running the flows again
+        assert statistic().indexedAllocationNum == allocations + 1
+        assert statistic().indexedFallbackNum == fallbacks
+
+        changeHostState {
+            uuid = host3.uuid
+            stateEvent = "enable"
+        }
+    }
+
+    void testCreateVmsUntilHostsFull() {
+        // host2 and host3 have room for 8 VMs in all, one of them is taken above;
+        // hosts running out of capacity are filtered by the flows evaluated flow by flow
+        long allocations = statistic().indexedAllocationNum
+        def threads = []
+        def errors = Collections.synchronizedList([])
+        1.upto(7, {
+            def vmName = "VM-${it}".toString()
+            threads.add(Thread.start {
+                try {
+                    createVm(vmName)
+                } catch (Throwable t) {
+                    errors.add(t)
+                }
+            })
+        })
+        threads.each { it.join() }
+
+        assert errors.isEmpty()
+        assert queryVmInstance {
+            conditions = ["name~=VM-_"]
+        }.size() == 8
+        assert statistic().indexedAllocationNum > allocations
+
+        // no candidate found on the snapshot, the flows run again to report the error
+        long fallbacks = statistic().indexedFallbackNum
+        expect(AssertionError.class) {
+            createVm("VMM")
+        }
+        assert statistic().indexedFallbackNum == fallbacks + 1
+    }
+}
@@ -0,0 +1,120 @@
+package org.zstack.test.integration.rest
+
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.header.zone.APIQueryZoneMsg
+import org.zstack.header.zone.APIQueryZoneReply
+import org.zstack.rest.RestServer
+import org.zstack.sdk.QueryZoneAction
+import org.zstack.sdk.ZoneInventory
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.Semaphore
+
+/**
+ * sync call and query APIs are replied from the CloudBus callback, the servlet thread is released
+ * while waiting for the reply; they are rejected with 429 when too many of them are in progress
+ */
+class RestSyncCallLimitCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+                description = "test"
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testQueryIsRepliedAsynchronously()
+            testServletThreadIsReleased()
+            testQueryIsRejectedWhenTooManyInProgress()
+        }
+    }
+
+    void testQueryIsRepliedAsynchronously() {
+        List<ZoneInventory> zones = queryZone {
+            conditions = ["name=zone"]
+        } as List<ZoneInventory>
+
+        assert zones.size() == 1
+        assert zones[0].name == "zone"
+    }
+
+    boolean isRestServerBusy() {
+        return Thread.getAllStackTraces().values().any { frames ->
+            frames.any { it.className == RestServer.class.name }
+        }
+    }
+
+    void testServletThreadIsReleased() {
+        APIQueryZoneMsg held = null
+        CloudBus heldBus = null
+        env.message(APIQueryZoneMsg.class) { APIQueryZoneMsg msg, CloudBus bus ->
+            // not replied until the servlet thread is checked
+            heldBus = bus
+            held = msg
+        }
+
+        List<ZoneInventory> zones = null
+        def thread = Thread.start {
+            zones = queryZone {
+                conditions = ["name=zone"]
+            } as List<ZoneInventory>
+        }
+
+        try {
+            retryInSecs {
+                assert held != null
+                // no thread is waiting in RestServer for the reply
+                assert !isRestServerBusy()
+            }
+        } finally {
+            env.cleanMessageHandlers()
+            if (held != null) {
+                APIQueryZoneReply reply = new APIQueryZoneReply()
+                reply.inventories = []
+                heldBus.reply(held, reply)
+            }
+        }
+
+        thread.join()
+        assert zones != null && zones.isEmpty()
+    }
+
+    void testQueryIsRejectedWhenTooManyInProgress() {
+        RestServer server = bean(RestServer.class)
+        Semaphore permits = server.inFlightSyncCalls
+        // no permit left, as if the limit has been reached
+        server.inFlightSyncCalls = new Semaphore(0)
+
+        try {
+            QueryZoneAction action = new QueryZoneAction()
+            action.conditions = []
+            action.sessionId = adminSession()
+            QueryZoneAction.Result res = action.call()
+            assert res.error != null
+            assert res.error.description.contains("429")
+        } finally {
+            server.inFlightSyncCalls = permits
+        }
+
+        testQueryIsRepliedAsynchronously()
+    }
+}
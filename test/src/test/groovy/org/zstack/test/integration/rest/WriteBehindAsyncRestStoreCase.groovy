@@ -0,0 +1,123 @@
+package org.zstack.test.integration.rest
+
+import org.springframework.context.ApplicationContext
+import org.zstack.core.Platform
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.zone.APIDeleteZoneEvent
+import org.zstack.header.zone.APIDeleteZoneMsg
+import org.zstack.rest.AsyncRestQueryResult
+import org.zstack.rest.AsyncRestState
+import org.zstack.rest.AsyncRestVO
+import org.zstack.rest.AsyncRestVO_
+import org.zstack.rest.RequestData
+import org.zstack.rest.WriteBehindAsyncRestStore
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * async API jobs are polled from memory, their rows are inserted when saved and their
+ * results are written to the database behind
+ */
+class WriteBehindAsyncRestStoreCase extends SubCase {
+    EnvSpec env
+    WriteBehindAsyncRestStore store
+
+    @Override
+    void clean() {
+        SQL.New(AsyncRestVO.class).delete()
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            store = bean(WriteBehindAsyncRestStore.class)
+
+            testResultIsWrittenBehind()
+            testProcessingJobIsUpdatedWhenCompleted()
+            testQueryJobOnAnotherNodeBeforeFlush()
+        }
+    }
+
+    RequestData newRequest() {
+        RequestData d = new RequestData()
+        d.apiMessage = new APIDeleteZoneMsg(Platform.uuid)
+        return d
+    }
+
+    AsyncRestVO findRecord(String uuid) {
+        return Q.New(AsyncRestVO.class).eq(AsyncRestVO_.uuid, uuid).find()
+    }
+
+    void testResultIsWrittenBehind() {
+        RequestData d = newRequest()
+        String uuid = d.apiMessage.id
+        store.save(d)
+
+        assert store.query(uuid).state == AsyncRestState.processing
+        assert findRecord(uuid).state == AsyncRestState.processing
+
+        assert store.complete(new APIDeleteZoneEvent(uuid)).is(d)
+        AsyncRestQueryResult ret = store.query(uuid)
+        assert ret.state == AsyncRestState.done
+        assert ret.result.apiId == uuid
+        assert findRecord(uuid).state == AsyncRestState.processing
+
+        store.flush()
+        AsyncRestVO vo = findRecord(uuid)
+        assert vo.state == AsyncRestState.done
+        assert vo.result != null
+        assert vo.createDate != null
+    }
+
+    void testProcessingJobIsUpdatedWhenCompleted() {
+        RequestData d = newRequest()
+        String uuid = d.apiMessage.id
+        store.save(d)
+        store.flush()
+        assert findRecord(uuid).state == AsyncRestState.processing
+
+        store.complete(new APIDeleteZoneEvent(uuid))
+        store.flush()
+        AsyncRestVO vo = findRecord(uuid)
+        assert vo.state == AsyncRestState.done
+        assert vo.result != null
+        assert store.query(uuid).state == AsyncRestState.done
+    }
+
+    void testQueryJobOnAnotherNodeBeforeFlush() {
+        // a store of another management node, which hasn't received the API event yet
+        WriteBehindAsyncRestStore another = new WriteBehindAsyncRestStore()
+        ApplicationContext ctx = Platform.componentLoader.springIoc as ApplicationContext
+        ctx.autowireCapableBeanFactory.autowireBean(another)
+
+        RequestData d = newRequest()
+        String uuid = d.apiMessage.id
+        store.save(d)
+        assert another.query(uuid).state == AsyncRestState.processing
+
+        store.complete(new APIDeleteZoneEvent(uuid))
+        assert another.query(uuid).state == AsyncRestState.processing
+
+        store.flush()
+        AsyncRestQueryResult ret = another.query(uuid)
+        assert ret.state == AsyncRestState.done
+        assert ret.result.apiId == uuid
+    }
+}
@@ -0,0 +1,178 @@
+package org.zstack.test.compute.vm;
+
+import junit.framework.Assert;
+import org.apache.commons.lang.time.StopWatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.core.thread.SyncThread;
+import org.zstack.core.thread.ThreadGlobalProperty;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.configuration.DiskOfferingInventory;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.vm.VmInstanceConstant;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.header.vm.VmInstanceVO_;
+import org.zstack.identity.IdentityGlobalConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.data.SizeUnit;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * creates 1000 vms concurrently on simulator hosts with the capacity reserved in memory,
+ * the capacity written to the database must match the vms created
+ */
+public class TestCreate1000VmWithCapacityLedger {
+    CLogger logger = Utils.getLogger(TestCreate1000VmWithCapacityLedger.class);
+
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    int vmNum = 1000;
+    CountDownLatch latch = new CountDownLatch(vmNum);
+    List<Long> timeCost = Collections.synchronizedList(new ArrayList<Long>());
+    List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    ClusterInventory cluster;
+    int hostNum = 10;
+    CountDownLatch hostLatch = new CountDownLatch(hostNum);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/vm/CreateVm1000.xml", con);
+        ThreadGlobalProperty.MAX_THREAD_NUM = 2000;
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        api.setTimeout(1200);
+    }
+
+    @SyncThread(level = 1000)
+    private void createVm(VmInstanceInventory vm, String rootDiskUuid, List<String> nws, List<String> disks) throws ApiSenderException {
+        StopWatch watch = new StopWatch();
+        watch.start();
+        try {
+            api.createVmByFullConfig(vm, rootDiskUuid, nws, disks);
+        } catch (Throwable t) {
+            logger.warn(t.getMessage(), t);
+            errors.add(t);
+        } finally {
+            watch.stop();
+            timeCost.add(watch.getTime());
+            latch.countDown();
+        }
+    }
+
+    @SyncThread(level = 50)
+    private void addHost(long ip, int index) throws ApiSenderException {
+        try {
+            HostInventory host = new HostInventory();
+            host.setName("simulator-" + index);
+            host.setClusterUuid(cluster.getUuid());
+            host.setManagementIp(NetworkUtils.longToIpv4String(ip));
+            host.setAvailableCpuCapacity(100000L);
+            host.setAvailableMemoryCapacity(SizeUnit.TERABYTE.toByte(32));
+            api.addHostByFullConfig(host);
+        } catch (Throwable t) {
+            logger.error(t.getMessage(), t);
+            System.exit(1);
+        } finally {
+            hostLatch.countDown();
+        }
+    }
+
+    private void addHosts() throws ApiSenderException, InterruptedException {
+        long iplong = NetworkUtils.ipv4StringToLong("10.1.0.2");
+        for (int i = 0; i < hostNum; i++) {
+            addHost(++iplong, i);
+        }
+
+        hostLatch.await(30, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        HostAllocatorGlobalConfig.CAPACITY_LEDGER.updateValue(true);
+        HostAllocatorGlobalConfig.CAPACITY_LEDGER_FLUSH_INTERVAL.updateValue(100);
+        cluster = deployer.clusters.get("TestCluster");
+        CoreGlobalProperty.VM_TRACER_ON = false;
+        IdentityGlobalConfig.SESSION_TIMEOUT.updateValue(TimeUnit.HOURS.toSeconds(1000));
+        api.prepare();
+
+        addHosts();
+
+        InstanceOfferingInventory ioinv = api.listInstanceOffering(null).get(0);
+        ImageInventory iminv = api.listImage(null).get(0);
+        List<DiskOfferingInventory> dinvs = api.listDiskOffering(null);
+        List<String> nws = new ArrayList<String>();
+        for (L3NetworkInventory nwinv : api.listL3Network(null)) {
+            nws.add(nwinv.getUuid());
+        }
+
+        for (int i = 0; i < vmNum; i++) {
+            VmInstanceInventory vm = new VmInstanceInventory();
+            vm.setDescription("TestVm");
+            vm.setName("TestVm");
+            vm.setType(VmInstanceConstant.USER_VM_TYPE);
+            vm.setInstanceOfferingUuid(ioinv.getUuid());
+            vm.setImageUuid(iminv.getUuid());
+            createVm(vm, dinvs.get(0).getUuid(), nws, new ArrayList<String>());
+        }
+        Assert.assertTrue(latch.await(600, TimeUnit.MINUTES));
+        Assert.assertTrue(String.format("%s vms failed to create", errors.size()), errors.isEmpty());
+
+        long totalTime = 0;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = 0;
+        for (Long t : timeCost) {
+            minTime = Math.min(minTime, t);
+            maxTime = Math.max(maxTime, t);
+            totalTime += t;
+        }
+        System.out.println(String.format("total time: %s, min time: %s, max time: %s, avg  time: %s",
+                TimeUnit.MILLISECONDS.toSeconds(totalTime),
+                TimeUnit.MILLISECONDS.toSeconds(minTime),
+                TimeUnit.MILLISECONDS.toSeconds(maxTime),
+                TimeUnit.MILLISECONDS.toSeconds(totalTime / timeCost.size())
+        ));
+
+        // wait for the reservations written to the database
+        TimeUnit.SECONDS.sleep(2);
+
+        long runningVms = Q.New(VmInstanceVO.class).eq(VmInstanceVO_.state, VmInstanceState.Running).count();
+        Assert.assertEquals(vmNum, runningVms);
+        long usedCpu = 0;
+        long usedMemory = 0;
+        for (HostCapacityVO cap : dbf.listAll(HostCapacityVO.class)) {
+            usedCpu += cap.getTotalCpu() - cap.getAvailableCpu();
+            usedMemory += cap.getTotalMemory() - cap.getAvailableMemory();
+        }
+        Assert.assertEquals(runningVms * ioinv.getCpuNum(), usedCpu);
+        Assert.assertEquals(runningVms * ioinv.getMemorySize(), usedMemory);
+    }
+}
@@ -0,0 +1,154 @@
+package org.zstack.test.compute.zone;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.query.QueryOp;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.header.zone.APIQueryZoneReply;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * page through zones by cursor, sorted by a field and by the primary key
+ */
+public class TestQueryZoneByCursor {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        // initialize properties
+        Platform.getUuid();
+        CoreGlobalProperty.CHECK_BOX_TYPE_IN_INVENTORY = true;
+
+        deployer = new Deployer("deployerXml/zone/TestQueryZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    private List<ZoneInventory> queryAll(String sortBy, String sortDirection, boolean fieldQuery) throws ApiSenderException {
+        List<ZoneInventory> ret = new ArrayList<ZoneInventory>();
+        String cursor = "";
+        int pages = 0;
+        while (cursor != null) {
+            APIQueryZoneMsg msg = new APIQueryZoneMsg();
+            msg.setLimit(2);
+            msg.setCursor(cursor);
+            msg.setSortBy(sortBy);
+            msg.setSortDirection(sortDirection);
+            if (fieldQuery) {
+                msg.addField("name");
+            }
+            APIQueryZoneReply reply = api.query(msg, APIQueryZoneReply.class);
+            Assert.assertTrue(reply.getInventories().size() <= 2);
+            ret.addAll(reply.getInventories());
+            cursor = reply.getNext();
+            pages++;
+        }
+
+        // 5 zones in pages of 2, the third page is partial so it's the last
+        Assert.assertEquals(3, pages);
+        return ret;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        List<ZoneInventory> invs = queryAll("name", "desc", false);
+        Assert.assertEquals(5, invs.size());
+        for (int i = 0; i < invs.size(); i++) {
+            Assert.assertEquals(String.format("Zone%s", 5 - i), invs.get(i).getName());
+        }
+
+        invs = queryAll("name", "asc", true);
+        Assert.assertEquals(5, invs.size());
+        for (int i = 0; i < invs.size(); i++) {
+            Assert.assertEquals(String.format("Zone%s", i + 1), invs.get(i).getName());
+            Assert.assertNull(invs.get(i).getUuid());
+        }
+
+        invs = queryAll(null, "asc", false);
+        Assert.assertEquals(5, invs.size());
+        for (int i = 1; i < invs.size(); i++) {
+            Assert.assertTrue(invs.get(i - 1).getUuid().compareTo(invs.get(i).getUuid()) < 0);
+        }
+
+        // records with null sort keys are paged by 'is null', they are sorted first in ascending order
+        for (ZoneVO vo : dbf.listAll(ZoneVO.class)) {
+            if (vo.getName().equals("Zone2") || vo.getName().equals("Zone4")) {
+                vo.setDescription(null);
+                dbf.update(vo);
+            }
+        }
+
+        invs = queryAll("description", "asc", false);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Zone2", "Zone4")),
+                new HashSet<>(Arrays.asList(invs.get(0).getName(), invs.get(1).getName())));
+        Assert.assertEquals("Zone1", invs.get(2).getName());
+        Assert.assertEquals("Zone3", invs.get(3).getName());
+        Assert.assertEquals("Zone5", invs.get(4).getName());
+
+        invs = queryAll("description", "desc", false);
+        Assert.assertEquals("Zone5", invs.get(0).getName());
+        Assert.assertEquals("Zone3", invs.get(1).getName());
+        Assert.assertEquals("Zone1", invs.get(2).getName());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Zone2", "Zone4")),
+                new HashSet<>(Arrays.asList(invs.get(3).getName(), invs.get(4).getName())));
+
+        // a cursor issued for one order cannot be used with another
+        APIQueryZoneMsg msg = new APIQueryZoneMsg();
+        msg.setLimit(2);
+        msg.setCursor("");
+        msg.setSortBy("name");
+        APIQueryZoneReply reply = api.query(msg, APIQueryZoneReply.class);
+        Assert.assertNotNull(reply.getNext());
+
+        msg = new APIQueryZoneMsg();
+        msg.setLimit(2);
+        msg.setCursor(reply.getNext());
+        msg.setSortBy("createDate");
+        boolean s = false;
+        try {
+            api.query(msg, APIQueryZoneReply.class);
+        } catch (ApiSenderException e) {
+            s = true;
+        }
+        Assert.assertTrue(s);
+
+        msg = new APIQueryZoneMsg();
+        msg.setReplyWithCount(true);
+        msg.setEstimateCount(true);
+        msg.addQueryCondition("name", QueryOp.EQ, "Zone1");
+        reply = api.query(msg, APIQueryZoneReply.class);
+        // a query with conditions is always counted exactly
+        Assert.assertEquals(1, reply.getTotal().longValue());
+
+        msg = new APIQueryZoneMsg();
+        msg.setReplyWithCount(true);
+        msg.setEstimateCount(true);
+        reply = api.query(msg, APIQueryZoneReply.class);
+        Assert.assertEquals(5, reply.getInventories().size());
+        Assert.assertNotNull(reply.getTotal());
+    }
+}
@@ -0,0 +1,122 @@
+package org.zstack.test.compute.zone;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.query.QueryReplyStream;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.query.QueryFacade;
+import org.zstack.test.Api;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * streaming a query gives the same inventories in the same order as querying it, chunk by chunk
+ */
+public class TestStreamQueryZone {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    QueryFacade qf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        // initialize properties
+        Platform.getUuid();
+        CoreGlobalProperty.CHECK_BOX_TYPE_IN_INVENTORY = true;
+
+        deployer = new Deployer("deployerXml/zone/TestQueryZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        qf = loader.getComponent(QueryFacade.class);
+    }
+
+    private List<List<ZoneInventory>> stream(APIQueryMessageBuilder builder) {
+        final List<List<ZoneInventory>> chunks = new ArrayList<List<ZoneInventory>>();
+        APIQueryZoneMsg msg = builder.build();
+        msg.setSession(api.getAdminSession());
+        qf.stream(msg, ZoneInventory.class, new QueryReplyStream() {
+            @Override
+            public int getChunkSize() {
+                return 2;
+            }
+
+            @Override
+            public void write(List inventories) {
+                chunks.add(inventories);
+            }
+        });
+        return chunks;
+    }
+
+    private interface APIQueryMessageBuilder {
+        APIQueryZoneMsg build();
+    }
+
+    @Test
+    public void test() {
+        APIQueryMessageBuilder sorted = new APIQueryMessageBuilder() {
+            @Override
+            public APIQueryZoneMsg build() {
+                APIQueryZoneMsg msg = new APIQueryZoneMsg();
+                msg.setSortBy("name");
+                msg.setSortDirection("asc");
+                return msg;
+            }
+        };
+
+        APIQueryZoneMsg qmsg = sorted.build();
+        qmsg.setSession(api.getAdminSession());
+        List<ZoneInventory> expected = qf.query(qmsg, ZoneInventory.class);
+        List<List<ZoneInventory>> chunks = stream(sorted);
+        Assert.assertEquals(3, chunks.size());
+        List<ZoneInventory> actual = new ArrayList<ZoneInventory>();
+        for (List<ZoneInventory> chunk : chunks) {
+            Assert.assertTrue(chunk.size() <= 2);
+            actual.addAll(chunk);
+        }
+
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getUuid(), actual.get(i).getUuid());
+            Assert.assertEquals(expected.get(i).getName(), actual.get(i).getName());
+        }
+
+        chunks = stream(new APIQueryMessageBuilder() {
+            @Override
+            public APIQueryZoneMsg build() {
+                APIQueryZoneMsg msg = new APIQueryZoneMsg();
+                msg.addField("name");
+                msg.setSortBy("name");
+                msg.setSortDirection("desc");
+                msg.setLimit(3);
+                return msg;
+            }
+        });
+        Assert.assertEquals(2, chunks.size());
+        Assert.assertEquals("Zone5", chunks.get(0).get(0).getName());
+        Assert.assertNull(chunks.get(0).get(0).getUuid());
+        Assert.assertEquals("Zone3", chunks.get(1).get(0).getName());
+
+        // nothing found is still written once
+        chunks = stream(new APIQueryMessageBuilder() {
+            @Override
+            public APIQueryZoneMsg build() {
+                APIQueryZoneMsg msg = new APIQueryZoneMsg();
+                msg.addQueryCondition("name", "=", "nonexistent");
+                return msg;
+            }
+        });
+        Assert.assertEquals(1, chunks.size());
+        Assert.assertTrue(chunks.get(0).isEmpty());
+    }
+}
@@ -0,0 +1,197 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.cloudbus.BinaryCloudBusCodec;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.header.vm.APIQueryVmInstanceReply;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmNicInventory;
+import org.zstack.header.volume.VolumeInventory;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * messages decoded by the binary codec must be the same as the ones decoded from JSON,
+ * including the polymorphic fields; the size, time and allocation of the binary codec
+ * are compared with JSON on a large query reply
+ */
+public class TestBinaryCloudBusCodec {
+    CLogger logger = Utils.getLogger(TestBinaryCloudBusCodec.class);
+
+    public static class Base {
+        private String name = "base";
+    }
+
+    public static class Child extends Base {
+        private String extra = "child";
+    }
+
+    public static class PolymorphicMsg extends NeedReplyMessage {
+        private Base base;
+        private Object payload;
+        private List<Base> list = new ArrayList<>();
+        private Map<String, Object> map = new HashMap<>();
+        private Set<String> set = new HashSet<>();
+        private VmInstanceState state;
+        private int count;
+        private double ratio;
+        private String nullByDefault = "default";
+    }
+
+    private VmInstanceInventory makeVm(int i) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        VmInstanceInventory vm = new VmInstanceInventory();
+        vm.setUuid(UUID.randomUUID().toString().replace("-", ""));
+        vm.setName(String.format("vm-%s", i));
+        vm.setZoneUuid(UUID.randomUUID().toString().replace("-", ""));
+        vm.setClusterUuid(UUID.randomUUID().toString().replace("-", ""));
+        vm.setHostUuid(UUID.randomUUID().toString().replace("-", ""));
+        vm.setImageUuid(UUID.randomUUID().toString().replace("-", ""));
+        vm.setState(VmInstanceState.Running.toString());
+        vm.setType("UserVm");
+        vm.setHypervisorType("KVM");
+        vm.setMemorySize(8589934592L);
+        vm.setCpuNum(4);
+        vm.setCreateDate(now);
+        vm.setLastOpDate(now);
+
+        List<VmNicInventory> nics = new ArrayList<>();
+        List<VolumeInventory> vols = new ArrayList<>();
+        for (int j = 0; j < 2; j++) {
+            VmNicInventory nic = new VmNicInventory();
+            nic.setUuid(UUID.randomUUID().toString().replace("-", ""));
+            nic.setVmInstanceUuid(vm.getUuid());
+            nic.setIp(String.format("192.168.%s.%s", j, i % 255));
+            nic.setMac("fa:16:3e:00:00:01");
+            nic.setNetmask("255.255.255.0");
+            nic.setGateway("192.168.0.1");
+            nic.setDeviceId(j);
+            nic.setCreateDate(now);
+            nic.setLastOpDate(now);
+            nics.add(nic);
+
+            VolumeInventory vol = new VolumeInventory();
+            vol.setUuid(UUID.randomUUID().toString().replace("-", ""));
+            vol.setName(String.format("volume-%s-%s", i, j));
+            vol.setVmInstanceUuid(vm.getUuid());
+            vol.setInstallPath(String.format("/zstack_ps/rootVolumes/acct-36c27e8ff05c4780bf6d2fa65700f22e/vol-%s/%s.qcow2", vol.getUuid(), vol.getUuid()));
+            vol.setType(j == 0 ? "Root" : "Data");
+            vol.setFormat("qcow2");
+            vol.setSize(107374182400L);
+            vol.setActualSize(1073741824L);
+            vol.setDeviceId(j);
+            vol.setState("Enabled");
+            vol.setStatus("Ready");
+            vol.setCreateDate(now);
+            vol.setLastOpDate(now);
+            vols.add(vol);
+        }
+        vm.setVmNics(nics);
+        vm.setAllVolumes(vols);
+        return vm;
+    }
+
+    private long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void test() {
+        BinaryCloudBusCodec codec = new BinaryCloudBusCodec(Arrays.<Class>asList(APIQueryVmInstanceReply.class, PolymorphicMsg.class));
+        Assert.assertTrue(codec.getName().startsWith("binary-"));
+        Assert.assertFalse(codec.getName().equals(new BinaryCloudBusCodec(Arrays.<Class>asList(PolymorphicMsg.class)).getName()));
+
+        PolymorphicMsg msg = new PolymorphicMsg();
+        msg.base = new Child();
+        msg.payload = makeVm(0).getVmNics().get(0);
+        msg.list.add(new Base());
+        msg.list.add(new Child());
+        msg.map.put("long", 1L);
+        msg.map.put("child", new Child());
+        msg.set.add("a");
+        msg.state = VmInstanceState.Stopped;
+        msg.count = -100;
+        msg.ratio = 0.5;
+        msg.nullByDefault = null;
+        msg.putHeaderEntry("task-context", new HashMap<String, String>());
+        Map<String, Object> mixed = new LinkedHashMap<>();
+        mixed.put("int", 1);
+        mixed.put("long", 2L);
+        mixed.put("double", 0.5);
+        mixed.put("string", "s");
+        mixed.put("list", Arrays.asList(3, 4L));
+        msg.putHeaderEntry("mixed", mixed);
+
+        PolymorphicMsg decoded = (PolymorphicMsg) codec.decode(codec.encode(msg));
+        Assert.assertEquals(msg.getId(), decoded.getId());
+        Assert.assertEquals(Child.class, decoded.base.getClass());
+        Assert.assertEquals(VmNicInventory.class, decoded.payload.getClass());
+        Assert.assertEquals(Child.class, decoded.list.get(1).getClass());
+        // untyped numbers are decoded as Double like Gson does
+        Assert.assertEquals(1.0, decoded.map.get("long"));
+        Assert.assertEquals(Child.class, decoded.map.get("child").getClass());
+        Assert.assertEquals(2, decoded.map.size());
+        Assert.assertTrue(decoded.set.contains("a"));
+        Assert.assertEquals(VmInstanceState.Stopped, decoded.state);
+        Assert.assertEquals(-100, decoded.count);
+        Assert.assertEquals(0.5, decoded.ratio);
+        // like Gson, a null field keeps the value given by the constructor
+        Assert.assertEquals("default", decoded.nullByDefault);
+
+        // the same header map whichever codec the nodes use
+        PolymorphicMsg fromJson = JSONObjectUtil.toObject(JSONObjectUtil.toJsonString(msg), PolymorphicMsg.class);
+        Map<String, Object> binaryMixed = decoded.getHeaderEntry("mixed");
+        Assert.assertEquals((Map) fromJson.getHeaderEntry("mixed"), binaryMixed);
+        Assert.assertEquals(Double.class, binaryMixed.get("int").getClass());
+
+        APIQueryVmInstanceReply reply = new APIQueryVmInstanceReply();
+        List<VmInstanceInventory> vms = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            vms.add(makeVm(i));
+        }
+        reply.setInventories(vms);
+
+        byte[] binary = codec.encode(reply);
+        String json = JSONObjectUtil.toJsonString(reply);
+        Message r = codec.decode(binary);
+        Assert.assertEquals(json, JSONObjectUtil.toJsonString(r));
+        Assert.assertTrue(binary.length < json.getBytes().length);
+
+        int times = 200;
+        // warm up
+        for (int i = 0; i < times; i++) {
+            codec.decode(codec.encode(reply));
+            JSONObjectUtil.toObject(JSONObjectUtil.toJsonString(reply), APIQueryVmInstanceReply.class);
+        }
+
+        long alloc = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            codec.decode(codec.encode(reply));
+        }
+        long binaryCost = (System.nanoTime() - start) / times;
+        long binaryAlloc = (allocatedBytes() - alloc) / times;
+
+        alloc = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            JSONObjectUtil.toObject(JSONObjectUtil.toJsonString(reply), APIQueryVmInstanceReply.class);
+        }
+        long jsonCost = (System.nanoTime() - start) / times;
+        long jsonAlloc = (allocatedBytes() - alloc) / times;
+
+        logger.debug(String.format("encode + decode of APIQueryVmInstanceReply with %s VMs:\n" +
+                        "binary: %s bytes, %sus/op, %s bytes allocated/op\n" +
+                        "json: %s bytes, %sus/op, %s bytes allocated/op",
+                vms.size(), binary.length, binaryCost / 1000, binaryAlloc,
+                json.getBytes().length, jsonCost / 1000, jsonAlloc));
+    }
+}
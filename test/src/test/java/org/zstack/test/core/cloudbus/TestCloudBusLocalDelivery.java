@@ -0,0 +1,143 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.CloudBusGlobalProperty;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * messages sent to a service of this management node are delivered without
+ * going through RabbitMQ when CloudBus.localDelivery is on; the replies and
+ * the timeouts must behave as the ones going through the wire
+ */
+public class TestCloudBusLocalDelivery {
+    CLogger logger = Utils.getLogger(TestCloudBusLocalDelivery.class);
+    ComponentLoader loader;
+    CloudBusIN bus;
+    Service serv;
+    Message received;
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+        private String greet;
+
+        public String getGreet() {
+            return greet;
+        }
+
+        public void setGreet(String greet) {
+            this.greet = greet;
+        }
+    }
+
+    public static class NoReplyMsg extends NeedReplyMessage {
+    }
+
+    public static class HelloWorldReply extends MessageReply {
+        private String greet;
+
+        public String getGreet() {
+            return greet;
+        }
+
+        public void setGreet(String greet) {
+            this.greet = greet;
+        }
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.deActiveService(this);
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            received = msg;
+
+            if (msg.getClass() == HelloWorldMsg.class) {
+                HelloWorldMsg hmsg = (HelloWorldMsg) msg;
+                HelloWorldReply r = new HelloWorldReply();
+                r.setGreet(hmsg.getGreet());
+                bus.reply(msg, r);
+            }
+        }
+
+        @Override
+        public String getId() {
+            return this.getClass().getCanonicalName();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        CloudBusGlobalProperty.LOCAL_DELIVERY = true;
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @After
+    public void tearDown() {
+        CloudBusGlobalProperty.LOCAL_DELIVERY = false;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        HelloWorldMsg msg = new HelloWorldMsg();
+        msg.setGreet("Hello");
+        msg.setServiceId(FakeService.class.getCanonicalName());
+        msg.setTimeout(TimeUnit.SECONDS.toMillis(10));
+        HelloWorldReply r = (HelloWorldReply) bus.call(msg);
+        Assert.assertEquals("Hello", r.getGreet());
+        // the service gets a copy, changing it doesn't change the message of the sender
+        Assert.assertNotSame(msg, received);
+        Assert.assertEquals(msg.getId(), received.getId());
+        ((HelloWorldMsg) received).setGreet("Bye");
+        Assert.assertEquals("Hello", msg.getGreet());
+
+        final MessageReply[] timeoutReply = new MessageReply[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        NoReplyMsg nmsg = new NoReplyMsg();
+        nmsg.setServiceId(FakeService.class.getCanonicalName());
+        nmsg.setTimeout(TimeUnit.SECONDS.toMillis(1));
+        bus.send(nmsg, new CloudBusCallBack(null) {
+            @Override
+            public void run(MessageReply reply) {
+                timeoutReply[0] = reply;
+                latch.countDown();
+            }
+        });
+
+        latch.await(10, TimeUnit.SECONDS);
+        serv.stop();
+        Assert.assertNotNull(timeoutReply[0]);
+        Assert.assertFalse(timeoutReply[0].isSuccess());
+        Assert.assertEquals(SysErrors.TIMEOUT.toString(), timeoutReply[0].getError().getCode());
+    }
+}
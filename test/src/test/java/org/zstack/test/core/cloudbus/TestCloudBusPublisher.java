@@ -0,0 +1,118 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBusGlobalProperty;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.cloudbus.CloudBusListCallBack;
+import org.zstack.core.cloudbus.CloudBusMXBean;
+import org.zstack.core.cloudbus.PublisherStatistic;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * with CloudBus.publisherNum set, messages are published by the publishers in batches;
+ * all of them must be delivered and counted in the publisher statistic
+ */
+public class TestCloudBusPublisher {
+    ComponentLoader loader;
+    CloudBusIN bus;
+    CountDownLatch latch = new CountDownLatch(1);
+    boolean isSuccess = false;
+    Service serv;
+    int msgNum = 500;
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            bus.activeService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.deActiveService(this);
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.getClass() == HelloWorldMsg.class) {
+                bus.reply(msg, new MessageReply());
+            }
+        }
+
+        @Override
+        public String getId() {
+            return this.getClass().getCanonicalName();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        CloudBusGlobalProperty.PUBLISHER_NUM = 4;
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @After
+    public void tearDown() {
+        CloudBusGlobalProperty.PUBLISHER_NUM = 0;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        List<HelloWorldMsg> msgs = new ArrayList<HelloWorldMsg>(msgNum);
+        for (int i = 0; i < msgNum; i++) {
+            HelloWorldMsg msg = new HelloWorldMsg();
+            msg.setServiceId(FakeService.class.getCanonicalName());
+            msg.setTimeout(TimeUnit.SECONDS.toMillis(30));
+            msgs.add(msg);
+        }
+
+        bus.send(msgs, 100, new CloudBusListCallBack(null) {
+            @Override
+            public void run(List<MessageReply> replies) {
+                isSuccess = replies.size() == msgNum;
+                for (MessageReply r : replies) {
+                    if (!r.isSuccess()) {
+                        isSuccess = false;
+                    }
+                }
+
+                latch.countDown();
+            }
+        });
+
+        latch.await(60, TimeUnit.SECONDS);
+        serv.stop();
+        Assert.assertTrue(isSuccess);
+
+        PublisherStatistic stat = ((CloudBusMXBean) bus).getPublisherStatistic();
+        Assert.assertEquals(4, stat.getPublisherNum());
+        // the messages and their replies
+        Assert.assertTrue(stat.getPublishedMessageNum() >= msgNum * 2);
+        Assert.assertTrue(stat.getBatchNum() <= stat.getPublishedMessageNum());
+        Assert.assertEquals(0, stat.getRejectedMessageNum());
+    }
+}
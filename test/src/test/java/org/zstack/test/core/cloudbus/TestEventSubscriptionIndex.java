@@ -0,0 +1,108 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.cloudbus.EventFacadeImpl;
+import org.zstack.core.cloudbus.EventSubscriptionIndex;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * the subscription index finds the same subscriptions of thousands as matching the path against
+ * every subscription, and the time of both is reported
+ */
+public class TestEventSubscriptionIndex {
+    CLogger logger = Utils.getLogger(TestEventSubscriptionIndex.class);
+    EventFacadeImpl evtf = new EventFacadeImpl();
+    int subscribers = 5000;
+    int samples = 200;
+    int rounds = 20;
+
+    private Pattern compile(String path) {
+        return Pattern.compile(evtf.createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*")));
+    }
+
+    @Test
+    public void test() {
+        String[] shapes = {
+                "/vm/state/change/%s",
+                "/host/%s/status/change/{uuid}",
+                "/primaryStorage/%s/{uuid}",
+                "/resource/%s/unlock",
+                "/globalConfig/update/%s/{name}/{nodeUuid}",
+        };
+        String[] wildcards = {"/*/event", "/?e?t/*/{name}", "/vm/state/change/*", "{any}", "/host/*"};
+
+        EventSubscriptionIndex<String> index = new EventSubscriptionIndex<String>();
+        Map<String, Pattern> all = new LinkedHashMap<String, Pattern>();
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < subscribers; i++) {
+            String sub = String.format(shapes[i % shapes.length], "r" + i);
+            all.put(sub, compile(sub));
+            paths.add(sub.replaceAll("\\{[^}]*\\}", UUID.randomUUID().toString()));
+        }
+        for (String w : wildcards) {
+            all.put(w, compile(w));
+        }
+        paths.add("/test/event/xxx");
+        paths.add("/nobody/listens");
+        paths.add("/vm/state/change");
+
+        for (Map.Entry<String, Pattern> e : all.entrySet()) {
+            index.put(e.getKey(), e.getKey(), e.getValue(), e.getKey());
+        }
+        Assert.assertEquals(all.size(), index.size());
+
+        for (String path : paths) {
+            Set<String> expected = new HashSet<String>();
+            for (Map.Entry<String, Pattern> e : all.entrySet()) {
+                if (e.getValue().matcher(path).matches()) {
+                    expected.add(e.getKey());
+                }
+            }
+
+            Assert.assertEquals(path, expected, new HashSet<String>(index.match(path)));
+        }
+
+        List<String> sample = new ArrayList<String>();
+        for (int i = 0; i < samples; i++) {
+            sample.add(paths.get(i * paths.size() / samples));
+        }
+
+        List<String> globs = new ArrayList<String>();
+        for (Pattern p : all.values()) {
+            globs.add(p.pattern());
+        }
+
+        long start = System.nanoTime();
+        for (String path : sample) {
+            // as the events were matched before
+            for (String glob : globs) {
+                path.matches(glob);
+            }
+        }
+        long scan = (System.nanoTime() - start) / sample.size();
+
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String path : sample) {
+                index.match(path);
+            }
+        }
+        long indexed = (System.nanoTime() - start) / rounds / sample.size();
+
+        logger.debug(String.format("%s subscribers, matching an event: %s us by scanning, %s us by the index",
+                all.size(), TimeUnit.NANOSECONDS.toMicros(scan), TimeUnit.NANOSECONDS.toMicros(indexed)));
+
+        // removing subscriptions prunes the index
+        for (String sub : all.keySet()) {
+            index.remove(sub);
+        }
+        Assert.assertEquals(0, index.size());
+        Assert.assertTrue(index.match("/vm/state/change/xxx").isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.header.host.PingHostMsg;
+import org.zstack.header.message.JsonSchemaBuilder;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.header.vm.StartVmInstanceMsg;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * the schema of polymorphic-only mode only contains the paths whose runtime class
+ * differs from the declared class; the per-class plans are cached after first use
+ */
+public class TestJsonSchemaBuilder {
+    CLogger logger = Utils.getLogger(TestJsonSchemaBuilder.class);
+
+    public static class Base {
+        private String name = "base";
+    }
+
+    public static class Child extends Base {
+        private String extra = "child";
+    }
+
+    public static class PolymorphicMsg extends NeedReplyMessage {
+        private Base exact = new Base();
+        private Base polymorphic = new Child();
+        private List<Base> list = new ArrayList<>();
+    }
+
+    private long measure(Object msg, int times) {
+        long start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            new JsonSchemaBuilder(msg).setPolymorphicOnly(true).build();
+        }
+        return (System.nanoTime() - start) / times;
+    }
+
+    @Test
+    public void test() {
+        PolymorphicMsg msg = new PolymorphicMsg();
+        msg.list.add(new Base());
+        msg.list.add(new Child());
+
+        int plans = JsonSchemaBuilder.getCachedPlanNum();
+        Map<String, String> full = new JsonSchemaBuilder(msg).build();
+        // plans of PolymorphicMsg, Base and Child are made by the first build
+        plans += 3;
+        Assert.assertEquals(plans, JsonSchemaBuilder.getCachedPlanNum());
+        Assert.assertEquals(4, full.size());
+        Assert.assertEquals(Base.class.getName(), full.get("exact"));
+        Assert.assertEquals(Base.class.getName(), full.get("list[0]"));
+
+        Map<String, String> polymorphic = new JsonSchemaBuilder(msg).setPolymorphicOnly(true).build();
+        // the cached plans are reused
+        Assert.assertEquals(plans, JsonSchemaBuilder.getCachedPlanNum());
+        Assert.assertEquals(2, polymorphic.size());
+        Assert.assertEquals(Child.class.getName(), polymorphic.get("polymorphic"));
+        Assert.assertEquals(Child.class.getName(), polymorphic.get("list[1]"));
+
+        StartVmInstanceMsg smsg = new StartVmInstanceMsg();
+        smsg.setVmInstanceUuid(UUID.randomUUID().toString());
+        PingHostMsg pmsg = new PingHostMsg();
+        pmsg.setHostUuid(UUID.randomUUID().toString());
+        Assert.assertTrue(new JsonSchemaBuilder(smsg).build().isEmpty());
+        Assert.assertTrue(new JsonSchemaBuilder(pmsg).build().isEmpty());
+
+        int times = 100000;
+        // warm up
+        measure(smsg, times);
+        measure(pmsg, times);
+        plans = JsonSchemaBuilder.getCachedPlanNum();
+        measure(msg, times);
+        logger.debug(String.format("schema building cost: StartVmInstanceMsg %sns/op, PingHostMsg %sns/op, PolymorphicMsg %sns/op",
+                measure(smsg, times), measure(pmsg, times), measure(msg, times)));
+        // no plan is made again however many times the schemas are built
+        Assert.assertEquals(plans, JsonSchemaBuilder.getCachedPlanNum());
+    }
+}
@@ -0,0 +1,60 @@
+package org.zstack.test.core.config;
+
+import junit.framework.Assert;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static java.util.Arrays.asList;
+
+/**
+ * global configs must be read through GlobalConfig/GlobalConfigFacade which hold the cached value,
+ * flag the production code querying GlobalConfigVO directly
+ */
+public class TestGlobalConfigVOQueryLint {
+    CLogger logger = Utils.getLogger(TestGlobalConfigVOQueryLint.class);
+
+    Pattern rawQuery = Pattern.compile("(Q|SQL)\\.New\\(\\s*GlobalConfigVO\\.class|createQuery\\(\\s*GlobalConfigVO\\.class|from\\s+GlobalConfigVO\\b");
+
+    // the facade itself
+    String facadePackage = "core/src/main/java/org/zstack/core/config/".replace("/", File.separator);
+    // creates the default quota configs at bootstrap before they are loaded in the facade
+    List<String> allowed = asList(
+            "identity/src/main/java/org/zstack/identity/AccountManagerImpl.java".replace("/", File.separator)
+    );
+
+    @Test
+    public void test() throws IOException {
+        File root = new File(System.getProperty("user.dir")).getParentFile();
+        List<String> violations = new ArrayList<String>();
+
+        Collection<File> files = FileUtils.listFiles(root, new String[]{"java"}, true);
+        for (File f : files) {
+            String path = root.toURI().relativize(f.toURI()).getPath().replace("/", File.separator);
+            if (!path.contains(File.separator + "src" + File.separator + "main" + File.separator)
+                    || path.startsWith(facadePackage) || allowed.contains(path)) {
+                continue;
+            }
+
+            List<String> lines = FileUtils.readLines(f);
+            for (int i = 0; i < lines.size(); i++) {
+                if (rawQuery.matcher(lines.get(i)).find()) {
+                    violations.add(String.format("%s:%s", path, i + 1));
+                }
+            }
+        }
+
+        for (String v : violations) {
+            logger.warn(String.format("raw GlobalConfigVO query at %s, use GlobalConfig or GlobalConfigFacade instead", v));
+        }
+        Assert.assertTrue(String.format("raw GlobalConfigVO queries found: %s", violations), violations.isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseGlobalProperty;
+import org.zstack.core.db.GLock;
+import org.zstack.core.db.LeaseLockManager;
+import org.zstack.core.db.LeaseLockVO;
+import org.zstack.core.db.LeaseLockVO_;
+import org.zstack.core.db.SQL;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * with GLock.mode = lease, threads contending for the same lock are mutually exclusive,
+ * every acquisition gets a larger fencing token and no lease is left held afterwards;
+ * a holder whose lease has been taken by others fails the fencing check
+ */
+public class TestGlobalLeaseLock {
+    CLogger logger = Utils.getLogger(TestGlobalLeaseLock.class);
+    ComponentLoader loader;
+    LeaseLockManager leaseMgr;
+    String lockName = "TestGlobalLeaseLock.lock";
+    int threadNum = 8;
+    int num = 200;
+    CountDownLatch latch = new CountDownLatch(threadNum);
+    AtomicInteger errors = new AtomicInteger();
+    int counter;
+    long lastToken;
+
+    @Before
+    public void setUp() throws Exception {
+        DatabaseGlobalProperty.GLOCK_MODE = LeaseLockManager.MODE_LEASE;
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        leaseMgr = loader.getComponent(LeaseLockManager.class);
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseGlobalProperty.GLOCK_MODE = LeaseLockManager.MODE_MYSQL;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadNum; t++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < num; i++) {
+                            GLock lock = new GLock(lockName, 30);
+                            lock.lock();
+                            try {
+                                if (lock.getFencingToken() <= lastToken) {
+                                    errors.incrementAndGet();
+                                }
+                                lastToken = lock.getFencingToken();
+                                lock.checkFencingToken();
+                                counter++;
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        logger.warn(t.getMessage(), t);
+                        errors.incrementAndGet();
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.MINUTES));
+        logger.debug(String.format("%s lease lock acquisitions from %s threads cost %sms", threadNum * num, threadNum,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+        Assert.assertEquals(0, errors.get());
+        Assert.assertEquals(threadNum * num, counter);
+        Assert.assertEquals(0, leaseMgr.getHeldLeaseNum());
+
+        testLeaseTakenByOthers();
+    }
+
+    private void testLeaseTakenByOthers() {
+        GLock lock = new GLock(lockName, 30);
+        lock.lock();
+        // as another node acquiring the expired lease while this holder pauses
+        SQL.New(LeaseLockVO.class).eq(LeaseLockVO_.name, lockName)
+                .set(LeaseLockVO_.owner, "another-holder")
+                .set(LeaseLockVO_.token, lock.getFencingToken() + 1)
+                .update();
+
+        try {
+            lock.checkFencingToken();
+            Assert.fail("the fencing check passes with a lease taken by others");
+        } catch (CloudRuntimeException e) {
+            logger.debug(e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+
+        // the release doesn't touch the lease of the new holder
+        Assert.assertEquals("another-holder", SQL.New("select l.owner from LeaseLockVO l where l.name = :name", String.class)
+                .param("name", lockName).find());
+        Assert.assertEquals(0, leaseMgr.getHeldLeaseNum());
+    }
+}
@@ -0,0 +1,108 @@
+package org.zstack.test.core.rest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.rest.HttpCallStatistic;
+import org.zstack.header.rest.JsonAsyncRESTCallback;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * asyncJsonPost through the non-blocking http client keeps the callback protocol and the http call statistics
+ */
+public class TestRestAsyncCallbackByAsyncHttpClient {
+    CLogger logger = Utils.getLogger(TestRestAsyncCallbackByAsyncHttpClient.class);
+    WebBeanConstructor wbean;
+    ComponentLoader loader;
+    RESTFacade restf;
+    int num = 20;
+
+    @Before
+    public void setUp() throws Exception {
+        CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_CLIENT = true;
+        CoreGlobalProperty.PROFILER_HTTP_CALL = true;
+        wbean = new WebBeanConstructor();
+        wbean.addXml("PortalForUnitTest.xml").addXml("AccountManager.xml");
+        loader = wbean.build();
+        restf = loader.getComponent(RESTFacade.class);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        String url = wbean.buildUrl(RESTBeanForTest.ROOT, RESTBeanForTest.CALLBACK_PATH);
+        final String hi = "hello";
+        final CountDownLatch latch = new CountDownLatch(num);
+        final AtomicInteger success = new AtomicInteger();
+        for (int i = 0; i < num; i++) {
+            restf.asyncJsonPost(url, hi, new JsonAsyncRESTCallback<String>(null) {
+                @Override
+                public void fail(ErrorCode err) {
+                    logger.error(String.format("fail: %s", err));
+                    latch.countDown();
+                }
+
+                @Override
+                public void success(String ret) {
+                    if (hi.equals(ret)) {
+                        success.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+
+                @Override
+                public Class<String> getReturnClass() {
+                    return String.class;
+                }
+            }, TimeUnit.SECONDS, 10);
+        }
+
+        latch.await(1, TimeUnit.MINUTES);
+        Assert.assertEquals(num, success.get());
+        HttpCallStatistic stat = restf.getStatistics().get(url);
+        Assert.assertEquals(num, stat.getCount());
+
+        // nothing listens on the port
+        final CountDownLatch failLatch = new CountDownLatch(1);
+        final ErrorCode[] error = new ErrorCode[1];
+        restf.asyncJsonPost("http://127.0.0.1:1/nowhere", hi, new JsonAsyncRESTCallback<String>(null) {
+            @Override
+            public void fail(ErrorCode err) {
+                error[0] = err;
+                failLatch.countDown();
+            }
+
+            @Override
+            public void success(String ret) {
+                failLatch.countDown();
+            }
+
+            @Override
+            public Class<String> getReturnClass() {
+                return String.class;
+            }
+        }, TimeUnit.SECONDS, 10);
+
+        failLatch.await(1, TimeUnit.MINUTES);
+        Assert.assertNotNull(error[0]);
+        Assert.assertEquals(SysErrors.IO_ERROR.toString(), error[0].getCode());
+    }
+
+    @After
+    public void tearDown() {
+        wbean.stopJetty();
+        CoreGlobalProperty.REST_FACADE_ASYNC_HTTP_CLIENT = false;
+        CoreGlobalProperty.PROFILER_HTTP_CALL = false;
+    }
+}
@@ -0,0 +1,137 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadGlobalProperty;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * many submitters push chain tasks of thousands of signatures at the same time,
+ * the tasks of every signature must run in the order they are submitted and never
+ * more than the sync level at once; the throughput is logged
+ */
+public class TestDispatchQueueContention {
+    CLogger logger = Utils.getLogger(TestDispatchQueueContention.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int signatureNum = 5000;
+    int tasksPerSignature = 20;
+    int submitterNum = 16;
+    int syncLevel = 1;
+    CountDownLatch latch = new CountDownLatch(signatureNum * tasksPerSignature);
+    ConcurrentHashMap<String, List<Integer>> results = new ConcurrentHashMap<String, List<Integer>>();
+    ConcurrentHashMap<String, AtomicInteger> running = new ConcurrentHashMap<String, AtomicInteger>();
+    AtomicInteger overLevel = new AtomicInteger();
+
+    class Tester extends ChainTask {
+        String signature;
+        int index;
+
+        Tester(String signature, int index) {
+            super(null);
+            this.signature = signature;
+            this.index = index;
+        }
+
+        @Override
+        public String getName() {
+            return signature;
+        }
+
+        @Override
+        public String getSyncSignature() {
+            return signature;
+        }
+
+        @Override
+        protected int getSyncLevel() {
+            return syncLevel;
+        }
+
+        @Override
+        public void run(SyncTaskChain chain) {
+            AtomicInteger r = running.get(signature);
+            if (r.incrementAndGet() > syncLevel) {
+                overLevel.incrementAndGet();
+            }
+
+            List<Integer> res = results.get(signature);
+            synchronized (res) {
+                res.add(index);
+            }
+
+            r.decrementAndGet();
+            latch.countDown();
+            chain.next();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        for (int i = 0; i < signatureNum; i++) {
+            results.put(String.valueOf(i), new ArrayList<Integer>());
+            running.put(String.valueOf(i), new AtomicInteger());
+        }
+
+        // every submitter owns a slice of signatures and submits their tasks in order,
+        // interleaving signatures to maximize the contention on the dispatch queue
+        List<Thread> submitters = new ArrayList<Thread>();
+        for (int s = 0; s < submitterNum; s++) {
+            final int slice = s;
+            submitters.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < tasksPerSignature; j++) {
+                        for (int i = slice; i < signatureNum; i += submitterNum) {
+                            thdf.chainSubmit(new Tester(String.valueOf(i), j));
+                        }
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : submitters) {
+            t.start();
+        }
+        for (Thread t : submitters) {
+            t.join();
+        }
+        long submitCost = System.nanoTime() - start;
+        Assert.assertTrue(latch.await(5, TimeUnit.MINUTES));
+        long totalCost = System.nanoTime() - start;
+
+        logger.debug(String.format("%s chain tasks of %s signatures from %s submitters with %s shards: submitted in %sms, finished in %sms",
+                signatureNum * tasksPerSignature, signatureNum, submitterNum, ThreadGlobalProperty.DISPATCH_QUEUE_SHARD_NUM,
+                TimeUnit.NANOSECONDS.toMillis(submitCost), TimeUnit.NANOSECONDS.toMillis(totalCost)));
+
+        Assert.assertEquals(0, overLevel.get());
+        for (List<Integer> res : results.values()) {
+            Assert.assertEquals(tasksPerSignature, res.size());
+            for (int i = 0; i < tasksPerSignature; i++) {
+                Assert.assertEquals(i, (int) res.get(i));
+            }
+        }
+    }
+}
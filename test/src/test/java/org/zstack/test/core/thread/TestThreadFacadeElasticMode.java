@@ -0,0 +1,76 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.apache.logging.log4j.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl;
+import org.zstack.core.thread.ThreadGlobalProperty;
+import org.zstack.test.BeanConstructor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * in elastic mode, tasks blocking more than ThreadFacade.maxThreadNum threads don't
+ * starve the others, and the thread context is still passed to the tasks
+ */
+public class TestThreadFacadeElasticMode {
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int taskNum = 300;
+    CountDownLatch started = new CountDownLatch(taskNum);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger contextLost = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        ThreadGlobalProperty.EXECUTION_MODE = ThreadFacadeImpl.EXECUTION_MODE_ELASTIC;
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    @After
+    public void tearDown() {
+        ThreadGlobalProperty.EXECUTION_MODE = ThreadFacadeImpl.EXECUTION_MODE_POOL;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        Assert.assertTrue(taskNum > ThreadGlobalProperty.MAX_THREAD_NUM);
+
+        for (int i = 0; i < taskNum; i++) {
+            final String api = String.valueOf(i);
+            ThreadContext.put("api", api);
+            thdf.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return "blocking-task";
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    if (!api.equals(ThreadContext.get("api"))) {
+                        contextLost.incrementAndGet();
+                    }
+
+                    started.countDown();
+                    release.await(1, TimeUnit.MINUTES);
+                    return null;
+                }
+            });
+        }
+        ThreadContext.clearMap();
+
+        // all tasks block at the same time, more than the fixed pool could run
+        Assert.assertTrue(started.await(30, TimeUnit.SECONDS));
+        release.countDown();
+        Assert.assertEquals(0, contextLost.get());
+    }
+}
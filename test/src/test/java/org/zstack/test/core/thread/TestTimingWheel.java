@@ -0,0 +1,84 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.core.thread.TimingWheel;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * timeouts fire no earlier than the delay and at most a tick late, cancelled ones
+ * never fire; the cost of schedule + cancel is logged
+ */
+public class TestTimingWheel {
+    CLogger logger = Utils.getLogger(TestTimingWheel.class);
+
+    @Test
+    public void test() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        TimingWheel wheel = new TimingWheel("test-timing-wheel", 20, TimeUnit.MILLISECONDS, 64, executor);
+
+        // delays longer than a round of the wheel (20ms * 64) are covered too
+        final long[] delays = {0, 50, 300, 2000};
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final AtomicInteger early = new AtomicInteger();
+        final AtomicLong maxLate = new AtomicLong();
+        for (final long delay : delays) {
+            final long start = System.nanoTime();
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    if (cost < delay) {
+                        early.incrementAndGet();
+                    }
+                    maxLate.set(Math.max(maxLate.get(), cost - delay));
+                    latch.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        final AtomicInteger fired = new AtomicInteger();
+        Runnable shouldNotRun = new Runnable() {
+            @Override
+            public void run() {
+                fired.incrementAndGet();
+            }
+        };
+
+        int num = 200000;
+        List<TimeoutTaskReceipt> receipts = new ArrayList<TimeoutTaskReceipt>(num);
+        long start = System.nanoTime();
+        for (int i = 0; i < num; i++) {
+            receipts.add(wheel.schedule(shouldNotRun, 100 + i % 1000, TimeUnit.MILLISECONDS));
+        }
+        for (TimeoutTaskReceipt r : receipts) {
+            Assert.assertTrue(r.cancel());
+        }
+        long cost = (System.nanoTime() - start) / num;
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        TimeUnit.SECONDS.sleep(2);
+        logger.debug(String.format("schedule + cancel cost %sns/op, the max latency of expired timeouts is %sms", cost, maxLate.get()));
+
+        Assert.assertEquals(0, early.get());
+        Assert.assertEquals(0, fired.get());
+        Assert.assertFalse(receipts.get(0).cancel());
+        Assert.assertEquals(0, wheel.getPendingTimeoutNum());
+        Assert.assertEquals(num, wheel.getCancelledTimeoutNum());
+        Assert.assertEquals(delays.length, wheel.getExpiredTimeoutNum());
+
+        wheel.stop();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,101 @@
+package org.zstack.test.identity;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.identity.AccountConstant.StatementEffect;
+import org.zstack.header.identity.PolicyInventory.Statement;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.identity.UserInventory;
+import org.zstack.header.vm.*;
+import org.zstack.identity.IdentityGlobalConfig;
+import org.zstack.test.*;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * permissions decided by the cached policies follow the changes of policies, groups and users
+ */
+public class TestPolicyDecisionCache {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new WebBeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    private Statement statement(String name, StatementEffect effect, Class... apis) {
+        Statement s = new Statement();
+        s.setName(name);
+        s.setEffect(effect);
+        for (Class api : apis) {
+            s.addAction(String.format("%s:%s", VmInstanceConstant.ACTION_CATEGORY, api.getName()));
+        }
+        return s;
+    }
+
+    private void check(SessionInventory session, List<String> apiNames, StatementEffect... expected) throws ApiSenderException {
+        // twice, the second is decided by the cached policies
+        for (int i = 0; i < 2; i++) {
+            Map<String, String> ret = api.checkUserPolicy(apiNames, null, session);
+            for (int j = 0; j < apiNames.size(); j++) {
+                Assert.assertEquals(apiNames.get(j), expected[j].toString(), ret.get(apiNames.get(j)));
+            }
+        }
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        IdentityCreator creator = new IdentityCreator(api);
+        creator.createAccount("test", "test");
+        UserInventory user = creator.createUser("user", "password");
+        SessionInventory session = creator.userLogin(user.getName(), "password");
+
+        List<String> apiNames = list(APIStartVmInstanceMsg.class.getName(), APIStopVmInstanceMsg.class.getName());
+        check(session, apiNames, StatementEffect.Deny, StatementEffect.Deny);
+
+        creator.createPolicy("allow", statement("allow", StatementEffect.Allow, APIStartVmInstanceMsg.class));
+        creator.attachPolicyToUser("user", "allow");
+        check(session, apiNames, StatementEffect.Allow, StatementEffect.Deny);
+
+        creator.createGroup("group");
+        creator.createPolicy("group-allow", statement("group-allow", StatementEffect.Allow, APIStopVmInstanceMsg.class));
+        creator.attachPolicyToGroup("group", "group-allow");
+        check(session, apiNames, StatementEffect.Allow, StatementEffect.Deny);
+
+        creator.addUserToGroup("user", "group");
+        check(session, apiNames, StatementEffect.Allow, StatementEffect.Allow);
+
+        // user policies come before group policies
+        creator.createPolicy("deny", statement("deny", StatementEffect.Deny, APIStopVmInstanceMsg.class));
+        creator.attachPolicyToUser("user", "deny");
+        check(session, apiNames, StatementEffect.Allow, StatementEffect.Deny);
+
+        creator.detachPolicyFromUser("user", "deny");
+        check(session, apiNames, StatementEffect.Allow, StatementEffect.Allow);
+
+        creator.removeUserFromGroup("user", "group");
+        check(session, apiNames, StatementEffect.Allow, StatementEffect.Deny);
+
+        creator.deletePolicy("allow");
+        check(session, apiNames, StatementEffect.Deny, StatementEffect.Deny);
+
+        // the same decisions without the cache
+        IdentityGlobalConfig.POLICY_CACHE_SIZE.updateValue(0);
+        check(session, apiNames, StatementEffect.Deny, StatementEffect.Deny);
+        creator.addUserToGroup("user", "group");
+        check(session, apiNames, StatementEffect.Deny, StatementEffect.Allow);
+    }
+}
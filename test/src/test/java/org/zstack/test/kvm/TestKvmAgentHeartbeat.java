@@ -0,0 +1,128 @@
+package org.zstack.test.kvm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.compute.host.HostTracker;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.rest.RESTConstant;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.kvm.KVMAgentCommands.ConnectCmd;
+import org.zstack.kvm.KVMAgentCommands.HostHeartbeatCmd;
+import org.zstack.kvm.KVMAgentCommands.PingCmd;
+import org.zstack.kvm.KVMConstant;
+import org.zstack.kvm.KVMGlobalConfig;
+import org.zstack.simulator.kvm.KVMSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.e;
+import static org.zstack.utils.CollectionDSL.map;
+
+/**
+ * 1. enable agent heartbeats and reconnect the host
+ * 2. post heartbeats of the host
+ * <p>
+ * confirm the agent is told the heartbeat interval
+ * confirm the agent of the host is not pinged while heartbeats are fresh
+ * confirm the ping tasks of the host, e.g. vm sync, still run in their own interval
+ * 3. stop posting heartbeats, report the host from another address
+ * <p>
+ * confirm the host is pinged again
+ */
+public class TestKvmAgentHeartbeat {
+    CLogger logger = Utils.getLogger(TestKvmAgentHeartbeat.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    KVMSimulatorConfig config;
+    RESTFacade restf;
+    HostTracker hostTracker;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestKvmAgentRestart.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        loader = deployer.getComponentLoader();
+        config = loader.getComponent(KVMSimulatorConfig.class);
+        restf = loader.getComponent(RESTFacade.class);
+        hostTracker = loader.getComponent(HostTracker.class);
+        deployer.build();
+        api = deployer.getApi();
+    }
+
+    private int pingCount(String hostUuid) {
+        int count = 0;
+        synchronized (config.pingCmds) {
+            for (PingCmd cmd : config.pingCmds) {
+                if (hostUuid.equals(cmd.hostUuid)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void test() throws InterruptedException, ApiSenderException {
+        HostInventory host = deployer.hosts.get("host1");
+        HostGlobalConfig.AGENT_HEARTBEAT.updateValue(true);
+        HostGlobalConfig.AGENT_HEARTBEAT_INTERVAL.updateValue(2);
+        KVMGlobalConfig.VM_SYNC_ON_HOST_PING.updateValue(true);
+        HostGlobalConfig.ALIVE_HOST_TASK_INTERVAL.updateValue(2);
+        config.connectCmds.clear();
+        api.reconnectHost(host.getUuid());
+        ConnectCmd ccmd = config.connectCmds.get(0);
+        Assert.assertEquals(Integer.valueOf(2), ccmd.getHeartbeatInterval());
+
+        UriComponentsBuilder ub = UriComponentsBuilder.fromHttpUrl(restf.getBaseUrl());
+        ub.path(RESTConstant.COMMAND_CHANNEL_PATH);
+        String url = ub.build().toUriString();
+        Map<String, String> header = map(e(RESTConstant.COMMAND_PATH, KVMConstant.KVM_HOST_HEARTBEAT));
+        HostHeartbeatCmd cmd = new HostHeartbeatCmd();
+        cmd.hostUuids = Arrays.asList(host.getUuid());
+        String body = JSONObjectUtil.toJsonString(cmd);
+
+        restf.syncJsonPost(url, body, header, String.class);
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(1);
+        // let the ping in progress finish
+        TimeUnit.SECONDS.sleep(1);
+        synchronized (config.pingCmds) {
+            config.pingCmds.clear();
+        }
+        synchronized (config) {
+            config.vmSyncCmds.clear();
+        }
+
+        for (int i = 0; i < 5; i++) {
+            restf.syncJsonPost(url, body, header, String.class);
+            TimeUnit.SECONDS.sleep(1);
+        }
+        Assert.assertEquals(0, pingCount(host.getUuid()));
+        synchronized (config) {
+            Assert.assertFalse(config.vmSyncCmds.isEmpty());
+        }
+
+        // stale after 3 heartbeat intervals, the reports from other addresses are ignored
+        for (int i = 0; i < 8; i++) {
+            hostTracker.reportHeartbeat(Arrays.asList(host.getUuid()), "192.168.254.254");
+            TimeUnit.SECONDS.sleep(1);
+        }
+        Assert.assertTrue(pingCount(host.getUuid()) > 0);
+    }
+}
@@ -0,0 +1,142 @@
+package org.zstack.test.kvm;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.image.ImageVO;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.header.vm.VmInstanceVO_;
+import org.zstack.kvm.KVMAgentCommands.BatchCommand;
+import org.zstack.kvm.KVMConstant;
+import org.zstack.kvm.KVMGlobalProperty;
+import org.zstack.simulator.kvm.KVMSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.DBUtil;
+import org.zstack.test.VmCreator;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * creates VMs concurrently with the agent commands sent one by one and in batches,
+ * the start VM commands to a host are coalesced when batching is on
+ */
+public class TestKvmBatchAgentCommand {
+    CLogger logger = Utils.getLogger(TestKvmBatchAgentCommand.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    KVMSimulatorConfig kconfig;
+    int total = 100;
+    int concurrency = 50;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestKvm100VmBalancedToMultiHost.xml", con);
+        deployer.addSpringConfig("flatNetworkProvider.xml");
+        deployer.addSpringConfig("flatNetworkServiceSimulator.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        kconfig = loader.getComponent(KVMSimulatorConfig.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        session = api.loginAsAdmin();
+    }
+
+    private long createVms(String prefix) throws InterruptedException {
+        L3NetworkInventory l3 = deployer.l3Networks.get("TestL3Network1");
+        ImageInventory img = deployer.images.get("TestImage");
+        InstanceOfferingInventory ioinv = deployer.instanceOfferings.get("512M1Core");
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch latch = new CountDownLatch(total);
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < total; i++) {
+            final String name = prefix + i;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        VmCreator creator = new VmCreator(api);
+                        creator.addL3Network(l3.getUuid());
+                        creator.imageUuid = img.getUuid();
+                        creator.instanceOfferingUuid = ioinv.getUuid();
+                        creator.name = name;
+                        creator.timeout = (int) TimeUnit.MINUTES.toSeconds(10);
+                        creator.create();
+                    } catch (Exception e) {
+                        logger.warn(String.format("failed to create vm[%s]", name), e);
+                        failures.incrementAndGet();
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.MINUTES));
+        pool.shutdown();
+        Assert.assertEquals(0, failures.get());
+        return System.currentTimeMillis() - start;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        CoreGlobalProperty.VM_TRACER_ON = false;
+        ImageVO imgvo = dbf.findByUuid(deployer.images.get("TestImage").getUuid(), ImageVO.class);
+        imgvo.setSize(1);
+        dbf.update(imgvo);
+
+        long oneByOne = createVms("vm-");
+        Assert.assertTrue(kconfig.batchCommands.isEmpty());
+
+        KVMGlobalProperty.BATCH_COMMAND = true;
+        long batched = createVms("batched-vm-");
+        Assert.assertFalse(kconfig.batchCommands.isEmpty());
+
+        boolean startVmBatched = false;
+        synchronized (kconfig.batchCommands) {
+            for (BatchCommand cmd : kconfig.batchCommands) {
+                Assert.assertTrue(cmd.commands.size() > 1);
+                Assert.assertTrue(cmd.commands.size() <= KVMGlobalProperty.BATCH_COMMAND_MAX_SIZE);
+                startVmBatched = startVmBatched || cmd.path.endsWith(KVMConstant.KVM_START_VM_PATH);
+            }
+        }
+        Assert.assertTrue(startVmBatched);
+
+        long running = Q.New(VmInstanceVO.class).eq(VmInstanceVO_.state, VmInstanceState.Running).count();
+        Assert.assertEquals(total * 2, running);
+
+        logger.debug(String.format("created %s vms in %sms with agent commands sent one by one, in %sms in %s batches",
+                total, oneByOne, batched, kconfig.batchCommands.size()));
+    }
+
+    @After
+    public void tearDown() {
+        KVMGlobalProperty.BATCH_COMMAND = false;
+    }
+}
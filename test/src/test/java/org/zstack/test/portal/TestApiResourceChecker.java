@@ -0,0 +1,75 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.zone.ZoneEO;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneStateEvent;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.portal.apimediator.ApiResourceChecker;
+import org.zstack.test.*;
+
+import java.util.*;
+
+/**
+ * resources referred by API messages are resolved in batches,
+ * a soft deleted resource is not found by the following messages
+ */
+public class TestApiResourceChecker {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    ApiResourceChecker checker;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new WebBeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        checker = loader.getComponent(ApiResourceChecker.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        List<ZoneInventory> zones = api.createZones(2);
+        ZoneInventory zone1 = zones.get(0);
+        ZoneInventory zone2 = zones.get(1);
+        String nonexistent = Platform.getUuid();
+
+        Map<Class, Set<String>> refs = new HashMap<>();
+        refs.put(ZoneVO.class, new HashSet<>(Arrays.asList(zone1.getUuid(), zone2.getUuid(), nonexistent)));
+        Set<String> found = checker.findExisting(refs).get(ZoneVO.class);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(zone1.getUuid(), zone2.getUuid())), found);
+
+        // resolved again, the cache is disabled by default
+        found = checker.findExisting(refs).get(ZoneVO.class);
+        Assert.assertEquals(2, found.size());
+
+        api.changeZoneState(zone1.getUuid(), ZoneStateEvent.disable);
+        api.deleteZone(zone1.getUuid());
+        // the zone is soft deleted, it's left in ZoneEO
+        Assert.assertNotNull(dbf.findByUuid(zone1.getUuid(), ZoneEO.class));
+
+        found = checker.findExisting(refs).get(ZoneVO.class);
+        Assert.assertEquals(new HashSet<>(Collections.singletonList(zone2.getUuid())), found);
+
+        boolean s = false;
+        try {
+            api.changeZoneState(zone1.getUuid(), ZoneStateEvent.enable);
+        } catch (ApiSenderException e) {
+            Assert.assertEquals(SysErrors.RESOURCE_NOT_FOUND.toString(), e.getError().getCode());
+            s = true;
+        }
+        Assert.assertTrue(s);
+
+        api.changeZoneState(zone2.getUuid(), ZoneStateEvent.disable);
+    }
+}
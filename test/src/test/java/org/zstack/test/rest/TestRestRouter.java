@@ -0,0 +1,137 @@
+package org.zstack.test.rest;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+import org.zstack.header.rest.RestRequest;
+import org.zstack.rest.RestConstants;
+import org.zstack.rest.RestRouter;
+import org.zstack.utils.BeanUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * the trie router resolves the paths of all rest APIs to the same patterns as matching them one by one
+ * with AntPathMatcher, and the time of both is reported
+ */
+public class TestRestRouter {
+    CLogger logger = Utils.getLogger(TestRestRouter.class);
+    static final Pattern VAR = Pattern.compile("\\{(.+?)\\}");
+    int rounds = 200;
+
+    private String normalize(String path) {
+        Matcher m = VAR.matcher(path);
+        StringBuffer sb = new StringBuffer();
+        int i = 0;
+        while (m.find()) {
+            m.appendReplacement(sb, String.format("{%s}", i++));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private String instantiate(String path) {
+        Matcher m = VAR.matcher(path);
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            m.appendReplacement(sb, UUID.randomUUID().toString().replace("-", ""));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    @Test
+    public void test() {
+        Set<String> patterns = new LinkedHashSet<String>();
+        for (Class<?> clz : BeanUtils.reflections.getTypesAnnotatedWith(RestRequest.class)) {
+            RestRequest at = clz.getAnnotation(RestRequest.class);
+            if (at == null) {
+                continue;
+            }
+
+            if (!"null".equals(at.path())) {
+                patterns.add(normalize(RestConstants.API_VERSION + at.path()));
+            }
+            for (String p : at.optionalPaths()) {
+                patterns.add(normalize(RestConstants.API_VERSION + p));
+            }
+        }
+        Assert.assertFalse(patterns.isEmpty());
+
+        RestRouter<String> router = new RestRouter<String>();
+        for (String p : patterns) {
+            router.add(p, p);
+        }
+        Assert.assertEquals(patterns.size(), router.size());
+
+        List<String> paths = new ArrayList<String>();
+        for (String p : patterns) {
+            paths.add(instantiate(p));
+        }
+
+        AntPathMatcher matcher = new AntPathMatcher();
+        for (String path : paths) {
+            RestRouter.Match<String> m = router.match(path);
+            Assert.assertNotNull(path, m);
+            Assert.assertTrue(matcher.match(m.getRoute(), path));
+
+            Map<String, String> vars = matcher.extractUriTemplateVariables(m.getRoute(), path);
+            Assert.assertEquals(vars.size(), m.getVariables().size());
+            for (int i = 0; i < vars.size(); i++) {
+                Assert.assertEquals(vars.get(String.valueOf(i)), m.getVariables().get(i));
+            }
+        }
+
+        // a literal segment is preferred over a variable one
+        RestRouter<String> r = new RestRouter<String>();
+        r.add("/v1/zones/{uuid}", "get");
+        r.add("/v1/zones/actions", "actions");
+        r.add("/v1/zones/{uuid}/actions", "action");
+        Assert.assertEquals("actions", r.match("/v1/zones/actions").getRoute());
+        Assert.assertEquals("get", r.match("/v1/zones/abc").getRoute());
+        Assert.assertEquals(Collections.singletonList("actions"), r.match("/v1/zones/actions/actions").getVariables());
+        Assert.assertNull(r.match("/v1/zones"));
+        Assert.assertNull(r.match("/v1/zones/abc/"));
+        Assert.assertNull(r.match("/v1/zones/abc/actions/more"));
+
+        long trie = 0;
+        long linear = 0;
+        for (int i = 0; i < rounds; i++) {
+            long s = System.nanoTime();
+            for (String path : paths) {
+                RestRouter.Match<String> m = router.match(path);
+                m.getVariables();
+            }
+            trie += System.nanoTime() - s;
+
+            // how RestServer resolved a path before: an exact lookup, then a scan of all patterns,
+            // then parsing the path again for the variables
+            s = System.nanoTime();
+            for (String path : paths) {
+                String found = patterns.contains(path) ? path : null;
+                if (found == null) {
+                    for (String p : patterns) {
+                        if (matcher.match(p, path)) {
+                            found = p;
+                            break;
+                        }
+                    }
+                }
+                matcher.extractUriTemplateVariables(found, path);
+            }
+            linear += System.nanoTime() - s;
+        }
+
+        long total = (long) rounds * paths.size();
+        logger.info(String.format("resolved %s paths of %s rest API patterns %s times: trie %s ns/request," +
+                        " AntPathMatcher scan %s ns/request", paths.size(), patterns.size(), rounds,
+                trie / total, linear / total));
+        logger.info(String.format("trie total %s ms, AntPathMatcher scan total %s ms",
+                TimeUnit.NANOSECONDS.toMillis(trie), TimeUnit.NANOSECONDS.toMillis(linear)));
+    }
+}
@@ -0,0 +1,114 @@
+package org.zstack.test.search;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.cluster.ClusterVO;
+import org.zstack.header.query.QueryOp;
+import org.zstack.header.zone.APIQueryZoneMsg;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.query.MysqlQueryBuilderImpl3;
+import org.zstack.query.QueryFacade;
+import org.zstack.query.QueryPlanCacheStatistic;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.List;
+
+/**
+ * queries of the same shape are planned once whatever the values are, and the planning time
+ * is reported apart from the execution time; values of tag conditions, written in the plans,
+ * are part of the shape, including those of nested tag conditions
+ */
+public class TestQueryPlanCache {
+    CLogger logger = Utils.getLogger(TestQueryPlanCache.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    QueryFacade qf;
+    MysqlQueryBuilderImpl3 builder;
+    int num = 500;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        // initialize properties
+        Platform.getUuid();
+        CoreGlobalProperty.CHECK_BOX_TYPE_IN_INVENTORY = true;
+
+        deployer = new Deployer("deployerXml/zone/TestQueryZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        qf = loader.getComponent(QueryFacade.class);
+        builder = loader.getComponent(MysqlQueryBuilderImpl3.class);
+    }
+
+    private List<ZoneInventory> query(String name) {
+        APIQueryZoneMsg msg = new APIQueryZoneMsg();
+        msg.addQueryCondition("name", QueryOp.EQ, name);
+        msg.addQueryCondition("state", QueryOp.IN, "Enabled", "Disabled");
+        msg.setSortBy("createDate");
+        msg.setSession(api.getAdminSession());
+        return qf.query(msg, ZoneInventory.class);
+    }
+
+    private List<ZoneInventory> queryByClusterTag(String tag) {
+        APIQueryZoneMsg msg = new APIQueryZoneMsg();
+        msg.addQueryCondition("cluster.__userTag__", QueryOp.EQ, tag);
+        msg.setSession(api.getAdminSession());
+        return qf.query(msg, ZoneInventory.class);
+    }
+
+    @Test
+    public void testNestedTagConditions() throws ApiSenderException {
+        ZoneInventory zone1 = deployer.zones.get("Zone1");
+        ZoneInventory zone2 = deployer.zones.get("Zone2");
+        ClusterInventory cluster1 = api.createClusters(1, zone1.getUuid()).get(0);
+        ClusterInventory cluster2 = api.createClusters(1, zone2.getUuid()).get(0);
+        api.createUserTag(cluster1.getUuid(), "cluster1", ClusterVO.class);
+        api.createUserTag(cluster2.getUuid(), "cluster2", ClusterVO.class);
+
+        List<ZoneInventory> invs = queryByClusterTag("cluster1");
+        Assert.assertEquals(1, invs.size());
+        Assert.assertEquals(zone1.getUuid(), invs.get(0).getUuid());
+
+        invs = queryByClusterTag("cluster2");
+        Assert.assertEquals(1, invs.size());
+        Assert.assertEquals(zone2.getUuid(), invs.get(0).getUuid());
+    }
+
+    @Test
+    public void test() {
+        QueryPlanCacheStatistic before = builder.getQueryPlanCacheStatistic();
+        for (int i = 0; i < num; i++) {
+            String name = String.format("Zone%s", i % 5 + 1);
+            List<ZoneInventory> invs = query(name);
+            Assert.assertEquals(1, invs.size());
+            Assert.assertEquals(name, invs.get(0).getName());
+        }
+        QueryPlanCacheStatistic after = builder.getQueryPlanCacheStatistic();
+
+        Assert.assertEquals(1, after.getMisses() - before.getMisses());
+        Assert.assertEquals(num - 1, after.getHits() - before.getHits());
+
+        // a different shape is planned again
+        APIQueryZoneMsg msg = new APIQueryZoneMsg();
+        msg.addQueryCondition("name", QueryOp.NOT_NULL);
+        msg.setSession(api.getAdminSession());
+        Assert.assertEquals(5, qf.query(msg, ZoneInventory.class).size());
+        Assert.assertEquals(after.getMisses() + 1, builder.getQueryPlanCacheStatistic().getMisses());
+
+        logger.debug(String.format("%s queries of the same shape: planning %s us, executing %s us",
+                num, after.getPlanTimeInMicros() - before.getPlanTimeInMicros(),
+                after.getExecutionTimeInMicros() - before.getExecutionTimeInMicros()));
+    }
+}
@@ -0,0 +1,82 @@
+package org.zstack.test.tag;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.tag.TagDefinition;
+import org.zstack.header.tag.TagInventory;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.tag.PatternedSystemTag;
+import org.zstack.tag.SystemTag;
+import org.zstack.tag.TagManager;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+
+/**
+ * reads of system tags served by the cache follow every create, update and delete
+ */
+public class TestSystemTagCache {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    TagManager tagMgr;
+
+    @TagDefinition
+    public static class TestSystemTags {
+        public static SystemTag big = new SystemTag("big", ZoneVO.class);
+        public static PatternedSystemTag size = new PatternedSystemTag("size::{size}", ZoneVO.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/tag/TestUserTag.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        tagMgr = loader.getComponent(TagManager.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        ZoneInventory zone1 = deployer.zones.get("Zone1");
+        String uuid = zone1.getUuid();
+
+        // cache the zone without tags
+        tagMgr.prefetchSystemTags(asList(uuid));
+        Assert.assertFalse(TestSystemTags.big.hasTag(uuid));
+        Assert.assertNull(TestSystemTags.size.getTokenByResourceUuid(uuid, "size"));
+
+        api.createSystemTag(uuid, "big", ZoneVO.class);
+        TagInventory size = api.createSystemTag(uuid, "size::10", ZoneVO.class);
+        Assert.assertTrue(TestSystemTags.big.hasTag(uuid));
+        Assert.assertTrue(tagMgr.hasSystemTag(uuid, "big"));
+        Assert.assertEquals("10", TestSystemTags.size.getTokenByResourceUuid(uuid, "size"));
+
+        api.updateSystemTag(size.getUuid(), "size::20", null);
+        Assert.assertEquals("20", TestSystemTags.size.getTokenByResourceUuid(uuid, "size"));
+        Map<String, List<String>> tags = TestSystemTags.size.getTags(asList(uuid));
+        Assert.assertEquals(asList("size::20"), tags.get(uuid));
+
+        api.deleteTag(size.getUuid());
+        Assert.assertNull(TestSystemTags.size.getTokenByResourceUuid(uuid, "size"));
+        Assert.assertTrue(TestSystemTags.big.hasTag(uuid));
+
+        // tags are deleted with the zone
+        api.deleteZone(uuid);
+        Assert.assertFalse(TestSystemTags.big.hasTag(uuid));
+        Assert.assertTrue(tagMgr.findSystemTags(uuid).isEmpty());
+    }
+}